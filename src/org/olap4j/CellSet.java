@@ -193,6 +193,81 @@ public interface CellSet extends ResultSet, OlapWrapper {
      */
     int coordinatesToOrdinal(List<Integer> coordinates);
 
+    /**
+     * Returns the Cell at a given set of coordinates, supplied as an array.
+     *
+     * <p>Equivalent to {@link #getCell(java.util.List)}, but does not require
+     * the caller to box each coordinate. The array is not retained, so the
+     * caller may re-use it between calls.
+     *
+     * @param coordinates Array of 0-based coordinates of the cell
+     *
+     * @return Cell
+     *
+     * @throws IllegalArgumentException if coordinates does not have the same
+     * number of elements as the cell set has axes
+     *
+     * @throws IndexOutOfBoundsException if coordinates are outside CellSet
+     * bounds
+     */
+    Cell getCell(int[] coordinates);
+
+    /**
+     * Converts an array of cell coordinates to a cell ordinal.
+     *
+     * @param coordinates Cell coordinates
+     * @return Cell ordinal
+     *
+     * @see #coordinatesToOrdinal(java.util.List)
+     */
+    int coordinatesToOrdinal(int[] coordinates);
+
+    /**
+     * Converts a cell ordinal to cell coordinates, writing them into an
+     * array supplied by the caller.
+     *
+     * @param ordinal Cell ordinal
+     * @param coordinates Array to receive the coordinates; must have at
+     *   least as many elements as the cell set has axes
+     *
+     * @see #ordinalToCoordinates(int)
+     */
+    void ordinalToCoordinates(int ordinal, int[] coordinates);
+
+    /**
+     * Copies the numeric values of a range of cells into an array.
+     *
+     * <p>Copies the cells whose ordinals are <code>ordinal</code> through
+     * <code>ordinal + count - 1</code>. The value of cell
+     * <code>ordinal + i</code> is written to
+     * <code>values[offset + i]</code>, and
+     * <code>nulls[offset + i]</code> is set to whether the cell is null
+     * (in which case the value written is 0). No {@link Cell} objects are
+     * created.
+     *
+     * <p>The value of each cell is as would be returned by
+     * {@link Cell#getDoubleValue()}.
+     *
+     * @param ordinal Ordinal of first cell
+     * @param count Number of cells
+     * @param values Array to receive cell values
+     * @param nulls Array to receive null flags
+     * @param offset Offset in <code>values</code> and <code>nulls</code> of
+     *   the first cell
+     *
+     * @throws IndexOutOfBoundsException if the range of ordinals lies outside
+     * CellSet bounds, or the arrays are too small
+     *
+     * @throws OlapException if a cell value cannot be converted to a double
+     */
+    void getDoubleValues(
+        int ordinal,
+        int count,
+        double[] values,
+        boolean[] nulls,
+        int offset)
+        throws OlapException;
+
 }
 
 // End CellSet.java
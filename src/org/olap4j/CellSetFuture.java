@@ -0,0 +1,58 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Result of executing an OLAP statement asynchronously.
+ *
+ * <p>A <code>CellSetFuture</code> is created by
+ * {@link OlapStatement#executeOlapQueryAsync(String)}. The caller can wait
+ * for the {@link CellSet} by calling {@link #get()}, but more usually
+ * registers a listener using {@link #addListener(Runnable, Executor)} and
+ * lets the calling thread get on with other work.
+ *
+ * <p>If the query fails, {@link #get()} throws an
+ * {@link java.util.concurrent.ExecutionException} whose cause is an
+ * {@link OlapException}.
+ *
+ * <p>Canceling the future cancels the statement, as if
+ * {@link OlapStatement#cancel()} had been called.
+ *
+ * @author agent
+ */
+public interface CellSetFuture extends Future<CellSet> {
+    /**
+     * Registers a listener to be run when the query completes, fails or is
+     * canceled. If the query has already completed, the listener is run
+     * immediately.
+     *
+     * <p>The listener is run by handing it to <code>executor</code>. An
+     * executor that runs tasks in the calling thread is appropriate for
+     * listeners that do little work, such as completing another kind of
+     * future.
+     *
+     * @param listener Listener
+     * @param executor Executor in which to run the listener
+     */
+    void addListener(Runnable listener, Executor executor);
+}
+
+// End CellSetFuture.java
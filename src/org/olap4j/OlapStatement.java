@@ -72,6 +72,44 @@ public interface OlapStatement extends Statement, OlapWrapper {
      */
     CellSet executeOlapQuery(SelectNode selectNode) throws OlapException;
 
+    /**
+     * Executes an OLAP statement asynchronously.
+     *
+     * <p>Returns immediately. The request is sent to the server, and the
+     * response parsed into a {@link CellSet}, by threads owned by the
+     * driver; the caller is notified via the returned future.
+     *
+     * <p>As with {@link #executeOlapQuery(String)}, executing a statement
+     * closes the cell set previously opened by this statement.
+     * Canceling the future is equivalent to calling {@link #cancel()}.
+     *
+     * @param mdx MDX <code>SELECT</code> statement
+     *
+     * @return Future cell set
+     *
+     * @throws OlapException if a database access error occurs before the
+     * request is sent, or this method is called on a closed
+     * <code>OlapStatement</code>; errors that occur later are reported via
+     * the future
+     */
+    CellSetFuture executeOlapQueryAsync(String mdx) throws OlapException;
+
+    /**
+     * Executes an OLAP statement expressed as a parse tree asynchronously.
+     *
+     * @see #executeOlapQueryAsync(String)
+     *
+     * @param selectNode Parse tree of MDX <code>SELECT</code> statement
+     *
+     * @return Future cell set
+     *
+     * @throws OlapException if a database access error occurs before the
+     * request is sent, or this method is called on a closed
+     * <code>OlapStatement</code>
+     */
+    CellSetFuture executeOlapQueryAsync(SelectNode selectNode)
+        throws OlapException;
+
     /**
      * Adds a listener to be notified of events to {@link CellSet}s created by
      * this statement.
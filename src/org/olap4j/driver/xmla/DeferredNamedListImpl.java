@@ -23,6 +23,7 @@ import org.olap4j.impl.NamedListImpl;
 import org.olap4j.metadata.NamedList;
 
 import java.util.AbstractList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
 
@@ -49,7 +50,7 @@ class DeferredNamedListImpl<T extends Named>
     implements NamedList<T>
 {
     private final NamedList<T> list = new NamedListImpl<T>();
-    private State state = State.NEW;
+    private volatile State state = State.NEW;
 
     protected final XmlaOlap4jConnection.MetadataRequest metadataRequest;
     protected final XmlaOlap4jConnection.Context context;
@@ -78,6 +79,37 @@ class DeferredNamedListImpl<T extends Named>
         list.clear();
     }
 
+    /**
+     * Returns whether the list has been populated.
+     *
+     * @return Whether populated
+     */
+    boolean isPopulated() {
+        return state == State.POPULATED;
+    }
+
+    /**
+     * Populates the list with elements that were fetched by other means,
+     * typically as part of a request that fetched the elements of several
+     * lists, unless it is already populated.
+     *
+     * @param elements Elements
+     * @return Whether the list was populated
+     */
+    boolean populate(List<T> elements) {
+        semaphore.acquireUninterruptibly();
+        try {
+            if (state != State.NEW) {
+                return false;
+            }
+            list.addAll(elements);
+            state = State.POPULATED;
+            return true;
+        } finally {
+            semaphore.release();
+        }
+    }
+
     private NamedList<T> getList() {
         try {
             semaphore.acquire();
@@ -90,6 +122,9 @@ class DeferredNamedListImpl<T extends Named>
                     populateList(list);
                     state = State.POPULATED;
                 } catch (Exception e) {
+                    // Discard any elements added before the failure, so
+                    // that the next attempt does not add them again.
+                    list.clear();
                     state = State.NEW;
                     // TODO: fetch metadata on getCollection() method, so we
                     // can't get an exception while traversing the list
@@ -80,6 +80,25 @@ interface MetadataReader {
         String memberUniqueName,
         List<XmlaOlap4jMember> list) throws OlapException;
 
+    /**
+     * Adds the ancestors of a member to a list, parent first.
+     *
+     * <p>Unlike {@link #lookupMemberRelatives} with
+     * {@link Member.TreeOp#ANCESTORS}, does not need to look up the member
+     * itself.
+     *
+     * <p>Not part of public olap4j API.
+     *
+     * @param member Member
+     *
+     * @param list list to be populated with the ancestors of the member
+     *
+     * @throws org.olap4j.OlapException if error occurs
+     */
+    void lookupAncestors(
+        XmlaOlap4jMember member,
+        List<XmlaOlap4jMember> list) throws OlapException;
+
     /**
      * Looks up members of a given level.
      *
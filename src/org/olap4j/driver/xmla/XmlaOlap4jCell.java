@@ -18,7 +18,6 @@
 package org.olap4j.driver.xmla;
 
 import org.olap4j.*;
-import org.olap4j.impl.UnmodifiableArrayMap;
 import org.olap4j.metadata.Property;
 
 import java.sql.ResultSet;
@@ -39,6 +38,20 @@ class XmlaOlap4jCell implements Cell {
     private final String formattedValue;
     private final Map<Property, Object> propertyValues;
 
+    /**
+     * Creates an XmlaOlap4jCell.
+     *
+     * <p>Cells are created on demand by {@link XmlaOlap4jCellSet#getCell},
+     * from values held in its {@link XmlaOlap4jCellStore}, so they are
+     * cheap to create and are not retained.
+     *
+     * @param cellSet Cell set
+     * @param ordinal Ordinal
+     * @param value Value
+     * @param formattedValue Formatted value
+     * @param propertyValues Property values; not copied, so must be
+     *     immutable
+     */
     XmlaOlap4jCell(
         XmlaOlap4jCellSet cellSet,
         int ordinal,
@@ -50,10 +63,7 @@ class XmlaOlap4jCell implements Cell {
         this.ordinal = ordinal;
         this.value = value;
         this.formattedValue = formattedValue;
-
-        // Use an ArrayMap for memory efficiency, because cells
-        // typically have few properties, but there are a lot of cells
-        this.propertyValues = UnmodifiableArrayMap.of(propertyValues);
+        this.propertyValues = propertyValues;
     }
 
     public CellSet getCellSet() {
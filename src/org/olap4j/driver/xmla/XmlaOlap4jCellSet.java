@@ -28,6 +28,7 @@ import org.xml.sax.SAXException;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URL;
 import java.sql.*;
 import java.sql.Date;
@@ -87,8 +88,7 @@ abstract class XmlaOlap4jCellSet implements CellSet {
     final XmlaOlap4jStatement olap4jStatement;
     protected boolean closed;
     private XmlaOlap4jCellSetMetaData metaData;
-    private final Map<Integer, Cell> cellMap =
-        new HashMap<Integer, Cell>();
+    private XmlaOlap4jCellStore cellStore = new XmlaOlap4jCellStore();
     private final List<XmlaOlap4jCellSetAxis> axisList =
         new ArrayList<XmlaOlap4jCellSetAxis>();
     private final List<CellSetAxis> immutableAxisList =
@@ -128,11 +128,341 @@ abstract class XmlaOlap4jCellSet implements CellSet {
      * @throws OlapException on error
      */
     void populate() throws OlapException {
-        byte[] bytes = olap4jStatement.getBytes();
+        final InputStream stream = olap4jStatement.getStream(this);
+        try {
+            if (olap4jStatement.olap4jConnection.domParser) {
+                final byte[] bytes;
+                try {
+                    final ByteArrayOutputStream baos =
+                        new ByteArrayOutputStream();
+                    final byte[] buf = new byte[8192];
+                    int count;
+                    while ((count = stream.read(buf)) >= 0) {
+                        baos.write(buf, 0, count);
+                    }
+                    bytes = baos.toByteArray();
+                } catch (IOException e) {
+                    throw olap4jStatement.createStreamException(
+                        "error creating CellSet", e);
+                }
+                populateDom(bytes);
+            } else {
+                populateSax(stream);
+            }
+        } finally {
+            olap4jStatement.closeStream(stream);
+        }
+    }
+
+    /**
+     * Populates cell set axes and cells from a snapshot of a cell set that
+     * was populated earlier. Does not send a request. The cell set shares
+     * the snapshot's metadata, positions and cells, which are immutable.
+     *
+     * @param snapshot Snapshot
+     */
+    void populate(Snapshot snapshot) {
+        this.metaData = snapshot.metaData;
+        this.cellStore = snapshot.cellStore;
+        for (int i = 0; i < snapshot.axes.length; i++) {
+            final XmlaOlap4jCellSetAxis cellSetAxis =
+                new XmlaOlap4jCellSetAxis(
+                    this, snapshot.axes[i], snapshot.positionLists.get(i));
+            if (snapshot.axes[i].isFilter()) {
+                filterAxis = cellSetAxis;
+            } else {
+                axisList.add(cellSetAxis);
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of this cell set, from which other cell sets can be
+     * populated. Must be called after this cell set has been populated.
+     *
+     * @return Snapshot
+     */
+    Snapshot snapshot() {
+        final List<XmlaOlap4jCellSetAxis> axes =
+            new ArrayList<XmlaOlap4jCellSetAxis>(axisList);
+        axes.add(filterAxis);
+        return new Snapshot(metaData, cellStore, axes);
+    }
+
+    /**
+     * Populates cell set axes and cells by streaming the XMLA response
+     * through a SAX handler. Unlike {@link #populateDom(byte[])}, does not
+     * hold the response, or a DOM of it, in memory; parsing starts as soon
+     * as the first bytes arrive.
+     *
+     * @param stream XMLA response
+     * @throws OlapException on error
+     */
+    private void populateSax(InputStream stream) throws OlapException {
+        final Map<Property, Object> propertyValues =
+            new HashMap<Property, Object>();
+        final XmlaOlap4jCellSetSaxHandler handler =
+            new XmlaOlap4jCellSetSaxHandler() {
+                void handleOlapInfo(
+                    String cubeName,
+                    List<AxisInfo> axisInfos,
+                    List<String[]> cellInfos)
+                    throws OlapException
+                {
+                    if (olap4jStatement
+                        instanceof XmlaOlap4jPreparedStatement)
+                    {
+                        metaData =
+                            ((XmlaOlap4jPreparedStatement) olap4jStatement)
+                                .cellSetMetaData;
+                    } else {
+                        metaData =
+                            createMetaData(cubeName, axisInfos, cellInfos);
+                    }
+                }
+
+                void handleAxes(List<AxisData> axes) throws OlapException {
+                    populateAxes(axes);
+                }
+
+                void handleCell(
+                    int ordinal,
+                    String valueType,
+                    Map<String, String> children)
+                    throws OlapException
+                {
+                    propertyValues.clear();
+                    final Object value =
+                        valueType == null
+                            ? null
+                            : getTypedValue(
+                                valueType, children.get(VALUE_TAG));
+                    final String formattedValue = children.get("FmtValue");
+                    for (Map.Entry<String, String> entry
+                        : children.entrySet())
+                    {
+                        final Property property =
+                            metaData.propertiesByTag.get(entry.getKey());
+                        if (property != null) {
+                            propertyValues.put(property, entry.getValue());
+                        }
+                    }
+                    cellStore.add(
+                        ordinal, value, formattedValue, propertyValues);
+                }
+            };
+        parse(olap4jStatement, stream, handler);
+        if (metaData == null) {
+            throw getHelper().createException(
+                "error creating CellSet: response contains no OlapInfo");
+        }
+        createDefaultFilterAxis();
+        cellStore.freeze(maxOrdinal());
+    }
 
+    /**
+     * Parses an XMLA response, sending events to a SAX handler. If the
+     * response is a SOAP fault, throws an exception that describes the
+     * fault.
+     *
+     * @param statement Statement that sent the request
+     * @param stream XMLA response
+     * @param handler Handler
+     * @throws OlapException on error, or if the response is a SOAP fault
+     */
+    static void parse(
+        XmlaOlap4jStatement statement,
+        InputStream stream,
+        XmlaOlap4jCellSetSaxHandler handler)
+        throws OlapException
+    {
+        final XmlaHelper helper = statement.olap4jConnection.helper;
+        final RecordingInputStream in = new RecordingInputStream(stream);
+        try {
+            XmlaOlap4jUtil.parse(in, handler);
+        } catch (XmlaOlap4jCellSetSaxHandler.FaultException e) {
+            // The response is a SOAP fault. Faults are small, so re-parse
+            // using the DOM, which generates a detailed error.
+            final byte[] bytes;
+            try {
+                bytes = in.readAll();
+            } catch (IOException e2) {
+                throw statement.createStreamException(
+                    "error creating CellSet", e2);
+            }
+            if (bytes == null) {
+                throw helper.createException("XMLA provider gave exception");
+            }
+            final Element fault;
+            try {
+                final Element body =
+                    findChild(
+                        XmlaOlap4jUtil.parse(bytes).getDocumentElement(),
+                        SOAP_NS, "Body");
+                fault = findChild(body, SOAP_NS, "Fault");
+            } catch (IOException e2) {
+                throw helper.createException("error creating CellSet", e2);
+            } catch (SAXException e2) {
+                throw helper.createException("error creating CellSet", e2);
+            }
+            throw createFaultException(helper, fault);
+        } catch (IOException e) {
+            throw statement.createStreamException(
+                "error creating CellSet", e);
+        } catch (SAXException e) {
+            if (e.getException() instanceof OlapException) {
+                throw (OlapException) e.getException();
+            }
+            if (e.getException() instanceof IOException) {
+                throw statement.createStreamException(
+                    "error creating CellSet", e);
+            }
+            throw helper.createException("error creating CellSet", e);
+        }
+    }
+
+    /**
+     * Creates an exception describing a SOAP fault.
+     *
+     * @param helper Error helper
+     * @param fault Fault element, or null if the fault could not be found
+     * @return Exception
+     */
+    private static OlapException createFaultException(
+        XmlaHelper helper,
+        Element fault)
+    {
+        // <SOAP-ENV:Fault>
+        //     <faultcode>SOAP-ENV:Client.00HSBC01</faultcode>
+        //     <faultstring>XMLA connection datasource not
+        //                  found</faultstring>
+        //     <faultactor>Mondrian</faultactor>
+        //     <detail>
+        //         <XA:error xmlns:XA="http://mondrian.sourceforge.net">
+        //             <code>00HSBC01</code>
+        //             <desc>The Mondrian XML: Mondrian Error:Internal
+        //                 error: no catalog named 'LOCALDB'</desc>
+        //         </XA:error>
+        //     </detail>
+        // </SOAP-ENV:Fault>
+        //
+        // TODO: log doc to logfile
+        if (fault == null) {
+            return helper.createException("XMLA provider gave exception");
+        }
+        return helper.createException(
+            "XMLA provider gave exception: "
+            + XmlaOlap4jUtil.prettyPrint(fault));
+    }
+
+    /**
+     * Creates the axes of this cell set, and their positions, from axes read
+     * by the SAX handler.
+     *
+     * @param axes Axes read from the XMLA response
+     * @throws OlapException on error
+     */
+    private void populateAxes(
+        List<XmlaOlap4jCellSetSaxHandler.AxisData> axes)
+        throws OlapException
+    {
+        if (metaData == null) {
+            throw getHelper().createException(
+                "error creating CellSet: Axes precede OlapInfo");
+        }
+
+        // Fetch all members on all axes. Hopefully it can all be done in one
+        // round trip, or they are in cache already.
+        final MetadataReader metadataReader =
+            metaData.cube.getMetadataReader();
+        final Map<String, XmlaOlap4jMember> memberMap =
+            new HashMap<String, XmlaOlap4jMember>();
+        List<String> uniqueNames = new ArrayList<String>();
+        for (XmlaOlap4jCellSetSaxHandler.AxisData axisData : axes) {
+            for (List<XmlaOlap4jCellSetSaxHandler.MemberData> tuple
+                : axisData.tuples)
+            {
+                for (XmlaOlap4jCellSetSaxHandler.MemberData memberData
+                    : tuple)
+                {
+                    uniqueNames.add(memberData.children.get("UName"));
+                }
+            }
+        }
+        metadataReader.lookupMembersByUniqueName(uniqueNames, memberMap);
+
+        final Map<Property, Object> propertyValues =
+            new HashMap<Property, Object>();
+        for (XmlaOlap4jCellSetSaxHandler.AxisData axisData : axes) {
+            final Axis axis = lookupAxis(axisData.name);
+            final ArrayList<Position> positions = new ArrayList<Position>();
+            final XmlaOlap4jCellSetAxis cellSetAxis =
+                new XmlaOlap4jCellSetAxis(
+                    this, axis, Collections.unmodifiableList(positions));
+            if (axis.isFilter()) {
+                filterAxis = cellSetAxis;
+            } else {
+                axisList.add(cellSetAxis);
+            }
+            final XmlaOlap4jCellSetAxisMetaData axisMetaData =
+                (XmlaOlap4jCellSetAxisMetaData) cellSetAxis.getAxisMetaData();
+            for (List<XmlaOlap4jCellSetSaxHandler.MemberData> tuple
+                : axisData.tuples)
+            {
+                final List<Member> members = new ArrayList<Member>();
+                for (XmlaOlap4jCellSetSaxHandler.MemberData memberData
+                    : tuple)
+                {
+                    final String hierarchyName = memberData.hierarchyName;
+                    final String uname = memberData.children.get("UName");
+                    XmlaOlap4jMemberBase member = memberMap.get(uname);
+                    if (member == null) {
+                        final String caption =
+                            memberData.children.get("Caption");
+                        final int lnum =
+                            Integer.valueOf(memberData.children.get("LNum"));
+                        final Hierarchy hierarchy =
+                            lookupHierarchy(metaData.cube, hierarchyName);
+                        final Level level = hierarchy.getLevels().get(lnum);
+                        member = new XmlaOlap4jSurpriseMember(
+                            this, level, hierarchy, lnum, caption, uname);
+                    }
+                    propertyValues.clear();
+                    for (Map.Entry<String, String> entry
+                        : memberData.children.entrySet())
+                    {
+                        XmlaOlap4jCellSetMemberProperty property =
+                            axisMetaData.lookupProperty(
+                                hierarchyName, entry.getKey());
+                        if (property != null) {
+                            propertyValues.put(property, entry.getValue());
+                        }
+                    }
+                    if (!propertyValues.isEmpty()) {
+                        member =
+                            new XmlaOlap4jPositionMember(
+                                member, propertyValues);
+                    }
+                    members.add(member);
+                }
+                positions.add(
+                    new XmlaOlap4jPosition(
+                        members, positions.size()));
+            }
+        }
+    }
+
+    /**
+     * Populates cell set axes and cells by parsing the XMLA response into a
+     * DOM.
+     *
+     * @param bytes XMLA response
+     * @throws OlapException on error
+     */
+    private void populateDom(byte[] bytes) throws OlapException {
         Document doc;
         try {
-            doc = parse(bytes);
+            doc = XmlaOlap4jUtil.parse(bytes);
         } catch (IOException e) {
             throw getHelper().createException(
                 "error creating CellSet", e);
@@ -163,24 +493,7 @@ abstract class XmlaOlap4jCellSet implements CellSet {
         Element fault =
             findChild(body, SOAP_NS, "Fault");
         if (fault != null) {
-            // <SOAP-ENV:Fault>
-            //     <faultcode>SOAP-ENV:Client.00HSBC01</faultcode>
-            //     <faultstring>XMLA connection datasource not
-            //                  found</faultstring>
-            //     <faultactor>Mondrian</faultactor>
-            //     <detail>
-            //         <XA:error xmlns:XA="http://mondrian.sourceforge.net">
-            //             <code>00HSBC01</code>
-            //             <desc>The Mondrian XML: Mondrian Error:Internal
-            //                 error: no catalog named 'LOCALDB'</desc>
-            //         </XA:error>
-            //     </detail>
-            // </SOAP-ENV:Fault>
-            //
-            // TODO: log doc to logfile
-            throw getHelper().createException(
-                "XMLA provider gave exception: "
-                + XmlaOlap4jUtil.prettyPrint(fault));
+            throw createFaultException(getHelper(), fault);
         }
         Element executeResponse =
             findChild(body, XMLA_NS, "ExecuteResponse");
@@ -324,21 +637,7 @@ abstract class XmlaOlap4jCellSet implements CellSet {
             }
         }
 
-        // If XMLA did not return a filter axis, it means that there was no
-        // WHERE. This is equivalent to a slicer axis with one tuple that has
-        // zero positions. (Versions of Mondrian before 3.4 do, in fact, return
-        // a slicer axis with one empty position. This CellSet should behave the
-        // same.)
-        if (filterAxis == null) {
-            filterAxis =
-                new XmlaOlap4jCellSetAxis(
-                    this,
-                    Axis.FILTER,
-                    Collections.<Position>singletonList(
-                        new XmlaOlap4jPosition(
-                            Collections.<Member>emptyList(),
-                            0)));
-        }
+        createDefaultFilterAxis();
 
         final Element cellDataNode = findChild(root, MDDATASET_NS, "CellData");
         for (Element cell : findChildren(cellDataNode, MDDATASET_NS, "Cell")) {
@@ -357,15 +656,10 @@ abstract class XmlaOlap4jCellSet implements CellSet {
                     propertyValues.put(property, element.getTextContent());
                 }
             }
-            cellMap.put(
-                cellOrdinal,
-                new XmlaOlap4jCell(
-                    this,
-                    cellOrdinal,
-                    value,
-                    formattedValue,
-                    propertyValues));
+            cellStore.add(
+                cellOrdinal, value, formattedValue, propertyValues);
         }
+        cellStore.freeze(maxOrdinal());
     }
 
     /**
@@ -393,41 +687,53 @@ abstract class XmlaOlap4jCellSet implements CellSet {
         }
 
         // The object type is contained in xsi:type attribute.
-        String type = elm.getAttribute("xsi:type");
-        XsdTypes xsdType =  XsdTypes.fromString(elm.getAttribute("xsi:type"));
+        return getTypedValue(
+            elm.getAttribute("xsi:type"),
+            XmlaOlap4jUtil.stringElement(cell, VALUE_TAG));
+    }
+
+    /**
+     * Converts the text of a cell value to the Java object type corresponding
+     * to its XML schema (XSD) type.
+     *
+     * @param type XSD type, for example "xsd:double"
+     * @param value Text of value
+     * @return The object with a correct value.
+     * @throws OlapException if any error is encountered while casting the cell
+     * value
+     */
+    private Object getTypedValue(String type, String value)
+        throws OlapException
+    {
+        XsdTypes xsdType = XsdTypes.fromString(type);
 
         try {
             switch (xsdType) {
             case XSD_BOOLEAN:
-                return XmlaOlap4jUtil.booleanElement(cell, VALUE_TAG);
+                return "true".equals(value);
             case XSD_INT:
-                return XmlaOlap4jUtil.intElement(cell, VALUE_TAG);
+            case XSD_UNSIGNEDSHORT:
+                return Integer.valueOf(value);
             case XSD_INTEGER:
-                return XmlaOlap4jUtil.bigIntegerElement(cell, VALUE_TAG);
-            case XSD_DOUBLE:
-                return XmlaOlap4jUtil.doubleElement(cell, VALUE_TAG);
             case XSD_POSITIVEINTEGER:
-                return XmlaOlap4jUtil.bigIntegerElement(cell, VALUE_TAG);
+                return new BigInteger(value);
+            case XSD_DOUBLE:
+                return Double.valueOf(value);
             case XSD_DECIMAL:
-                return XmlaOlap4jUtil.bigDecimalElement(cell, VALUE_TAG);
+            case XSD_UNSIGNEDLONG:
+                return new BigDecimal(value);
             case XSD_SHORT:
-                return XmlaOlap4jUtil.shortElement(cell, VALUE_TAG);
+            case XSD_UNSIGNEDBYTE:
+                return Short.valueOf(value);
             case XSD_FLOAT:
-                return XmlaOlap4jUtil.floatElement(cell, VALUE_TAG);
+                return Float.valueOf(value);
             case XSD_LONG:
-                return XmlaOlap4jUtil.longElement(cell, VALUE_TAG);
-            case XSD_BYTE:
-                return XmlaOlap4jUtil.byteElement(cell, VALUE_TAG);
-            case XSD_UNSIGNEDBYTE:
-                return XmlaOlap4jUtil.shortElement(cell, VALUE_TAG);
-            case XSD_UNSIGNEDSHORT:
-                return XmlaOlap4jUtil.intElement(cell, VALUE_TAG);
-            case XSD_UNSIGNEDLONG:
-                return XmlaOlap4jUtil.bigDecimalElement(cell, VALUE_TAG);
             case XSD_UNSIGNEDINT:
-                return XmlaOlap4jUtil.longElement(cell, VALUE_TAG);
+                return Long.valueOf(value);
+            case XSD_BYTE:
+                return Byte.valueOf(value);
             default:
-                return XmlaOlap4jUtil.stringElement(cell, VALUE_TAG);
+                return value;
             }
         } catch (Exception e) {
             throw getHelper().createException(
@@ -457,6 +763,62 @@ abstract class XmlaOlap4jCellSet implements CellSet {
             findChild(cubeNode, MDDATASET_NS, "CubeName");
         final String cubeName = gatherText(cubeNameNode);
 
+        final Element axesInfo =
+            findChild(olapInfo, MDDATASET_NS, "AxesInfo");
+        final List<XmlaOlap4jCellSetSaxHandler.AxisInfo> axisInfos =
+            new ArrayList<XmlaOlap4jCellSetSaxHandler.AxisInfo>();
+        for (Element axisInfoNode
+            : findChildren(axesInfo, MDDATASET_NS, "AxisInfo"))
+        {
+            final XmlaOlap4jCellSetSaxHandler.AxisInfo axisInfo =
+                new XmlaOlap4jCellSetSaxHandler.AxisInfo(
+                    axisInfoNode.getAttribute("name"));
+            axisInfos.add(axisInfo);
+            for (Element hierarchyInfoNode
+                : findChildren(axisInfoNode, MDDATASET_NS, "HierarchyInfo"))
+            {
+                final XmlaOlap4jCellSetSaxHandler.HierarchyInfo hierarchyInfo =
+                    new XmlaOlap4jCellSetSaxHandler.HierarchyInfo(
+                        hierarchyInfoNode.getAttribute("name"));
+                axisInfo.hierarchyInfos.add(hierarchyInfo);
+                for (Element childNode : childElements(hierarchyInfoNode)) {
+                    hierarchyInfo.properties.add(
+                        new String[] {
+                            childNode.getLocalName(),
+                            childNode.getAttribute("name")
+                        });
+                }
+            }
+        }
+        final Element cellInfo =
+            findChild(olapInfo, MDDATASET_NS, "CellInfo");
+        final List<String[]> cellInfos = new ArrayList<String[]>();
+        for (Element element : childElements(cellInfo)) {
+            cellInfos.add(
+                new String[] {
+                    element.getLocalName(),
+                    element.getAttribute("name")
+                });
+        }
+        return createMetaData(cubeName, axisInfos, cellInfos);
+    }
+
+    /**
+     * Creates metadata for a cell set, given the contents of the OlapInfo
+     * element of the XMLA result.
+     *
+     * @param cubeName Name of cube
+     * @param axisInfos Description of each axis
+     * @param cellInfos Cell properties; each entry is a pair {tag, name}
+     * @return Metadata describing this cell set
+     * @throws OlapException on error
+     */
+    private XmlaOlap4jCellSetMetaData createMetaData(
+        String cubeName,
+        List<XmlaOlap4jCellSetSaxHandler.AxisInfo> axisInfos,
+        List<String[]> cellInfos)
+        throws OlapException
+    {
         XmlaOlap4jCube cube =
             lookupCube(
                 olap4jStatement.olap4jConnection.olap4jDatabaseMetaData,
@@ -465,18 +827,11 @@ abstract class XmlaOlap4jCellSet implements CellSet {
             throw getHelper().createException(
                 "Internal error: cube '" + cubeName + "' not found");
         }
-        final Element axesInfo =
-            findChild(olapInfo, MDDATASET_NS, "AxesInfo");
-        final List<Element> axisInfos =
-            findChildren(axesInfo, MDDATASET_NS, "AxisInfo");
         final List<CellSetAxisMetaData> axisMetaDataList =
             new ArrayList<CellSetAxisMetaData>();
         XmlaOlap4jCellSetAxisMetaData filterAxisMetaData = null;
-        for (Element axisInfo : axisInfos) {
-            final String axisName = axisInfo.getAttribute("name");
-            Axis axis = lookupAxis(axisName);
-            final List<Element> hierarchyInfos =
-                findChildren(axisInfo, MDDATASET_NS, "HierarchyInfo");
+        for (XmlaOlap4jCellSetSaxHandler.AxisInfo axisInfo : axisInfos) {
+            Axis axis = lookupAxis(axisInfo.name);
             final List<Hierarchy> hierarchyList =
                 new ArrayList<Hierarchy>();
             // <OlapInfo>
@@ -500,17 +855,18 @@ abstract class XmlaOlap4jCellSet implements CellSet {
             // </OlapInfo>
             final List<XmlaOlap4jCellSetMemberProperty> propertyList =
                 new ArrayList<XmlaOlap4jCellSetMemberProperty>();
-            for (Element hierarchyInfo : hierarchyInfos) {
-                final String hierarchyName = hierarchyInfo.getAttribute("name");
-                Hierarchy hierarchy = lookupHierarchy(cube, hierarchyName);
+            for (XmlaOlap4jCellSetSaxHandler.HierarchyInfo hierarchyInfo
+                : axisInfo.hierarchyInfos)
+            {
+                Hierarchy hierarchy =
+                    lookupHierarchy(cube, hierarchyInfo.name);
                 hierarchyList.add(hierarchy);
-                for (Element childNode : childElements(hierarchyInfo)) {
-                    String tag = childNode.getLocalName();
+                for (String[] pair : hierarchyInfo.properties) {
+                    String tag = pair[0];
                     if (standardProperties.contains(tag)) {
                         continue;
                     }
-                    final String propertyUniqueName =
-                        childNode.getAttribute("name");
+                    final String propertyUniqueName = pair[1];
                     final XmlaOlap4jCellSetMemberProperty property =
                         new XmlaOlap4jCellSetMemberProperty(
                             propertyUniqueName,
@@ -539,15 +895,11 @@ abstract class XmlaOlap4jCellSet implements CellSet {
                     Collections.<Hierarchy>emptyList(),
                     Collections.<XmlaOlap4jCellSetMemberProperty>emptyList());
         }
-        final Element cellInfo =
-            findChild(olapInfo, MDDATASET_NS, "CellInfo");
         List<XmlaOlap4jCellProperty> cellProperties =
             new ArrayList<XmlaOlap4jCellProperty>();
-        for (Element element : childElements(cellInfo)) {
+        for (String[] pair : cellInfos) {
             cellProperties.add(
-                new XmlaOlap4jCellProperty(
-                    element.getLocalName(),
-                    element.getAttribute("name")));
+                new XmlaOlap4jCellProperty(pair[0], pair[1]));
         }
         return
             new XmlaOlap4jCellSetMetaData(
@@ -558,6 +910,27 @@ abstract class XmlaOlap4jCellSet implements CellSet {
                 cellProperties);
     }
 
+    /**
+     * Creates a filter axis, if XMLA did not return one.
+     */
+    private void createDefaultFilterAxis() {
+        // If XMLA did not return a filter axis, it means that there was no
+        // WHERE. This is equivalent to a slicer axis with one tuple that has
+        // zero positions. (Versions of Mondrian before 3.4 do, in fact, return
+        // a slicer axis with one empty position. This CellSet should behave the
+        // same.)
+        if (filterAxis == null) {
+            filterAxis =
+                new XmlaOlap4jCellSetAxis(
+                    this,
+                    Axis.FILTER,
+                    Collections.<Position>singletonList(
+                        new XmlaOlap4jPosition(
+                            Collections.<Member>emptyList(),
+                            0)));
+        }
+    }
+
     /**
      * Looks up a cube with a given name within the current database,
      * catalog and schema bound to the source connection.
@@ -648,13 +1021,47 @@ abstract class XmlaOlap4jCellSet implements CellSet {
             throw new IllegalArgumentException(
                 "cell coordinates should have dimension " + getAxes().size());
         }
-        List<Integer> coords = new ArrayList<Integer>(positions.length);
-        for (Position position : positions) {
-            coords.add(position.getOrdinal());
+        final int[] coords = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            coords[i] = positions[i].getOrdinal();
         }
         return getCell(coords);
     }
 
+    public Cell getCell(int[] coordinates) {
+        return getCellInternal(coordinatesToOrdinal(coordinates));
+    }
+
+    public void getDoubleValues(
+        int ordinal,
+        int count,
+        double[] values,
+        boolean[] nulls,
+        int offset)
+        throws OlapException
+    {
+        if (ordinal < 0 || count < 0 || ordinal + count > maxOrdinal()) {
+            throw new IndexOutOfBoundsException(
+                "Cell ordinals " + ordinal + " to " + (ordinal + count)
+                + " lie outside CellSet bounds ("
+                + getBoundsAsString() + ")");
+        }
+        if (offset < 0
+            || offset + count > values.length
+            || offset + count > nulls.length)
+        {
+            throw new IndexOutOfBoundsException(
+                "Arrays too small for " + count + " cells at offset "
+                + offset);
+        }
+        try {
+            cellStore.copyDoubles(ordinal, count, values, nulls, offset);
+        } catch (NumberFormatException e) {
+            throw getHelper().createException(
+                "Cell value is not numeric", e);
+        }
+    }
+
     /**
      * Returns a cell given its ordinal.
      *
@@ -663,8 +1070,8 @@ abstract class XmlaOlap4jCellSet implements CellSet {
      * @throws IndexOutOfBoundsException if ordinal is not in range
      */
     private Cell getCellInternal(int pos) {
-        final Cell cell = cellMap.get(pos);
-        if (cell == null) {
+        final int i = cellStore.indexOf(pos);
+        if (i < 0) {
             if (pos < 0 || pos >= maxOrdinal()) {
                 throw new IndexOutOfBoundsException();
             } else {
@@ -675,7 +1082,12 @@ abstract class XmlaOlap4jCellSet implements CellSet {
                     Collections.<Property, Object>emptyMap());
             }
         }
-        return cell;
+        return new XmlaOlap4jCell(
+            this,
+            pos,
+            cellStore.getValue(i),
+            cellStore.getFormattedValue(i),
+            cellStore.getPropertyValues(i));
     }
 
     /**
@@ -736,6 +1148,45 @@ abstract class XmlaOlap4jCellSet implements CellSet {
         return list;
     }
 
+    public void ordinalToCoordinates(int ordinal, int[] coordinates) {
+        int modulo = 1;
+        for (int k = 0; k < axisList.size(); k++) {
+            final int prevModulo = modulo;
+            modulo *= axisList.get(k).getPositionCount();
+            coordinates[k] = (ordinal % modulo) / prevModulo;
+        }
+        if (ordinal < 0 || ordinal >= modulo) {
+            throw new IndexOutOfBoundsException(
+                "Cell ordinal " + ordinal
+                + ") lies outside CellSet bounds ("
+                + getBoundsAsString() + ")");
+        }
+    }
+
+    public int coordinatesToOrdinal(int[] coordinates) {
+        if (coordinates.length != axisList.size()) {
+            throw new IllegalArgumentException(
+                "Coordinates have different dimension " + coordinates.length
+                + " than axes " + axisList.size());
+        }
+        int modulo = 1;
+        int ordinal = 0;
+        for (int k = 0; k < coordinates.length; k++) {
+            final int coordinate = coordinates[k];
+            final int positionCount = axisList.get(k).getPositionCount();
+            if (coordinate < 0 || coordinate >= positionCount) {
+                throw new IndexOutOfBoundsException(
+                    "Coordinate " + coordinate
+                    + " of axis " + k
+                    + " is out of range ("
+                    + getBoundsAsString() + ")");
+            }
+            ordinal += coordinate * modulo;
+            modulo *= positionCount;
+        }
+        return ordinal;
+    }
+
     public int coordinatesToOrdinal(List<Integer> coordinates) {
         List<CellSetAxis> axes = getAxes();
         if (coordinates.size() != axes.size()) {
@@ -1587,6 +2038,118 @@ abstract class XmlaOlap4jCellSet implements CellSet {
             return true;
         }
     }
+
+    /**
+     * Stream that remembers the first bytes read from it, so that a short
+     * response, such as a SOAP fault, can be parsed a second time.
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+        private static final int LIMIT = 1 << 16;
+
+        /** Bytes read so far; null if more than {@link #LIMIT} bytes have
+         * been read. */
+        private ByteArrayOutputStream recording =
+            new ByteArrayOutputStream(1024);
+
+        RecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c >= 0 && recording != null) {
+                recording.write(c);
+                checkLimit();
+            }
+            return c;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0 && recording != null) {
+                recording.write(b, off, n);
+                checkLimit();
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            recording = null;
+            return super.skip(n);
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        public void close() {
+            // The parser closes its input when it finishes, even on error.
+            // Keep the underlying stream open, so that readAll can read the
+            // rest of a fault; the statement will close it.
+        }
+
+        private void checkLimit() {
+            if (recording.size() > LIMIT) {
+                recording = null;
+            }
+        }
+
+        /**
+         * Reads the rest of the stream, and returns everything read from
+         * it, or null if it is too long.
+         *
+         * @return Contents of stream, or null
+         * @throws IOException on error
+         */
+        byte[] readAll() throws IOException {
+            final byte[] buf = new byte[8192];
+            while (recording != null && read(buf, 0, buf.length) >= 0) {
+                // keep reading
+            }
+            return recording == null ? null : recording.toByteArray();
+        }
+    }
+
+    /**
+     * Immutable copy of the contents of a populated cell set: its metadata,
+     * the positions of its axes, and its cells. Does not reference the cell
+     * set or its statement, so may outlive them.
+     *
+     * @see XmlaOlap4jResultCache
+     */
+    static class Snapshot {
+        final XmlaOlap4jCellSetMetaData metaData;
+        final XmlaOlap4jCellStore cellStore;
+        final Axis[] axes;
+        final List<List<Position>> positionLists;
+
+        private Snapshot(
+            XmlaOlap4jCellSetMetaData metaData,
+            XmlaOlap4jCellStore cellStore,
+            List<XmlaOlap4jCellSetAxis> axes)
+        {
+            this.metaData = metaData;
+            this.cellStore = cellStore;
+            this.axes = new Axis[axes.size()];
+            this.positionLists = new ArrayList<List<Position>>(axes.size());
+            for (int i = 0; i < axes.size(); i++) {
+                this.axes[i] = axes.get(i).getAxisOrdinal();
+                this.positionLists.add(axes.get(i).positions);
+            }
+        }
+
+        Snapshot(
+            XmlaOlap4jCellSetMetaData metaData,
+            XmlaOlap4jCellStore cellStore,
+            Axis[] axes,
+            List<List<Position>> positionLists)
+        {
+            this.metaData = metaData;
+            this.cellStore = cellStore;
+            this.axes = axes;
+            this.positionLists = positionLists;
+        }
+    }
 }
 
 // End XmlaOlap4jCellSet.java
@@ -80,14 +80,12 @@ class XmlaOlap4jCellSetMetaData implements CellSetMetaData {
     }
 
     private XmlaOlap4jCellSetMetaData(
-        XmlaOlap4jStatement olap4jStatement,
         XmlaOlap4jCube cube,
         XmlaOlap4jCellSetAxisMetaData filterAxisMetaData,
         List<CellSetAxisMetaData> axisMetaDataList,
         Map<String, Property> propertiesByTag,
         List<Property> cellProperties)
     {
-        assert olap4jStatement != null;
         assert cube != null;
         assert filterAxisMetaData != null;
         this.cube = cube;
@@ -99,9 +97,29 @@ class XmlaOlap4jCellSetMetaData implements CellSetMetaData {
 
     XmlaOlap4jCellSetMetaData cloneFor(
         XmlaOlap4jPreparedStatement preparedStatement)
+    {
+        assert preparedStatement != null;
+        return new XmlaOlap4jCellSetMetaData(
+            cube,
+            filterAxisMetaData,
+            axisMetaDataList,
+            propertiesByTag,
+            cellProperties);
+    }
+
+    /**
+     * Creates metadata that has the same cube and cell properties as this,
+     * but different axes.
+     *
+     * @param filterAxisMetaData Metadata of filter axis
+     * @param axisMetaDataList Metadata of other axes
+     * @return Metadata
+     */
+    XmlaOlap4jCellSetMetaData withAxes(
+        XmlaOlap4jCellSetAxisMetaData filterAxisMetaData,
+        List<CellSetAxisMetaData> axisMetaDataList)
     {
         return new XmlaOlap4jCellSetMetaData(
-            preparedStatement,
             cube,
             filterAxisMetaData,
             axisMetaDataList,
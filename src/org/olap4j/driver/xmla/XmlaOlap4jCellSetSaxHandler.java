@@ -0,0 +1,401 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.*;
+
+import static org.olap4j.driver.xmla.XmlaOlap4jUtil.*;
+
+/**
+ * SAX handler that reads the response to an XMLA Execute request in a
+ * single forward pass, without building a DOM.
+ *
+ * <p>The handler gathers the small parts of the response (the
+ * <code>OlapInfo</code> and <code>Axes</code> elements) into simple holder
+ * objects, and calls {@link #handleOlapInfo} and {@link #handleAxes} when
+ * each is complete. Cells, which make up the bulk of a large response, are
+ * passed to {@link #handleCell} one at a time and are not retained.
+ *
+ * <p>If the response contains a SOAP fault, parsing stops with a
+ * {@link FaultException}; the caller is expected to re-parse the (usually
+ * small) response using the DOM to produce a detailed error message.
+ *
+ * @see XmlaOlap4jCellSet
+ * @author agent
+ */
+abstract class XmlaOlap4jCellSetSaxHandler extends DefaultHandler {
+    /** Current element depth; 0 outside the document element. */
+    private int depth;
+
+    /** Depth of the mddataset <code>root</code> element, or -1 if not yet
+     * seen. */
+    private int rootDepth = -1;
+
+    /** Depth of the element whose text is being gathered, or -1. */
+    private int textDepth = -1;
+    private String textTag;
+    private final StringBuilder text = new StringBuilder();
+
+    /** Name of the current child of <code>root</code> (OlapInfo, Axes,
+     * CellData), or null if it is not of interest. */
+    private String section;
+
+    /** Name of the current child of <code>OlapInfo</code>. */
+    private String subSection;
+
+    // OlapInfo
+    private String cubeName;
+    private final List<AxisInfo> axisInfos = new ArrayList<AxisInfo>();
+    private final List<String[]> cellInfos = new ArrayList<String[]>();
+    private AxisInfo axisInfo;
+    private HierarchyInfo hierarchyInfo;
+
+    // Axes
+    private final List<AxisData> axes = new ArrayList<AxisData>();
+    private AxisData axis;
+    private List<MemberData> tuple;
+    private MemberData member;
+    private boolean axesHandled;
+
+    // CellData
+    private int cellOrdinal;
+    private String valueType;
+    private final Map<String, String> cellChildren =
+        new LinkedHashMap<String, String>();
+
+    /**
+     * Called when the <code>OlapInfo</code> element has been read.
+     *
+     * @param cubeName Name of cube
+     * @param axisInfos Description of each axis, in document order
+     * @param cellInfos Cell properties; each entry is a pair {tag, name}
+     * @throws OlapException on error
+     */
+    abstract void handleOlapInfo(
+        String cubeName,
+        List<AxisInfo> axisInfos,
+        List<String[]> cellInfos)
+        throws OlapException;
+
+    /**
+     * Called when the <code>Axes</code> element has been read.
+     *
+     * @param axes Axes, in document order
+     * @throws OlapException on error
+     */
+    abstract void handleAxes(List<AxisData> axes) throws OlapException;
+
+    /**
+     * Called for each <code>Cell</code> element. The map of child elements
+     * is re-used for the next cell, so implementations must not retain it.
+     *
+     * @param ordinal Cell ordinal
+     * @param valueType Value of the <code>xsi:type</code> attribute of the
+     *     <code>Value</code> element, or null if the cell has no value
+     * @param children Text of each child element, keyed by tag
+     * @throws OlapException on error
+     */
+    abstract void handleCell(
+        int ordinal,
+        String valueType,
+        Map<String, String> children)
+        throws OlapException;
+
+    public void startElement(
+        String uri,
+        String localName,
+        String qName,
+        Attributes attributes)
+        throws SAXException
+    {
+        final int level = depth++ - rootDepth;
+        if (rootDepth < 0) {
+            if (localName.equals("Fault") && SOAP_NS.equals(uri)) {
+                throw new FaultException();
+            }
+            if (localName.equals("root") && MDDATASET_NS.equals(uri)) {
+                rootDepth = depth - 1;
+            }
+            return;
+        }
+        if (textDepth >= 0) {
+            // Nested inside an element whose text we are gathering.
+            return;
+        }
+        if (level == 1) {
+            section = MDDATASET_NS.equals(uri) ? localName : null;
+            if ("CellData".equals(section)) {
+                flushAxes();
+            }
+            return;
+        }
+        if ("OlapInfo".equals(section)) {
+            switch (level) {
+            case 2:
+                subSection = localName;
+                break;
+            case 3:
+                if (subSection.equals("AxesInfo")
+                    && localName.equals("AxisInfo"))
+                {
+                    axisInfo = new AxisInfo(attributes.getValue("name"));
+                    axisInfos.add(axisInfo);
+                } else if (subSection.equals("CellInfo")) {
+                    cellInfos.add(
+                        new String[] {
+                            localName, attributes.getValue("name")
+                        });
+                }
+                break;
+            case 4:
+                if (subSection.equals("AxesInfo")
+                    && localName.equals("HierarchyInfo")
+                    && axisInfo != null)
+                {
+                    hierarchyInfo =
+                        new HierarchyInfo(attributes.getValue("name"));
+                    axisInfo.hierarchyInfos.add(hierarchyInfo);
+                } else if (subSection.equals("CubeInfo")
+                    && localName.equals("CubeName")
+                    && cubeName == null)
+                {
+                    startText(localName);
+                }
+                break;
+            case 5:
+                if (subSection.equals("AxesInfo") && hierarchyInfo != null) {
+                    hierarchyInfo.properties.add(
+                        new String[] {
+                            localName, attributes.getValue("name")
+                        });
+                }
+                break;
+            }
+        } else if ("Axes".equals(section)) {
+            switch (level) {
+            case 2:
+                if (localName.equals("Axis")) {
+                    axis = new AxisData(attributes.getValue("name"));
+                    axes.add(axis);
+                }
+                break;
+            case 4:
+                if (localName.equals("Tuple") && axis != null) {
+                    tuple = new ArrayList<MemberData>();
+                    axis.tuples.add(tuple);
+                }
+                break;
+            case 5:
+                if (localName.equals("Member") && tuple != null) {
+                    member =
+                        new MemberData(attributes.getValue("Hierarchy"));
+                    tuple.add(member);
+                }
+                break;
+            case 6:
+                if (member != null) {
+                    startText(localName);
+                }
+                break;
+            }
+        } else if ("CellData".equals(section)) {
+            switch (level) {
+            case 2:
+                cellOrdinal =
+                    Integer.parseInt(attributes.getValue("CellOrdinal"));
+                valueType = null;
+                cellChildren.clear();
+                break;
+            case 3:
+                if (localName.equals("Value")) {
+                    valueType = attributes.getValue("xsi:type");
+                    if (valueType == null) {
+                        valueType = "";
+                    }
+                }
+                startText(localName);
+                break;
+            }
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName)
+        throws SAXException
+    {
+        final int level = --depth - rootDepth;
+        if (rootDepth < 0) {
+            return;
+        }
+        try {
+            if (textDepth >= 0) {
+                if (depth == textDepth) {
+                    endText();
+                }
+                return;
+            }
+            switch (level) {
+            case 0:
+                flushAxes();
+                rootDepth = -1;
+                break;
+            case 1:
+                if ("OlapInfo".equals(section)) {
+                    handleOlapInfo(cubeName, axisInfos, cellInfos);
+                } else if ("Axes".equals(section)) {
+                    flushAxes();
+                }
+                section = null;
+                break;
+            case 2:
+                if ("CellData".equals(section)) {
+                    handleCell(cellOrdinal, valueType, cellChildren);
+                }
+                break;
+            }
+        } catch (OlapException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void characters(char[] ch, int start, int length) {
+        if (textDepth >= 0) {
+            text.append(ch, start, length);
+        }
+    }
+
+    /**
+     * Starts gathering the text of the current element and all of its
+     * descendants.
+     *
+     * @param tag Name of current element
+     */
+    private void startText(String tag) {
+        textDepth = depth - 1;
+        textTag = tag;
+        text.setLength(0);
+    }
+
+    /**
+     * Finishes gathering text, and stores it in the holder appropriate to the
+     * current section.
+     */
+    private void endText() {
+        final String s = text.toString();
+        if ("CellData".equals(section)) {
+            cellChildren.put(textTag, s);
+        } else if ("Axes".equals(section)) {
+            member.children.put(textTag, s);
+        } else {
+            cubeName = s;
+        }
+        textDepth = -1;
+        textTag = null;
+    }
+
+    /**
+     * Calls {@link #handleAxes}, if it has not been called already.
+     *
+     * @throws SAXException on error
+     */
+    private void flushAxes() throws SAXException {
+        if (axesHandled) {
+            return;
+        }
+        axesHandled = true;
+        try {
+            handleAxes(axes);
+        } catch (OlapException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Description of an axis, read from an <code>AxisInfo</code> element.
+     */
+    static class AxisInfo {
+        final String name;
+        final List<HierarchyInfo> hierarchyInfos =
+            new ArrayList<HierarchyInfo>();
+
+        AxisInfo(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Description of a hierarchy on an axis, read from a
+     * <code>HierarchyInfo</code> element.
+     */
+    static class HierarchyInfo {
+        final String name;
+
+        /** Member properties; each entry is a pair {tag, name}. */
+        final List<String[]> properties = new ArrayList<String[]>();
+
+        HierarchyInfo(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Contents of an <code>Axis</code> element.
+     */
+    static class AxisData {
+        final String name;
+        final List<List<MemberData>> tuples = new ArrayList<List<MemberData>>();
+
+        AxisData(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Contents of a <code>Member</code> element within a tuple.
+     */
+    static class MemberData {
+        final String hierarchyName;
+
+        /** Text of each child element (UName, Caption, LNum, and any
+         * additional properties), keyed by tag, in document order. */
+        final Map<String, String> children =
+            new LinkedHashMap<String, String>();
+
+        MemberData(String hierarchyName) {
+            this.hierarchyName = hierarchyName;
+        }
+    }
+
+    /**
+     * Thrown when the response contains a SOAP fault.
+     */
+    static class FaultException extends SAXException {
+        private static final long serialVersionUID = -3386236432913826551L;
+
+        FaultException() {
+            super("SOAP fault");
+        }
+    }
+}
+
+// End XmlaOlap4jCellSetSaxHandler.java
@@ -0,0 +1,504 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.impl.UnmodifiableArrayMap;
+import org.olap4j.metadata.Property;
+
+import java.util.*;
+
+/**
+ * Compact, column-oriented storage for the cells of an
+ * {@link XmlaOlap4jCellSet}.
+ *
+ * <p>Rather than holding a {@link org.olap4j.Cell} object per cell, the
+ * store keeps each attribute of a cell in a column:<ul>
+ *
+ * <li>Ordinals are held in a sorted <code>int[]</code>, searched by binary
+ *     search. If at least half of the cells in the cell set are present, the
+ *     store instead becomes <em>dense</em>: the other columns are indexed
+ *     directly by ordinal, and the ordinal column is discarded.</li>
+ *
+ * <li>Values are held in a <code>long[]</code>. Each cell also has a one-byte
+ *     type tag, which says whether the cell is absent or null, how to decode
+ *     the long (as the bits of a double, or as an integer), or whether it is
+ *     an index into a pool of other objects (strings, big decimals).</li>
+ *
+ * <li>Formatted values and cell property maps are dictionary-encoded:
+ *     each cell holds an <code>int</code> code, and each distinct value is
+ *     stored once.</li>
+ * </ul>
+ *
+ * <p>Cells are added by {@link #add} while the response is being read; then
+ * {@link #freeze} sorts them and, if worthwhile, makes the store dense. After
+ * that, the store is read-only, and the cell set creates lightweight
+ * {@link XmlaOlap4jCell} objects on demand.
+ *
+ * @author agent
+ */
+class XmlaOlap4jCellStore {
+    // Values of the type tag.
+    static final byte ABSENT = 0;
+    static final byte NULL = 1;
+    static final byte DOUBLE = 2;
+    static final byte FLOAT = 3;
+    static final byte LONG = 4;
+    static final byte INTEGER = 5;
+    static final byte SHORT = 6;
+    static final byte BYTE = 7;
+    static final byte BOOLEAN = 8;
+    static final byte OBJECT = 9;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Number of cells. If dense, the number of ordinals. */
+    private int size;
+
+    /** Sorted ordinals; null if the store is dense. */
+    private int[] ordinals = new int[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int[] formattedValueCodes = new int[INITIAL_CAPACITY];
+    private int[] propertyCodes = new int[INITIAL_CAPACITY];
+
+    /** Values that are not primitive; {@link #OBJECT} cells hold an index
+     * into this list. */
+    private final List<Object> objects = new ArrayList<Object>();
+
+    private final List<String> formattedValues = new ArrayList<String>();
+    private final List<Map<Property, Object>> propertyMaps =
+        new ArrayList<Map<Property, Object>>();
+
+    /** Code of each formatted value and property map. Used while adding
+     * cells; discarded by {@link #freeze}. */
+    private Map<String, Integer> formattedValueDictionary =
+        new HashMap<String, Integer>();
+    private Map<Map<Property, Object>, Integer> propertyDictionary =
+        new HashMap<Map<Property, Object>, Integer>();
+
+    /** Whether cells have been added in ascending ordinal order. */
+    private boolean sorted = true;
+    private boolean frozen;
+
+    /**
+     * Creates an empty XmlaOlap4jCellStore.
+     */
+    XmlaOlap4jCellStore() {
+    }
+
+    /**
+     * Adds a cell.
+     *
+     * @param ordinal Ordinal
+     * @param value Value, or null
+     * @param formattedValue Formatted value, or null
+     * @param propertyValues Property values; copied, so the caller may re-use
+     *     the map
+     */
+    void add(
+        int ordinal,
+        Object value,
+        String formattedValue,
+        Map<Property, Object> propertyValues)
+    {
+        assert !frozen;
+        if (size == ordinals.length) {
+            grow(size * 2);
+        }
+        if (size > 0 && ordinal <= ordinals[size - 1]) {
+            sorted = false;
+        }
+        ordinals[size] = ordinal;
+        setValue(size, value);
+        formattedValueCodes[size] = formattedValueCode(formattedValue);
+        propertyCodes[size] = propertyCode(propertyValues);
+        ++size;
+    }
+
+    private void setValue(int i, Object value) {
+        final byte type;
+        final long bits;
+        if (value == null) {
+            type = NULL;
+            bits = 0;
+        } else if (value instanceof Double) {
+            type = DOUBLE;
+            bits = Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof Integer) {
+            type = INTEGER;
+            bits = (Integer) value;
+        } else if (value instanceof Long) {
+            type = LONG;
+            bits = (Long) value;
+        } else if (value instanceof Float) {
+            type = FLOAT;
+            bits = Double.doubleToRawLongBits((Float) value);
+        } else if (value instanceof Short) {
+            type = SHORT;
+            bits = (Short) value;
+        } else if (value instanceof Byte) {
+            type = BYTE;
+            bits = (Byte) value;
+        } else if (value instanceof Boolean) {
+            type = BOOLEAN;
+            bits = ((Boolean) value) ? 1 : 0;
+        } else {
+            type = OBJECT;
+            bits = objects.size();
+            objects.add(value);
+        }
+        types[i] = type;
+        values[i] = bits;
+    }
+
+    private int formattedValueCode(String formattedValue) {
+        if (formattedValue == null) {
+            return -1;
+        }
+        Integer code = formattedValueDictionary.get(formattedValue);
+        if (code == null) {
+            code = formattedValues.size();
+            formattedValues.add(formattedValue);
+            formattedValueDictionary.put(formattedValue, code);
+        }
+        return code;
+    }
+
+    private int propertyCode(Map<Property, Object> propertyValues) {
+        Integer code = propertyDictionary.get(propertyValues);
+        if (code == null) {
+            // Use an ArrayMap for memory efficiency, because cells
+            // typically have few properties
+            final Map<Property, Object> map =
+                UnmodifiableArrayMap.of(propertyValues);
+            code = propertyMaps.size();
+            propertyMaps.add(map);
+            propertyDictionary.put(map, code);
+        }
+        return code;
+    }
+
+    private void grow(int capacity) {
+        ordinals = copyOf(ordinals, capacity);
+        types = copyOf(types, capacity);
+        values = copyOf(values, capacity);
+        formattedValueCodes = copyOf(formattedValueCodes, capacity);
+        propertyCodes = copyOf(propertyCodes, capacity);
+    }
+
+    /**
+     * Finishes adding cells. Sorts cells by ordinal; if there are duplicate
+     * ordinals, the cell added last wins. If at least half of the cell set's
+     * cells are present, converts the store to dense form.
+     *
+     * @param cellCount Number of cells in the cell set (the product of the
+     *     number of positions on each axis)
+     */
+    void freeze(int cellCount) {
+        assert !frozen;
+        frozen = true;
+        formattedValueDictionary = null;
+        propertyDictionary = null;
+        if (!sorted) {
+            sort();
+        }
+        if (size > 0
+            && cellCount >= 0
+            && ordinals[size - 1] < cellCount
+            && size >= cellCount / 2)
+        {
+            densify(cellCount);
+        } else if (size < ordinals.length) {
+            grow(size);
+        }
+    }
+
+    /**
+     * Sorts the columns by ordinal, removing duplicates.
+     */
+    private void sort() {
+        // Sort (ordinal, index) pairs packed into longs. Because the index is
+        // the low-order part, cells with equal ordinals stay in the order they
+        // were added.
+        final long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) ordinals[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        final int[] newOrdinals = new int[size];
+        final byte[] newTypes = new byte[size];
+        final long[] newValues = new long[size];
+        final int[] newFormattedValueCodes = new int[size];
+        final int[] newPropertyCodes = new int[size];
+        int n = 0;
+        for (int k = 0; k < size; k++) {
+            final int i = (int) keys[k];
+            if (n > 0 && newOrdinals[n - 1] == ordinals[i]) {
+                --n; // overwrite earlier cell with same ordinal
+            }
+            newOrdinals[n] = ordinals[i];
+            newTypes[n] = types[i];
+            newValues[n] = values[i];
+            newFormattedValueCodes[n] = formattedValueCodes[i];
+            newPropertyCodes[n] = propertyCodes[i];
+            ++n;
+        }
+        ordinals = newOrdinals;
+        types = newTypes;
+        values = newValues;
+        formattedValueCodes = newFormattedValueCodes;
+        propertyCodes = newPropertyCodes;
+        size = n;
+    }
+
+    /**
+     * Converts the columns so that they are indexed by ordinal.
+     *
+     * @param cellCount Number of cells in the cell set
+     */
+    private void densify(int cellCount) {
+        final byte[] newTypes = new byte[cellCount];
+        final long[] newValues = new long[cellCount];
+        final int[] newFormattedValueCodes = new int[cellCount];
+        final int[] newPropertyCodes = new int[cellCount];
+        for (int i = 0; i < size; i++) {
+            final int ordinal = ordinals[i];
+            newTypes[ordinal] = types[i];
+            newValues[ordinal] = values[i];
+            newFormattedValueCodes[ordinal] = formattedValueCodes[i];
+            newPropertyCodes[ordinal] = propertyCodes[i];
+        }
+        ordinals = null;
+        types = newTypes;
+        values = newValues;
+        formattedValueCodes = newFormattedValueCodes;
+        propertyCodes = newPropertyCodes;
+        size = cellCount;
+    }
+
+    /**
+     * Returns the index of the cell with a given ordinal, or -1 if there is
+     * no such cell.
+     *
+     * @param ordinal Cell ordinal
+     * @return Index of cell, or -1
+     */
+    int indexOf(int ordinal) {
+        assert frozen;
+        if (ordinals == null) {
+            return ordinal >= 0 && ordinal < size && types[ordinal] != ABSENT
+                ? ordinal
+                : -1;
+        }
+        final int i = lowerBound(ordinal);
+        return i < size && ordinals[i] == ordinal ? i : -1;
+    }
+
+    /**
+     * Returns the index of the first cell whose ordinal is greater than or
+     * equal to a given ordinal, or {@link #size} if there is no such cell.
+     * Store must be sparse.
+     *
+     * @param ordinal Ordinal
+     * @return Index of first cell not less than ordinal
+     */
+    private int lowerBound(int ordinal) {
+        // Binary search. (Arrays.binarySearch with a range is JDK 1.6.)
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (ordinals[mid] < ordinal) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copies the values of a range of cells into an array, converted to
+     * doubles. Cells that are null or absent are flagged in
+     * <code>nulls</code> and have value 0.
+     *
+     * <p>Does not allocate, unless a value is a string or other object.
+     * In a sparse store, searches once for the first cell of the range, then
+     * walks forward.
+     *
+     * @param ordinal Ordinal of first cell
+     * @param count Number of cells
+     * @param values Array to receive values
+     * @param nulls Array to receive null flags
+     * @param offset Offset of first cell in <code>values</code> and
+     *   <code>nulls</code>
+     * @throws NumberFormatException if a value is not numeric
+     */
+    void copyDoubles(
+        int ordinal,
+        int count,
+        double[] values,
+        boolean[] nulls,
+        int offset)
+    {
+        assert frozen;
+        if (ordinals == null) {
+            for (int k = 0; k < count; k++) {
+                final int i = ordinal + k;
+                final boolean isNull = i >= size || types[i] <= NULL;
+                nulls[offset + k] = isNull;
+                values[offset + k] = isNull ? 0d : getDouble(i);
+            }
+            return;
+        }
+        Arrays.fill(nulls, offset, offset + count, true);
+        Arrays.fill(values, offset, offset + count, 0d);
+        final int end = ordinal + count;
+        for (int i = lowerBound(ordinal); i < size && ordinals[i] < end; i++) {
+            if (types[i] > NULL) {
+                final int k = offset + ordinals[i] - ordinal;
+                nulls[k] = false;
+                values[k] = getDouble(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the type tag of the cell at a given index.
+     *
+     * @param i Index
+     * @return Type tag, for example {@link #DOUBLE}
+     */
+    byte getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * Returns whether the cell at a given index has a null value.
+     *
+     * @param i Index
+     * @return Whether value is null
+     */
+    boolean isNull(int i) {
+        return types[i] <= NULL;
+    }
+
+    /**
+     * Returns the value of the cell at a given index, converted to a double.
+     * Does not allocate, unless the value is a string or other object.
+     * Converts in the same way as {@link XmlaOlap4jCell#getDoubleValue()};
+     * in particular, a boolean value is not numeric.
+     *
+     * @param i Index
+     * @return Value as a double; 0 if null
+     * @throws NumberFormatException if the value is not numeric
+     */
+    double getDouble(int i) {
+        switch (types[i]) {
+        case DOUBLE:
+        case FLOAT:
+            return Double.longBitsToDouble(values[i]);
+        case LONG:
+        case INTEGER:
+        case SHORT:
+        case BYTE:
+            return values[i];
+        case BOOLEAN:
+            // Convert as XmlaOlap4jCell.getDoubleValue does; always throws.
+            return Double.valueOf(String.valueOf(values[i] != 0));
+        case OBJECT:
+            final Object o = objects.get((int) values[i]);
+            return o instanceof Number
+                ? ((Number) o).doubleValue()
+                : Double.valueOf(String.valueOf(o));
+        default:
+            return 0d;
+        }
+    }
+
+    /**
+     * Returns the value of the cell at a given index.
+     *
+     * @param i Index
+     * @return Value
+     */
+    Object getValue(int i) {
+        final long bits = values[i];
+        switch (types[i]) {
+        case DOUBLE:
+            return Double.longBitsToDouble(bits);
+        case FLOAT:
+            return (float) Double.longBitsToDouble(bits);
+        case LONG:
+            return bits;
+        case INTEGER:
+            return (int) bits;
+        case SHORT:
+            return (short) bits;
+        case BYTE:
+            return (byte) bits;
+        case BOOLEAN:
+            return bits != 0;
+        case OBJECT:
+            return objects.get((int) bits);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns the formatted value of the cell at a given index.
+     *
+     * @param i Index
+     * @return Formatted value, or null
+     */
+    String getFormattedValue(int i) {
+        final int code = formattedValueCodes[i];
+        return code < 0 ? null : formattedValues.get(code);
+    }
+
+    /**
+     * Returns the property values of the cell at a given index.
+     *
+     * @param i Index
+     * @return Immutable map of property values
+     */
+    Map<Property, Object> getPropertyValues(int i) {
+        return propertyMaps.get(propertyCodes[i]);
+    }
+
+    private static int[] copyOf(int[] a, int length) {
+        final int[] b = new int[length];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, length));
+        return b;
+    }
+
+    private static long[] copyOf(long[] a, int length) {
+        final long[] b = new long[length];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, length));
+        return b;
+    }
+
+    private static byte[] copyOf(byte[] a, int length) {
+        final byte[] b = new byte[length];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, length));
+        return b;
+    }
+}
+
+// End XmlaOlap4jCellStore.java
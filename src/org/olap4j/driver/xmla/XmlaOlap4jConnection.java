@@ -130,12 +130,61 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
     private boolean readOnly;
 
     /**
-     * Root of the metadata hierarchy of this connection.
+     * Root of the metadata hierarchy of this connection. If the connection
+     * uses shared metadata, the root of the shared hierarchy.
      */
-    private final NamedList<XmlaOlap4jDatabase> olapDatabases;
+    private NamedList<XmlaOlap4jDatabase> olapDatabases;
+
+    /**
+     * Metadata shared with other connections, or null if this connection
+     * has its own metadata. Set via
+     * {@link XmlaOlap4jDriver.Property#METADATAREGISTRY}.
+     */
+    private XmlaOlap4jMetadataRegistry.SharedMetadata sharedMetadata;
 
     private final URL serverUrlObject;
 
+    /**
+     * Whether to parse responses by building a DOM, rather than by streaming
+     * them through a SAX handler. Set via
+     * {@link XmlaOlap4jDriver.Property#PARSER}.
+     */
+    final boolean domParser;
+
+    /**
+     * Executor that runs asynchronous requests, and parses their results.
+     * Set via {@link XmlaOlap4jDriver.Property#EXECUTOR} and related
+     * properties.
+     */
+    final XmlaOlap4jExecutor executor;
+
+    /**
+     * Cache of populated cell sets, or null if results are not cached. Set
+     * via {@link XmlaOlap4jDriver.Property#RESULTCACHE}.
+     */
+    final XmlaOlap4jResultCache resultCache;
+
+    /**
+     * Whether each cube fetches the hierarchies and levels of all of its
+     * dimensions when its dimensions are first fetched. Set via
+     * {@link XmlaOlap4jDriver.Property#METADATAPREFETCH}.
+     */
+    final boolean prefetchMetadata;
+
+    /**
+     * Capacity, eviction policy and statistics of the member caches of this
+     * connection's cubes. Set via
+     * {@link XmlaOlap4jDriver.Property#MEMBERCACHE} and
+     * {@link XmlaOlap4jDriver.Property#MEMBERCACHESOFT}.
+     */
+    final XmlaOlap4jMemberCache.Policy memberCachePolicy;
+
+    /**
+     * Persistent snapshot of discovered metadata, or null. Set via
+     * {@link XmlaOlap4jDriver.Property#METADATASNAPSHOT}.
+     */
+    private final XmlaOlap4jMetadataSnapshot metadataSnapshot;
+
     private HashSet<String> olap4jDatabaseProperties = null;
 
     /**
@@ -207,6 +256,32 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         this.roleName =
             map.get(XmlaOlap4jDriver.Property.ROLE.name());
 
+        final String parser =
+            map.get(XmlaOlap4jDriver.Property.PARSER.name());
+        if (parser == null || parser.equalsIgnoreCase("SAX")) {
+            this.domParser = false;
+        } else if (parser.equalsIgnoreCase("DOM")) {
+            this.domParser = true;
+        } else {
+            throw getHelper().createException(
+                "Connection property '"
+                + XmlaOlap4jDriver.Property.PARSER.name()
+                + "' must be 'SAX' or 'DOM'");
+        }
+
+        this.executor = XmlaOlap4jExecutor.get(map);
+
+        this.resultCache = XmlaOlap4jResultCache.create(this, map);
+
+        this.metadataSnapshot = XmlaOlap4jMetadataSnapshot.create(map);
+
+        final String prefetch =
+            map.get(XmlaOlap4jDriver.Property.METADATAPREFETCH.name());
+        this.prefetchMetadata =
+            prefetch != null && Boolean.valueOf(prefetch.trim());
+
+        this.memberCachePolicy = XmlaOlap4jMemberCache.Policy.create(map);
+
         // Set URL of HTTP server.
         final String serverUrl =
             map.get(XmlaOlap4jDriver.Property.SERVER.name());
@@ -250,15 +325,44 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         this.olap4jDatabaseMetaData =
             factory.newDatabaseMetaData(this);
 
+        this.sharedMetadata =
+            XmlaOlap4jMetadataRegistry.acquire(
+                factory, driver, proxy, url, info, map);
         this.olapDatabases =
-            new DeferredNamedListImpl<XmlaOlap4jDatabase>(
-                XmlaOlap4jConnection.MetadataRequest.DISCOVER_DATASOURCES,
-                new XmlaOlap4jConnection.Context(
-                    this,
-                    this.olap4jDatabaseMetaData,
-                    null, null, null, null, null, null),
-                new XmlaOlap4jConnection.DatabaseHandler(),
-                null);
+            sharedMetadata == null
+                ? newDatabaseList()
+                : sharedMetadata.owner.olapDatabases;
+    }
+
+    /**
+     * Returns the statistics of the member caches of the cubes this
+     * connection reads. If the connection shares its metadata with other
+     * connections, these are the statistics of the shared cubes.
+     *
+     * @return Member cache statistics
+     */
+    XmlaOlap4jMemberCache.Statistics getMemberCacheStatistics() {
+        final XmlaOlap4jMetadataRegistry.SharedMetadata sharedMetadata =
+            this.sharedMetadata;
+        return sharedMetadata == null
+            ? memberCachePolicy.statistics
+            : sharedMetadata.owner.memberCachePolicy.statistics;
+    }
+
+    /**
+     * Creates the root of a metadata hierarchy owned by this connection.
+     *
+     * @return List of databases, populated on first use
+     */
+    private NamedList<XmlaOlap4jDatabase> newDatabaseList() {
+        return new DeferredNamedListImpl<XmlaOlap4jDatabase>(
+            XmlaOlap4jConnection.MetadataRequest.DISCOVER_DATASOURCES,
+            new XmlaOlap4jConnection.Context(
+                this,
+                this.olap4jDatabaseMetaData,
+                null, null, null, null, null, null),
+            new XmlaOlap4jConnection.DatabaseHandler(),
+            null);
     }
 
     /**
@@ -433,6 +537,13 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
 
     public void close() throws SQLException {
         closed = true;
+        if (sharedMetadata != null) {
+            XmlaOlap4jMetadataRegistry.release(sharedMetadata);
+            sharedMetadata = null;
+        }
+        if (metadataSnapshot != null) {
+            metadataSnapshot.save();
+        }
     }
 
     public boolean isClosed() throws SQLException {
@@ -782,17 +893,29 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         // of the current locale. The SOAP cache, if enabled, will speed things
         // up a little if a client JVM uses connections to the same server with
         // different locales.
-        if (!Olap4jUtil.equal(previousLocale, locale)) {
+        if (sharedMetadata != null) {
+            // Shared metadata was discovered using the owner's locale.
+            if (!locale.equals(sharedMetadata.owner.getLocale())) {
+                clearCache();
+            }
+        } else if (!Olap4jUtil.equal(previousLocale, locale)) {
             clearCache();
         }
     }
 
     /**
-     * Clears the cache.
+     * Clears the cache. If this connection uses shared metadata, stops using
+     * it, and builds its own.
      */
     private void clearCache() {
-        ((DeferredNamedListImpl<XmlaOlap4jDatabase>)this.olapDatabases)
-            .reset();
+        if (sharedMetadata != null) {
+            XmlaOlap4jMetadataRegistry.release(sharedMetadata);
+            sharedMetadata = null;
+            this.olapDatabases = newDatabaseList();
+        } else {
+            ((DeferredNamedListImpl<XmlaOlap4jDatabase>)this.olapDatabases)
+                .reset();
+        }
         this.olap4jCatalog = null;
         this.olap4jDatabase = null;
         this.olap4jSchema = null;
@@ -806,7 +929,15 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
     }
 
     public void setRoleName(String roleName) throws OlapException {
+        final String previousRoleName = this.roleName;
         this.roleName = roleName;
+
+        // Shared metadata was discovered using the previous role.
+        if (sharedMetadata != null
+            && !Olap4jUtil.equal(previousRoleName, roleName))
+        {
+            clearCache();
+        }
     }
 
     public String getRoleName() {
@@ -897,32 +1028,76 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
     }
 
     <T extends Named> void populateList(
-        List<T> list,
-        Context context,
+        final List<T> list,
+        final Context context,
         MetadataRequest metadataRequest,
-        Handler<T> handler,
+        final Handler<T> handler,
         Object[] restrictions) throws OlapException
     {
         String request =
             generateRequest(context, metadataRequest, restrictions);
-        Element root = executeMetadataRequest(request);
-        for (Element o : childElements(root)) {
-            if (o.getLocalName().equals("row")) {
-                handler.handle(o, context, list);
-            }
-        }
+        executeMetadataRequest(
+            request,
+            new RowHandler() {
+                public void handle(XmlaOlap4jRow row) throws OlapException {
+                    handler.handle(row, context, list);
+                }
+            });
         handler.sortList(list);
     }
 
     /**
-     * Executes an XMLA metadata request and returns the root element of the
-     * response.
+     * Executes an XMLA metadata request and passes each row of the response
+     * to a callback.
+     *
+     * <p>By default, the response is streamed through a SAX parser, so that
+     * only one row is held in memory at a time; if the connection was created
+     * with {@link XmlaOlap4jDriver.Property#PARSER}=DOM, the response is
+     * parsed into a DOM first.
+     *
+     * <p>If the connection has a metadata snapshot, the snapshot may answer
+     * the request, and records the response if not.
      *
      * @param request XMLA request string
-     * @return Root element of the response
+     * @param rowHandler Callback for each row
      * @throws OlapException on error
      */
-    Element executeMetadataRequest(String request) throws OlapException {
+    void executeMetadataRequest(
+        String request,
+        RowHandler rowHandler)
+        throws OlapException
+    {
+        if (metadataSnapshot == null) {
+            sendMetadataRequest(request, rowHandler);
+            return;
+        }
+        if (metadataSnapshot.replay(this, request, rowHandler)) {
+            return;
+        }
+        final List<String[]> rows = new ArrayList<String[]>();
+        final RowHandler recorder =
+            metadataSnapshot.recorder(request, rows, rowHandler);
+        if (recorder == null) {
+            sendMetadataRequest(request, rowHandler);
+            return;
+        }
+        sendMetadataRequest(request, recorder);
+        metadataSnapshot.put(request, rows);
+    }
+
+    /**
+     * Sends an XMLA metadata request to the server and passes each row of
+     * the response to a callback.
+     *
+     * @param request XMLA request string
+     * @param rowHandler Callback for each row
+     * @throws OlapException on error
+     */
+    void sendMetadataRequest(
+        String request,
+        final RowHandler rowHandler)
+        throws OlapException
+    {
         byte[] bytes;
         if (DEBUG) {
             System.out.println("********************************************");
@@ -936,6 +1111,63 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
                 "This connection encountered an exception while executing a query.",
                 e);
         }
+        if (domParser) {
+            final Element root = executeMetadataRequestDom(request, bytes);
+            final XmlaOlap4jRow row = new XmlaOlap4jRow();
+            for (Element o : childElements(root)) {
+                if (o.getLocalName().equals("row")) {
+                    row.fill(o);
+                    rowHandler.handle(row);
+                }
+            }
+            return;
+        }
+        if (DEBUG) {
+            System.out.println("** SERVER RESPONSE :");
+            System.out.println(new String(bytes));
+        }
+        try {
+            parse(
+                bytes,
+                new XmlaOlap4jRowsetSaxHandler() {
+                    void handleRow(XmlaOlap4jRow row) throws OlapException {
+                        rowHandler.handle(row);
+                    }
+
+                    void handleSession(String sessionId) {
+                        serverInfos.setSessionId(sessionId);
+                    }
+                });
+        } catch (XmlaOlap4jCellSetSaxHandler.FaultException e) {
+            // The response is a SOAP fault. Re-parse using the DOM, which
+            // generates a detailed error.
+            executeMetadataRequestDom(request, bytes);
+            throw getHelper().createException(
+                "XMLA provider gave exception", e);
+        } catch (IOException e) {
+            throw getHelper().createException(
+                "error discovering metadata", e);
+        } catch (SAXException e) {
+            if (e.getException() instanceof OlapException) {
+                throw (OlapException) e.getException();
+            }
+            throw getHelper().createException(
+                "error discovering metadata", e);
+        }
+    }
+
+    /**
+     * Parses the response to an XMLA metadata request into a DOM and returns
+     * the root element.
+     *
+     * @param request XMLA request string
+     * @param bytes XMLA response
+     * @return Root element of the response
+     * @throws OlapException on error
+     */
+    private Element executeMetadataRequestDom(String request, byte[] bytes)
+        throws OlapException
+    {
         Document doc;
         try {
             doc = parse(bytes);
@@ -1229,7 +1461,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         extends HandlerImpl<XmlaOlap4jDatabase>
     {
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jDatabase> list)
         {
@@ -1279,7 +1511,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
             this.database = database;
         }
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jCatalog> list)
         {
@@ -1312,7 +1544,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
 
     static class CubeHandler extends HandlerImpl<XmlaOlap4jCube> {
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jCube> list)
             throws OlapException
@@ -1354,7 +1586,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         }
 
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jDimension> list)
         {
@@ -1434,7 +1666,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
             this.cubeForCallback = cubeForCallback;
         }
         public void handle(
-            Element row, Context context, List<XmlaOlap4jHierarchy> list)
+            XmlaOlap4jRow row, Context context, List<XmlaOlap4jHierarchy> list)
             throws OlapException
         {
             // Example:
@@ -1508,7 +1740,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         }
 
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jLevel> list)
         {
@@ -1571,7 +1803,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
 
     static class MeasureHandler extends HandlerImpl<XmlaOlap4jMeasure> {
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jMeasure> list)
             throws OlapException
@@ -1695,7 +1927,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
             Member.Type.values();
 
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jMember> list)
         {
@@ -1795,22 +2027,20 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         }
 
         private void addUserDefinedDimensionProperties(
-            Element row,
+            XmlaOlap4jRow row,
             XmlaOlap4jLevel level,
             Map<Property, Object> map)
         {
-            NodeList nodes = row.getChildNodes();
-            for (int i = 0; i < nodes.getLength(); i++) {
-                Node node = nodes.item(i);
-                if (EXCLUDED_PROPERTY_NAMES.contains(node.getLocalName())) {
+            for (int i = 0; i < row.getColumnCount(); i++) {
+                final String columnName = row.getColumnName(i);
+                if (EXCLUDED_PROPERTY_NAMES.contains(columnName)) {
                     continue;
                 }
                 for (Property property : level.getProperties()) {
                     if (property instanceof XmlaOlap4jProperty
-                        && property.getName().equalsIgnoreCase(
-                            node.getLocalName()))
+                        && property.getName().equalsIgnoreCase(columnName))
                     {
-                        map.put(property, node.getTextContent());
+                        map.put(property, row.getValue(i));
                     }
                 }
             }
@@ -1819,7 +2049,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
 
     static class NamedSetHandler extends HandlerImpl<XmlaOlap4jNamedSet> {
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jNamedSet> list)
         {
@@ -1842,7 +2072,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
 
     static class SchemaHandler extends HandlerImpl<XmlaOlap4jSchema> {
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jSchema> list)
             throws OlapException
@@ -1877,7 +2107,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         }
 
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<XmlaOlap4jSchema> list)
             throws OlapException
@@ -1910,7 +2140,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
     static class PropertyHandler extends HandlerImpl<XmlaOlap4jProperty> {
 
         public void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context, List<XmlaOlap4jProperty> list) throws OlapException
         {
             // Example:
@@ -1968,10 +2198,11 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
      */
     interface Handler<T extends Named> {
         /**
-         * Converts an XML element from an XMLA result set into a metadata
-         * element and appends it to a list of metadata elements.
+         * Converts a row of an XMLA result set into a metadata element and
+         * appends it to a list of metadata elements.
          *
-         * @param row XMLA element
+         * @param row Row of XMLA result set; re-used for the next row, so must
+         * not be retained
          *
          * @param context Context (schema, cube, dimension, etc.) that the
          * request was executed in and that the element will belong to
@@ -1981,7 +2212,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
          * @throws OlapException on error
          */
         void handle(
-            Element row,
+            XmlaOlap4jRow row,
             Context context,
             List<T> list) throws OlapException;
 
@@ -1996,6 +2227,19 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
         void sortList(List<T> list);
     }
 
+    /**
+     * Callback for each row of the response to an XMLA metadata request.
+     */
+    interface RowHandler {
+        /**
+         * Handles a row.
+         *
+         * @param row Row; re-used for the next row, so must not be retained
+         * @throws OlapException on error
+         */
+        void handle(XmlaOlap4jRow row) throws OlapException;
+    }
+
     static abstract class HandlerImpl<T extends Named> implements Handler<T> {
         public void sortList(List<T> list) {
             // do nothing - assume XMLA returned list in correct order
@@ -2091,7 +2335,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
                 olap4jLevel);
         }
 
-        XmlaOlap4jHierarchy getHierarchy(Element row) {
+        XmlaOlap4jHierarchy getHierarchy(XmlaOlap4jRow row) {
             if (olap4jHierarchy != null) {
                 return olap4jHierarchy;
             }
@@ -2117,14 +2361,14 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
             return hierarchy;
         }
 
-        XmlaOlap4jCube getCube(Element row) {
+        XmlaOlap4jCube getCube(XmlaOlap4jRow row) {
             if (olap4jCube != null) {
                 return olap4jCube;
             }
             throw new UnsupportedOperationException(); // todo:
         }
 
-        XmlaOlap4jDimension getDimension(Element row) {
+        XmlaOlap4jDimension getDimension(XmlaOlap4jRow row) {
             if (olap4jDimension != null) {
                 return olap4jDimension;
             }
@@ -2142,7 +2386,7 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
             return dimension;
         }
 
-        public XmlaOlap4jLevel getLevel(Element row) {
+        public XmlaOlap4jLevel getLevel(XmlaOlap4jRow row) {
             if (olap4jLevel != null) {
                 return olap4jLevel;
             }
@@ -2169,7 +2413,9 @@ abstract class XmlaOlap4jConnection implements OlapConnection {
             return level;
         }
 
-        public XmlaOlap4jCatalog getCatalog(Element row) throws OlapException {
+        public XmlaOlap4jCatalog getCatalog(XmlaOlap4jRow row)
+            throws OlapException
+        {
             if (olap4jCatalog != null) {
                 return olap4jCatalog;
             }
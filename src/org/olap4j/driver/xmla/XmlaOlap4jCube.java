@@ -23,8 +23,9 @@ import org.olap4j.impl.*;
 import org.olap4j.mdx.IdentifierSegment;
 import org.olap4j.metadata.*;
 
-import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
 
 /**
  * Implementation of {@link Cube}
@@ -35,24 +36,37 @@ import java.util.*;
  */
 class XmlaOlap4jCube implements Cube, Named
 {
+    private static final Logger LOGGER =
+        Logger.getLogger(XmlaOlap4jCube.class.getName());
+
     final XmlaOlap4jSchema olap4jSchema;
     private final String name;
     private final String caption;
     private final String description;
 
     final NamedList<XmlaOlap4jDimension> dimensions;
+
+    // The following maps are written while lists are being populated and
+    // read by other threads, possibly via other connections if the cube is
+    // shared (see XmlaOlap4jMetadataRegistry); so they must be concurrent.
     final Map<String, XmlaOlap4jDimension> dimensionsByUname =
-        new HashMap<String, XmlaOlap4jDimension>();
-    private NamedList<XmlaOlap4jHierarchy> hierarchies = null;
+        new ConcurrentHashMap<String, XmlaOlap4jDimension>();
+    private volatile NamedList<XmlaOlap4jHierarchy> hierarchies = null;
     final Map<String, XmlaOlap4jHierarchy> hierarchiesByUname =
-        new HashMap<String, XmlaOlap4jHierarchy>();
+        new ConcurrentHashMap<String, XmlaOlap4jHierarchy>();
     final Map<String, XmlaOlap4jLevel> levelsByUname =
-        new HashMap<String, XmlaOlap4jLevel>();
+        new ConcurrentHashMap<String, XmlaOlap4jLevel>();
     final List<XmlaOlap4jMeasure> measures =
         new ArrayList<XmlaOlap4jMeasure>();
     private final NamedList<XmlaOlap4jNamedSet> namedSets;
     private final MetadataReader metadataReader;
 
+    /**
+     * Whether the hierarchies and levels of this cube's dimensions have been
+     * fetched in bulk; see {@link #prefetch()}.
+     */
+    private volatile boolean prefetched;
+
     /**
      * Creates an XmlaOlap4jCube.
      *
@@ -80,7 +94,9 @@ class XmlaOlap4jCube implements Cube, Named
         this.metadataReader =
             new CachingMetadataReader(
                 new RawMetadataReader(),
-                measuresMap);
+                measuresMap,
+                olap4jSchema.olap4jCatalog.olap4jDatabaseMetaData
+                    .olap4jConnection.memberCachePolicy);
         // In case this is the dummy cube for shared dimensions stop here
         // to avoid unnecessary calls and errors with unique members
         if ("".equals(name)) {
@@ -101,11 +117,42 @@ class XmlaOlap4jCube implements Cube, Named
             "CUBE_NAME", getName()
         };
 
-        this.dimensions = new DeferredNamedListImpl<XmlaOlap4jDimension>(
-            XmlaOlap4jConnection.MetadataRequest.MDSCHEMA_DIMENSIONS,
-            context,
-            new XmlaOlap4jConnection.DimensionHandler(this),
-            restrictions);
+        if (olap4jConnection.prefetchMetadata) {
+            // Once the dimensions are populated, fetch all of their
+            // hierarchies and levels.
+            this.dimensions = new DeferredNamedListImpl<XmlaOlap4jDimension>(
+                XmlaOlap4jConnection.MetadataRequest.MDSCHEMA_DIMENSIONS,
+                context,
+                new XmlaOlap4jConnection.DimensionHandler(this),
+                restrictions)
+            {
+                @Override
+                protected void populateList(
+                    NamedList<XmlaOlap4jDimension> list)
+                    throws OlapException
+                {
+                    super.populateList(list);
+                    try {
+                        prefetch(list);
+                    } catch (OlapException e) {
+                        // Prefetch is an optimization. If it fails, each
+                        // dimension fetches its own hierarchies when they
+                        // are first used, and reports any error then.
+                        LOGGER.log(
+                            java.util.logging.Level.FINE,
+                            "prefetch of cube '" + XmlaOlap4jCube.this.name
+                            + "' failed",
+                            e);
+                    }
+                }
+            };
+        } else {
+            this.dimensions = new DeferredNamedListImpl<XmlaOlap4jDimension>(
+                XmlaOlap4jConnection.MetadataRequest.MDSCHEMA_DIMENSIONS,
+                context,
+                new XmlaOlap4jConnection.DimensionHandler(this),
+                restrictions);
+        }
 
         // populate measures up front; a measure is needed in every query
         olap4jConnection.populateList(
@@ -126,6 +173,138 @@ class XmlaOlap4jCube implements Cube, Named
             restrictions);
     }
 
+    /**
+     * Fetches the dimensions of this cube, and the hierarchies and levels of
+     * those dimensions, in three requests, one for each kind of element.
+     *
+     * <p>Without prefetch, each dimension fetches its hierarchies, and each
+     * hierarchy its levels, when first used; walking a cube with 40
+     * dimensions costs at least 80 requests, one after another.
+     *
+     * <p>Does nothing if the elements have already been prefetched. Lists
+     * that are already populated are left as they are.
+     *
+     * @throws OlapException on error
+     */
+    void prefetch() throws OlapException {
+        if (dimensions == null || prefetched) {
+            return;
+        }
+        try {
+            // If the connection prefetches, this prefetches too.
+            dimensions.size();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof OlapException) {
+                throw (OlapException) e.getCause();
+            }
+            throw e;
+        }
+        prefetch(dimensions);
+    }
+
+    /**
+     * Fetches the hierarchies and levels of a list of dimensions in one
+     * MDSCHEMA_HIERARCHIES and one MDSCHEMA_LEVELS request, and populates
+     * each dimension's list of hierarchies and each hierarchy's list of
+     * levels.
+     *
+     * <p>Rows for elements that are not in the list, or whose list is
+     * already populated, are ignored.
+     *
+     * @param dimensionList Dimensions of this cube
+     * @throws OlapException on error
+     */
+    private void prefetch(List<XmlaOlap4jDimension> dimensionList)
+        throws OlapException
+    {
+        if (prefetched) {
+            return;
+        }
+        final XmlaOlap4jConnection olap4jConnection =
+            olap4jSchema.olap4jCatalog.olap4jDatabaseMetaData.olap4jConnection;
+        final XmlaOlap4jConnection.Context context =
+            new XmlaOlap4jConnection.Context(this, null, null, null);
+        final Object[] restrictions = {
+            "CATALOG_NAME", olap4jSchema.olap4jCatalog.getName(),
+            "SCHEMA_NAME", olap4jSchema.getName(),
+            "CUBE_NAME", getName()
+        };
+
+        // Hierarchies of dimensions whose hierarchies are not populated.
+        final Map<String, List<XmlaOlap4jHierarchy>> hierarchyLists =
+            new HashMap<String, List<XmlaOlap4jHierarchy>>();
+        for (XmlaOlap4jDimension dimension : dimensionList) {
+            if (!((DeferredNamedListImpl<XmlaOlap4jHierarchy>)
+                    dimension.hierarchies).isPopulated())
+            {
+                hierarchyLists.put(
+                    dimension.getUniqueName(),
+                    new ArrayList<XmlaOlap4jHierarchy>());
+            }
+        }
+        if (!hierarchyLists.isEmpty()) {
+            olap4jConnection.populateList(
+                new ArrayList<XmlaOlap4jHierarchy>(),
+                context,
+                XmlaOlap4jConnection.MetadataRequest.MDSCHEMA_HIERARCHIES,
+                new PrefetchHandler<XmlaOlap4jHierarchy>(
+                    new XmlaOlap4jConnection.HierarchyHandler(this),
+                    "DIMENSION_UNIQUE_NAME",
+                    hierarchyLists),
+                restrictions);
+            for (XmlaOlap4jDimension dimension : dimensionList) {
+                final List<XmlaOlap4jHierarchy> list =
+                    hierarchyLists.get(dimension.getUniqueName());
+                if (list != null) {
+                    ((DeferredNamedListImpl<XmlaOlap4jHierarchy>)
+                        dimension.hierarchies).populate(list);
+                }
+            }
+        }
+
+        // Levels of hierarchies whose levels are not populated.
+        final Map<String, List<XmlaOlap4jLevel>> levelLists =
+            new HashMap<String, List<XmlaOlap4jLevel>>();
+        for (XmlaOlap4jDimension dimension : dimensionList) {
+            if (!((DeferredNamedListImpl<XmlaOlap4jHierarchy>)
+                    dimension.hierarchies).isPopulated())
+            {
+                continue;
+            }
+            for (XmlaOlap4jHierarchy hierarchy : dimension.hierarchies) {
+                if (!((DeferredNamedListImpl<XmlaOlap4jLevel>)
+                        hierarchy.levels).isPopulated())
+                {
+                    levelLists.put(
+                        hierarchy.getUniqueName(),
+                        new ArrayList<XmlaOlap4jLevel>());
+                }
+            }
+        }
+        if (!levelLists.isEmpty()) {
+            olap4jConnection.populateList(
+                new ArrayList<XmlaOlap4jLevel>(),
+                context,
+                XmlaOlap4jConnection.MetadataRequest.MDSCHEMA_LEVELS,
+                new PrefetchHandler<XmlaOlap4jLevel>(
+                    new XmlaOlap4jConnection.LevelHandler(this),
+                    "HIERARCHY_UNIQUE_NAME",
+                    levelLists),
+                restrictions);
+            for (XmlaOlap4jDimension dimension : dimensionList) {
+                for (XmlaOlap4jHierarchy hierarchy : dimension.hierarchies) {
+                    final List<XmlaOlap4jLevel> list =
+                        levelLists.get(hierarchy.getUniqueName());
+                    if (list != null) {
+                        ((DeferredNamedListImpl<XmlaOlap4jLevel>)
+                            hierarchy.levels).populate(list);
+                    }
+                }
+            }
+        }
+        prefetched = true;
+    }
+
     public Schema getSchema() {
         return olap4jSchema;
     }
@@ -158,11 +337,15 @@ class XmlaOlap4jCube implements Cube, Named
         // This is a costly operation. It forces the init
         // of all dimensions and all hierarchies.
         // We defer it to this point.
-        if (this.hierarchies == null) {
-            this.hierarchies = new NamedListImpl<XmlaOlap4jHierarchy>();
+        // Build the list before publishing it, so that another thread never
+        // sees a partial list.
+        NamedList<XmlaOlap4jHierarchy> hierarchies = this.hierarchies;
+        if (hierarchies == null) {
+            hierarchies = new NamedListImpl<XmlaOlap4jHierarchy>();
             for (XmlaOlap4jDimension dim : this.dimensions) {
-                this.hierarchies.addAll(dim.hierarchies);
+                hierarchies.addAll(dim.hierarchies);
             }
+            this.hierarchies = hierarchies;
         }
         return Olap4jUtil.cast(hierarchies);
     }
@@ -270,6 +453,13 @@ class XmlaOlap4jCube implements Cube, Named
                 treeOps, memberUniqueName, list);
         }
 
+        public void lookupAncestors(
+            XmlaOlap4jMember member,
+            List<XmlaOlap4jMember> list) throws OlapException
+        {
+            metadataReader.lookupAncestors(member, list);
+        }
+
         public List<XmlaOlap4jMember> getLevelMembers(
             XmlaOlap4jLevel level)
             throws OlapException
@@ -282,24 +472,16 @@ class XmlaOlap4jCube implements Cube, Named
      * Implementation of MemberReader that reads from an underlying member
      * reader and caches the results.
      *
-     * <p>Caches are {@link Map}s containing
-     * {@link java.lang.ref.SoftReference}s to cached objects, so can be
-     * cleared when memory is in short supply.
+     * <p>Members, lists of level members and lists of child members are held
+     * in an {@link XmlaOlap4jMemberCache}, which is bounded and thread-safe.
+     * Members read as children or ancestors are also cached by unique name.
      */
     private static class CachingMetadataReader
         extends DelegatingMetadataReader
     {
         private final Map<String, XmlaOlap4jMeasure> measuresMap;
 
-        private final Map<String, SoftReference<XmlaOlap4jMember>> memberMap =
-            new HashMap<String, SoftReference<XmlaOlap4jMember>>();
-
-        private final Map<
-            XmlaOlap4jLevel,
-            SoftReference<List<XmlaOlap4jMember>>> levelMemberListMap =
-            new HashMap<
-                XmlaOlap4jLevel,
-                SoftReference<List<XmlaOlap4jMember>>>();
+        private final XmlaOlap4jMemberCache cache;
 
         /**
          * Creates a CachingMetadataReader.
@@ -307,13 +489,16 @@ class XmlaOlap4jCube implements Cube, Named
          * @param metadataReader Underlying metadata reader
          * @param measuresMap Map of measures by unique name, inherited from the
          *     cube and used read-only by this reader
+         * @param policy Capacity and eviction policy of the cache
          */
         CachingMetadataReader(
             MetadataReader metadataReader,
-            Map<String, XmlaOlap4jMeasure> measuresMap)
+            Map<String, XmlaOlap4jMeasure> measuresMap,
+            XmlaOlap4jMemberCache.Policy policy)
         {
             super(metadataReader);
             this.measuresMap = measuresMap;
+            this.cache = new XmlaOlap4jMemberCache(policy);
         }
 
         public XmlaOlap4jMember lookupMemberByUniqueName(
@@ -327,23 +512,17 @@ class XmlaOlap4jCube implements Cube, Named
             }
 
             // Next, look in cache.
-            final SoftReference<XmlaOlap4jMember> memberRef =
-                memberMap.get(memberUniqueName);
-            if (memberRef != null) {
-                final XmlaOlap4jMember member = memberRef.get();
-                if (member != null) {
-                    return member;
-                }
+            XmlaOlap4jMember member =
+                (XmlaOlap4jMember) cache.get(memberUniqueName);
+            if (member != null) {
+                return member;
             }
 
-            final XmlaOlap4jMember member =
-                super.lookupMemberByUniqueName(memberUniqueName);
+            member = super.lookupMemberByUniqueName(memberUniqueName);
             if (member != null
                 && member.getDimension().type != Dimension.Type.MEASURE)
             {
-                memberMap.put(
-                    memberUniqueName,
-                    new SoftReference<XmlaOlap4jMember>(member));
+                cache.put(memberUniqueName, member);
             }
             return member;
         }
@@ -364,12 +543,9 @@ class XmlaOlap4jCube implements Cube, Named
                 }
 
                 // Next, look in cache.
-                final SoftReference<XmlaOlap4jMember> memberRef =
-                    this.memberMap.get(memberUniqueName);
-                final XmlaOlap4jMember member;
-                if (memberRef != null
-                    && (member = memberRef.get()) != null)
-                {
+                final XmlaOlap4jMember member =
+                    (XmlaOlap4jMember) cache.get(memberUniqueName);
+                if (member != null) {
                     memberMap.put(memberUniqueName, member);
                     continue;
                 }
@@ -391,9 +567,7 @@ class XmlaOlap4jCube implements Cube, Named
                             && member.getDimension().type
                                != Dimension.Type.MEASURE)
                         {
-                            this.memberMap.put(
-                                memberName,
-                                new SoftReference<XmlaOlap4jMember>(member));
+                            cache.put(memberName, member);
                         }
                     }
                 }
@@ -404,25 +578,133 @@ class XmlaOlap4jCube implements Cube, Named
             XmlaOlap4jLevel level)
             throws OlapException
         {
-            final SoftReference<List<XmlaOlap4jMember>> memberListRef =
-                levelMemberListMap.get(level);
-            if (memberListRef != null) {
-                final List<XmlaOlap4jMember> memberList = memberListRef.get();
-                if (memberList != null) {
-                    return memberList;
-                }
+            List<XmlaOlap4jMember> memberList =
+                Olap4jUtil.cast((List<?>) cache.get(level));
+            if (memberList != null) {
+                return memberList;
             }
-            final List<XmlaOlap4jMember> memberList =
-                super.getLevelMembers(level);
+            memberList = super.getLevelMembers(level);
             if (level.olap4jHierarchy.olap4jDimension.type
                 != Dimension.Type.MEASURE)
             {
-                levelMemberListMap.put(
-                    level,
-                    new SoftReference<List<XmlaOlap4jMember>>(memberList));
+                cache.put(level, memberList);
             }
             return memberList;
         }
+
+        public void lookupMemberRelatives(
+            Set<Member.TreeOp> treeOps,
+            String memberUniqueName,
+            List<XmlaOlap4jMember> list) throws OlapException
+        {
+            if (treeOps.size() == 1
+                && treeOps.contains(Member.TreeOp.CHILDREN))
+            {
+                lookupChildren(memberUniqueName, list);
+            } else if (treeOps.size() == 1
+                && treeOps.contains(Member.TreeOp.ANCESTORS))
+            {
+                final XmlaOlap4jMember member =
+                    lookupMemberByUniqueName(memberUniqueName);
+                if (member != null) {
+                    lookupAncestors(member, list);
+                }
+            } else {
+                super.lookupMemberRelatives(treeOps, memberUniqueName, list);
+            }
+        }
+
+        /**
+         * Adds the children of a member to a list, reading them from the
+         * cache if possible.
+         *
+         * @param memberUniqueName Unique name of parent member
+         * @param list List to which to add children
+         * @throws OlapException on error
+         */
+        private void lookupChildren(
+            String memberUniqueName,
+            List<XmlaOlap4jMember> list) throws OlapException
+        {
+            final ChildrenKey key = new ChildrenKey(memberUniqueName);
+            List<XmlaOlap4jMember> children =
+                Olap4jUtil.cast((List<?>) cache.get(key));
+            if (children == null) {
+                children = new ArrayList<XmlaOlap4jMember>();
+                super.lookupMemberRelatives(
+                    Olap4jUtil.enumSetOf(Member.TreeOp.CHILDREN),
+                    memberUniqueName,
+                    children);
+                if (!measuresMap.containsKey(memberUniqueName)
+                    && (children.isEmpty() || !isMeasure(children.get(0))))
+                {
+                    for (XmlaOlap4jMember child : children) {
+                        cache.put(child.getUniqueName(), child);
+                    }
+                    cache.put(key, children);
+                }
+            }
+            list.addAll(children);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>Follows the chain of parents through the cache. At the first
+         * ancestor that is not cached, reads the remaining ancestors from
+         * the underlying reader, and caches them.
+         */
+        public void lookupAncestors(
+            XmlaOlap4jMember member,
+            List<XmlaOlap4jMember> list) throws OlapException
+        {
+            XmlaOlap4jMember child = member;
+            while (child.parentMemberUniqueName != null) {
+                final XmlaOlap4jMember parent =
+                    (XmlaOlap4jMember) cache.get(child.parentMemberUniqueName);
+                if (parent == null) {
+                    final List<XmlaOlap4jMember> ancestors =
+                        new ArrayList<XmlaOlap4jMember>();
+                    super.lookupAncestors(child, ancestors);
+                    for (XmlaOlap4jMember ancestor : ancestors) {
+                        if (!isMeasure(ancestor)) {
+                            cache.put(ancestor.getUniqueName(), ancestor);
+                        }
+                    }
+                    list.addAll(ancestors);
+                    return;
+                }
+                list.add(parent);
+                child = parent;
+            }
+        }
+
+        private static boolean isMeasure(XmlaOlap4jMember member) {
+            return member instanceof Measure
+                || member.getDimension().type == Dimension.Type.MEASURE;
+        }
+    }
+
+    /**
+     * Key of a list of child members in the member cache. Distinct from the
+     * unique name of the parent, which is the key of the parent member.
+     */
+    private static class ChildrenKey {
+        private final String memberUniqueName;
+
+        ChildrenKey(String memberUniqueName) {
+            this.memberUniqueName = memberUniqueName;
+        }
+
+        public int hashCode() {
+            return memberUniqueName.hashCode() * 31 + 1;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof ChildrenKey
+                && ((ChildrenKey) obj).memberUniqueName.equals(
+                    memberUniqueName);
+        }
     }
 
     /**
@@ -565,6 +847,47 @@ class XmlaOlap4jCube implements Cube, Named
                     });
         }
 
+        /**
+         * {@inheritDoc}
+         *
+         * <p>Reads the ancestors in one request, and orders them by
+         * following parent unique names, so the order in which the server
+         * returns them does not matter. An ancestor that the server does
+         * not return is looked up by unique name.
+         */
+        public void lookupAncestors(
+            XmlaOlap4jMember member,
+            List<XmlaOlap4jMember> list) throws OlapException
+        {
+            if (member.parentMemberUniqueName == null) {
+                return;
+            }
+            final List<XmlaOlap4jMember> ancestors =
+                new ArrayList<XmlaOlap4jMember>();
+            lookupMemberRelatives(
+                Olap4jUtil.enumSetOf(Member.TreeOp.ANCESTORS),
+                member.getUniqueName(),
+                ancestors);
+            final Map<String, XmlaOlap4jMember> ancestorMap =
+                new HashMap<String, XmlaOlap4jMember>();
+            for (XmlaOlap4jMember ancestor : ancestors) {
+                ancestorMap.put(ancestor.getUniqueName(), ancestor);
+            }
+            XmlaOlap4jMember child = member;
+            while (child.parentMemberUniqueName != null) {
+                final String parentName = child.parentMemberUniqueName;
+                XmlaOlap4jMember parent = ancestorMap.get(parentName);
+                if (parent == null) {
+                    parent = lookupMemberByUniqueName(parentName);
+                    if (parent == null) {
+                        break;
+                    }
+                }
+                list.add(parent);
+                child = parent;
+            }
+        }
+
         public List<XmlaOlap4jMember> getLevelMembers(
             XmlaOlap4jLevel level)
             throws OlapException
@@ -609,6 +932,44 @@ class XmlaOlap4jCube implements Cube, Named
             return list;
         }
     }
+
+    /**
+     * Handler for a cube-wide request that passes each row to the handler for
+     * the list of its parent element, and ignores rows whose parent is not
+     * being prefetched.
+     *
+     * @param <T> Element type
+     */
+    private static class PrefetchHandler<T extends Named>
+        extends XmlaOlap4jConnection.HandlerImpl<T>
+    {
+        private final XmlaOlap4jConnection.Handler<T> handler;
+        private final String parentColumn;
+        private final Map<String, List<T>> lists;
+
+        PrefetchHandler(
+            XmlaOlap4jConnection.Handler<T> handler,
+            String parentColumn,
+            Map<String, List<T>> lists)
+        {
+            this.handler = handler;
+            this.parentColumn = parentColumn;
+            this.lists = lists;
+        }
+
+        public void handle(
+            XmlaOlap4jRow row,
+            XmlaOlap4jConnection.Context context,
+            List<T> list)
+            throws OlapException
+        {
+            final List<T> parentList =
+                lists.get(XmlaOlap4jUtil.stringElement(row, parentColumn));
+            if (parentList != null) {
+                handler.handle(row, context, parentList);
+            }
+        }
+    }
 }
 
 // End XmlaOlap4jCube.java
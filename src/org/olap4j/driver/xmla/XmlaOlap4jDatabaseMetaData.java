@@ -22,8 +22,6 @@ import org.olap4j.impl.Olap4jUtil;
 import org.olap4j.metadata.Member;
 import org.olap4j.metadata.XmlaConstants;
 
-import org.w3c.dom.Element;
-
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
@@ -89,8 +87,8 @@ abstract class XmlaOlap4jDatabaseMetaData implements OlapDatabaseMetaData {
      * @throws org.olap4j.OlapException on error
      */
     private ResultSet getMetadata(
-        XmlaOlap4jConnection.MetadataRequest metadataRequest,
-        Map<XmlaOlap4jConnection.MetadataColumn, String> overrides,
+        final XmlaOlap4jConnection.MetadataRequest metadataRequest,
+        final Map<XmlaOlap4jConnection.MetadataColumn, String> overrides,
         Object... patternValues) throws OlapException
     {
         assert patternValues.length % 2 == 0;
@@ -98,7 +96,8 @@ abstract class XmlaOlap4jDatabaseMetaData implements OlapDatabaseMetaData {
             new XmlaOlap4jConnection.Context(
                 olap4jConnection, null, null, null, null, null, null, null);
         List<String> patternValueList = new ArrayList<String>();
-        Map<String, Matcher> predicateList = new HashMap<String, Matcher>();
+        final Map<String, Matcher> predicateList =
+            new HashMap<String, Matcher>();
         for (int i = 0; i < patternValues.length; i += 2) {
             String name = (String) patternValues[i];
             assert metadataRequest.getColumn(name) != null
@@ -134,41 +133,44 @@ abstract class XmlaOlap4jDatabaseMetaData implements OlapDatabaseMetaData {
                 patternValueList.toArray(
                     new String[patternValueList.size()]));
 
-        final Element root = olap4jConnection.executeMetadataRequest(request);
-        List<List<Object>> rowList = new ArrayList<List<Object>>();
-        rowLoop:
-        for (Element row : XmlaOlap4jUtil.childElements(root)) {
-            if (row.getNamespaceURI() != null
-                && !row.getNamespaceURI().equals(
-                    "urn:schemas-microsoft-com:xml-analysis:rowset"))
-            {
-                // Ignore any vendor specific namespaced elements that
-                // are not part of the rowset namespace
-                continue;
-            }
-            final ArrayList<Object> valueList = new ArrayList<Object>();
-            for (Map.Entry<String, Matcher> entry : predicateList.entrySet()) {
-                final String column = entry.getKey();
-                final String value =
-                    XmlaOlap4jUtil.stringElement(row, column);
-                final Matcher matcher = entry.getValue();
-                if (!matcher.reset(value).matches()) {
-                    continue rowLoop;
-                }
-            }
-            for (XmlaOlap4jConnection.MetadataColumn column
-                : metadataRequest.columns)
-            {
-                if (overrides.containsKey(column)) {
-                    valueList.add(overrides.get(column));
-                } else {
-                    final String value =
-                        XmlaOlap4jUtil.stringElement(row, column.xmlaName);
-                    valueList.add(value);
+        final List<List<Object>> rowList = new ArrayList<List<Object>>();
+        olap4jConnection.executeMetadataRequest(
+            request,
+            new XmlaOlap4jConnection.RowHandler() {
+                public void handle(XmlaOlap4jRow row) {
+                    if (row.getNamespaceURI() != null
+                        && !row.getNamespaceURI().equals(
+                            "urn:schemas-microsoft-com:xml-analysis:rowset"))
+                    {
+                        // Ignore any vendor specific namespaced elements that
+                        // are not part of the rowset namespace
+                        return;
+                    }
+                    final ArrayList<Object> valueList =
+                        new ArrayList<Object>();
+                    for (Map.Entry<String, Matcher> entry
+                        : predicateList.entrySet())
+                    {
+                        final String column = entry.getKey();
+                        final String value = row.get(column);
+                        final Matcher matcher = entry.getValue();
+                        if (!matcher.reset(value).matches()) {
+                            return;
+                        }
+                    }
+                    for (XmlaOlap4jConnection.MetadataColumn column
+                        : metadataRequest.columns)
+                    {
+                        if (overrides.containsKey(column)) {
+                            valueList.add(overrides.get(column));
+                        } else {
+                            final String value = row.get(column.xmlaName);
+                            valueList.add(value);
+                        }
+                    }
+                    rowList.add(valueList);
                 }
-            }
-            rowList.add(valueList);
-        }
+            });
         List<String> headerList = new ArrayList<String>();
         for (XmlaOlap4jConnection.MetadataColumn column
             : metadataRequest.columns)
@@ -1076,16 +1078,18 @@ abstract class XmlaOlap4jDatabaseMetaData implements OlapDatabaseMetaData {
         String request =
             olap4jConnection.generateRequest(
                 context, metadataRequest, new Object[0]);
-        final Element root = olap4jConnection.executeMetadataRequest(request);
-        StringBuilder buf = new StringBuilder();
-        for (Element row : XmlaOlap4jUtil.childElements(root)) {
-            if (buf.length() > 0) {
-                buf.append(',');
-            }
-            final String keyword =
-                XmlaOlap4jUtil.stringElement(row, "Keyword");
-            buf.append(keyword);
-        }
+        final StringBuilder buf = new StringBuilder();
+        olap4jConnection.executeMetadataRequest(
+            request,
+            new XmlaOlap4jConnection.RowHandler() {
+                public void handle(XmlaOlap4jRow row) {
+                    if (buf.length() > 0) {
+                        buf.append(',');
+                    }
+                    final String keyword = row.get("Keyword");
+                    buf.append(keyword);
+                }
+            });
         return buf.toString();
     }
 
@@ -17,10 +17,15 @@
 */
 package org.olap4j.driver.xmla;
 
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
 import org.olap4j.driver.xmla.proxy.XmlaOlap4jHttpProxy;
 import org.olap4j.driver.xmla.proxy.XmlaOlap4jProxy;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jStreamingProxy;
 import org.olap4j.impl.Olap4jUtil;
+import org.olap4j.metadata.Cube;
 
+import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
@@ -121,6 +126,128 @@ import java.util.logging.Logger;
  *                             protocol, but are also sent as part of the SOAP
  *                             Security headers.
  *                             </td></tr>
+ * <tr><td>Parser</td>     <td>How to parse responses to XMLA Execute
+ *                             requests. "SAX", the default, streams the
+ *                             response and builds cells as it goes; "DOM"
+ *                             first parses the whole response into a
+ *                             document tree, which needs more memory for
+ *                             large cell sets.
+ *                             </td></tr>
+ * <tr><td>Transport</td>  <td>How to send HTTP requests. "URL", the
+ *                             default, opens a
+ *                             {@link java.net.URLConnection} for each
+ *                             request, and relies on the JDK to re-use
+ *                             sockets. "POOLED" sends requests over a pool
+ *                             of persistent HTTP/1.1 connections to each
+ *                             server, which is faster when many statements
+ *                             run concurrently.
+ *                             </td></tr>
+ * <tr><td>MaxConnections</td><td>Maximum number of connections to a server
+ *                             when Transport=POOLED. Requests wait until a
+ *                             connection is free. Default 16.
+ *                             </td></tr>
+ * <tr><td>IdleTimeout</td> <td>Time in milliseconds after which an idle
+ *                             pooled connection is closed. Default 30000.
+ *                             </td></tr>
+ * <tr><td>ConnectTimeout</td><td>Timeout in milliseconds for opening a
+ *                             connection to the server. Default 0, meaning
+ *                             no timeout.
+ *                             </td></tr>
+ * <tr><td>SocketTimeout</td><td>Timeout in milliseconds for reading a
+ *                             response from the server. Default 0, meaning
+ *                             no timeout.
+ *                             </td></tr>
+ * <tr><td>Executor</td>      <td>How to run asynchronous requests: "CACHED"
+ *                             (an unbounded pool, the default), "BOUNDED"
+ *                             (a fixed pool with a bounded queue),
+ *                             "VIRTUAL" (a virtual thread per request, on
+ *                             JDKs that support it), or the name of a class
+ *                             that implements ExecutorService. See
+ *                             {@link XmlaOlap4jExecutor}.
+ *                             </td></tr>
+ * <tr><td>ExecutorThreads</td><td>Number of threads when Executor=BOUNDED.
+ *                             Default 32.
+ *                             </td></tr>
+ * <tr><td>ExecutorQueue</td> <td>Maximum number of requests waiting for a
+ *                             thread when Executor=BOUNDED. Default 1000;
+ *                             0 means requests are handed directly to a
+ *                             thread.
+ *                             </td></tr>
+ * <tr><td>ExecutorRejection</td><td>What to do with a request when
+ *                             Executor=BOUNDED and the queue is full:
+ *                             "ABORT" (fail the request, the default) or
+ *                             "CALLER_RUNS" (run it in the calling thread).
+ *                             </td></tr>
+ * <tr><td>ServerConcurrency</td><td>Maximum number of requests running
+ *                             against a server at the same time; further
+ *                             requests wait. Default 0, meaning no limit.
+ *                             </td></tr>
+ * <tr><td>Coalesce</td><td>Whether concurrent identical requests from the
+ *                             same user to the same server share one
+ *                             round trip. Default true.
+ *                             </td></tr>
+ * <tr><td>ResultCache</td><td>Number of populated cell sets to cache in
+ *                             the connection, so that executing a query
+ *                             again, in the same database, catalog, role
+ *                             and locale, neither sends a request nor
+ *                             parses a response. Default 0, meaning no
+ *                             cache. See {@link #flushResultCache}.
+ *                             </td></tr>
+ * <tr><td>ResultCacheTimeout</td><td>Number of seconds after which a
+ *                             cached cell set expires. Default 0, meaning
+ *                             that cell sets do not expire.
+ *                             </td></tr>
+ * <tr><td>ResultCacheContainment</td><td>Whether to answer a query from
+ *                             a cached cell set whose axes contain its
+ *                             axes and whose slicer is contained in its
+ *                             slicer, if the result cache holds no cell set
+ *                             for the query itself. Only queries whose axes
+ *                             and slicer are explicit members or tuples
+ *                             qualify. Default false.
+ *                             </td></tr>
+ * <tr><td>MetadataRegistry</td><td>Whether to share metadata (cubes,
+ *                             dimensions, members and so forth) with other
+ *                             connections in the JVM to the same server
+ *                             that have the same user, database, catalog,
+ *                             role and locale. Default false. See
+ *                             {@link #flushMetadataRegistry}.
+ *                             </td></tr>
+ * <tr><td>MetadataRegistryTimeout</td><td>Number of seconds after which
+ *                             shared metadata is no longer given to new
+ *                             connections. Default 0, meaning that shared
+ *                             metadata does not expire.
+ *                             </td></tr>
+ * <tr><td>MetadataSnapshot</td><td>Name of a file in which to keep a
+ *                             snapshot of discovered metadata. A new
+ *                             connection builds its catalogs, schemas and
+ *                             cubes from the snapshot, rather than sending
+ *                             Discover requests, once it has checked that
+ *                             the cubes' LAST_SCHEMA_UPDATE has not
+ *                             changed. The connection writes the file when
+ *                             it is closed. Default none.
+ *                             </td></tr>
+ * <tr><td>MetadataSnapshotMembers</td><td>Whether the metadata snapshot
+ *                             also holds the members of each level that
+ *                             has been read. Default false.
+ *                             </td></tr>
+ * <tr><td>MetadataPrefetch</td><td>Whether a cube, when it first fetches
+ *                             its dimensions, also fetches the hierarchies
+ *                             and levels of all of its dimensions, in one
+ *                             request for each kind of element, rather than
+ *                             one request per dimension and per hierarchy.
+ *                             Default false. See
+ *                             {@link #prefetchMetadata}.
+ *                             </td></tr>
+ * <tr><td>MemberCache</td><td>Maximum number of members that each cube
+ *                             caches; a cached list of level members
+ *                             counts as one more than its size. Default
+ *                             10000. See
+ *                             {@link #getMemberCacheStatistics}.
+ *                             </td></tr>
+ * <tr><td>MemberCacheSoft</td><td>Whether members evicted from a cube's
+ *                             member cache are kept via soft references
+ *                             until memory is short. Default true.
+ *                             </td></tr>
  * </table>
  *
  * @author jhyde, Luc Boudreau
@@ -130,23 +257,6 @@ public class XmlaOlap4jDriver implements Driver {
 
     private final Factory factory;
 
-    /**
-     * Executor shared by all connections making asynchronous XMLA calls.
-     */
-    private static final ExecutorService executor;
-
-    static {
-        executor = Executors.newCachedThreadPool(
-            new ThreadFactory() {
-                public Thread newThread(Runnable r) {
-                    Thread t = Executors.defaultThreadFactory().newThread(r);
-                    t.setDaemon(true);
-                    return t;
-               }
-            }
-        );
-    }
-
     private static int nextCookie;
 
     static {
@@ -293,8 +403,11 @@ public class XmlaOlap4jDriver implements Driver {
      *
      * @param map Connection properties
      * @return A Proxy with which to submit XML requests
+     * @throws OlapException if a transport property is invalid
      */
-    protected XmlaOlap4jProxy createProxy(Map<String, String> map) {
+    protected XmlaOlap4jProxy createProxy(Map<String, String> map)
+        throws OlapException
+    {
         String cookie = map.get(Property.TESTPROXYCOOKIE.name());
         if (cookie != null) {
             XmlaOlap4jProxy proxy = PROXY_MAP.get(cookie);
@@ -302,7 +415,7 @@ public class XmlaOlap4jDriver implements Driver {
                 return proxy;
             }
         }
-        return new XmlaOlap4jHttpProxy(this);
+        return new XmlaOlap4jHttpProxy(this, map);
     }
 
     /**
@@ -320,13 +433,122 @@ public class XmlaOlap4jDriver implements Driver {
         final XmlaOlap4jServerInfos serverInfos,
         final String request)
     {
-        return executor.submit(
-            new Callable<byte[]>() {
-                public byte[] call() throws Exception {
-                    return proxy.get(serverInfos, request);
-                }
-            }
-        );
+        return XmlaOlap4jExecutor.getDefault().submit(
+            proxy, serverInfos, request);
+    }
+
+    /**
+     * Returns a future object representing an asynchronous submission of an
+     * XMLA request to a URL, whose response is to be read as a stream.
+     *
+     * @param proxy Proxy via which to send the request
+     * @param serverInfos Server infos.
+     * @param request Request
+     * @return Future object from which the stream containing the result
+     * of the XMLA call can be obtained
+     */
+    public static Future<InputStream> getStreamFuture(
+        final XmlaOlap4jStreamingProxy proxy,
+        final XmlaOlap4jServerInfos serverInfos,
+        final String request)
+    {
+        return XmlaOlap4jExecutor.getDefault().submitStream(
+            proxy, serverInfos, request);
+    }
+
+    /**
+     * Removes all cell sets from the result cache of a connection. Call
+     * this method when the data on the server has changed.
+     *
+     * <p>Does nothing if the connection does not have a result cache; see
+     * {@link Property#RESULTCACHE}.
+     *
+     * @param connection Connection to an XMLA server
+     * @throws SQLException if the connection is not an XMLA connection
+     */
+    public static void flushResultCache(OlapConnection connection)
+        throws SQLException
+    {
+        final XmlaOlap4jResultCache resultCache =
+            connection.unwrap(XmlaOlap4jConnection.class).resultCache;
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+    }
+
+    /**
+     * Removes all metadata from the JVM-wide registry, so that connections
+     * created from now on discover metadata from the server again. Call this
+     * method when the schema on the server has changed.
+     *
+     * <p>Connections that are already using shared metadata continue to use
+     * it until they are closed. Affects only connections that set
+     * {@link Property#METADATAREGISTRY}.
+     */
+    public static void flushMetadataRegistry() {
+        XmlaOlap4jMetadataRegistry.clear();
+    }
+
+    /**
+     * Fetches the dimensions, hierarchies and levels of a cube in three
+     * requests, rather than one request per dimension and per hierarchy
+     * as they are used. Call this method before walking a cube that has
+     * many dimensions.
+     *
+     * <p>Does nothing if the cube does not belong to an XMLA connection, or
+     * if its metadata has already been fetched. See also
+     * {@link Property#METADATAPREFETCH}.
+     *
+     * @param cube Cube
+     * @throws OlapException on error
+     */
+    public static void prefetchMetadata(Cube cube) throws OlapException {
+        if (cube instanceof XmlaOlap4jCube) {
+            ((XmlaOlap4jCube) cube).prefetch();
+        }
+    }
+
+    /**
+     * Populates the metadata of a connection: its databases, catalogs,
+     * schemas and cubes, and the dimensions, hierarchies, levels and named
+     * sets of each cube. Independent requests, such as those for different
+     * catalogs or different cubes, are sent in parallel on the connection's
+     * executor (see {@link Property#EXECUTOR}).
+     *
+     * <p>Call this method when an application starts, so that walking the
+     * metadata later does not wait for the server.
+     *
+     * @param connection Connection to an XMLA server
+     * @param parallelism Maximum number of requests to run at a time; at
+     *   least 1
+     * @throws SQLException if the connection is not an XMLA connection, or
+     *   on error
+     */
+    public static void warmUpMetadata(
+        OlapConnection connection,
+        int parallelism)
+        throws SQLException
+    {
+        XmlaOlap4jMetadataWarmUp.warmUp(
+            connection.unwrap(XmlaOlap4jConnection.class), parallelism);
+    }
+
+    /**
+     * Returns the statistics of the member caches of the cubes of a
+     * connection: "hits", "softHits" (members found only via soft
+     * references), "misses", "evictions", and "weight" (the number of
+     * members held). See {@link Property#MEMBERCACHE}.
+     *
+     * @param connection Connection to an XMLA server
+     * @return Map from counter name to value
+     * @throws SQLException if the connection is not an XMLA connection
+     */
+    public static Map<String, Long> getMemberCacheStatistics(
+        OlapConnection connection)
+        throws SQLException
+    {
+        return connection.unwrap(XmlaOlap4jConnection.class)
+            .getMemberCacheStatistics().toMap();
     }
 
     /**
@@ -361,7 +583,77 @@ public class XmlaOlap4jDriver implements Driver {
         CACHE("Class name of the SOAP cache implementation"),
         ROLE("Comma separated list of roles this connection impersonates"),
         USER("Username to use when creating connections to the server."),
-        PASSWORD("Password to use when creating connections to the server.");
+        PASSWORD("Password to use when creating connections to the server."),
+        PARSER(
+            "How to parse XMLA responses: \"SAX\" (streaming, the default) "
+            + "or \"DOM\" (builds a document tree)."),
+        TRANSPORT(
+            "How to send HTTP requests: \"URL\" (a URLConnection per "
+            + "request, the default) or \"POOLED\" (a pool of persistent "
+            + "connections per server)."),
+        MAXCONNECTIONS(
+            "Maximum number of connections to the server, if "
+            + "Transport=POOLED. Default 16."),
+        IDLETIMEOUT(
+            "Time in milliseconds after which an idle pooled connection is "
+            + "closed. Default 30000."),
+        CONNECTTIMEOUT(
+            "Timeout in milliseconds for opening a connection to the server. "
+            + "Default 0, meaning no timeout."),
+        SOCKETTIMEOUT(
+            "Timeout in milliseconds for reading a response from the server. "
+            + "Default 0, meaning no timeout."),
+        EXECUTOR(
+            "How to run asynchronous requests: \"CACHED\" (the default), "
+            + "\"BOUNDED\", \"VIRTUAL\", or the name of a class that "
+            + "implements ExecutorService."),
+        EXECUTORTHREADS(
+            "Number of threads, if Executor=BOUNDED. Default 32."),
+        EXECUTORQUEUE(
+            "Maximum number of requests waiting for a thread, if "
+            + "Executor=BOUNDED. Default 1000."),
+        EXECUTORREJECTION(
+            "What to do with a request if Executor=BOUNDED and the queue is "
+            + "full: \"ABORT\" (the default) or \"CALLER_RUNS\"."),
+        SERVERCONCURRENCY(
+            "Maximum number of requests running against a server at the "
+            + "same time. Default 0, meaning no limit."),
+        COALESCE(
+            "Whether concurrent identical requests share one round trip to "
+            + "the server. Default true."),
+        RESULTCACHE(
+            "Number of populated cell sets to cache in the connection. "
+            + "Default 0, meaning no cache."),
+        RESULTCACHETIMEOUT(
+            "Number of seconds after which a cached cell set expires. "
+            + "Default 0, meaning that cell sets do not expire."),
+        RESULTCACHECONTAINMENT(
+            "Whether to answer a query from a cached cell set that contains "
+            + "its result. Default false."),
+        METADATAREGISTRY(
+            "Whether to share metadata with other connections in the JVM "
+            + "that have the same server, user, database, catalog, role and "
+            + "locale. Default false."),
+        METADATAREGISTRYTIMEOUT(
+            "Number of seconds after which shared metadata is no longer given "
+            + "to new connections. Default 0, meaning that shared metadata "
+            + "does not expire."),
+        METADATASNAPSHOT(
+            "Name of a file in which to keep a snapshot of discovered "
+            + "metadata, so that new connections need not discover it again. "
+            + "Default none."),
+        METADATASNAPSHOTMEMBERS(
+            "Whether the metadata snapshot holds the members of levels. "
+            + "Default false."),
+        METADATAPREFETCH(
+            "Whether a cube fetches the hierarchies and levels of all of its "
+            + "dimensions in bulk. Default false."),
+        MEMBERCACHE(
+            "Maximum number of members that each cube caches. Default "
+            + "10000."),
+        MEMBERCACHESOFT(
+            "Whether members evicted from a cube's member cache are kept via "
+            + "soft references. Default true.");
 
         /**
          * Creates a property.
@@ -371,6 +663,38 @@ public class XmlaOlap4jDriver implements Driver {
         Property(String description) {
             Olap4jUtil.discard(description);
         }
+
+        /**
+         * Reads the value of this property as an integer.
+         *
+         * @param properties Connection properties
+         * @param defaultValue Value if property is not set
+         * @param minValue Minimum valid value
+         * @return Property value
+         * @throws OlapException if value is not an integer or is too small
+         */
+        public int intValue(
+            Map<String, String> properties,
+            int defaultValue,
+            int minValue)
+            throws OlapException
+        {
+            final String value = properties.get(name());
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                final int i = Integer.parseInt(value.trim());
+                if (i >= minValue) {
+                    return i;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            throw new XmlaHelper().createException(
+                "Invalid value '" + value + "' for property " + name()
+                + "; must be an integer not less than " + minValue);
+        }
     }
 }
 
@@ -0,0 +1,653 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jProxy;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jStreamingProxy;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Executes asynchronous XMLA requests.
+ *
+ * <p>An executor is chosen for each connection by the
+ * <code>Executor</code> connect-string property (see
+ * {@link XmlaOlap4jDriver.Property#EXECUTOR}):
+ *
+ * <ul>
+ * <li>"CACHED", the default, is an unbounded cached thread pool, and
+ *     creates a thread for every request that cannot be served by an idle
+ *     thread;</li>
+ * <li>"BOUNDED" is a pool of at most <code>ExecutorThreads</code> threads,
+ *     with a queue of at most <code>ExecutorQueue</code> waiting requests;
+ *     when the queue is full, <code>ExecutorRejection</code> decides
+ *     whether the request fails ("ABORT") or runs in the thread that
+ *     submitted it ("CALLER_RUNS");</li>
+ * <li>"VIRTUAL" creates a virtual thread per request, and requires a JDK
+ *     that has virtual threads;</li>
+ * <li>any other value is the name of a class that implements
+ *     {@link ExecutorService} and has a public constructor with no
+ *     arguments.</li>
+ * </ul>
+ *
+ * <p>Independently of the executor, <code>ServerConcurrency</code> limits
+ * the number of requests that may run against any one server; further
+ * requests wait, without occupying a thread, until a running one
+ * completes.
+ *
+ * <p>Executors are shared by all connections in the JVM that have the same
+ * settings. Each is registered as an MBean; see
+ * {@link XmlaOlap4jExecutorMBean}.
+ *
+ * @author agent
+ */
+public final class XmlaOlap4jExecutor implements XmlaOlap4jExecutorMBean {
+    private static final Map<String, XmlaOlap4jExecutor> EXECUTORS =
+        new HashMap<String, XmlaOlap4jExecutor>();
+
+    private static final XmlaHelper HELPER = new XmlaHelper();
+
+    private static final int DEFAULT_THREADS = 32;
+    private static final int DEFAULT_QUEUE = 1000;
+
+    private static final ThreadFactory DAEMON_THREAD_FACTORY =
+        new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+
+    /** Executor that runs each command in the calling thread. */
+    private static final Executor DIRECT_EXECUTOR =
+        new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+    private final String name;
+    private final ExecutorService executorService;
+
+    /** Maximum number of concurrent requests per server; 0 means no
+     * limit. */
+    private final int serverConcurrency;
+
+    /** Gate for each server, if {@link #serverConcurrency} is set. */
+    private final ConcurrentMap<String, ServerGate> gates =
+        new ConcurrentHashMap<String, ServerGate>();
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Creates an executor.
+     *
+     * @param name Name, describing the configuration
+     * @param executorService Executor service that runs requests
+     * @param serverConcurrency Maximum number of concurrent requests per
+     *   server, or 0
+     */
+    private XmlaOlap4jExecutor(
+        String name,
+        ExecutorService executorService,
+        int serverConcurrency)
+    {
+        this.name = name;
+        this.executorService = executorService;
+        this.serverConcurrency = serverConcurrency;
+    }
+
+    /**
+     * Returns the executor used when a connection does not specify one.
+     *
+     * @return Default executor
+     */
+    public static XmlaOlap4jExecutor getDefault() {
+        try {
+            return get(Collections.<String, String>emptyMap());
+        } catch (OlapException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the executor for a given set of connection properties,
+     * creating it if necessary.
+     *
+     * @param properties Connection properties
+     * @return Executor
+     * @throws OlapException if properties are invalid
+     */
+    public static XmlaOlap4jExecutor get(Map<String, String> properties)
+        throws OlapException
+    {
+        String kind = properties.get(XmlaOlap4jDriver.Property.EXECUTOR.name());
+        if (kind == null) {
+            kind = "CACHED";
+        } else if (kind.equalsIgnoreCase("CACHED")
+            || kind.equalsIgnoreCase("BOUNDED")
+            || kind.equalsIgnoreCase("VIRTUAL"))
+        {
+            kind = kind.toUpperCase();
+        }
+        final int serverConcurrency =
+            XmlaOlap4jDriver.Property.SERVERCONCURRENCY.intValue(
+                properties, 0, 0);
+        final String name;
+        final int threads;
+        final int queue;
+        final boolean callerRuns;
+        if (kind.equals("BOUNDED")) {
+            threads =
+                XmlaOlap4jDriver.Property.EXECUTORTHREADS.intValue(
+                    properties, DEFAULT_THREADS, 1);
+            queue =
+                XmlaOlap4jDriver.Property.EXECUTORQUEUE.intValue(
+                    properties, DEFAULT_QUEUE, 0);
+            final String rejection =
+                properties.get(
+                    XmlaOlap4jDriver.Property.EXECUTORREJECTION.name());
+            if (rejection == null || rejection.equalsIgnoreCase("ABORT")) {
+                callerRuns = false;
+            } else if (rejection.equalsIgnoreCase("CALLER_RUNS")) {
+                callerRuns = true;
+            } else {
+                throw HELPER.createException(
+                    "Invalid value '" + rejection + "' for property "
+                    + XmlaOlap4jDriver.Property.EXECUTORREJECTION.name()
+                    + "; must be 'ABORT' or 'CALLER_RUNS'");
+            }
+            name =
+                kind + "-" + threads + "-" + queue
+                + (callerRuns ? "-CALLER_RUNS" : "-ABORT")
+                + "-" + serverConcurrency;
+        } else {
+            threads = 0;
+            queue = 0;
+            callerRuns = false;
+            name = kind + "-" + serverConcurrency;
+        }
+        synchronized (EXECUTORS) {
+            XmlaOlap4jExecutor executor = EXECUTORS.get(name);
+            if (executor == null) {
+                executor =
+                    new XmlaOlap4jExecutor(
+                        name,
+                        createExecutorService(kind, threads, queue, callerRuns),
+                        serverConcurrency);
+                executor.register();
+                EXECUTORS.put(name, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Creates the executor service for a given configuration.
+     */
+    private static ExecutorService createExecutorService(
+        String kind,
+        int threads,
+        int queue,
+        boolean callerRuns)
+        throws OlapException
+    {
+        if (kind.equals("CACHED")) {
+            return Executors.newCachedThreadPool(DAEMON_THREAD_FACTORY);
+        } else if (kind.equals("BOUNDED")) {
+            return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                queue == 0
+                    ? new SynchronousQueue<Runnable>()
+                    : new ArrayBlockingQueue<Runnable>(queue),
+                DAEMON_THREAD_FACTORY,
+                callerRuns
+                    ? new ThreadPoolExecutor.CallerRunsPolicy()
+                    : new ThreadPoolExecutor.AbortPolicy());
+        } else if (kind.equals("VIRTUAL")) {
+            try {
+                return (ExecutorService)
+                    Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (NoSuchMethodException e) {
+                throw HELPER.createException(
+                    "Executor=VIRTUAL requires a JDK with virtual threads");
+            } catch (Exception e) {
+                throw HELPER.createException(
+                    "Error while creating virtual thread executor", e);
+            }
+        } else {
+            try {
+                return (ExecutorService)
+                    Class.forName(kind).getConstructor().newInstance();
+            } catch (Exception e) {
+                throw HELPER.createException(
+                    "Executor '" + kind + "' must be 'CACHED', 'BOUNDED', "
+                    + "'VIRTUAL' or the name of a class that implements "
+                    + "ExecutorService",
+                    e);
+            }
+        }
+    }
+
+    /**
+     * Registers this executor with the platform MBean server. Failure is
+     * not fatal; the executor just cannot be monitored.
+     */
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                this,
+                new ObjectName(
+                    "org.olap4j.driver.xmla:type=Executor,name="
+                    + ObjectName.quote(name)));
+        } catch (Exception e) {
+            // Ignore; for example, the name may already be registered by
+            // another copy of the driver loaded by a different class loader.
+        }
+    }
+
+    /**
+     * Submits a request to a proxy for asynchronous execution.
+     *
+     * @param proxy Proxy via which to send the request
+     * @param serverInfos Server infos
+     * @param request Request
+     * @return Future from which the response can be obtained
+     */
+    public Future<byte[]> submit(
+        final XmlaOlap4jProxy proxy,
+        final XmlaOlap4jServerInfos serverInfos,
+        final String request)
+    {
+        return submit(
+            serverInfos,
+            new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return proxy.get(serverInfos, request);
+                }
+            });
+    }
+
+    /**
+     * Submits a request to a proxy for asynchronous execution, whose
+     * response is to be read as a stream.
+     *
+     * @param proxy Proxy via which to send the request
+     * @param serverInfos Server infos
+     * @param request Request
+     * @return Future from which the response stream can be obtained
+     */
+    public Future<InputStream> submitStream(
+        final XmlaOlap4jStreamingProxy proxy,
+        final XmlaOlap4jServerInfos serverInfos,
+        final String request)
+    {
+        return submit(
+            serverInfos,
+            new Callable<InputStream>() {
+                public InputStream call() throws Exception {
+                    final InputStream stream =
+                        proxy.getStream(serverInfos, request);
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Canceled while waiting for the response. Nobody
+                        // will read the stream, so release it now.
+                        stream.close();
+                        throw new InterruptedException();
+                    }
+                    return stream;
+                }
+            });
+    }
+
+    /**
+     * Submits a task that talks to a server.
+     *
+     * <p>If the server already has {@link #serverConcurrency} tasks
+     * running, the task waits until one of them completes. If the executor
+     * rejects the task, the returned future fails with a
+     * {@link RejectedExecutionException}.
+     *
+     * @param serverInfos Server the task talks to
+     * @param callable Task
+     * @return Future representing the task
+     */
+    public <T> Future<T> submit(
+        XmlaOlap4jServerInfos serverInfos,
+        Callable<T> callable)
+    {
+        return submitTask(serverInfos, callable);
+    }
+
+    /**
+     * Submits a task that talks to a server, and runs a listener when the
+     * task completes, fails, is rejected or is canceled. The listener runs
+     * in the thread that completes the task.
+     *
+     * @param serverInfos Server the task talks to
+     * @param callable Task
+     * @param listener Listener
+     * @return Future representing the task
+     */
+    public <T> Future<T> submit(
+        XmlaOlap4jServerInfos serverInfos,
+        Callable<T> callable,
+        Runnable listener)
+    {
+        final Task<T> task = submitTask(serverInfos, callable);
+        task.addListener(listener, DIRECT_EXECUTOR);
+        return task;
+    }
+
+    /**
+     * Submits a task that talks to a server, returning a future to which
+     * listeners can be attached.
+     *
+     * @param serverInfos Server the task talks to
+     * @param callable Task
+     * @return Task
+     */
+    <T> Task<T> submitTask(
+        XmlaOlap4jServerInfos serverInfos,
+        Callable<T> callable)
+    {
+        submittedCount.incrementAndGet();
+        ServerGate gate = null;
+        if (serverConcurrency > 0) {
+            final String key = serverKey(serverInfos.getUrl());
+            gate = gates.get(key);
+            if (gate == null) {
+                gates.putIfAbsent(key, new ServerGate());
+                gate = gates.get(key);
+            }
+        }
+        final Task<T> task = new Task<T>(callable, gate);
+        if (gate == null || gate.admit(task)) {
+            dispatch(task);
+        }
+        return task;
+    }
+
+    /**
+     * Returns a task that has already completed with a given value. The
+     * task does not occupy a thread, and is not counted in the executor's
+     * statistics.
+     *
+     * @param value Value
+     * @return Completed task
+     */
+    <T> Task<T> completedTask(final T value) {
+        final Task<T> task =
+            new Task<T>(
+                new Callable<T>() {
+                    public T call() {
+                        return value;
+                    }
+                },
+                null);
+        task.counted = false;
+        task.run();
+        return task;
+    }
+
+    private static String serverKey(URL url) {
+        return url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+    }
+
+    /**
+     * Hands a task to the executor service.
+     */
+    private void dispatch(Task<?> task) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            final RejectedExecutionException e2 =
+                new RejectedExecutionException(
+                    "XMLA request rejected: executor " + name
+                    + " is saturated ("
+                    + getActiveCount() + " active, "
+                    + getQueueSize() + " queued)");
+            e2.initCause(e);
+            task.fail(e2);
+        }
+    }
+
+    // implement XmlaOlap4jExecutorMBean
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPoolSize() {
+        return executorService instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) executorService).getPoolSize()
+            : -1;
+    }
+
+    public int getLargestPoolSize() {
+        return executorService instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) executorService).getLargestPoolSize()
+            : -1;
+    }
+
+    public int getMaximumPoolSize() {
+        if (executorService instanceof ThreadPoolExecutor) {
+            final int max =
+                ((ThreadPoolExecutor) executorService).getMaximumPoolSize();
+            return max == Integer.MAX_VALUE ? -1 : max;
+        }
+        return -1;
+    }
+
+    public int getActiveCount() {
+        return executorService instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) executorService).getActiveCount()
+            : -1;
+    }
+
+    public int getQueueSize() {
+        return executorService instanceof ThreadPoolExecutor
+            ? ((ThreadPoolExecutor) executorService).getQueue().size()
+            : -1;
+    }
+
+    public int getServerWaitingCount() {
+        int count = 0;
+        for (ServerGate gate : gates.values()) {
+            count += gate.waitingCount();
+        }
+        return count;
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public String toString() {
+        return "XmlaOlap4jExecutor{name=" + name
+            + ", poolSize=" + getPoolSize()
+            + ", active=" + getActiveCount()
+            + ", queued=" + getQueueSize()
+            + ", serverWaiting=" + getServerWaitingCount()
+            + ", submitted=" + getSubmittedCount()
+            + ", completed=" + getCompletedCount()
+            + ", rejected=" + getRejectedCount()
+            + "}";
+    }
+
+    /**
+     * Task submitted to this executor.
+     */
+    class Task<T> extends FutureTask<T> {
+        private final ServerGate gate;
+
+        /** Whether the task has been admitted by its gate. Guarded by the
+         * gate. */
+        boolean admitted;
+
+        /** Whether the task counts towards {@link #getCompletedCount()}. */
+        private boolean counted = true;
+
+        /** Listeners to run when the task completes, or null if the task
+         * has completed. Guarded by this task. */
+        private List<Runnable> listeners = new ArrayList<Runnable>();
+
+        Task(Callable<T> callable, ServerGate gate) {
+            super(callable);
+            this.gate = gate;
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+
+        /**
+         * Registers a listener to be run, using a given executor, when
+         * this task completes, fails or is canceled. If the task has
+         * already completed, the listener is run immediately.
+         *
+         * @param listener Listener
+         * @param executor Executor in which to run the listener
+         */
+        void addListener(Runnable listener, Executor executor) {
+            synchronized (this) {
+                if (listeners != null) {
+                    listeners.add(new ListenerRunnable(listener, executor));
+                    return;
+                }
+            }
+            new ListenerRunnable(listener, executor).run();
+        }
+
+        protected void done() {
+            if (counted) {
+                completedCount.incrementAndGet();
+            }
+            if (gate != null) {
+                final Task<?> next = gate.release(this);
+                if (next != null) {
+                    dispatch(next);
+                }
+            }
+            final List<Runnable> list;
+            synchronized (this) {
+                list = listeners;
+                listeners = null;
+            }
+            for (Runnable runnable : list) {
+                runnable.run();
+            }
+        }
+    }
+
+    /**
+     * Runs a listener in an executor. A listener that fails, or whose
+     * executor rejects it, does not prevent other listeners from running.
+     */
+    private static class ListenerRunnable implements Runnable {
+        private final Runnable listener;
+        private final Executor executor;
+
+        ListenerRunnable(Runnable listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        public void run() {
+            try {
+                executor.execute(listener);
+            } catch (RuntimeException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Limits the number of tasks running against one server.
+     */
+    private class ServerGate {
+        private int running;
+        private final LinkedList<Task<?>> waiting = new LinkedList<Task<?>>();
+
+        /**
+         * Admits a task if the server is below its limit; otherwise queues
+         * it.
+         *
+         * @return Whether the task may run now
+         */
+        synchronized boolean admit(Task<?> task) {
+            if (running < serverConcurrency) {
+                ++running;
+                task.admitted = true;
+                return true;
+            }
+            waiting.add(task);
+            return false;
+        }
+
+        /**
+         * Called when a task completes or is canceled. Returns the next
+         * task to run, if any.
+         */
+        synchronized Task<?> release(Task<?> task) {
+            if (!task.admitted) {
+                // Canceled while waiting.
+                waiting.remove(task);
+                return null;
+            }
+            while (!waiting.isEmpty()) {
+                final Task<?> next = waiting.removeFirst();
+                if (!next.isDone()) {
+                    next.admitted = true;
+                    return next;
+                }
+            }
+            --running;
+            return null;
+        }
+
+        synchronized int waitingCount() {
+            return waiting.size();
+        }
+    }
+}
+
+// End XmlaOlap4jExecutor.java
@@ -0,0 +1,107 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+/**
+ * Management interface of {@link XmlaOlap4jExecutor}. Each executor is
+ * registered with the platform MBean server under the name
+ * <code>org.olap4j.driver.xmla:type=Executor,name=<i>name</i></code>, so
+ * that its saturation can be watched from a JMX console.
+ *
+ * <p>Pool statistics are -1 if the executor is not a thread pool (for
+ * example if it creates a virtual thread per request).
+ *
+ * @author agent
+ */
+public interface XmlaOlap4jExecutorMBean {
+    /**
+     * Returns the name of this executor, which describes its configuration.
+     *
+     * @return Name
+     */
+    String getName();
+
+    /**
+     * Returns the number of threads in the pool.
+     *
+     * @return Number of threads
+     */
+    int getPoolSize();
+
+    /**
+     * Returns the largest number of threads that have ever been in the
+     * pool at the same time.
+     *
+     * @return Largest number of threads
+     */
+    int getLargestPoolSize();
+
+    /**
+     * Returns the maximum number of threads, or -1 if unbounded.
+     *
+     * @return Maximum number of threads
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * Returns the approximate number of threads that are executing
+     * requests.
+     *
+     * @return Number of active threads
+     */
+    int getActiveCount();
+
+    /**
+     * Returns the number of requests that are waiting for a thread.
+     *
+     * @return Number of queued requests
+     */
+    int getQueueSize();
+
+    /**
+     * Returns the number of requests that are waiting because their server
+     * has reached its concurrency limit.
+     *
+     * @return Number of requests waiting for a server
+     */
+    int getServerWaitingCount();
+
+    /**
+     * Returns the number of requests submitted.
+     *
+     * @return Number of requests submitted
+     */
+    long getSubmittedCount();
+
+    /**
+     * Returns the number of requests that have completed, successfully or
+     * not.
+     *
+     * @return Number of requests completed
+     */
+    long getCompletedCount();
+
+    /**
+     * Returns the number of requests rejected because the queue was full.
+     *
+     * @return Number of requests rejected
+     */
+    long getRejectedCount();
+}
+
+// End XmlaOlap4jExecutorMBean.java
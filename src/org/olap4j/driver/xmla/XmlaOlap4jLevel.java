@@ -22,6 +22,7 @@ import org.olap4j.impl.*;
 import org.olap4j.metadata.*;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -194,6 +195,12 @@ class XmlaOlap4jLevel
         return Olap4jUtil.cast(this.memberList);
     }
 
+    public Iterator<Member> getMemberIterator(int pageSize)
+        throws OlapException
+    {
+        return XmlaOlap4jLevelMemberIterator.create(this, pageSize);
+    }
+
     public int getCardinality() {
         return cardinality;
     }
@@ -0,0 +1,347 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+import org.olap4j.mdx.NameSegment;
+import org.olap4j.metadata.*;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Iterator over the members of a level that reads them from the server one
+ * page at a time, so that a level with millions of members can be scanned
+ * without holding all of them in memory.
+ *
+ * <p>Each page is read by an MDX query of the form
+ *
+ * <blockquote><code>SELECT {} ON 0,<br/>
+ * &nbsp;&nbsp;SUBSET([Customers].[Name].MEMBERS, 10000, 5000)<br/>
+ * &nbsp;&nbsp;DIMENSION PROPERTIES MEMBER_NAME, MEMBER_TYPE,
+ * PARENT_UNIQUE_NAME,<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;CHILDREN_CARDINALITY, MEMBER_ORDINAL ON 1<br/>
+ * FROM [Sales]</code></blockquote>
+ *
+ * <p>The empty column axis saves the server from computing cells. The
+ * response is parsed by a SAX handler, and members are built from the
+ * properties on the row axis, so a page costs one request. If the server
+ * does not return the properties, the members of the page are looked up
+ * in one batch via the cube's metadata reader. Members are returned in the
+ * same order as {@link Level#getMembers()}. A page that has fewer members
+ * than the page size is the last.
+ *
+ * <p>Neither pages nor the members they contain are cached. Members built
+ * from a page have no user-defined properties.
+ *
+ * @see Level#getMemberIterator(int)
+ *
+ * @author agent
+ */
+class XmlaOlap4jLevelMemberIterator implements Iterator<Member> {
+    private static final String[] PROPERTIES = {
+        Property.StandardMemberProperty.MEMBER_NAME.name(),
+        Property.StandardMemberProperty.MEMBER_TYPE.name(),
+        Property.StandardMemberProperty.PARENT_UNIQUE_NAME.name(),
+        Property.StandardMemberProperty.CHILDREN_CARDINALITY.name(),
+        Property.StandardMemberProperty.MEMBER_ORDINAL.name(),
+    };
+
+    /**
+     * Cached value returned by the {@link Member.Type#values} method, which
+     * clones an array every time.
+     */
+    private static final Member.Type[] MEMBER_TYPE_VALUES =
+        Member.Type.values();
+
+    private final XmlaOlap4jLevel level;
+    private final int pageSize;
+    private List<XmlaOlap4jMember> page;
+    private int index;
+    private int start;
+
+    /**
+     * Creates an XmlaOlap4jLevelMemberIterator and reads its first page.
+     *
+     * @param level Level
+     * @param pageSize Number of members to read in each request
+     * @throws OlapException on error
+     */
+    private XmlaOlap4jLevelMemberIterator(
+        XmlaOlap4jLevel level,
+        int pageSize)
+        throws OlapException
+    {
+        this.level = level;
+        this.pageSize = pageSize;
+        fetch();
+    }
+
+    /**
+     * Returns an iterator over the members of a level.
+     *
+     * <p>If the level has no more members than fit in a page (according
+     * to {@link Level#getCardinality()}), is in the measures dimension, or
+     * belongs to a catalog or schema other than the connection's current
+     * one, returns an iterator over {@link Level#getMembers()}, which reads
+     * all members in one request and caches them. Otherwise returns an
+     * iterator that reads a page at a time.
+     *
+     * @param level Level
+     * @param pageSize Number of members to read in each request; at least 1
+     * @return Iterator over members
+     * @throws OlapException on error
+     */
+    static Iterator<Member> create(XmlaOlap4jLevel level, int pageSize)
+        throws OlapException
+    {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException(
+                "page size must be positive: " + pageSize);
+        }
+        final XmlaOlap4jCube cube = level.olap4jHierarchy.olap4jDimension
+            .olap4jCube;
+        final XmlaOlap4jConnection connection =
+            cube.olap4jSchema.olap4jCatalog.olap4jDatabaseMetaData
+                .olap4jConnection;
+        if (level.getCardinality() <= pageSize
+            || level.olap4jHierarchy.olap4jDimension.type
+                == Dimension.Type.MEASURE
+            || !cube.olap4jSchema.olap4jCatalog.getName().equals(
+                connection.getCatalog())
+            || !cube.olap4jSchema.getName().equals(connection.getSchema()))
+        {
+            return level.getMembers().iterator();
+        }
+        return new XmlaOlap4jLevelMemberIterator(level, pageSize);
+    }
+
+    /**
+     * Returns the MDX query that reads a page of members.
+     *
+     * @param level Level
+     * @param start Ordinal of first member of page
+     * @param pageSize Number of members in page
+     * @return MDX query
+     */
+    static String pageQuery(XmlaOlap4jLevel level, int start, int pageSize) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("SELECT {} ON 0,\n")
+            .append("  SUBSET(").append(level.getUniqueName())
+            .append(".MEMBERS, ").append(start).append(", ")
+            .append(pageSize).append(")\n")
+            .append("  DIMENSION PROPERTIES ");
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(PROPERTIES[i]);
+        }
+        buf.append(" ON 1\n")
+            .append("FROM ")
+            .append(
+                new NameSegment(
+                    level.olap4jHierarchy.olap4jDimension.olap4jCube
+                        .getName()));
+        return buf.toString();
+    }
+
+    public boolean hasNext() {
+        if (index < page.size()) {
+            return true;
+        }
+        if (page.size() < pageSize) {
+            return false;
+        }
+        try {
+            fetch();
+        } catch (OlapException e) {
+            throw new RuntimeException(e);
+        }
+        return !page.isEmpty();
+    }
+
+    public Member next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(index++);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reads the next page of members.
+     *
+     * @throws OlapException on error
+     */
+    private void fetch() throws OlapException {
+        final XmlaOlap4jCube cube =
+            level.olap4jHierarchy.olap4jDimension.olap4jCube;
+        final XmlaOlap4jConnection connection =
+            cube.olap4jSchema.olap4jCatalog.olap4jDatabaseMetaData
+                .olap4jConnection;
+        final PageHandler handler = new PageHandler();
+        final XmlaOlap4jStatement statement =
+            connection.factory.newStatement(connection);
+        try {
+            statement.executeOlapQuery(
+                pageQuery(level, start, pageSize), handler);
+        } finally {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // ignore; closing a statement does not fail
+            }
+        }
+
+        // Build members from their properties. Look up, in one batch, any
+        // members whose properties the server did not return.
+        final List<XmlaOlap4jMember> members =
+            new ArrayList<XmlaOlap4jMember>(handler.memberDatas.size());
+        final List<String> missingNames = new ArrayList<String>();
+        for (XmlaOlap4jCellSetSaxHandler.MemberData memberData
+            : handler.memberDatas)
+        {
+            final XmlaOlap4jMember member = toMember(memberData.children);
+            if (member == null) {
+                missingNames.add(memberData.children.get("UName"));
+            }
+            members.add(member);
+        }
+        if (!missingNames.isEmpty()) {
+            final Map<String, XmlaOlap4jMember> memberMap =
+                new HashMap<String, XmlaOlap4jMember>();
+            cube.getMetadataReader().lookupMembersByUniqueName(
+                missingNames, memberMap);
+            for (int i = 0; i < members.size(); i++) {
+                if (members.get(i) == null) {
+                    final String uniqueName =
+                        handler.memberDatas.get(i).children.get("UName");
+                    final XmlaOlap4jMember member = memberMap.get(uniqueName);
+                    if (member == null) {
+                        throw connection.helper.createException(
+                            "member not found: " + uniqueName);
+                    }
+                    members.set(i, member);
+                }
+            }
+        }
+        page = members;
+        index = 0;
+        start += pageSize;
+    }
+
+    /**
+     * Creates a member from the properties in a <code>Member</code>
+     * element, or returns null if the element does not have all of the
+     * properties needed.
+     *
+     * @param children Text of each child element, keyed by tag
+     * @return Member, or null
+     */
+    private XmlaOlap4jMember toMember(Map<String, String> children) {
+        final String uniqueName = children.get("UName");
+        final String caption = children.get("Caption");
+        final Integer type = toInteger(
+            children.get(
+                Property.StandardMemberProperty.MEMBER_TYPE.name()));
+        final Integer childrenCardinality = toInteger(
+            children.get(
+                Property.StandardMemberProperty.CHILDREN_CARDINALITY.name()));
+        final Integer ordinal = toInteger(
+            children.get(
+                Property.StandardMemberProperty.MEMBER_ORDINAL.name()));
+        String parentUniqueName =
+            children.get(
+                Property.StandardMemberProperty.PARENT_UNIQUE_NAME.name());
+        if (parentUniqueName != null && parentUniqueName.length() == 0) {
+            parentUniqueName = null;
+        }
+        if (uniqueName == null
+            || caption == null
+            || type == null
+            || childrenCardinality == null
+            || ordinal == null
+            || parentUniqueName == null && level.getDepth() > 0)
+        {
+            return null;
+        }
+        String name =
+            children.get(Property.StandardMemberProperty.MEMBER_NAME.name());
+        if (name == null) {
+            name = caption;
+        }
+        final Member.Type memberType =
+            type >= 0 && type < MEMBER_TYPE_VALUES.length
+                ? MEMBER_TYPE_VALUES[type]
+                : Member.Type.REGULAR;
+        return new XmlaOlap4jMember(
+            level, uniqueName, name, caption, "", parentUniqueName,
+            memberType, childrenCardinality, ordinal,
+            Collections.<Property, Object>emptyMap());
+    }
+
+    private static Integer toInteger(String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(s.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handler that collects the members on the row axis.
+     */
+    private static class PageHandler extends XmlaOlap4jCellSetSaxHandler {
+        final List<MemberData> memberDatas = new ArrayList<MemberData>();
+
+        void handleOlapInfo(
+            String cubeName,
+            List<AxisInfo> axisInfos,
+            List<String[]> cellInfos)
+        {
+            // nothing to do
+        }
+
+        void handleAxes(List<AxisData> axes) {
+            for (AxisData axis : axes) {
+                if (axis.name.equals("Axis1")) {
+                    for (List<MemberData> tuple : axis.tuples) {
+                        memberDatas.add(tuple.get(0));
+                    }
+                }
+            }
+        }
+
+        void handleCell(
+            int ordinal,
+            String valueType,
+            Map<String, String> children)
+        {
+            // there are no cells
+        }
+    }
+}
+
+// End XmlaOlap4jLevelMemberIterator.java
@@ -45,7 +45,7 @@ class XmlaOlap4jMember
 
     // TODO: We would rather have a refernce to the parent member, but it is
     // tricky to populate.
-    private final String parentMemberUniqueName;
+    final String parentMemberUniqueName;
     private final Type type;
     private XmlaOlap4jMember parentMember;
     private final int childMemberCount;
@@ -167,13 +167,15 @@ class XmlaOlap4jMember
     }
 
     public List<Member> getAncestorMembers() {
-        final List<Member> list = new ArrayList<Member>();
-        XmlaOlap4jMember m = getParentMember();
-        while (m != null) {
-            list.add(m);
-            m = m.getParentMember();
+        final List<XmlaOlap4jMember> list = new ArrayList<XmlaOlap4jMember>();
+        if (parentMemberUniqueName != null) {
+            try {
+                getCube().getMetadataReader().lookupAncestors(this, list);
+            } catch (OlapException e) {
+                throw new RuntimeException(e);
+            }
         }
-        return list;
+        return Olap4jUtil.cast(list);
     }
 
     public boolean isCalculatedInQuery() {
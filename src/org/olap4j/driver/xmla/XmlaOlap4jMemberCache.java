@@ -0,0 +1,308 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the members, and lists of level members, that a cube has read
+ * from the server.
+ *
+ * <p>The cache is bounded by weight: a member weighs 1, and a list of
+ * members weighs one more than its size. It holds at most
+ * {@link XmlaOlap4jDriver.Property#MEMBERCACHE} weight.
+ *
+ * <p>Eviction is segmented LRU. A new entry goes into a probationary
+ * segment; an entry that is read again moves to a protected segment, which
+ * holds at most 80% of the capacity and demotes its least recently used
+ * entries back to probation. Entries are evicted from probation first, so a
+ * large list that is read once does not flush members that are read often.
+ *
+ * <p>If {@link XmlaOlap4jDriver.Property#MEMBERCACHESOFT} is true (the
+ * default), evicted entries, and entries too heavy to hold, are kept via
+ * {@link SoftReference}s until the garbage collector clears them; an entry
+ * found there is admitted again.
+ *
+ * <p>The cache is thread-safe. Counts of hits, misses and evictions are
+ * accumulated in the {@link Statistics} of the connection; see
+ * {@link XmlaOlap4jDriver#getMemberCacheStatistics}.
+ *
+ * @author agent
+ */
+class XmlaOlap4jMemberCache {
+    /**
+     * Default value of {@link XmlaOlap4jDriver.Property#MEMBERCACHE}.
+     */
+    static final int DEFAULT_CAPACITY = 10000;
+
+    private final Policy policy;
+    private final int protectedCapacity;
+
+    private final LinkedHashMap<Object, Entry> probation =
+        new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    private final LinkedHashMap<Object, Entry> protectedMap =
+        new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    private int probationWeight;
+    private int protectedWeight;
+
+    private final Map<Object, KeyedReference> softMap =
+        new HashMap<Object, KeyedReference>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    /**
+     * Creates a member cache.
+     *
+     * @param policy Capacity, eviction policy and statistics
+     */
+    XmlaOlap4jMemberCache(Policy policy) {
+        this.policy = policy;
+        this.protectedCapacity = (int) (policy.capacity * 4L / 5L);
+    }
+
+    /**
+     * Returns the value cached for a key, or null.
+     *
+     * @param key Key; a member unique name or a level
+     * @return Cached member or list of members, or null
+     */
+    synchronized Object get(Object key) {
+        purge();
+        Entry entry = protectedMap.get(key);
+        if (entry != null) {
+            policy.statistics.hits.incrementAndGet();
+            return entry.value;
+        }
+        entry = probation.remove(key);
+        if (entry != null) {
+            probationWeight -= entry.weight;
+            protectedMap.put(key, entry);
+            protectedWeight += entry.weight;
+            while (protectedWeight > protectedCapacity) {
+                final Iterator<Map.Entry<Object, Entry>> iterator =
+                    protectedMap.entrySet().iterator();
+                final Map.Entry<Object, Entry> eldest = iterator.next();
+                iterator.remove();
+                protectedWeight -= eldest.getValue().weight;
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationWeight += eldest.getValue().weight;
+            }
+            policy.statistics.hits.incrementAndGet();
+            return entry.value;
+        }
+        final KeyedReference ref = softMap.remove(key);
+        if (ref != null) {
+            final Object value = ref.get();
+            if (value != null) {
+                policy.statistics.softHits.incrementAndGet();
+                admit(key, value);
+                return value;
+            }
+        }
+        policy.statistics.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds a value to the cache, replacing any value for the same key.
+     *
+     * @param key Key; a member unique name or a level
+     * @param value Member or list of members
+     */
+    synchronized void put(Object key, Object value) {
+        purge();
+        remove(key);
+        admit(key, value);
+    }
+
+    /**
+     * Returns the weight of the entries held strongly by this cache.
+     *
+     * @return Weight
+     */
+    synchronized int weight() {
+        return probationWeight + protectedWeight;
+    }
+
+    private void remove(Object key) {
+        Entry entry = probation.remove(key);
+        if (entry != null) {
+            probationWeight -= entry.weight;
+            policy.statistics.weight.addAndGet(-entry.weight);
+        }
+        entry = protectedMap.remove(key);
+        if (entry != null) {
+            protectedWeight -= entry.weight;
+            policy.statistics.weight.addAndGet(-entry.weight);
+        }
+        softMap.remove(key);
+    }
+
+    private void admit(Object key, Object value) {
+        final int weight =
+            value instanceof List ? ((List) value).size() + 1 : 1;
+        if (weight > policy.capacity) {
+            if (policy.soft) {
+                softMap.put(key, new KeyedReference(key, value, queue));
+            }
+            return;
+        }
+        probation.put(key, new Entry(value, weight));
+        probationWeight += weight;
+        policy.statistics.weight.addAndGet(weight);
+        while (probationWeight + protectedWeight > policy.capacity) {
+            final boolean fromProbation = !probation.isEmpty();
+            final Iterator<Map.Entry<Object, Entry>> iterator =
+                (fromProbation ? probation : protectedMap)
+                    .entrySet().iterator();
+            final Map.Entry<Object, Entry> eldest = iterator.next();
+            iterator.remove();
+            final int eldestWeight = eldest.getValue().weight;
+            if (fromProbation) {
+                probationWeight -= eldestWeight;
+            } else {
+                protectedWeight -= eldestWeight;
+            }
+            policy.statistics.weight.addAndGet(-eldestWeight);
+            policy.statistics.evictions.incrementAndGet();
+            if (policy.soft) {
+                softMap.put(
+                    eldest.getKey(),
+                    new KeyedReference(
+                        eldest.getKey(), eldest.getValue().value, queue));
+            }
+        }
+    }
+
+    /**
+     * Removes from the soft map the entries whose values have been
+     * garbage-collected.
+     */
+    private void purge() {
+        KeyedReference ref;
+        while ((ref = (KeyedReference) queue.poll()) != null) {
+            if (softMap.get(ref.key) == ref) {
+                softMap.remove(ref.key);
+            }
+        }
+    }
+
+    /**
+     * Value held strongly by the cache, and its weight.
+     */
+    private static class Entry {
+        final Object value;
+        final int weight;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Soft reference that remembers its key, so that it can be removed from
+     * the soft map when it is cleared.
+     */
+    private static class KeyedReference extends SoftReference<Object> {
+        final Object key;
+
+        KeyedReference(
+            Object key,
+            Object value,
+            ReferenceQueue<Object> queue)
+        {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Capacity and eviction policy of the member caches of a connection's
+     * cubes, and the statistics they share.
+     */
+    static class Policy {
+        final int capacity;
+        final boolean soft;
+        final Statistics statistics = new Statistics();
+
+        /**
+         * Creates a Policy.
+         *
+         * @param capacity Maximum weight held strongly by each cache
+         * @param soft Whether to keep evicted entries via soft references
+         */
+        Policy(int capacity, boolean soft) {
+            this.capacity = capacity;
+            this.soft = soft;
+        }
+
+        /**
+         * Creates a policy as specified by connection properties.
+         *
+         * @param properties Connection properties
+         * @return Policy
+         * @throws OlapException if properties are invalid
+         */
+        static Policy create(Map<String, String> properties)
+            throws OlapException
+        {
+            final int capacity =
+                XmlaOlap4jDriver.Property.MEMBERCACHE.intValue(
+                    properties, DEFAULT_CAPACITY, 0);
+            final String soft =
+                properties.get(
+                    XmlaOlap4jDriver.Property.MEMBERCACHESOFT.name());
+            return new Policy(
+                capacity,
+                soft == null || Boolean.valueOf(soft.trim()));
+        }
+    }
+
+    /**
+     * Counters shared by the member caches of a connection's cubes.
+     */
+    static class Statistics {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong softHits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong weight = new AtomicLong();
+
+        /**
+         * Returns the current values of the counters.
+         *
+         * @return Map from counter name to value
+         */
+        Map<String, Long> toMap() {
+            final Map<String, Long> map = new LinkedHashMap<String, Long>();
+            map.put("hits", hits.get());
+            map.put("softHits", softHits.get());
+            map.put("misses", misses.get());
+            map.put("evictions", evictions.get());
+            map.put("weight", weight.get());
+            return Collections.unmodifiableMap(map);
+        }
+    }
+}
+
+// End XmlaOlap4jMemberCache.java
@@ -0,0 +1,217 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jProxy;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Registry of metadata trees shared by the connections in the JVM.
+ *
+ * <p>Without the registry, each connection discovers and holds its own
+ * tree of databases, catalogs, schemas, cubes, dimensions, hierarchies,
+ * levels, measures and members; a pool of a hundred connections to a
+ * server holds a hundred identical copies. A connection that sets
+ * {@link XmlaOlap4jDriver.Property#METADATAREGISTRY} instead uses the tree
+ * registered for its server, user, database, catalog, role and locale,
+ * creating and registering one if there is none.
+ *
+ * <p>Each tree is populated, on demand as usual, by a private connection
+ * that the registry creates with the properties of the first connection
+ * that asked for it. The private connection is never returned to the
+ * application, so its role, locale and catalog never change; a connection
+ * that changes its own role or locale stops using the shared tree, and
+ * builds its own.
+ *
+ * <p>Trees are reference-counted: a tree is removed from the registry when
+ * the last connection using it is closed. A tree that was registered more
+ * than {@link XmlaOlap4jDriver.Property#METADATAREGISTRYTIMEOUT} seconds ago
+ * is not given to new connections; nor is any tree registered before a call
+ * to {@link XmlaOlap4jDriver#flushMetadataRegistry()}. Connections already
+ * using such a tree keep using it until they are closed.
+ *
+ * @author agent
+ */
+class XmlaOlap4jMetadataRegistry {
+    private static final Map<Key, SharedMetadata> MAP =
+        new HashMap<Key, SharedMetadata>();
+
+    private XmlaOlap4jMetadataRegistry() {
+    }
+
+    /**
+     * Returns the shared metadata for a connection, creating it if
+     * necessary, or null if the connection does not use the registry.
+     *
+     * <p>The caller must call {@link #release} when it no longer uses the
+     * shared metadata.
+     *
+     * @param factory Factory
+     * @param driver Driver
+     * @param proxy Proxy of connection
+     * @param url Connect string of connection
+     * @param info Properties of connection
+     * @param properties Connect string and properties, parsed and combined
+     * @return Shared metadata, or null
+     * @throws SQLException on error
+     */
+    static SharedMetadata acquire(
+        Factory factory,
+        XmlaOlap4jDriver driver,
+        XmlaOlap4jProxy proxy,
+        String url,
+        Properties info,
+        Map<String, String> properties)
+        throws SQLException
+    {
+        final String enabled =
+            properties.get(XmlaOlap4jDriver.Property.METADATAREGISTRY.name());
+        if (enabled == null || !Boolean.valueOf(enabled.trim())) {
+            return null;
+        }
+        final long timeoutMillis = timeoutMillis(properties);
+        final Key key = new Key(properties);
+        synchronized (MAP) {
+            SharedMetadata sharedMetadata = MAP.get(key);
+            if (sharedMetadata == null
+                || timeoutMillis > 0
+                && System.currentTimeMillis() - sharedMetadata.created
+                   >= timeoutMillis)
+            {
+                // Create the private connection. Its constructor makes no
+                // calls to the server, so it is safe to hold the lock.
+                final Properties ownerInfo = new Properties();
+                ownerInfo.putAll(info);
+                ownerInfo.setProperty(
+                    XmlaOlap4jDriver.Property.METADATAREGISTRY.name(),
+                    "false");
+                final XmlaOlap4jConnection owner =
+                    (XmlaOlap4jConnection) factory.newConnection(
+                        driver, proxy, url, ownerInfo);
+                sharedMetadata = new SharedMetadata(key, owner);
+                MAP.put(key, sharedMetadata);
+            }
+            ++sharedMetadata.refCount;
+            return sharedMetadata;
+        }
+    }
+
+    private static long timeoutMillis(Map<String, String> properties)
+        throws OlapException
+    {
+        return XmlaOlap4jDriver.Property.METADATAREGISTRYTIMEOUT.intValue(
+            properties, 0, 0) * 1000L;
+    }
+
+    /**
+     * Releases shared metadata acquired by {@link #acquire}. When no
+     * connection uses it, removes it from the registry and closes its
+     * private connection.
+     *
+     * @param sharedMetadata Shared metadata
+     */
+    static void release(SharedMetadata sharedMetadata) {
+        synchronized (MAP) {
+            if (--sharedMetadata.refCount > 0) {
+                return;
+            }
+            // A later tree may have replaced this one; leave it.
+            if (MAP.get(sharedMetadata.key) == sharedMetadata) {
+                MAP.remove(sharedMetadata.key);
+            }
+        }
+        try {
+            sharedMetadata.owner.close();
+        } catch (SQLException e) {
+            // ignore; closing a connection does not fail
+        }
+    }
+
+    /**
+     * Removes all trees from the registry, so that connections created
+     * from now on discover metadata again.
+     */
+    static void clear() {
+        synchronized (MAP) {
+            MAP.clear();
+        }
+    }
+
+    /**
+     * Returns the number of trees in the registry.
+     *
+     * @return Number of trees
+     */
+    static int size() {
+        synchronized (MAP) {
+            return MAP.size();
+        }
+    }
+
+    /**
+     * Metadata tree shared by several connections, the private connection
+     * that populates it, and the number of connections using it.
+     */
+    static class SharedMetadata {
+        private final Key key;
+        final XmlaOlap4jConnection owner;
+        final long created = System.currentTimeMillis();
+        private int refCount;
+
+        private SharedMetadata(Key key, XmlaOlap4jConnection owner) {
+            this.key = key;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Key of a tree: the connection properties that affect what metadata
+     * the server returns.
+     */
+    private static class Key {
+        private final List<Object> values;
+
+        Key(Map<String, String> properties) {
+            // A new connection has the default locale.
+            this.values =
+                Arrays.<Object>asList(
+                    properties.get(XmlaOlap4jDriver.Property.SERVER.name()),
+                    properties.get(XmlaOlap4jDriver.Property.USER.name()),
+                    properties.get(XmlaOlap4jDriver.Property.PASSWORD.name()),
+                    properties.get(XmlaOlap4jDriver.Property.DATABASE.name()),
+                    properties.get(XmlaOlap4jDriver.Property.CATALOG.name()),
+                    properties.get(XmlaOlap4jDriver.Property.ROLE.name()),
+                    Locale.getDefault());
+        }
+
+        public int hashCode() {
+            return values.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            return obj == this
+                || obj instanceof Key
+                && values.equals(((Key) obj).values);
+        }
+    }
+}
+
+// End XmlaOlap4jMetadataRegistry.java
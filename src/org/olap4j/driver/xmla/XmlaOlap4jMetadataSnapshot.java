@@ -0,0 +1,505 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Persistent snapshot of the metadata that a connection has discovered.
+ *
+ * <p>Before it can run its first query, a new connection typically sends a
+ * series of Discover requests (DISCOVER_DATASOURCES, MDSCHEMA_CUBES,
+ * MDSCHEMA_DIMENSIONS, MDSCHEMA_HIERARCHIES, MDSCHEMA_LEVELS,
+ * MDSCHEMA_MEASURES, MDSCHEMA_SETS and so forth), one at a time, to build
+ * its tree of catalogs, schemas and cubes. If
+ * {@link XmlaOlap4jDriver.Property#METADATASNAPSHOT} names a file, the
+ * connection records the rows of the responses to those requests, and
+ * writes them to the file when it is closed. A connection created later
+ * loads the file and builds its tree from the recorded rows, without
+ * sending the requests.
+ *
+ * <p>Lists of members are recorded only if
+ * {@link XmlaOlap4jDriver.Property#METADATASNAPSHOTMEMBERS} is true, and then
+ * only the members of a level; lookups of individual members are never
+ * recorded.
+ *
+ * <p>The snapshot is validated lazily, the first time it answers a request.
+ * Each MDSCHEMA_CUBES request in the snapshot is sent again, and if any
+ * cube's LAST_SCHEMA_UPDATE differs from the recorded value, or was not
+ * recorded, or if the snapshot has no MDSCHEMA_CUBES response, the snapshot
+ * is discarded, and the connection discovers metadata from the server as
+ * if there were no snapshot.
+ *
+ * <p>The file is a deflated stream of requests, each followed by the rows
+ * of its response; each distinct string is written once, and later
+ * occurrences refer to it by number. A file that is missing, or cannot be
+ * read, is ignored. The file is replaced atomically, so connections in
+ * several JVMs may share it.
+ *
+ * @author agent
+ */
+class XmlaOlap4jMetadataSnapshot {
+    private static final int MAGIC = 0x4f4a4d53; // "OJMS"
+    private static final int VERSION = 1;
+
+    private static final int NULL_STRING = -1;
+    private static final int NEW_STRING = -2;
+
+    /**
+     * Limits on the sizes of arrays read from a file, so that a corrupt
+     * file cannot cause an array to be allocated that would exhaust memory.
+     */
+    private static final int MAX_VALUE_COUNT = 1 << 16;
+    private static final int MAX_STRING_LENGTH = 1 << 24;
+
+    private final File file;
+    private final boolean members;
+
+    /**
+     * Rows of the response to each request. Each row is an array holding
+     * the namespace of the row element, followed by the name and value of
+     * each column.
+     */
+    private final Map<String, List<String[]>> responses =
+        new HashMap<String, List<String[]>>();
+
+    private State state;
+
+    /**
+     * Whether requests have been recorded since the file was loaded.
+     */
+    private boolean dirty;
+
+    /**
+     * Creates a snapshot and loads it from a file.
+     *
+     * @param file File
+     * @param members Whether to record lists of level members
+     */
+    XmlaOlap4jMetadataSnapshot(File file, boolean members) {
+        this.file = file;
+        this.members = members;
+        try {
+            load();
+            state = responses.isEmpty() ? State.VALID : State.LOADED;
+        } catch (IOException e) {
+            // Missing or corrupt. Start with an empty snapshot, and
+            // overwrite the file on close.
+            responses.clear();
+            state = State.VALID;
+        } catch (RuntimeException e) {
+            // Corrupt in a way that the checks in load did not catch.
+            responses.clear();
+            state = State.VALID;
+        }
+    }
+
+    /**
+     * Creates a snapshot as specified by connection properties, or returns
+     * null if the connection does not use a snapshot.
+     *
+     * @param properties Connection properties
+     * @return Snapshot, or null
+     */
+    static XmlaOlap4jMetadataSnapshot create(Map<String, String> properties) {
+        final String fileName =
+            properties.get(XmlaOlap4jDriver.Property.METADATASNAPSHOT.name());
+        if (fileName == null || fileName.trim().length() == 0) {
+            return null;
+        }
+        final String members =
+            properties.get(
+                XmlaOlap4jDriver.Property.METADATASNAPSHOTMEMBERS.name());
+        return new XmlaOlap4jMetadataSnapshot(
+            new File(fileName.trim()),
+            members != null && Boolean.valueOf(members.trim()));
+    }
+
+    /**
+     * Passes the recorded rows of the response to a request to a handler,
+     * and returns whether the request was in the snapshot. If this is the
+     * first request that the snapshot answers, validates the snapshot first.
+     *
+     * @param connection Connection
+     * @param request Request
+     * @param rowHandler Callback for each row
+     * @return Whether the snapshot answered the request
+     * @throws OlapException on error
+     */
+    boolean replay(
+        XmlaOlap4jConnection connection,
+        String request,
+        XmlaOlap4jConnection.RowHandler rowHandler)
+        throws OlapException
+    {
+        final List<String[]> rows;
+        synchronized (this) {
+            if (state == State.LOADED && responses.containsKey(request)) {
+                state = State.VALIDATING;
+                try {
+                    validate(connection);
+                } finally {
+                    if (state == State.VALIDATING) {
+                        // Validation failed with an exception; do not
+                        // trust the snapshot.
+                        invalidate();
+                    }
+                }
+            }
+            if (state != State.VALID) {
+                return false;
+            }
+            rows = responses.get(request);
+        }
+        if (rows == null) {
+            return false;
+        }
+        final XmlaOlap4jRow row = new XmlaOlap4jRow();
+        for (String[] values : rows) {
+            row.clear(values[0]);
+            for (int i = 1; i < values.length; i += 2) {
+                row.add(values[i], values[i + 1]);
+            }
+            rowHandler.handle(row);
+        }
+        return true;
+    }
+
+    /**
+     * Sends each recorded MDSCHEMA_CUBES request to the server, and compares
+     * the LAST_SCHEMA_UPDATE of each cube to the recorded value. A snapshot
+     * that has no MDSCHEMA_CUBES response is invalid.
+     */
+    private void validate(XmlaOlap4jConnection connection)
+        throws OlapException
+    {
+        boolean validated = false;
+        for (Map.Entry<String, List<String[]>> entry : responses.entrySet()) {
+            if (!"MDSCHEMA_CUBES".equals(requestType(entry.getKey()))) {
+                continue;
+            }
+            validated = true;
+            final Map<String, String> recorded = lastUpdates(entry.getValue());
+            if (recorded == null) {
+                invalidate();
+                return;
+            }
+            final List<String[]> rows = new ArrayList<String[]>();
+            connection.sendMetadataRequest(entry.getKey(), recorder(rows));
+            if (!recorded.equals(lastUpdates(rows))) {
+                invalidate();
+                return;
+            }
+        }
+        if (!validated) {
+            // Nothing to compare with the server, so the snapshot cannot be
+            // shown to be current.
+            invalidate();
+            return;
+        }
+        state = State.VALID;
+    }
+
+    /**
+     * Returns the LAST_SCHEMA_UPDATE of each cube in a list of MDSCHEMA_CUBES
+     * rows, or null if a row has no LAST_SCHEMA_UPDATE.
+     */
+    private static Map<String, String> lastUpdates(List<String[]> rows) {
+        final Map<String, String> map = new HashMap<String, String>();
+        for (String[] values : rows) {
+            final String cube =
+                column(values, "CATALOG_NAME")
+                + '\u0000' + column(values, "SCHEMA_NAME")
+                + '\u0000' + column(values, "CUBE_NAME");
+            final String lastUpdate = column(values, "LAST_SCHEMA_UPDATE");
+            if (lastUpdate == null) {
+                return null;
+            }
+            map.put(cube, lastUpdate);
+        }
+        return map;
+    }
+
+    private static String column(String[] values, String name) {
+        for (int i = 1; i < values.length; i += 2) {
+            if (name.equals(values[i])) {
+                return values[i + 1];
+            }
+        }
+        return null;
+    }
+
+    private void invalidate() {
+        responses.clear();
+        state = State.VALID;
+        dirty = true;
+    }
+
+    /**
+     * Returns a handler that records each row of the response to a request
+     * and passes it to another handler, or returns null if the request
+     * is not one that the snapshot records. Once the response has been read
+     * successfully, call {@link #put}.
+     *
+     * @param request Request
+     * @param rows List to which to add rows
+     * @param rowHandler Handler
+     * @return Recording handler, or null
+     */
+    XmlaOlap4jConnection.RowHandler recorder(
+        String request,
+        List<String[]> rows,
+        final XmlaOlap4jConnection.RowHandler rowHandler)
+    {
+        final String requestType = requestType(request);
+        if (requestType == null
+            || requestType.equals("MDSCHEMA_MEMBERS")
+            && (!members
+                || !request.contains("<LEVEL_UNIQUE_NAME>")
+                || request.contains("<MEMBER_UNIQUE_NAME>")))
+        {
+            return null;
+        }
+        final XmlaOlap4jConnection.RowHandler recorder = recorder(rows);
+        return new XmlaOlap4jConnection.RowHandler() {
+            public void handle(XmlaOlap4jRow row) throws OlapException {
+                recorder.handle(row);
+                rowHandler.handle(row);
+            }
+        };
+    }
+
+    private static XmlaOlap4jConnection.RowHandler recorder(
+        final List<String[]> rows)
+    {
+        return new XmlaOlap4jConnection.RowHandler() {
+            public void handle(XmlaOlap4jRow row) {
+                final String[] values =
+                    new String[row.getColumnCount() * 2 + 1];
+                values[0] = row.getNamespaceURI();
+                for (int i = 0; i < row.getColumnCount(); i++) {
+                    values[i * 2 + 1] = row.getColumnName(i);
+                    values[i * 2 + 2] = row.getValue(i);
+                }
+                rows.add(values);
+            }
+        };
+    }
+
+    /**
+     * Records the rows of the response to a request.
+     *
+     * @param request Request
+     * @param rows Rows, as recorded by a handler created by
+     *   {@link #recorder}
+     */
+    synchronized void put(String request, List<String[]> rows) {
+        if (state == State.VALID) {
+            responses.put(request, rows);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns the type of a Discover request, or null if the request is not
+     * a Discover request.
+     */
+    private static String requestType(String request) {
+        final int start = request.indexOf("<RequestType>");
+        if (start < 0) {
+            return null;
+        }
+        final int end = request.indexOf("</RequestType>", start);
+        if (end < 0) {
+            return null;
+        }
+        return request.substring(start + "<RequestType>".length(), end);
+    }
+
+    /**
+     * Writes the snapshot to its file, if anything has been recorded since
+     * it was loaded.
+     *
+     * @throws OlapException if the file cannot be written
+     */
+    synchronized void save() throws OlapException {
+        if (!dirty) {
+            return;
+        }
+        final File parent = file.getAbsoluteFile().getParentFile();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", parent);
+            final DataOutputStream out =
+                new DataOutputStream(
+                    new BufferedOutputStream(
+                        new DeflaterOutputStream(
+                            new FileOutputStream(tmp))));
+            try {
+                write(out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // Windows does not replace an existing file.
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("cannot rename " + tmp);
+                }
+            }
+            tmp = null;
+            dirty = false;
+        } catch (IOException e) {
+            throw new XmlaHelper().createException(
+                "Error writing metadata snapshot " + file, e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        final Map<String, Integer> strings = new HashMap<String, Integer>();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(responses.size());
+        for (Map.Entry<String, List<String[]>> entry : responses.entrySet()) {
+            writeString(out, strings, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String[] values : entry.getValue()) {
+                out.writeInt(values.length);
+                for (String value : values) {
+                    writeString(out, strings, value);
+                }
+            }
+        }
+    }
+
+    private static void writeString(
+        DataOutputStream out,
+        Map<String, Integer> strings,
+        String s)
+        throws IOException
+    {
+        if (s == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        final Integer ordinal = strings.get(s);
+        if (ordinal != null) {
+            out.writeInt(ordinal);
+            return;
+        }
+        strings.put(s, strings.size());
+        final byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(NEW_STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        final DataInputStream in =
+            new DataInputStream(
+                new BufferedInputStream(
+                    new InflaterInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a metadata snapshot: " + file);
+            }
+            final List<String> strings = new ArrayList<String>();
+            for (int n = readCount(in, Integer.MAX_VALUE); n > 0; --n) {
+                final String request = readString(in, strings);
+                if (request == null) {
+                    throw new IOException("corrupt metadata snapshot");
+                }
+                final int rowCount = readCount(in, Integer.MAX_VALUE);
+                final List<String[]> rows = new ArrayList<String[]>();
+                for (int r = 0; r < rowCount; r++) {
+                    // Namespace, then a name and a value for each column.
+                    final int valueCount = readCount(in, MAX_VALUE_COUNT);
+                    if (valueCount % 2 != 1) {
+                        throw new IOException("corrupt metadata snapshot");
+                    }
+                    final String[] values = new String[valueCount];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = readString(in, strings);
+                    }
+                    rows.add(values);
+                }
+                responses.put(request, rows);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readString(DataInputStream in, List<String> strings)
+        throws IOException
+    {
+        final int ordinal = in.readInt();
+        switch (ordinal) {
+        case NULL_STRING:
+            return null;
+        case NEW_STRING:
+            final byte[] bytes = new byte[readCount(in, MAX_STRING_LENGTH)];
+            in.readFully(bytes);
+            final String s = new String(bytes, "UTF-8");
+            strings.add(s);
+            return s;
+        default:
+            if (ordinal < 0 || ordinal >= strings.size()) {
+                throw new IOException("corrupt metadata snapshot");
+            }
+            return strings.get(ordinal);
+        }
+    }
+
+    /**
+     * Reads a count, and checks that it is not negative and not greater
+     * than a limit.
+     */
+    private static int readCount(DataInputStream in, int limit)
+        throws IOException
+    {
+        final int count = in.readInt();
+        if (count < 0 || count > limit) {
+            throw new IOException("corrupt metadata snapshot");
+        }
+        return count;
+    }
+
+    private enum State {
+        /** Loaded from file, not yet validated. */
+        LOADED,
+        /** Being validated. */
+        VALIDATING,
+        /** Validated, or empty; answers and records requests. */
+        VALID
+    }
+}
+
+// End XmlaOlap4jMetadataSnapshot.java
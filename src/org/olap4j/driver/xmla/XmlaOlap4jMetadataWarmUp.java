@@ -0,0 +1,228 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+import org.olap4j.metadata.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Populates the metadata of a connection, sending independent Discover
+ * requests in parallel.
+ *
+ * <p>Metadata is populated in waves: the catalogs of each database; then
+ * the schemas of each catalog; then the cubes of each schema; then, for
+ * each cube, its dimensions, hierarchies and levels (see
+ * {@link XmlaOlap4jCube#prefetch()}) and, separately, its named sets.
+ * Each wave starts only when the previous wave has finished, so a task only
+ * ever populates lists whose parents are already populated, and never waits
+ * for a list that another task is populating.
+ *
+ * <p>Tasks run on the connection's {@link XmlaOlap4jExecutor}, at most
+ * <code>parallelism</code> at a time.
+ *
+ * @see XmlaOlap4jDriver#warmUpMetadata
+ * @author agent
+ */
+class XmlaOlap4jMetadataWarmUp {
+    private static final XmlaHelper HELPER = new XmlaHelper();
+
+    private final XmlaOlap4jConnection connection;
+    private final Semaphore permits;
+    private final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+    private XmlaOlap4jMetadataWarmUp(
+        XmlaOlap4jConnection connection,
+        int parallelism)
+    {
+        this.connection = connection;
+        this.permits = new Semaphore(parallelism);
+    }
+
+    /**
+     * Populates the metadata of a connection.
+     *
+     * @param connection Connection
+     * @param parallelism Maximum number of requests to run at a time
+     * @throws OlapException on error
+     */
+    static void warmUp(XmlaOlap4jConnection connection, int parallelism)
+        throws OlapException
+    {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                "parallelism must be at least 1");
+        }
+        new XmlaOlap4jMetadataWarmUp(connection, parallelism).run();
+    }
+
+    private void run() throws OlapException {
+        // Populate the databases, and the connection properties that every
+        // request needs, in this thread.
+        final List<Database> databases = connection.getOlapDatabases();
+        if (databases.isEmpty()) {
+            return;
+        }
+        connection.getDatabase();
+
+        for (final Database database : databases) {
+            submit(
+                new Callable<Void>() {
+                    public Void call() throws OlapException {
+                        database.getCatalogs().size();
+                        return null;
+                    }
+                });
+        }
+        await();
+
+        final List<Catalog> catalogs = new ArrayList<Catalog>();
+        for (Database database : databases) {
+            catalogs.addAll(database.getCatalogs());
+        }
+        for (final Catalog catalog : catalogs) {
+            submit(
+                new Callable<Void>() {
+                    public Void call() throws OlapException {
+                        catalog.getSchemas().size();
+                        return null;
+                    }
+                });
+        }
+        await();
+
+        final List<Schema> schemas = new ArrayList<Schema>();
+        for (Catalog catalog : catalogs) {
+            schemas.addAll(catalog.getSchemas());
+        }
+        for (final Schema schema : schemas) {
+            submit(
+                new Callable<Void>() {
+                    public Void call() throws OlapException {
+                        schema.getCubes().size();
+                        return null;
+                    }
+                });
+        }
+        await();
+
+        for (Schema schema : schemas) {
+            for (Cube cube : schema.getCubes()) {
+                final XmlaOlap4jCube olap4jCube = (XmlaOlap4jCube) cube;
+                submit(
+                    new Callable<Void>() {
+                        public Void call() throws OlapException {
+                            olap4jCube.prefetch();
+                            return null;
+                        }
+                    });
+                submit(
+                    new Callable<Void>() {
+                        public Void call() throws OlapException {
+                            olap4jCube.getSets().size();
+                            return null;
+                        }
+                    });
+            }
+        }
+        await();
+    }
+
+    /**
+     * Submits a task, first waiting until fewer than
+     * <code>parallelism</code> tasks are running.
+     */
+    private void submit(Callable<Void> callable) throws OlapException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw HELPER.createException(
+                "Interrupted while warming up metadata", e);
+        }
+        futures.add(
+            connection.executor.submit(
+                connection.serverInfos,
+                callable,
+                new Runnable() {
+                    public void run() {
+                        permits.release();
+                    }
+                }));
+    }
+
+    /**
+     * Waits for all submitted tasks to complete, and throws the first
+     * error.
+     */
+    private void await() throws OlapException {
+        OlapException error = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAll();
+                throw HELPER.createException(
+                    "Interrupted while warming up metadata", e);
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = toOlapException(e.getCause());
+                }
+            } catch (CancellationException e) {
+                if (error == null) {
+                    error = toOlapException(e);
+                }
+            }
+        }
+        futures.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void cancelAll() {
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+        futures.clear();
+    }
+
+    /**
+     * Converts the cause of a task's failure to an OlapException. A
+     * deferred list wraps the error that prevented it from populating in a
+     * RuntimeException.
+     */
+    private static OlapException toOlapException(Throwable e) {
+        if (e instanceof RuntimeException
+            && e.getCause() instanceof OlapException)
+        {
+            e = e.getCause();
+        }
+        if (e instanceof OlapException) {
+            return (OlapException) e;
+        }
+        return HELPER.createException(
+            "Error warming up metadata", e);
+    }
+}
+
+// End XmlaOlap4jMetadataWarmUp.java
@@ -0,0 +1,492 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.Axis;
+import org.olap4j.CellSetAxisMetaData;
+import org.olap4j.Position;
+import org.olap4j.impl.Olap4jUtil;
+import org.olap4j.mdx.*;
+import org.olap4j.metadata.Hierarchy;
+import org.olap4j.metadata.Member;
+
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * Answers a query from the cell set of another query, if the result of the
+ * first query is contained in the result of the second.
+ *
+ * <p>Containment is proven only for queries of a simple form, and
+ * {@link #project} returns null, so that the caller sends the query to the
+ * server, in all other cases. The cached query may have any axes, but must
+ * have no WITH clause. The new query must:<ul>
+ *
+ * <li>have no WITH clause, and be against the same cube, with the same cell
+ *     properties, as the cached query;</li>
+ *
+ * <li>have axes that are explicit sets of members, or tuples of members,
+ *     each identified by its unique name, without NON EMPTY or DIMENSION
+ *     PROPERTIES;</li>
+ *
+ * <li>have a slicer that is a member or a tuple, and contains every member
+ *     of the cached query's slicer;</li>
+ *
+ * <li>use, on its axes and in the part of its slicer that is not in the
+ *     cached query's slicer, exactly the hierarchies on the cached query's
+ *     axes, and only members that occur on those axes.</li>
+ * </ul>
+ *
+ * <p>Under these conditions, each cell of the new query is the cell of the
+ * cached query at the same members; a query that moves a member from an
+ * axis of the cached query into its slicer, or that asks for fewer rows or
+ * columns, is answered without a round trip.
+ *
+ * @author agent
+ */
+class XmlaOlap4jQueryContainment {
+    private XmlaOlap4jQueryContainment() {
+    }
+
+    /**
+     * Returns a snapshot of the cell set of a query, projected from the cell
+     * set of a cached query, or null if the query is not provably contained
+     * in the cached query.
+     *
+     * @param connection Connection
+     * @param query Query
+     * @param cachedQuery Cached query
+     * @param cached Snapshot of the cell set of the cached query
+     * @return Snapshot of cell set of query, or null
+     */
+    static XmlaOlap4jCellSet.Snapshot project(
+        XmlaOlap4jConnection connection,
+        SelectNode query,
+        SelectNode cachedQuery,
+        XmlaOlap4jCellSet.Snapshot cached)
+    {
+        if (!query.getWithList().isEmpty()
+            || !cachedQuery.getWithList().isEmpty()
+            || query.getFrom() == null
+            || cachedQuery.getFrom() == null
+            || !unparse(query.getFrom()).equals(
+                unparse(cachedQuery.getFrom()))
+            || !query.getCellPropertyList().toString().equals(
+                cachedQuery.getCellPropertyList().toString()))
+        {
+            return null;
+        }
+
+        // The slicer must contain the cached slicer; the remaining members
+        // are "extra".
+        final List<List<String>> slicer =
+            slicerNames(query.getFilterAxis());
+        final List<List<String>> cachedSlicer =
+            slicerNames(cachedQuery.getFilterAxis());
+        if (slicer == null
+            || cachedSlicer == null
+            || !slicer.containsAll(cachedSlicer))
+        {
+            return null;
+        }
+        final List<List<String>> extraNames =
+            new ArrayList<List<String>>(slicer);
+        extraNames.removeAll(cachedSlicer);
+
+        // Index the positions of the cached cell set. Axes are in ordinal
+        // order, followed by the filter axis.
+        final List<List<Position>> cachedAxes =
+            new ArrayList<List<Position>>();
+        List<Position> cachedFilter = null;
+        for (int i = 0; i < cached.axes.length; i++) {
+            if (cached.axes[i].isFilter()) {
+                cachedFilter = cached.positionLists.get(i);
+            } else {
+                cachedAxes.add(cached.positionLists.get(i));
+            }
+        }
+        if (cachedFilter == null || cachedFilter.size() != 1) {
+            return null;
+        }
+        final Map<List<String>, Member> membersByName =
+            new HashMap<List<String>, Member>();
+        final List<Map<List<String>, Integer>> positionIndexes =
+            new ArrayList<Map<List<String>, Integer>>();
+        for (List<Position> positions : cachedAxes) {
+            final Map<List<String>, Integer> positionIndex =
+                new HashMap<List<String>, Integer>();
+            for (Position position : positions) {
+                final List<String> uniqueNames = new ArrayList<String>();
+                for (Member member : position.getMembers()) {
+                    uniqueNames.add(member.getUniqueName());
+                    final List<String> names = names(member);
+                    if (names != null) {
+                        membersByName.put(names, member);
+                    }
+                }
+                positionIndex.put(uniqueNames, position.getOrdinal());
+            }
+            positionIndexes.add(positionIndex);
+        }
+
+        // Where each hierarchy occurs in the cached cell set: axis, and
+        // position within tuple.
+        final Map<String, int[]> places = new HashMap<String, int[]>();
+        for (int a = 0; a < cachedAxes.size(); a++) {
+            final List<Hierarchy> hierarchies =
+                cached.metaData.getAxesMetaData().get(a).getHierarchies();
+            for (int j = 0; j < hierarchies.size(); j++) {
+                if (places.put(
+                        hierarchies.get(j).getUniqueName(),
+                        new int[] {a, j}) != null)
+                {
+                    return null;
+                }
+            }
+        }
+
+        // Resolve the members of the axes and slicer of the query.
+        final List<AxisNode> axisNodes =
+            new ArrayList<AxisNode>(query.getAxisList());
+        Collections.sort(
+            axisNodes,
+            new Comparator<AxisNode>() {
+                public int compare(AxisNode o1, AxisNode o2) {
+                    return o1.getAxis().axisOrdinal()
+                        - o2.getAxis().axisOrdinal();
+                }
+            });
+        final List<List<List<Member>>> axes =
+            new ArrayList<List<List<Member>>>();
+        for (int k = 0; k < axisNodes.size(); k++) {
+            final AxisNode axisNode = axisNodes.get(k);
+            if (axisNode.getAxis().axisOrdinal() != k
+                || axisNode.isNonEmpty()
+                || !axisNode.getDimensionProperties().isEmpty())
+            {
+                return null;
+            }
+            final List<List<List<String>>> tupleNames =
+                tupleNames(axisNode.getExpression());
+            if (tupleNames == null || tupleNames.isEmpty()) {
+                return null;
+            }
+            final List<List<Member>> tuples = new ArrayList<List<Member>>();
+            for (List<List<String>> names : tupleNames) {
+                final List<Member> tuple = resolve(membersByName, names);
+                if (tuple == null) {
+                    return null;
+                }
+                tuples.add(tuple);
+            }
+            axes.add(tuples);
+        }
+        final List<Member> extras = resolve(membersByName, extraNames);
+        if (extras == null) {
+            return null;
+        }
+
+        // The axes and the extra slicer members must use each hierarchy of
+        // the cached axes exactly once.
+        final Set<String> seen = new HashSet<String>();
+        final List<int[][]> axisPlaces = new ArrayList<int[][]>();
+        for (List<List<Member>> tuples : axes) {
+            final List<Member> first = tuples.get(0);
+            final int[][] tuplePlaces = new int[first.size()][];
+            for (int e = 0; e < first.size(); e++) {
+                final String hierarchyName =
+                    first.get(e).getHierarchy().getUniqueName();
+                tuplePlaces[e] = places.get(hierarchyName);
+                if (tuplePlaces[e] == null || !seen.add(hierarchyName)) {
+                    return null;
+                }
+            }
+            for (List<Member> tuple : tuples) {
+                if (tuple.size() != first.size()) {
+                    return null;
+                }
+                for (int e = 0; e < tuple.size(); e++) {
+                    if (!tuple.get(e).getHierarchy().equals(
+                            first.get(e).getHierarchy()))
+                    {
+                        return null;
+                    }
+                }
+            }
+            axisPlaces.add(tuplePlaces);
+        }
+        final String[][] keys = new String[cachedAxes.size()][];
+        for (int a = 0; a < keys.length; a++) {
+            keys[a] =
+                new String[
+                    cached.metaData.getAxesMetaData().get(a)
+                        .getHierarchies().size()];
+        }
+        for (Member extra : extras) {
+            final String hierarchyName = extra.getHierarchy().getUniqueName();
+            final int[] place = places.get(hierarchyName);
+            if (place == null || !seen.add(hierarchyName)) {
+                return null;
+            }
+            keys[place[0]][place[1]] = extra.getUniqueName();
+        }
+        if (seen.size() != places.size()) {
+            return null;
+        }
+
+        // Copy the cells.
+        int cellCount = 1;
+        for (List<List<Member>> tuples : axes) {
+            cellCount *= tuples.size();
+        }
+        final XmlaOlap4jCellStore cellStore = new XmlaOlap4jCellStore();
+        for (int ordinal = 0; ordinal < cellCount; ordinal++) {
+            int remainder = ordinal;
+            for (int k = 0; k < axes.size(); k++) {
+                final List<List<Member>> tuples = axes.get(k);
+                final List<Member> tuple =
+                    tuples.get(remainder % tuples.size());
+                remainder /= tuples.size();
+                final int[][] tuplePlaces = axisPlaces.get(k);
+                for (int e = 0; e < tuple.size(); e++) {
+                    keys[tuplePlaces[e][0]][tuplePlaces[e][1]] =
+                        tuple.get(e).getUniqueName();
+                }
+            }
+            int cachedOrdinal = 0;
+            int modulo = 1;
+            for (int a = 0; a < keys.length; a++) {
+                final Integer coordinate =
+                    positionIndexes.get(a).get(Arrays.asList(keys[a]));
+                if (coordinate == null) {
+                    return null;
+                }
+                cachedOrdinal += coordinate * modulo;
+                modulo *= cachedAxes.get(a).size();
+            }
+            final int i = cached.cellStore.indexOf(cachedOrdinal);
+            if (i >= 0) {
+                cellStore.add(
+                    ordinal,
+                    cached.cellStore.getValue(i),
+                    cached.cellStore.getFormattedValue(i),
+                    cached.cellStore.getPropertyValues(i));
+            }
+        }
+        cellStore.freeze(cellCount);
+
+        // Build positions and metadata.
+        final Axis[] snapshotAxes = new Axis[axes.size() + 1];
+        final List<List<Position>> positionLists =
+            new ArrayList<List<Position>>();
+        final List<CellSetAxisMetaData> axisMetaDataList =
+            new ArrayList<CellSetAxisMetaData>();
+        for (int k = 0; k < axes.size(); k++) {
+            final List<Position> positions = new ArrayList<Position>();
+            for (List<Member> tuple : axes.get(k)) {
+                positions.add(
+                    new XmlaOlap4jPosition(tuple, positions.size()));
+            }
+            snapshotAxes[k] = Axis.Factory.forOrdinal(k);
+            positionLists.add(positions);
+            axisMetaDataList.add(
+                new XmlaOlap4jCellSetAxisMetaData(
+                    connection,
+                    snapshotAxes[k],
+                    hierarchies(axes.get(k).get(0)),
+                    Collections.<XmlaOlap4jCellSetMemberProperty>emptyList()));
+        }
+        final List<Member> filterMembers =
+            new ArrayList<Member>(cachedFilter.get(0).getMembers());
+        for (Member extra : extras) {
+            int e = 0;
+            while (e < filterMembers.size()
+                && !filterMembers.get(e).getHierarchy().equals(
+                    extra.getHierarchy()))
+            {
+                ++e;
+            }
+            if (e < filterMembers.size()) {
+                filterMembers.set(e, extra);
+            } else {
+                filterMembers.add(extra);
+            }
+        }
+        final List<Hierarchy> filterHierarchies = hierarchies(filterMembers);
+        final List<XmlaOlap4jCellSetMemberProperty> filterProperties =
+            new ArrayList<XmlaOlap4jCellSetMemberProperty>();
+        final List<XmlaOlap4jCellSetMemberProperty> cachedFilterProperties =
+            Olap4jUtil.cast(
+                cached.metaData.getFilterAxisMetaData().getProperties());
+        for (XmlaOlap4jCellSetMemberProperty property
+            : cachedFilterProperties)
+        {
+            if (filterHierarchies.contains(property.hierarchy)) {
+                filterProperties.add(property);
+            }
+        }
+        snapshotAxes[axes.size()] = Axis.FILTER;
+        positionLists.add(
+            Collections.<Position>singletonList(
+                new XmlaOlap4jPosition(filterMembers, 0)));
+        final XmlaOlap4jCellSetMetaData metaData =
+            cached.metaData.withAxes(
+                new XmlaOlap4jCellSetAxisMetaData(
+                    connection,
+                    Axis.FILTER,
+                    filterHierarchies,
+                    filterProperties),
+                axisMetaDataList);
+        return new XmlaOlap4jCellSet.Snapshot(
+            metaData, cellStore, snapshotAxes, positionLists);
+    }
+
+    private static List<Hierarchy> hierarchies(List<Member> members) {
+        final List<Hierarchy> hierarchies = new ArrayList<Hierarchy>();
+        for (Member member : members) {
+            hierarchies.add(member.getHierarchy());
+        }
+        return hierarchies;
+    }
+
+    private static List<Member> resolve(
+        Map<List<String>, Member> membersByName,
+        List<List<String>> names)
+    {
+        final List<Member> members = new ArrayList<Member>();
+        for (List<String> name : names) {
+            final Member member = membersByName.get(name);
+            if (member == null) {
+                return null;
+            }
+            members.add(member);
+        }
+        return members;
+    }
+
+    /**
+     * Returns the names of the members of the slicer of a query, or null if
+     * the slicer is not a member or tuple. A query with no slicer has an
+     * empty list.
+     */
+    private static List<List<String>> slicerNames(AxisNode filterAxis) {
+        ParseTreeNode expression = filterAxis.getExpression();
+        if (expression == null) {
+            return Collections.emptyList();
+        }
+        if (expression instanceof CallNode
+            && ((CallNode) expression).getSyntax() == Syntax.Braces
+            && ((CallNode) expression).getArgList().size() == 1)
+        {
+            expression = ((CallNode) expression).getArgList().get(0);
+        }
+        return tupleNames1(expression);
+    }
+
+    /**
+     * Returns the names of the tuples of an axis expression, or null if the
+     * expression is not a set of members or tuples.
+     */
+    private static List<List<List<String>>> tupleNames(
+        ParseTreeNode expression)
+    {
+        final List<ParseTreeNode> tupleNodes;
+        if (expression instanceof IdentifierNode) {
+            tupleNodes = Collections.singletonList(expression);
+        } else if (expression instanceof CallNode
+            && ((CallNode) expression).getSyntax() == Syntax.Braces)
+        {
+            tupleNodes = ((CallNode) expression).getArgList();
+        } else {
+            return null;
+        }
+        final List<List<List<String>>> tuples =
+            new ArrayList<List<List<String>>>();
+        for (ParseTreeNode tupleNode : tupleNodes) {
+            final List<List<String>> tuple = tupleNames1(tupleNode);
+            if (tuple == null) {
+                return null;
+            }
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    /**
+     * Returns the names of the members of a member or tuple expression, or
+     * null if the expression is not a member or tuple.
+     */
+    private static List<List<String>> tupleNames1(ParseTreeNode expression) {
+        final List<ParseTreeNode> memberNodes;
+        if (expression instanceof IdentifierNode) {
+            memberNodes = Collections.singletonList(expression);
+        } else if (expression instanceof CallNode
+            && ((CallNode) expression).getSyntax() == Syntax.Parentheses)
+        {
+            memberNodes = ((CallNode) expression).getArgList();
+        } else {
+            return null;
+        }
+        final List<List<String>> tuple = new ArrayList<List<String>>();
+        for (ParseTreeNode memberNode : memberNodes) {
+            if (!(memberNode instanceof IdentifierNode)) {
+                return null;
+            }
+            final List<String> names =
+                names(((IdentifierNode) memberNode).getSegmentList());
+            if (names == null) {
+                return null;
+            }
+            tuple.add(names);
+        }
+        return tuple;
+    }
+
+    /**
+     * Returns the segments of a member's unique name, or null if its unique
+     * name cannot be parsed.
+     */
+    private static List<String> names(Member member) {
+        try {
+            return names(
+                IdentifierNode.parseIdentifier(member.getUniqueName())
+                    .getSegmentList());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static List<String> names(List<IdentifierSegment> segments) {
+        final List<String> names = new ArrayList<String>();
+        for (IdentifierSegment segment : segments) {
+            if (!(segment instanceof NameSegment)) {
+                return null;
+            }
+            names.add(segment.getName());
+        }
+        return names;
+    }
+
+    private static String unparse(ParseTreeNode node) {
+        final StringWriter sw = new StringWriter();
+        node.unparse(new ParseTreeWriter(sw));
+        return sw.toString();
+    }
+}
+
+// End XmlaOlap4jQueryContainment.java
@@ -0,0 +1,387 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+import org.olap4j.impl.Olap4jUtil;
+import org.olap4j.mdx.ParseTreeWriter;
+import org.olap4j.mdx.SelectNode;
+import org.olap4j.mdx.parser.impl.DefaultMdxParserImpl;
+
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * Cache of populated cell sets, held by a connection.
+ *
+ * <p>Even when the SOAP cache holds the response to a query, executing the
+ * query again parses the response, looks up every member, and rebuilds
+ * positions and cells. This cache instead holds a
+ * {@link XmlaOlap4jCellSet.Snapshot} of each cell set, from which a new
+ * cell set can be populated without sending a request or parsing a
+ * response.
+ *
+ * <p>Entries are keyed by the structure of the query, that is, its parse
+ * tree unparsed by {@link ParseTreeWriter}, so that queries that differ only
+ * in white space, comments or keyword case share an entry; and by the
+ * connection state that affects its result: database, catalog, role and
+ * locale. A query that cannot be parsed is keyed by its text.
+ *
+ * <p>The cache holds at most {@link XmlaOlap4jDriver.Property#RESULTCACHE}
+ * entries, evicting the least recently used. Entries expire
+ * {@link XmlaOlap4jDriver.Property#RESULTCACHETIMEOUT} seconds after they
+ * were cached. {@link XmlaOlap4jDriver#flushResultCache} removes all
+ * entries.
+ *
+ * <p>If {@link XmlaOlap4jDriver.Property#RESULTCACHECONTAINMENT} is true and
+ * the cache holds no cell set for a query, the cache tries to project the
+ * query's cell set from the cell set of another query in the same connection
+ * state; see {@link XmlaOlap4jQueryContainment}.
+ *
+ * @author agent
+ */
+class XmlaOlap4jResultCache {
+    /**
+     * Number of queries whose unparsed form is remembered.
+     */
+    private static final int MDX_MEMO_SIZE = 256;
+
+    private final XmlaOlap4jConnection connection;
+
+    private final long timeoutMillis;
+
+    /**
+     * Whether to answer queries from cell sets that contain their result.
+     */
+    private final boolean containment;
+
+    private final Map<Key, CachedCellSet> map;
+
+    /**
+     * Unparsed form of recent queries, so that repeating a query does not
+     * parse it again.
+     */
+    private final Map<String, String> mdxMemo =
+        new LinkedHashMap<String, String>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                Map.Entry<String, String> eldest)
+            {
+                return size() > MDX_MEMO_SIZE;
+            }
+        };
+
+    /**
+     * Creates a result cache.
+     *
+     * @param connection Connection
+     * @param size Maximum number of entries
+     * @param timeoutSeconds Number of seconds after which an entry expires,
+     *   or 0 if entries do not expire
+     * @param containment Whether to answer queries from cell sets that
+     *   contain their result
+     */
+    XmlaOlap4jResultCache(
+        XmlaOlap4jConnection connection,
+        final int size,
+        int timeoutSeconds,
+        boolean containment)
+    {
+        this.connection = connection;
+        this.timeoutMillis = timeoutSeconds * 1000L;
+        this.containment = containment;
+        this.map =
+            new LinkedHashMap<Key, CachedCellSet>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(
+                    Map.Entry<Key, CachedCellSet> eldest)
+                {
+                    return size() > size;
+                }
+            };
+    }
+
+    /**
+     * Creates a result cache as specified by connection properties, or
+     * returns null if the connection does not cache results.
+     *
+     * @param connection Connection
+     * @param properties Connection properties
+     * @return Result cache, or null
+     * @throws OlapException if properties are invalid
+     */
+    static XmlaOlap4jResultCache create(
+        XmlaOlap4jConnection connection,
+        Map<String, String> properties)
+        throws OlapException
+    {
+        final int size =
+            XmlaOlap4jDriver.Property.RESULTCACHE.intValue(properties, 0, 0);
+        if (size == 0) {
+            return null;
+        }
+        final String containment =
+            properties.get(
+                XmlaOlap4jDriver.Property.RESULTCACHECONTAINMENT.name());
+        return new XmlaOlap4jResultCache(
+            connection,
+            size,
+            XmlaOlap4jDriver.Property.RESULTCACHETIMEOUT.intValue(
+                properties, 0, 0),
+            containment != null && Boolean.valueOf(containment.trim()));
+    }
+
+    /**
+     * Creates the key for a query executed on a connection in its current
+     * state.
+     *
+     * @param connection Connection
+     * @param mdx Query text
+     * @return Key
+     * @throws OlapException if connection state cannot be read
+     */
+    Key key(XmlaOlap4jConnection connection, String mdx)
+        throws OlapException
+    {
+        String unparsed;
+        synchronized (mdxMemo) {
+            unparsed = mdxMemo.get(mdx);
+        }
+        if (unparsed == null) {
+            try {
+                unparsed =
+                    unparse(new DefaultMdxParserImpl().parseSelect(mdx));
+            } catch (RuntimeException e) {
+                // Not a SELECT statement (say DRILLTHROUGH), or not valid.
+                // Key on the text; the server will report any error.
+                unparsed = mdx;
+            }
+            synchronized (mdxMemo) {
+                mdxMemo.put(mdx, unparsed);
+            }
+        }
+        return new Key(connection, unparsed);
+    }
+
+    /**
+     * Creates the key for a parsed query executed on a connection in its
+     * current state.
+     *
+     * @param connection Connection
+     * @param selectNode Parse tree of query
+     * @return Key
+     * @throws OlapException if connection state cannot be read
+     */
+    Key key(XmlaOlap4jConnection connection, SelectNode selectNode)
+        throws OlapException
+    {
+        return new Key(connection, unparse(selectNode));
+    }
+
+    private static String unparse(SelectNode selectNode) {
+        final StringWriter sw = new StringWriter();
+        selectNode.unparse(new ParseTreeWriter(sw));
+        return sw.toString();
+    }
+
+    /**
+     * Returns the snapshot of the cell set of a query, or null if it is not
+     * cached or has expired.
+     *
+     * <p>If containment is enabled and the query is not cached, tries to
+     * project the snapshot from the cached cell set of another query, and
+     * caches the result.
+     *
+     * @param key Key
+     * @return Snapshot, or null
+     */
+    XmlaOlap4jCellSet.Snapshot get(Key key) {
+        final List<CachedCellSet> candidates;
+        synchronized (map) {
+            final CachedCellSet entry = map.get(key);
+            if (entry != null) {
+                if (!isExpired(entry)) {
+                    return entry.snapshot;
+                }
+                map.remove(key);
+            }
+            if (!containment) {
+                return null;
+            }
+            candidates = new ArrayList<CachedCellSet>();
+            for (Map.Entry<Key, CachedCellSet> e : map.entrySet()) {
+                if (e.getValue().selectNode != null
+                    && e.getKey().sameState(key)
+                    && !isExpired(e.getValue()))
+                {
+                    candidates.add(e.getValue());
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        final SelectNode selectNode = parse(key.mdx);
+        if (selectNode == null) {
+            return null;
+        }
+        for (CachedCellSet candidate : candidates) {
+            final XmlaOlap4jCellSet.Snapshot snapshot =
+                XmlaOlap4jQueryContainment.project(
+                    connection,
+                    selectNode,
+                    candidate.selectNode,
+                    candidate.snapshot);
+            if (snapshot != null) {
+                put(key, snapshot);
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private boolean isExpired(CachedCellSet entry) {
+        return timeoutMillis > 0
+            && System.currentTimeMillis() - entry.created >= timeoutMillis;
+    }
+
+    /**
+     * Parses a query, returning null if it is not a valid SELECT statement.
+     */
+    private static SelectNode parse(String mdx) {
+        try {
+            return new DefaultMdxParserImpl().parseSelect(mdx);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Caches the snapshot of the cell set of a query.
+     *
+     * @param key Key
+     * @param snapshot Snapshot
+     */
+    void put(Key key, XmlaOlap4jCellSet.Snapshot snapshot) {
+        final CachedCellSet entry =
+            new CachedCellSet(
+                snapshot,
+                containment ? parse(key.mdx) : null,
+                System.currentTimeMillis());
+        synchronized (map) {
+            map.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        synchronized (map) {
+            map.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries, including expired entries that have
+     * not yet been removed.
+     *
+     * @return Number of entries
+     */
+    int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    /**
+     * Cached snapshot, the parse tree of its query if containment is enabled,
+     * and when it was cached.
+     */
+    private static class CachedCellSet {
+        final XmlaOlap4jCellSet.Snapshot snapshot;
+        final SelectNode selectNode;
+        final long created;
+
+        CachedCellSet(
+            XmlaOlap4jCellSet.Snapshot snapshot,
+            SelectNode selectNode,
+            long created)
+        {
+            this.snapshot = snapshot;
+            this.selectNode = selectNode;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Key of an entry: the unparsed query, and the state of the connection
+     * that affects its result.
+     */
+    static class Key {
+        private final String mdx;
+        private final String database;
+        private final String catalog;
+        private final String roleName;
+        private final Locale locale;
+        private final int hash;
+
+        private Key(XmlaOlap4jConnection connection, String mdx)
+            throws OlapException
+        {
+            this.mdx = mdx;
+            this.database = connection.getDatabase();
+            this.catalog = connection.getCatalog();
+            this.roleName = connection.getRoleName();
+            this.locale = connection.getLocale();
+            this.hash =
+                Arrays.asList(mdx, database, catalog, roleName, locale)
+                    .hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return hash == that.hash
+                && mdx.equals(that.mdx)
+                && sameState(that);
+        }
+
+        /**
+         * Returns whether this key has the same connection state as another.
+         *
+         * @param that Other key
+         * @return Whether database, catalog, role and locale are the same
+         */
+        boolean sameState(Key that) {
+            return Olap4jUtil.equal(database, that.database)
+                && Olap4jUtil.equal(catalog, that.catalog)
+                && Olap4jUtil.equal(roleName, that.roleName)
+                && locale.equals(that.locale);
+        }
+    }
+}
+
+// End XmlaOlap4jResultCache.java
@@ -0,0 +1,150 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.w3c.dom.Element;
+
+/**
+ * Flat view of one row of the response to an XMLA Discover request,
+ * mapping column names to their text.
+ *
+ * <p>Rows are re-used: the reader that produces them clears and re-fills
+ * the same object for each <code>&lt;row&gt;</code> element. Consumers must
+ * therefore copy any values they want to keep, and must not retain the row
+ * itself.
+ *
+ * <p>A typical row has a few dozen columns, so columns are held in parallel
+ * arrays and located by linear search.
+ *
+ * @see XmlaOlap4jRowsetSaxHandler
+ * @author agent
+ */
+final class XmlaOlap4jRow {
+    private String namespaceURI;
+    private String[] names = new String[32];
+    private String[] values = new String[32];
+    private int count;
+
+    /**
+     * Creates an empty row.
+     */
+    XmlaOlap4jRow() {
+    }
+
+    /**
+     * Removes all columns, ready to read the next row.
+     *
+     * @param namespaceURI Namespace of the row element
+     */
+    void clear(String namespaceURI) {
+        this.namespaceURI = namespaceURI;
+        for (int i = 0; i < count; i++) {
+            names[i] = null;
+            values[i] = null;
+        }
+        count = 0;
+    }
+
+    /**
+     * Adds a column.
+     *
+     * @param name Column name (local name of element)
+     * @param value Text of element
+     */
+    void add(String name, String value) {
+        if (count == names.length) {
+            final String[] newNames = new String[count * 2];
+            final String[] newValues = new String[count * 2];
+            System.arraycopy(names, 0, newNames, 0, count);
+            System.arraycopy(values, 0, newValues, 0, count);
+            names = newNames;
+            values = newValues;
+        }
+        names[count] = name;
+        values[count] = value;
+        ++count;
+    }
+
+    /**
+     * Clears this row and fills it from the child elements of a DOM element.
+     *
+     * @param row Row element
+     */
+    void fill(Element row) {
+        clear(row.getNamespaceURI());
+        for (Element child : XmlaOlap4jUtil.childElements(row)) {
+            add(child.getLocalName(), child.getTextContent());
+        }
+    }
+
+    /**
+     * Returns the namespace of the row element.
+     *
+     * @return Namespace URI, or null
+     */
+    String getNamespaceURI() {
+        return namespaceURI;
+    }
+
+    /**
+     * Returns the number of columns in this row.
+     *
+     * @return Number of columns
+     */
+    int getColumnCount() {
+        return count;
+    }
+
+    /**
+     * Returns the name of the <code>i</code>th column.
+     *
+     * @param i Column ordinal
+     * @return Column name
+     */
+    String getColumnName(int i) {
+        return names[i];
+    }
+
+    /**
+     * Returns the value of the <code>i</code>th column.
+     *
+     * @param i Column ordinal
+     * @return Column value
+     */
+    String getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Returns the value of the first column with a given name, or null if
+     * there is no such column.
+     *
+     * @param name Column name
+     * @return Column value, or null
+     */
+    String get(String name) {
+        for (int i = 0; i < count; i++) {
+            if (name.equals(names[i])) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+}
+
+// End XmlaOlap4jRow.java
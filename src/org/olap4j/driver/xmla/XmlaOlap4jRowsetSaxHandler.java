@@ -0,0 +1,163 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import static org.olap4j.driver.xmla.XmlaOlap4jUtil.*;
+
+/**
+ * SAX handler that reads the response to an XMLA Discover request one row
+ * at a time, without building a DOM.
+ *
+ * <p>Each <code>&lt;row&gt;</code> element is read into the same
+ * {@link XmlaOlap4jRow} and passed to {@link #handleRow}; so no more than one
+ * row is held in memory, however large the response.
+ *
+ * <p>If the response contains a SOAP fault, parsing stops with a
+ * {@link XmlaOlap4jCellSetSaxHandler.FaultException}; the caller is
+ * expected to re-parse the response using the DOM to produce a detailed
+ * error message.
+ *
+ * @see XmlaOlap4jConnection#executeMetadataRequest
+ * @author agent
+ */
+abstract class XmlaOlap4jRowsetSaxHandler extends DefaultHandler {
+    private final XmlaOlap4jRow row = new XmlaOlap4jRow();
+    private final StringBuilder text = new StringBuilder();
+
+    /** Current element depth; 0 outside the document element. */
+    private int depth;
+
+    /** Depth of the rowset <code>root</code> element, or -1. */
+    private int rootDepth = -1;
+
+    /** Depth of the current column element, or -1. */
+    private int columnDepth = -1;
+    private String columnName;
+    private boolean inRow;
+    private boolean inHeader;
+
+    /**
+     * Called for each row. The row is re-used for the next row, so
+     * implementations must not retain it.
+     *
+     * @param row Row
+     * @throws OlapException on error
+     */
+    abstract void handleRow(XmlaOlap4jRow row) throws OlapException;
+
+    /**
+     * Called if the SOAP header contains a <code>Session</code> element.
+     *
+     * @param sessionId Session id, or null if empty
+     */
+    abstract void handleSession(String sessionId);
+
+    public void startElement(
+        String uri,
+        String localName,
+        String qName,
+        Attributes attributes)
+        throws SAXException
+    {
+        final int level = depth++ - rootDepth;
+        if (rootDepth < 0) {
+            if (SOAP_NS.equals(uri)) {
+                if (localName.equals("Fault")) {
+                    throw new XmlaOlap4jCellSetSaxHandler.FaultException();
+                }
+                if (localName.equals("Header")) {
+                    inHeader = true;
+                }
+            } else if (inHeader
+                && localName.equals("Session")
+                && XMLA_NS.equals(uri))
+            {
+                String sessionId = attributes.getValue("SessionId");
+                if ("".equals(sessionId)) {
+                    sessionId = null;
+                }
+                handleSession(sessionId);
+            } else if (localName.equals("root") && ROWSET_NS.equals(uri)) {
+                rootDepth = depth - 1;
+            }
+            return;
+        }
+        switch (level) {
+        case 1:
+            inRow = localName.equals("row");
+            if (inRow) {
+                row.clear(uri.length() == 0 ? null : uri);
+            }
+            break;
+        case 2:
+            if (inRow) {
+                columnDepth = depth - 1;
+                columnName = localName;
+                text.setLength(0);
+            }
+            break;
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName)
+        throws SAXException
+    {
+        final int level = --depth - rootDepth;
+        if (rootDepth < 0) {
+            if (localName.equals("Header") && SOAP_NS.equals(uri)) {
+                inHeader = false;
+            }
+            return;
+        }
+        switch (level) {
+        case 0:
+            rootDepth = -1;
+            break;
+        case 1:
+            if (inRow) {
+                inRow = false;
+                try {
+                    handleRow(row);
+                } catch (OlapException e) {
+                    throw new SAXException(e);
+                }
+            }
+            break;
+        case 2:
+            if (columnDepth == depth) {
+                row.add(columnName, text.toString());
+                columnDepth = -1;
+            }
+            break;
+        }
+    }
+
+    public void characters(char[] ch, int start, int length) {
+        if (columnDepth >= 0) {
+            text.append(ch, start, length);
+        }
+    }
+}
+
+// End XmlaOlap4jRowsetSaxHandler.java
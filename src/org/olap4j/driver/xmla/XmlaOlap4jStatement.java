@@ -19,10 +19,14 @@ package org.olap4j.driver.xmla;
 
 import org.olap4j.*;
 import org.olap4j.driver.xmla.XmlaOlap4jConnection.BackendFlavor;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jProxy;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jStreamingProxy;
 import org.olap4j.mdx.*;
 
-import java.io.StringWriter;
+import java.io.*;
 import java.sql.*;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.*;
 
 /**
@@ -33,6 +37,13 @@ import java.util.concurrent.*;
  * @since May 24, 2007
  */
 abstract class XmlaOlap4jStatement implements OlapStatement {
+    /**
+     * Timer that closes the responses of statements whose query timeout
+     * has expired.
+     */
+    private static final Timer TIMER =
+        new Timer("olap4j-xmla-query-timeout", true);
+
     final XmlaOlap4jConnection olap4jConnection;
     private boolean closed;
 
@@ -44,7 +55,26 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
     XmlaOlap4jCellSet openCellSet;
     private boolean canceled;
     int timeoutSeconds;
-    Future<byte []> future;
+    Future<InputStream> future;
+
+    /**
+     * Request of the current execution, or null. Unlike {@link #future},
+     * remains set after the response has arrived, until the next execution
+     * starts. Any method which modifies this member must synchronize on the
+     * {@link XmlaOlap4jStatement}.
+     */
+    private Future<InputStream> execution;
+
+    /**
+     * Response that is being parsed, or null. {@link #cancel()} closes it,
+     * which aborts parsing. Any method which modifies this member must
+     * synchronize on the {@link XmlaOlap4jStatement}.
+     */
+    private InputStream stream;
+
+    /** Whether the query timeout expired while the response was being
+     * read. */
+    private volatile boolean timedOut;
 
     // Tells this statement to cancel as soon as it starts.
     private boolean cancelEarly = false;
@@ -130,6 +160,9 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
                 if (future != null) {
                     canceled = true;
                     future.cancel(true);
+                } else if (stream != null) {
+                    canceled = true;
+                    close(stream);
                 } else {
                     this.cancelEarly = true;
                 }
@@ -137,6 +170,38 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
         }
     }
 
+    /**
+     * Cancels an execution, if it is still the current execution of this
+     * statement.
+     *
+     * @param execution Request of the execution
+     */
+    private synchronized void cancel(Future<InputStream> execution) {
+        if (execution != null && execution == this.execution) {
+            cancel();
+        }
+    }
+
+    /**
+     * Starts an execution: installs the future of its request, and resets
+     * the state left by the previous execution. If {@link #cancel()} was
+     * called before the execution started, cancels it. Caller must hold the
+     * monitor on this statement.
+     *
+     * @param future Request
+     */
+    private void startExecution(Future<InputStream> future) {
+        this.future = future;
+        this.execution = future;
+        canceled = false;
+        timedOut = false;
+        if (cancelEarly) {
+            cancelEarly = false;
+            canceled = true;
+            future.cancel(true);
+        }
+    }
+
     public SQLWarning getWarnings() throws SQLException {
         throw new UnsupportedOperationException();
     }
@@ -282,6 +347,219 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
     // implement OlapStatement
 
     public CellSet executeOlapQuery(String mdx) throws OlapException {
+        final XmlaOlap4jResultCache resultCache =
+            olap4jConnection.resultCache;
+        return executeOlapQuery(
+            mdx,
+            resultCache == null
+                ? null
+                : resultCache.key(olap4jConnection, mdx));
+    }
+
+    /**
+     * Executes a query, using the result cache if the connection has one.
+     *
+     * @param mdx Query text
+     * @param key Key of the query in the result cache, or null
+     * @return Cell set
+     * @throws OlapException on error
+     */
+    private CellSet executeOlapQuery(
+        String mdx,
+        XmlaOlap4jResultCache.Key key)
+        throws OlapException
+    {
+        if (key != null) {
+            final XmlaOlap4jCellSet.Snapshot snapshot =
+                olap4jConnection.resultCache.get(key);
+            if (snapshot != null) {
+                final XmlaOlap4jCellSet cellSet;
+                synchronized (this) {
+                    closeOpenCellSet();
+                    cellSet = olap4jConnection.factory.newCellSet(this);
+                    openCellSet = cellSet;
+                }
+                cellSet.populate(snapshot);
+                return cellSet;
+            }
+        }
+
+        final String request = createExecuteRequest(mdx);
+
+        // Close the previous open CellSet, if there is one.
+        synchronized (this) {
+            closeOpenCellSet();
+            startExecution(submit(request));
+            openCellSet = olap4jConnection.factory.newCellSet(this);
+        }
+        // Release the monitor before calling populate, so that cancel can
+        // grab the monitor if it needs to.
+        openCellSet.populate();
+        if (key != null) {
+            olap4jConnection.resultCache.put(key, openCellSet.snapshot());
+        }
+        return openCellSet;
+    }
+
+    /**
+     * Executes a query and passes the response to a SAX handler, rather than
+     * creating a cell set. As when a cell set is created, closes the cell
+     * set previously opened by this statement, and obeys the timeout and
+     * {@link #cancel()}. Does not use the result cache.
+     *
+     * @param mdx Query text
+     * @param handler Handler
+     * @throws OlapException on error, or if the response is a SOAP fault
+     */
+    void executeOlapQuery(String mdx, XmlaOlap4jCellSetSaxHandler handler)
+        throws OlapException
+    {
+        final String request = createExecuteRequest(mdx);
+        synchronized (this) {
+            closeOpenCellSet();
+            startExecution(submit(request));
+        }
+        final InputStream stream = getStream();
+        try {
+            XmlaOlap4jCellSet.parse(this, stream, handler);
+        } finally {
+            closeStream(stream);
+        }
+    }
+
+    /**
+     * Sends a request to the server.
+     *
+     * @param request Request
+     * @return Future response
+     */
+    private Future<InputStream> submit(String request) {
+        final XmlaOlap4jProxy proxy = olap4jConnection.proxy;
+        if (proxy instanceof XmlaOlap4jStreamingProxy) {
+            return ((XmlaOlap4jStreamingProxy) proxy).submitStream(
+                olap4jConnection.serverInfos, request);
+        } else {
+            return new ByteArrayStreamFuture(
+                proxy.submit(olap4jConnection.serverInfos, request));
+        }
+    }
+
+    public CellSet executeOlapQuery(
+        SelectNode selectNode)
+        throws OlapException
+    {
+        final String mdx = toString(selectNode);
+        final XmlaOlap4jResultCache resultCache =
+            olap4jConnection.resultCache;
+        return executeOlapQuery(
+            mdx,
+            resultCache == null
+                ? null
+                : resultCache.key(olap4jConnection, selectNode));
+    }
+
+    public CellSetFuture executeOlapQueryAsync(String mdx)
+        throws OlapException
+    {
+        final XmlaOlap4jResultCache resultCache =
+            olap4jConnection.resultCache;
+        final XmlaOlap4jResultCache.Key key =
+            resultCache == null
+                ? null
+                : resultCache.key(olap4jConnection, mdx);
+        final XmlaOlap4jCellSet.Snapshot snapshot =
+            key == null ? null : resultCache.get(key);
+        if (snapshot != null) {
+            final XmlaOlap4jCellSet cellSet;
+            synchronized (this) {
+                closeOpenCellSet();
+                cellSet = olap4jConnection.factory.newCellSet(this);
+                openCellSet = cellSet;
+            }
+            // Populating from a snapshot is quick, and does not talk to the
+            // server; there is no point using a thread.
+            cellSet.populate(snapshot);
+            return new XmlaOlap4jCellSetFuture(
+                olap4jConnection.executor.<CellSet>completedTask(cellSet),
+                null);
+        }
+        final String request = createExecuteRequest(mdx);
+        final XmlaOlap4jProxy proxy = olap4jConnection.proxy;
+        final XmlaOlap4jServerInfos serverInfos = olap4jConnection.serverInfos;
+
+        // The request is sent by the same thread that parses the response,
+        // rather than being submitted to the proxy separately, so that a
+        // query occupies one thread, not two.
+        final FutureTask<InputStream> requestTask =
+            new FutureTask<InputStream>(
+                new Callable<InputStream>() {
+                    public InputStream call() throws Exception {
+                        if (proxy instanceof XmlaOlap4jStreamingProxy) {
+                            return ((XmlaOlap4jStreamingProxy) proxy)
+                                .getStream(serverInfos, request);
+                        }
+                        return new ByteArrayInputStream(
+                            proxy.get(serverInfos, request));
+                    }
+                });
+        final XmlaOlap4jCellSet cellSet;
+        synchronized (this) {
+            closeOpenCellSet();
+            startExecution(requestTask);
+            cellSet = olap4jConnection.factory.newCellSet(this);
+            openCellSet = cellSet;
+        }
+        final XmlaOlap4jExecutor.Task<CellSet> task =
+            olap4jConnection.executor.submitTask(
+                serverInfos,
+                new Callable<CellSet>() {
+                    public CellSet call() throws OlapException {
+                        requestTask.run();
+                        cellSet.populate();
+                        if (key != null) {
+                            resultCache.put(key, cellSet.snapshot());
+                        }
+                        return cellSet;
+                    }
+                });
+        return new XmlaOlap4jCellSetFuture(task, requestTask);
+    }
+
+    public CellSetFuture executeOlapQueryAsync(
+        SelectNode selectNode)
+        throws OlapException
+    {
+        final String mdx = toString(selectNode);
+        return executeOlapQueryAsync(mdx);
+    }
+
+    /**
+     * Closes the cell set most recently opened by this statement, if it
+     * is still open. Caller must hold the monitor on this statement.
+     *
+     * @throws OlapException if error occurs while closing
+     */
+    private void closeOpenCellSet() throws OlapException {
+        if (openCellSet != null) {
+            final XmlaOlap4jCellSet cs = openCellSet;
+            openCellSet = null;
+            try {
+                cs.close();
+            } catch (SQLException e) {
+                throw getHelper().createException(
+                    "Error while closing previous CellSet", e);
+            }
+        }
+    }
+
+    /**
+     * Creates the SOAP request to execute an MDX statement.
+     *
+     * @param mdx MDX statement
+     * @return SOAP request
+     * @throws OlapException if error occurs while reading connection state
+     */
+    private String createExecuteRequest(String mdx) throws OlapException {
         final String catalog = olap4jConnection.getCatalog();
         final String roleName = olap4jConnection.getRoleName();
         final String propList = olap4jConnection.makeConnectionPropertyList();
@@ -338,41 +616,7 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
             + "</Execute>\n"
             + "</soapenv:Body>\n"
             + "</soapenv:Envelope>");
-        final String request = buf.toString();
-
-        // Close the previous open CellSet, if there is one.
-        synchronized (this) {
-            if (openCellSet != null) {
-                final XmlaOlap4jCellSet cs = openCellSet;
-                openCellSet = null;
-                try {
-                    cs.close();
-                } catch (SQLException e) {
-                    throw getHelper().createException(
-                        "Error while closing previous CellSet", e);
-                }
-            }
-
-            this.future =
-                olap4jConnection.proxy.submit(
-                    olap4jConnection.serverInfos, request);
-            openCellSet = olap4jConnection.factory.newCellSet(this);
-        }
-        if (cancelEarly) {
-            cancel();
-        }
-        // Release the monitor before calling populate, so that cancel can
-        // grab the monitor if it needs to.
-        openCellSet.populate();
-        return openCellSet;
-    }
-
-    public CellSet executeOlapQuery(
-        SelectNode selectNode)
-        throws OlapException
-    {
-        final String mdx = toString(selectNode);
-        return executeOlapQuery(mdx);
+        return buf.toString();
     }
 
     public void addListener(
@@ -385,30 +629,65 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
     }
 
     /**
-     * Waits for an XMLA request to complete.
+     * Waits for the response to an XMLA request to start arriving, and
+     * returns a stream from which to read it.
+     *
+     * <p>The stream remains open, and can be closed by {@link #cancel()},
+     * until the caller calls {@link #closeStream(InputStream)}. If the
+     * statement has a timeout, reading from the stream fails once the timeout
+     * has expired.
      *
      * <p>You must not hold the monitor on this Statement when calling this
      * method; otherwise {@link #cancel()} will not be able to operate.
      *
-     * @return Byte array resulting from successful request
+     * @return Stream containing the response
      *
      * @throws OlapException if error occurred, or request timed out or
      * was canceled
      */
-    byte[] getBytes() throws OlapException {
+    InputStream getStream() throws OlapException {
+        return getStream(null);
+    }
+
+    /**
+     * Waits for the response to the request of a cell set, and returns a
+     * stream from which to read it; see {@link #getStream()}.
+     *
+     * <p>If the statement has since started another execution, whose cell
+     * set has replaced this one, the execution of this cell set counts as
+     * canceled, and the request of the other execution is left alone.
+     *
+     * @param cellSet Cell set being populated, or null
+     * @return Stream containing the response
+     *
+     * @throws OlapException if error occurred, or request timed out or
+     * was canceled
+     */
+    InputStream getStream(XmlaOlap4jCellSet cellSet) throws OlapException {
+        final Future<InputStream> future;
         synchronized (this) {
-            if (future == null) {
+            if (cellSet != null && cellSet != openCellSet) {
+                throw getHelper().createException("Query canceled");
+            }
+            if (this.future == null) {
                 throw new IllegalArgumentException();
             }
+            future = this.future;
         }
+        timedOut = false;
+        final long deadline =
+            timeoutSeconds > 0
+                ? System.currentTimeMillis() + timeoutSeconds * 1000L
+                : 0;
+        InputStream stream;
         try {
             // Wait for the request to complete, with timeout if necessary.
             // Whether or not timeout is used, the request can still be
             // canceled.
             if (timeoutSeconds > 0) {
-                return future.get(timeoutSeconds, TimeUnit.SECONDS);
+                stream = future.get(timeoutSeconds, TimeUnit.SECONDS);
             } else {
-                return future.get();
+                stream = future.get();
             }
         } catch (InterruptedException e) {
             throw getHelper().createException(null, e);
@@ -421,12 +700,68 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
             throw getHelper().createException("Query canceled");
         } finally {
             synchronized (this) {
-                if (future == null) {
-                    throw new IllegalArgumentException();
+                if (this.future == future) {
+                    this.future = null;
                 }
-                future = null;
             }
         }
+        if (deadline > 0) {
+            stream = new DeadlineInputStream(stream, deadline);
+        }
+        synchronized (this) {
+            if (canceled || future != execution) {
+                // Canceled after the response arrived, or another
+                // execution has started.
+                close(stream);
+                throw getHelper().createException("Query canceled");
+            }
+            this.stream = stream;
+        }
+        return stream;
+    }
+
+    /**
+     * Closes a stream returned by {@link #getStream()}.
+     *
+     * @param stream Stream
+     */
+    void closeStream(InputStream stream) {
+        synchronized (this) {
+            if (this.stream == stream) {
+                this.stream = null;
+            }
+        }
+        close(stream);
+    }
+
+    /**
+     * Creates an exception for an error that occurred while reading the
+     * response stream. If the error occurred because the statement was
+     * canceled or timed out, says so.
+     *
+     * @param message Message
+     * @param e Cause
+     * @return Exception
+     */
+    OlapException createStreamException(String message, Exception e) {
+        synchronized (this) {
+            if (canceled) {
+                return getHelper().createException("Query canceled");
+            }
+        }
+        if (timedOut) {
+            return getHelper().createException(
+                "Query timeout of " + timeoutSeconds + " seconds exceeded");
+        }
+        return getHelper().createException(message, e);
+    }
+
+    private static void close(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // ignore
+        }
     }
 
     /**
@@ -441,6 +776,171 @@ abstract class XmlaOlap4jStatement implements OlapStatement {
         node.unparse(parseTreeWriter);
         return sw.toString();
     }
+
+    /**
+     * Adapts a future that yields a byte array, from a proxy that does not
+     * support streaming, to a future that yields a stream.
+     */
+    private static class ByteArrayStreamFuture
+        implements Future<InputStream>
+    {
+        private final Future<byte[]> future;
+
+        ByteArrayStreamFuture(Future<byte[]> future) {
+            this.future = future;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        public InputStream get()
+            throws InterruptedException, ExecutionException
+        {
+            return new ByteArrayInputStream(future.get());
+        }
+
+        public InputStream get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return new ByteArrayInputStream(future.get(timeout, unit));
+        }
+    }
+
+    /**
+     * Future cell set returned by {@link #executeOlapQueryAsync(String)}.
+     * Canceling the future cancels its execution, unless the statement has
+     * since started another.
+     */
+    private class XmlaOlap4jCellSetFuture implements CellSetFuture {
+        private final XmlaOlap4jExecutor.Task<CellSet> task;
+        private final Future<InputStream> execution;
+
+        /**
+         * Creates an XmlaOlap4jCellSetFuture.
+         *
+         * @param task Task that populates the cell set
+         * @param execution Request of the execution, or null if the cell
+         *   set was populated without sending a request
+         */
+        XmlaOlap4jCellSetFuture(
+            XmlaOlap4jExecutor.Task<CellSet> task,
+            Future<InputStream> execution)
+        {
+            this.task = task;
+            this.execution = execution;
+        }
+
+        public void addListener(Runnable listener, Executor executor) {
+            task.addListener(listener, executor);
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (task.isDone()) {
+                // Too late; and the statement may have moved on to another
+                // query, which must not be canceled.
+                return false;
+            }
+            XmlaOlap4jStatement.this.cancel(execution);
+            return task.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        public CellSet get()
+            throws InterruptedException, ExecutionException
+        {
+            return task.get();
+        }
+
+        public CellSet get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return task.get(timeout, unit);
+        }
+    }
+
+    /**
+     * Stream that fails if it is read after a deadline.
+     *
+     * <p>A timer closes the underlying stream when the deadline passes, so
+     * that a read that is blocked because the server has stalled in the
+     * middle of the response fails too. (Proxies' streams must allow
+     * {@link InputStream#close()} from another thread to unblock a read;
+     * {@link #cancel()} relies on the same thing.)
+     */
+    private class DeadlineInputStream extends FilterInputStream {
+        private final long deadline;
+        private final TimerTask task;
+
+        DeadlineInputStream(final InputStream in, long deadline) {
+            super(in);
+            this.deadline = deadline;
+            this.task =
+                new TimerTask() {
+                    public void run() {
+                        timedOut = true;
+                        try {
+                            XmlaOlap4jStatement.close(in);
+                        } catch (RuntimeException e) {
+                            // ignore; the timer thread must survive
+                        }
+                    }
+                };
+            TIMER.schedule(
+                task, Math.max(0L, deadline - System.currentTimeMillis()));
+        }
+
+        private void checkDeadline() throws IOException {
+            if (System.currentTimeMillis() > deadline) {
+                timedOut = true;
+            }
+            if (timedOut) {
+                throw new InterruptedIOException(
+                    "Query timeout of " + timeoutSeconds
+                    + " seconds exceeded");
+            }
+        }
+
+        public int read() throws IOException {
+            checkDeadline();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                checkDeadline();
+                throw e;
+            }
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkDeadline();
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                checkDeadline();
+                throw e;
+            }
+        }
+
+        public void close() throws IOException {
+            task.cancel();
+            super.close();
+        }
+    }
 }
 
 // End XmlaOlap4jStatement.java
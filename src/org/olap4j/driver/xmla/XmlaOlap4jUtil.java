@@ -19,11 +19,13 @@ package org.olap4j.driver.xmla;
 
 import org.apache.xerces.impl.Constants;
 import org.apache.xerces.parsers.DOMParser;
+import org.apache.xerces.parsers.SAXParser;
 import org.apache.xml.serialize.OutputFormat;
 import org.apache.xml.serialize.XMLSerializer;
 
 import org.w3c.dom.*;
 import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.*;
 import java.math.*;
@@ -87,6 +89,42 @@ abstract class XmlaOlap4jUtil {
         return parser.getDocument();
     }
 
+    /**
+     * Parses a stream, sending events to a SAX handler (no validation).
+     *
+     * <p>Unlike {@link #parse(byte[])}, does not build a Document, so
+     * memory use does not grow with the size of the stream.
+     *
+     * @param in Bytes to parse
+     * @param handler Handler to receive content events and errors
+     */
+    static void parse(byte[] in, DefaultHandler handler)
+        throws SAXException, IOException
+    {
+        parse(new ByteArrayInputStream(in), handler);
+    }
+
+    /**
+     * Parses a stream, sending events to a SAX handler (no validation).
+     * Events are sent as bytes arrive, so parsing can start before the
+     * whole stream is available.
+     *
+     * @param in Stream to parse
+     * @param handler Handler to receive content events and errors
+     */
+    static void parse(InputStream in, DefaultHandler handler)
+        throws SAXException, IOException
+    {
+        InputSource source = new InputSource(in);
+
+        SAXParser parser = new SAXParser();
+        parser.setFeature(NAMESPACES_FEATURE_ID, true);
+        parser.setFeature(VALIDATION_FEATURE_ID, false);
+        parser.setContentHandler(handler);
+        parser.setErrorHandler(handler);
+        parser.parse(source);
+    }
+
     /**
      * Get your non-cached DOM parser which can be configured to do schema
      * based validation of the instance Document.
@@ -299,6 +337,23 @@ abstract class XmlaOlap4jUtil {
         }
     }
 
+    static String stringElement(XmlaOlap4jRow row, String name) {
+        return row.get(name);
+    }
+
+    static Integer integerElement(XmlaOlap4jRow row, String name) {
+        final String s = row.get(name);
+        if (s == null || s.equals("")) {
+            return null;
+        } else {
+            return Integer.valueOf(s);
+        }
+    }
+
+    static boolean booleanElement(XmlaOlap4jRow row, String name) {
+        return "true".equals(row.get(name));
+    }
+
     static byte byteElement(Element row, String name) {
         return Byte.valueOf(stringElement(row, name)).byteValue();
     }
@@ -51,7 +51,8 @@ public interface XmlaOlap4jCache {
      * call the setParameters(Map, Map) method.
      *
      * @return The SOAP response, null if there are no corresponding
-     * response in the cache.
+     * response in the cache. The array may be shared with other callers,
+     * and must not be modified.
      */
     public byte[] get(
         String id,
@@ -67,7 +68,8 @@ public interface XmlaOlap4jCache {
      * @param url The URL of the SOAP endpoint.
      * @param request The full SOAP message from which we want to cache its
      * response.
-     * @param response The response to cache.
+     * @param response The response to cache. The cache may keep a
+     * reference to the array, so the caller must not modify it afterwards.
      *
      * @throws OlapException when operations to the cache are
      * performed but it hasn't been initialized. Make sure you
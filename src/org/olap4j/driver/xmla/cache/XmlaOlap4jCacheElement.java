@@ -1,82 +0,0 @@
-/*
-// Licensed to Julian Hyde under one or more contributor license
-// agreements. See the NOTICE file distributed with this work for
-// additional information regarding copyright ownership.
-//
-// Julian Hyde licenses this file to you under the Apache License,
-// Version 2.0 (the "License"); you may not use this file except in
-// compliance with the License. You may obtain a copy of the License at:
-//
-// http://www.apache.org/licenses/LICENSE-2.0
-//
-// Unless required by applicable law or agreed to in writing, software
-// distributed under the License is distributed on an "AS IS" BASIS,
-// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-// See the License for the specific language governing permissions and
-// limitations under the License.
-*/
-package org.olap4j.driver.xmla.cache;
-
-import java.util.Calendar;
-import java.util.concurrent.atomic.AtomicLong;
-
-/**
- * Internal POJO class definition for the XmlaOlap4jMemoryCache.
- *
- * @author Luc Boudreau
- */
-class XmlaOlap4jCacheElement {
-
-    /**
-     * The time in miliseconds when the entry was created.
-     */
-    private AtomicLong timestamp =
-        new AtomicLong(Calendar.getInstance().getTimeInMillis());
-
-
-    /**
-     * This holds the number of times the entry was used.
-     */
-    private AtomicLong hitMeter = new AtomicLong(new Long("1"));
-
-
-    /**
-     * The cached SOAP response.
-     */
-    private byte[] response = null;
-
-
-    /**
-     * Updates this element's internal timestamp.
-     */
-    public void refreshTimestamp() {
-        this.timestamp.compareAndSet(
-            this.timestamp.longValue(),
-            Calendar.getInstance().getTimeInMillis());
-    }
-
-    /**
-     * Updates this element's internal timestamp.
-     */
-    public void incrementHitCount() {
-        this.hitMeter.incrementAndGet();
-    }
-
-    public byte[] getResponse() {
-        return response;
-    }
-
-    public void setResponse(byte[] response) {
-        this.response = response;
-    }
-
-    public AtomicLong getTimestamp() {
-        return timestamp;
-    }
-
-    public AtomicLong getHitCount() {
-        return hitMeter;
-    }
-}
-
-// End XmlaOlap4jCacheElement.java
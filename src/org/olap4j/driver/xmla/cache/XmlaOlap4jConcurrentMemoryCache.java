@@ -19,19 +19,74 @@ package org.olap4j.driver.xmla.cache;
 
 import org.olap4j.driver.xmla.cache.XmlaOlap4jNamedMemoryCache.Mode;
 import org.olap4j.driver.xmla.cache.XmlaOlap4jNamedMemoryCache.Property;
+import org.olap4j.driver.xmla.cache.XmlaOlap4jNamedMemoryCache.RequestType;
+import org.olap4j.driver.xmla.cache.XmlaOlap4jNamedMemoryCache.Statistics;
+import org.olap4j.driver.xmla.cache.XmlaOlap4jRefreshingCache.Refresher;
 import org.olap4j.impl.Olap4jUtil;
 
+import java.io.*;
 import java.net.URL;
-import java.util.Calendar;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
 
 /**
  * Thread-safe cache object which supports concurrent access.
  *
- * <p>It keeps its cache element objects in memory in an internal hash
- * table. Instantiate it and use. As simple as that.
+ * <p>Entries are spread over a number of segments, each guarded by its own
+ * lock, so that threads accessing different entries rarely contend. Each
+ * segment holds a share of the cache's capacity, and keeps its entries in
+ * linked lists ordered so that the entry to evict, and expired entries,
+ * can be found in constant time:
+ *
+ * <ul>
+ * <li>every entry is in a list ordered by last access, whose head is the
+ *     entry that will expire first, and which is also the eviction order
+ *     for LRU;</li>
+ * <li>for FIFO and LIFO, every entry is also in a list ordered by
+ *     insertion;</li>
+ * <li>for LFU and MFU, entries with the same hit count are in the same
+ *     bucket, and buckets are in a list ordered by hit count.</li>
+ * </ul>
+ *
+ * <p>Entries expire {@link Property#TIMEOUT} seconds after they were last
+ * accessed. They are removed lazily, when the segment that holds them is
+ * next accessed.
+ *
+ * <p>In refresh-ahead mode (if {@link Property#REFRESHAHEAD} or
+ * {@link Property#MAXSTALE} is set), entries instead expire
+ * {@link Property#TIMEOUT} seconds after they were cached. A hit on an
+ * entry that is within {@link Property#REFRESHAHEAD} seconds of expiry, or
+ * has expired less than {@link Property#MAXSTALE} seconds ago, returns the
+ * entry and asks the caller's {@link Refresher} to refresh it; at most
+ * {@link Property#MAXREFRESHES} entries are refreshed at a time.
+ *
+ * <p>Capacity is a number of entries ({@link Property#SIZE}), a number of
+ * bytes ({@link Property#MAXBYTES}), or both. The weight of an entry is the
+ * length of its response, as stored. Responses larger than
+ * {@link Property#MAXENTRYBYTES} are not cached.
+ *
+ * <p>If {@link Property#COMPRESS} is true, responses at least
+ * {@link Property#COMPRESSTHRESHOLD} bytes long are stored deflated, which
+ * typically makes XML responses 5 to 10 times smaller. A hit on a
+ * compressed entry costs the time to inflate it; {@link #getStream} inflates
+ * it as the caller reads, so that the driver can parse it without holding
+ * the whole response in memory.
+ *
+ * <p>Entries are keyed by a 128-bit hash of the URL and the request bytes
+ * (see {@link Key}). Unless {@link Property#CANONICALIZE} is false, the
+ * request is first converted to canonical form, so that requests that
+ * differ only in formatting share an entry. Responses are neither copied
+ * when they are cached nor when they are returned, so a cache hit costs a
+ * hash of the request and a map lookup; callers must not modify the arrays
+ * they pass in or get back.
  *
  * @author Luc Boudreau
  */
@@ -52,24 +107,41 @@ class XmlaOlap4jConcurrentMemoryCache {
      */
     private static final Mode DEFAULT_EVICTION_MODE = Mode.LFU;
 
+    /**
+     * Default maximum number of concurrent refreshes (4).
+     */
+    private static final int DEFAULT_MAX_REFRESHES = 4;
 
     /**
-     * Thread-safe hashmap which will be used as a cache.
-     *
-     * <p>The cache is a map structured as follows:
-     *
-     * <ul>
-     * <li>key -> String : SHA-1 encoding of the full URL</li>
-     * </ul>
+     * Default size below which responses are not compressed (4K).
+     */
+    private static final int DEFAULT_COMPRESS_THRESHOLD = 4 << 10;
+
+    /**
+     * Maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * Minimum number of entries per segment. Small caches have a single
+     * segment, so that eviction is exact.
+     */
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    /**
+     * Cache size, or -1 if not specified.
      */
-    private Map<String, XmlaOlap4jCacheElement> cacheEntries =
-        new ConcurrentHashMap<String, XmlaOlap4jCacheElement>();
+    private int cacheSize = -1;
 
+    /**
+     * Maximum total weight of entries, in bytes, or -1 if not specified.
+     */
+    private long maxBytes = -1;
 
     /**
-     * Cache size.
+     * Maximum weight of an entry, in bytes, or -1 if not specified.
      */
-    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private long maxEntryBytes = -1;
 
     /**
      * Eviction mode.
@@ -81,6 +153,73 @@ class XmlaOlap4jConcurrentMemoryCache {
      */
     private int cacheTimeout = DEFAULT_CACHE_TIMEOUT;
 
+    /**
+     * Number of seconds before expiry at which to refresh, or -1 if not
+     * specified.
+     */
+    private int refreshAhead = -1;
+
+    /**
+     * Number of seconds after expiry during which to serve entries while
+     * they are refreshed, or -1 if not specified.
+     */
+    private int maxStale = -1;
+
+    /**
+     * Maximum number of concurrent refreshes.
+     */
+    private int maxRefreshes = DEFAULT_MAX_REFRESHES;
+
+    /**
+     * Age in milliseconds at which an entry is due to be refreshed, or -1
+     * if not in refresh-ahead mode.
+     */
+    private final long refreshAge;
+
+    /**
+     * Age in milliseconds beyond which an entry is not served, or -1 if not
+     * in refresh-ahead mode.
+     */
+    private final long maxAge;
+
+    /**
+     * Whether to compress responses.
+     */
+    private boolean compress;
+
+    /**
+     * Size, in bytes, below which responses are stored uncompressed.
+     */
+    private long compressThreshold = DEFAULT_COMPRESS_THRESHOLD;
+
+    /**
+     * Converts requests to canonical form, or null if requests are keyed as
+     * they are.
+     */
+    private final XmlaOlap4jRequestCanonicalizer canonicalizer;
+
+    /**
+     * Keys of entries being refreshed.
+     */
+    private final ConcurrentMap<Key, Boolean> refreshingKeys =
+        new ConcurrentHashMap<Key, Boolean>();
+
+    /**
+     * Number of entries being refreshed.
+     */
+    private final AtomicInteger refreshingCount = new AtomicInteger();
+
+    /**
+     * Segments. The number of segments is a power of 2.
+     */
+    private final Segment[] segments;
+
+    private final AtomicLong[] hitCounts = counters();
+    private final AtomicLong[] missCounts = counters();
+    private final AtomicLong[] evictionCounts = counters();
+    private final AtomicLong[] rejectionCounts = counters();
+    private final AtomicLong[] refreshCounts = counters();
+
     /**
      * Creates an XmlaOlap4jConcurrentMemoryCache.
      *
@@ -91,6 +230,7 @@ class XmlaOlap4jConcurrentMemoryCache {
         Map<String, String> props)
         throws IllegalArgumentException
     {
+        boolean canonicalize = true;
         for (Entry<String, String> entry : props.entrySet()) {
             if (Property.SIZE.name().equalsIgnoreCase(
                     entry.getKey().toString()))
@@ -107,8 +247,152 @@ class XmlaOlap4jConcurrentMemoryCache {
             {
                 this.setCacheMode(
                     entry.getValue().toString());
+            } else if (Property.MAXBYTES.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                this.maxBytes =
+                    parseBytes(Property.MAXBYTES.name(), entry.getValue());
+            } else if (Property.MAXENTRYBYTES.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                this.maxEntryBytes =
+                    parseBytes(
+                        Property.MAXENTRYBYTES.name(), entry.getValue());
+            } else if (Property.REFRESHAHEAD.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                this.refreshAhead =
+                    parseSeconds(Property.REFRESHAHEAD, entry.getValue());
+            } else if (Property.MAXSTALE.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                this.maxStale =
+                    parseSeconds(Property.MAXSTALE, entry.getValue());
+            } else if (Property.MAXREFRESHES.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                this.maxRefreshes =
+                    Integer.parseInt(entry.getValue().toString());
+                if (maxRefreshes <= 0) {
+                    throw new IllegalArgumentException(
+                        "Cache property " + Property.MAXREFRESHES.name()
+                        + " must be positive, but was " + maxRefreshes);
+                }
+            } else if (Property.CANONICALIZE.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                canonicalize = Boolean.valueOf(entry.getValue().trim());
+            } else if (Property.COMPRESS.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                this.compress = Boolean.valueOf(entry.getValue().trim());
+            } else if (Property.COMPRESSTHRESHOLD.name().equalsIgnoreCase(
+                    entry.getKey().toString()))
+            {
+                this.compressThreshold =
+                    parseBytes(
+                        Property.COMPRESSTHRESHOLD.name(), entry.getValue());
             }
         }
+        this.canonicalizer =
+            canonicalize ? new XmlaOlap4jRequestCanonicalizer() : null;
+        if (refreshAhead >= 0 || maxStale >= 0) {
+            refreshAge =
+                Math.max(0, cacheTimeout - Math.max(refreshAhead, 0))
+                * 1000L;
+            maxAge = (cacheTimeout + Math.max(maxStale, 0)) * 1000L;
+        } else {
+            refreshAge = -1;
+            maxAge = -1;
+        }
+        if (cacheSize < 0 && maxBytes < 0) {
+            cacheSize = DEFAULT_CACHE_SIZE;
+        }
+        if (maxEntryBytes < 0 || maxBytes >= 0 && maxEntryBytes > maxBytes) {
+            maxEntryBytes = maxBytes;
+        }
+
+        // Use as many segments as possible, provided that each segment
+        // holds at least MIN_SEGMENT_SIZE entries and can hold the largest
+        // admissible entry.
+        int segmentCount = 1;
+        while (segmentCount * 2 <= MAX_SEGMENTS
+            && (cacheSize < 0
+                || segmentCount * 2 * MIN_SEGMENT_SIZE <= cacheSize)
+            && (maxBytes < 0
+                || (maxEntryBytes > 0
+                    && segmentCount * 2 * maxEntryBytes <= maxBytes)))
+        {
+            segmentCount *= 2;
+        }
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] =
+                new Segment(
+                    cacheSize < 0
+                        ? Integer.MAX_VALUE
+                        : cacheSize / segmentCount
+                          + (i < cacheSize % segmentCount ? 1 : 0),
+                    maxBytes < 0
+                        ? Long.MAX_VALUE
+                        : maxBytes / segmentCount);
+        }
+    }
+
+    private static AtomicLong[] counters() {
+        final AtomicLong[] counters =
+            new AtomicLong[RequestType.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    /**
+     * Parses a number of bytes, optionally followed by a suffix "K", "M"
+     * or "G".
+     *
+     * @param propertyName Name of property being parsed
+     * @param value Value
+     * @return Number of bytes
+     */
+    static long parseBytes(String propertyName, String value) {
+        String s = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (s.endsWith("K")) {
+            multiplier = 1L << 10;
+        } else if (s.endsWith("M")) {
+            multiplier = 1L << 20;
+        } else if (s.endsWith("G")) {
+            multiplier = 1L << 30;
+        }
+        if (multiplier > 1) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        final long bytes = Long.parseLong(s) * multiplier;
+        if (bytes <= 0) {
+            throw new IllegalArgumentException(
+                "Cache property " + propertyName
+                + " must be positive, but was " + value);
+        }
+        return bytes;
+    }
+
+    /**
+     * Parses a non-negative number of seconds.
+     *
+     * @param property Property being parsed
+     * @param value Value
+     * @return Number of seconds
+     */
+    private static int parseSeconds(Property property, String value) {
+        final int seconds = Integer.parseInt(value.trim());
+        if (seconds < 0) {
+            throw new IllegalArgumentException(
+                "Cache property " + property.name()
+                + " must not be negative, but was " + value);
+        }
+        return seconds;
     }
 
     /**
@@ -154,26 +438,160 @@ class XmlaOlap4jConcurrentMemoryCache {
         final URL url,
         final byte[] request)
     {
-        // Take the cache for ourself
-        synchronized (this.cacheEntries) {
-            // Clean expired values
-            cleanExpired(false);
-
-            // Extract the data from the cache
-            XmlaOlap4jCacheElement entry = this.cacheEntries.get(
-                XmlaOlap4jShaEncoder.encodeSha1(
-                    url.toExternalForm() + new String(request)));
-
-            // Increment its counter
-            if (entry != null) {
-                entry.incrementHitCount();
-                entry.refreshTimestamp();
+        return get(url, request, null);
+    }
+
+    /**
+     * Fetches a response, and if it is due to be refreshed, asks a
+     * refresher to refresh it.
+     *
+     * @param url URL
+     * @param request Request
+     * @param refresher Refresher, or null
+     * @return Response, or null if not found
+     */
+    byte[] get(
+        final URL url,
+        final byte[] request,
+        final Refresher refresher)
+    {
+        final Node node = getNode(url, request, refresher);
+        if (node == null) {
+            return null;
+        }
+        if (!node.isCompressed()) {
+            // The response is shared, not copied; callers must not modify
+            // it.
+            return node.response;
+        }
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(node.response);
+            final byte[] response = new byte[node.length];
+            int n = 0;
+            while (n < response.length) {
+                final int k =
+                    inflater.inflate(response, n, response.length - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Corrupt cache entry");
+                }
+                n += k;
+            }
+            return response;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt cache entry", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Fetches a response as a stream, and if it is due to be refreshed,
+     * asks a refresher to refresh it. If the response is compressed, the
+     * stream inflates it as it is read.
+     *
+     * @param url URL
+     * @param request Request
+     * @param refresher Refresher, or null
+     * @return Stream of response, or null if not found
+     */
+    InputStream getStream(
+        final URL url,
+        final byte[] request,
+        final Refresher refresher)
+    {
+        final Node node = getNode(url, request, refresher);
+        if (node == null) {
+            return null;
+        }
+        final InputStream stream = new ByteArrayInputStream(node.response);
+        if (!node.isCompressed()) {
+            return stream;
+        }
+        // Reads never block, so it is safe to synchronize them with close,
+        // which a statement's timeout may call from another thread.
+        return new InflaterInputStream(stream, new Inflater(), 8192) {
+            private boolean closed;
+
+            public synchronized int read(byte[] b, int off, int len)
+                throws IOException
+            {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                return super.read(b, off, len);
+            }
+
+            public synchronized void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inf.end();
+                    super.close();
+                }
             }
+        };
+    }
 
-            // Return a copy to prevent corruption
-            return entry != null
-                ? new String(entry.getResponse()).getBytes()
-                : null;
+    private Node getNode(
+        final URL url,
+        final byte[] request,
+        final Refresher refresher)
+    {
+        final Key key =
+            new Key(
+                url.toExternalForm(),
+                canonicalizer == null
+                    ? request
+                    : canonicalizer.canonicalize(request));
+        final RequestType requestType = RequestType.of(request);
+        final long now = System.currentTimeMillis();
+        final Node node = segmentFor(key).get(key, now);
+        if (node == null) {
+            missCounts[requestType.ordinal()].incrementAndGet();
+            return null;
+        }
+        hitCounts[requestType.ordinal()].incrementAndGet();
+        if (refresher != null
+            && refreshAge >= 0
+            && now - node.created >= refreshAge)
+        {
+            refresh(key, requestType, refresher);
+        }
+        return node;
+    }
+
+    /**
+     * Asks a refresher to refresh an entry, unless the entry is already
+     * being refreshed or too many entries are being refreshed.
+     */
+    private void refresh(
+        final Key key,
+        RequestType requestType,
+        Refresher refresher)
+    {
+        if (refreshingKeys.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        if (refreshingCount.incrementAndGet() > maxRefreshes) {
+            refreshingCount.decrementAndGet();
+            refreshingKeys.remove(key);
+            return;
+        }
+        refreshCounts[requestType.ordinal()].incrementAndGet();
+        final AtomicBoolean finished = new AtomicBoolean();
+        final Runnable done =
+            new Runnable() {
+                public void run() {
+                    if (finished.compareAndSet(false, true)) {
+                        refreshingKeys.remove(key);
+                        refreshingCount.decrementAndGet();
+                    }
+                }
+            };
+        try {
+            refresher.refresh(done);
+        } catch (RuntimeException e) {
+            done.run();
         }
     }
 
@@ -182,160 +600,510 @@ class XmlaOlap4jConcurrentMemoryCache {
         final byte[] request,
         final byte[] response)
     {
-        // Take the cache for ourself
-        synchronized (this.cacheEntries) {
-            // Make some cleanup
-            cleanExpired(true);
-
-            if (this.cacheEntries.size() < cacheSize) {
-                // Create the entry
-                XmlaOlap4jCacheElement entry = new XmlaOlap4jCacheElement();
-                entry.setResponse(response);
-
-                this.cacheEntries.put(
-                    XmlaOlap4jShaEncoder.encodeSha1(
-                        String.valueOf(url.toExternalForm())
-                        + new String(request)),
-                        entry);
-            } else {
-                throw new RuntimeException("Concurrency error detected.");
+        byte[] keyRequest =
+            canonicalizer == null
+                ? request
+                : canonicalizer.canonicalize(request);
+        if (keyRequest == request) {
+            keyRequest = request.clone();
+        }
+        final Key key = new Key(url.toExternalForm(), keyRequest);
+        final RequestType requestType = RequestType.of(request);
+        final byte[] stored =
+            compress && response.length >= compressThreshold
+                ? deflate(response)
+                : response;
+        if (maxEntryBytes >= 0 && stored.length > maxEntryBytes) {
+            rejectionCounts[requestType.ordinal()].incrementAndGet();
+            segmentFor(key).remove(key);
+            return;
+        }
+        segmentFor(key).put(
+            key,
+            stored,
+            response.length,
+            requestType,
+            System.currentTimeMillis());
+    }
+
+    /**
+     * Compresses a response. Returns the response itself if it does not
+     * get smaller.
+     *
+     * @param response Response
+     * @return Compressed response, or the response
+     */
+    private static byte[] deflate(byte[] response) {
+        final Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(response);
+            deflater.finish();
+            final ByteArrayOutputStream out =
+                new ByteArrayOutputStream(response.length / 4);
+            final byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+                if (out.size() >= response.length) {
+                    return response;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns a snapshot of this cache's statistics.
+     *
+     * @return Statistics
+     */
+    Statistics getStatistics() {
+        int entryCount = 0;
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                entryCount += segment.map.size();
+                weight += segment.weight;
             }
         }
+        return new Statistics(
+            entryCount,
+            weight,
+            values(hitCounts),
+            values(missCounts),
+            values(evictionCounts),
+            values(rejectionCounts),
+            values(refreshCounts));
     }
 
+    private static long[] values(AtomicLong[] counters) {
+        final long[] values = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            values[i] = counters[i].get();
+        }
+        return values;
+    }
 
     /**
-     * Cleans expired cache entries.
+     * Returns the number of entries in the cache, including expired
+     * entries that have not yet been removed.
      *
-     * @param makeRoom Whether to make room for later appending by
-     * evicting an entry based on the selected eviction mode.
-     */
-    private void cleanExpired(boolean makeRoom) {
-        final String toBeEvicted;
-        switch (evictionMode) {
-        case FIFO:
-        case LIFO:
-            toBeEvicted = timeBasedEviction(makeRoom);
-            break;
-        case LFU:
-        case MFU:
-            toBeEvicted = hitBasedEviction(makeRoom);
-            break;
-        default:
-            throw Olap4jUtil.unexpected(evictionMode);
-        }
-
-        // Make some space if required
-        if (makeRoom && this.cacheEntries.size() >= cacheSize
-            && toBeEvicted != null)
-        {
-            this.cacheEntries.remove(toBeEvicted);
+     * @return Number of entries
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
         }
+        return size;
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = (int) (key.hash2 ^ (key.hash2 >>> 32));
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (segments.length - 1)];
     }
 
     /**
-     * Scans for the key of the cache entry to be evicted based
-     * on the selected time based eviction mode.
+     * Key of a cache entry.
      *
-     * @param makeRoom Whether to make room for later appending by
-     * evicting an entry. if false is specified, there might not
-     * be an evicted entry if the cache is not full.
-     * @return The key of the entry to remove, null otherwise.
+     * <p>Holds a 128-bit MurmurHash3 of the request, seeded with the hash
+     * of the URL, which is cheap to compute and makes collisions very
+     * unlikely. Keys whose hashes are equal are compared in full, so a
+     * collision cannot return the wrong response.
      */
-    private String timeBasedEviction(boolean makeRoom)
-    {
-        // This is a flag to find the oldest entry.
-        long currentEvictedTimestamp = evictionMode == Mode.LIFO
-            ? Long.MAX_VALUE
-            : Long.MIN_VALUE;
+    static final class Key {
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
 
-        String toBeEvicted = null;
+        final String url;
+        final byte[] request;
+        final long hash1;
+        final long hash2;
 
-        // Iterate over entries
-        for (Entry<String, XmlaOlap4jCacheElement> entry
-                : this.cacheEntries.entrySet())
-        {
-            // Check if not expired
-            if (Calendar.getInstance().getTimeInMillis() >
-                (entry.getValue().getTimestamp().longValue()
-                    + (cacheTimeout * 1000)))
-            {
-                // Evicts it.
-                this.cacheEntries.remove(entry.getKey());
-                continue;
+        /**
+         * Creates a key. Does not copy the request.
+         *
+         * @param url URL
+         * @param request Request
+         */
+        Key(String url, byte[] request) {
+            this.url = url;
+            this.request = request;
+
+            // MurmurHash3, x64 128-bit variant.
+            long h1 = url.hashCode();
+            long h2 = h1;
+            final int length = request.length;
+            final ByteBuffer buffer =
+                ByteBuffer.wrap(request).order(ByteOrder.LITTLE_ENDIAN);
+            int i = 0;
+            for (; i + 16 <= length; i += 16) {
+                long k1 = buffer.getLong(i);
+                long k2 = buffer.getLong(i + 8);
+                k1 *= C1;
+                k1 = Long.rotateLeft(k1, 31);
+                k1 *= C2;
+                h1 ^= k1;
+                h1 = Long.rotateLeft(h1, 27);
+                h1 += h2;
+                h1 = h1 * 5 + 0x52dce729;
+                k2 *= C2;
+                k2 = Long.rotateLeft(k2, 33);
+                k2 *= C1;
+                h2 ^= k2;
+                h2 = Long.rotateLeft(h2, 31);
+                h2 += h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+            // Remaining 0 - 15 bytes: bytes 8 - 14 into k2, bytes 0 - 7
+            // into k1, little-endian.
+            final int remaining = length - i;
+            if (remaining > 8) {
+                long k2 = 0;
+                for (int j = remaining - 1; j >= 8; j--) {
+                    k2 ^= (request[i + j] & 0xffL) << ((j - 8) * 8);
+                }
+                k2 *= C2;
+                k2 = Long.rotateLeft(k2, 33);
+                k2 *= C1;
+                h2 ^= k2;
+            }
+            if (remaining > 0) {
+                long k1 = 0;
+                for (int j = Math.min(remaining, 8) - 1; j >= 0; j--) {
+                    k1 ^= (request[i + j] & 0xffL) << (j * 8);
+                }
+                k1 *= C1;
+                k1 = Long.rotateLeft(k1, 31);
+                k1 *= C2;
+                h1 ^= k1;
             }
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            h1 += h2;
+            h2 += h1;
+            this.hash1 = h1;
+            this.hash2 = h2;
+        }
 
-            // Checks if this is the oldest entry.
-            if ((makeRoom
-                 && (evictionMode == XmlaOlap4jNamedMemoryCache.Mode.LIFO
-                    && entry.getValue().getTimestamp().longValue()
-                    < currentEvictedTimestamp))
-                || (makeRoom
-                    && (evictionMode == XmlaOlap4jNamedMemoryCache.Mode.FIFO
-                    && entry.getValue().getTimestamp().longValue()
-                    > currentEvictedTimestamp)))
-            {
-                currentEvictedTimestamp =
-                    entry.getValue().getTimestamp().longValue();
-                toBeEvicted = entry.getKey();
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        public int hashCode() {
+            return (int) hash1;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
             }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return hash1 == that.hash1
+                && hash2 == that.hash2
+                && Arrays.equals(request, that.request)
+                && url.equals(that.url);
         }
-        return toBeEvicted;
     }
 
+    /**
+     * Entry in the cache.
+     */
+    private static class Node {
+        final Key key;
+        /** Response as stored; deflated if shorter than {@link #length}. */
+        final byte[] response;
+        /** Length of the response, uncompressed. */
+        final int length;
+        final RequestType requestType;
+        final long created;
+        long lastAccess;
+
+        /** Neighbors in the list ordered by last access. */
+        Node accessPrev;
+        Node accessNext;
+
+        /** Neighbors in the list ordered by insertion, or in the bucket. */
+        Node orderPrev;
+        Node orderNext;
+
+        /** Bucket, if mode is LFU or MFU. */
+        Bucket bucket;
+
+        Node(
+            Key key,
+            byte[] response,
+            int length,
+            RequestType requestType,
+            long lastAccess)
+        {
+            this.key = key;
+            this.response = response;
+            this.length = length;
+            this.requestType = requestType;
+            this.created = lastAccess;
+            this.lastAccess = lastAccess;
+            this.accessPrev = this.accessNext = this;
+            this.orderPrev = this.orderNext = this;
+        }
+
+        boolean isCompressed() {
+            return response.length < length;
+        }
+
+        void linkAccessBefore(Node next) {
+            accessNext = next;
+            accessPrev = next.accessPrev;
+            accessPrev.accessNext = this;
+            next.accessPrev = this;
+        }
+
+        void unlinkAccess() {
+            accessPrev.accessNext = accessNext;
+            accessNext.accessPrev = accessPrev;
+        }
+
+        void linkOrderBefore(Node next) {
+            orderNext = next;
+            orderPrev = next.orderPrev;
+            orderPrev.orderNext = this;
+            next.orderPrev = this;
+        }
+
+        void unlinkOrder() {
+            orderPrev.orderNext = orderNext;
+            orderNext.orderPrev = orderPrev;
+        }
+    }
 
     /**
-     * Scans for the key of the cache entry to be evicted based
-     * on the selected hit based eviction mode.
-     *
-     * @param makeRoom Whether to make room for later appending by evicting an
-     * entry. If false, there might not be an evicted entry if the cache is not
-     * full
-     *
-     * @return The key of the entry to remove, null otherwise.
+     * Set of entries that have the same hit count.
      */
-    private String hitBasedEviction(boolean makeRoom)
-    {
-        // Flag to find the oldest entry.
-        long currentEvictedHits = (evictionMode == Mode.LFU)
-            ? Long.MAX_VALUE
-            : Long.MIN_VALUE;
+    private static class Bucket {
+        final long hitCount;
+
+        /** Sentinel of the list of entries, least recently hit first. */
+        final Node nodes = new Node(null, null, 0, null, 0);
+
+        /** Neighbors in the list of buckets, ordered by hit count. */
+        Bucket prev;
+        Bucket next;
+
+        Bucket(long hitCount) {
+            this.hitCount = hitCount;
+            this.prev = this.next = this;
+        }
+
+        void linkAfter(Bucket previous) {
+            prev = previous;
+            next = previous.next;
+            next.prev = this;
+            previous.next = this;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+        }
+
+        boolean isEmpty() {
+            return nodes.orderNext == nodes;
+        }
+    }
+
+    /**
+     * Portion of the cache guarded by one lock.
+     */
+    private class Segment {
+        private final int capacity;
+        private final long maxWeight;
+        private final Map<Key, Node> map = new HashMap<Key, Node>();
+
+        /** Total length of responses. */
+        private long weight;
+
+        /** Sentinel of the list ordered by last access, least recent
+         * first. */
+        private final Node accessList = new Node(null, null, 0, null, 0);
 
-        String toBeEvicted = null;
+        /** Sentinel of the list ordered by insertion, oldest first. Used
+         * if mode is FIFO or LIFO. */
+        private final Node orderList = new Node(null, null, 0, null, 0);
 
-        // Iterates over entries
-        for (Entry<String, XmlaOlap4jCacheElement> entry
-            : this.cacheEntries.entrySet())
+        /** Sentinel of the list of buckets, lowest hit count first. Used
+         * if mode is LFU or MFU. */
+        private final Bucket buckets = new Bucket(0);
+
+        Segment(int capacity, long maxWeight) {
+            this.capacity = capacity;
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Node get(Key key, long now) {
+            expire(now);
+            final Node node = map.get(key);
+            if (node == null) {
+                return null;
+            }
+            if (maxAge >= 0 && now - node.created > maxAge) {
+                remove(node);
+                return null;
+            }
+            node.lastAccess = now;
+            node.unlinkAccess();
+            node.linkAccessBefore(accessList);
+            switch (evictionMode) {
+            case LFU:
+            case MFU:
+                hit(node);
+                break;
+            }
+            return node;
+        }
+
+        synchronized void put(
+            Key key,
+            byte[] response,
+            int length,
+            RequestType requestType,
+            long now)
         {
-            // Checks if not expired
-            if (Calendar.getInstance().getTimeInMillis() >
-                (entry.getValue().getTimestamp().longValue()
-                    + (cacheTimeout * 1000)))
+            expire(now);
+            final Node existing = map.get(key);
+            if (existing != null) {
+                remove(existing);
+            }
+            while (!map.isEmpty()
+                && (map.size() >= capacity
+                    || weight + response.length > maxWeight))
             {
-                // Evicts it
-                this.cacheEntries.remove(entry.getKey());
-                continue;
+                final Node victim = victim();
+                evictionCounts[victim.requestType.ordinal()]
+                    .incrementAndGet();
+                remove(victim);
+            }
+            final Node node =
+                new Node(key, response, length, requestType, now);
+            map.put(key, node);
+            weight += response.length;
+            node.linkAccessBefore(accessList);
+            switch (evictionMode) {
+            case FIFO:
+            case LIFO:
+                node.linkOrderBefore(orderList);
+                break;
+            case LFU:
+            case MFU:
+                Bucket bucket = buckets.next;
+                if (bucket == buckets || bucket.hitCount != 1) {
+                    bucket = new Bucket(1);
+                    bucket.linkAfter(buckets);
+                }
+                node.bucket = bucket;
+                node.linkOrderBefore(bucket.nodes);
+                break;
             }
+        }
 
-            // Checks if this is the oldest entry.
-            if ((makeRoom
-                 && (evictionMode == Mode.LFU
-                    && entry.getValue().getHitCount().longValue()
-                    < currentEvictedHits))
-                || (makeRoom
-                    && (evictionMode == XmlaOlap4jNamedMemoryCache.Mode.MFU
-                    && entry.getValue().getHitCount().longValue()
-                    > currentEvictedHits)))
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized void remove(Key key) {
+            final Node node = map.get(key);
+            if (node != null) {
+                remove(node);
+            }
+        }
+
+        /**
+         * Removes entries that have not been accessed within the timeout.
+         * They are at the head of the access list. In refresh-ahead mode,
+         * an entry is not served once its age exceeds {@link #maxAge}, so
+         * entries not accessed for that long can be removed.
+         */
+        private void expire(long now) {
+            final long limit =
+                now - (maxAge >= 0 ? maxAge : cacheTimeout * 1000L);
+            while (accessList.accessNext != accessList
+                && accessList.accessNext.lastAccess < limit)
             {
-                currentEvictedHits = entry.getValue().getHitCount().longValue();
-                toBeEvicted = entry.getKey();
+                remove(accessList.accessNext);
             }
         }
-        return toBeEvicted;
-    }
-}
 
-// End XmlaOlap4jConcurrentMemoryCache.java
+        /**
+         * Moves an entry to the bucket for the next higher hit count.
+         */
+        private void hit(Node node) {
+            final Bucket bucket = node.bucket;
+            Bucket next = bucket.next;
+            if (next == buckets || next.hitCount != bucket.hitCount + 1) {
+                next = new Bucket(bucket.hitCount + 1);
+                next.linkAfter(bucket);
+            }
+            node.unlinkOrder();
+            if (bucket.isEmpty()) {
+                bucket.unlink();
+            }
+            node.bucket = next;
+            node.linkOrderBefore(next.nodes);
+        }
 
+        /**
+         * Returns the entry to evict. Segment must not be empty.
+         */
+        private Node victim() {
+            switch (evictionMode) {
+            case LRU:
+                return accessList.accessNext;
+            case FIFO:
+                return orderList.orderNext;
+            case LIFO:
+                return orderList.orderPrev;
+            case LFU:
+                return buckets.next.nodes.orderNext;
+            case MFU:
+                return buckets.prev.nodes.orderNext;
+            default:
+                throw Olap4jUtil.unexpected(evictionMode);
+            }
+        }
 
+        private void remove(Node node) {
+            map.remove(node.key);
+            weight -= node.response.length;
+            node.unlinkAccess();
+            switch (evictionMode) {
+            case FIFO:
+            case LIFO:
+                node.unlinkOrder();
+                break;
+            case LFU:
+            case MFU:
+                node.unlinkOrder();
+                if (node.bucket.isEmpty()) {
+                    node.bucket.unlink();
+                }
+                break;
+            }
+        }
+    }
+}
 
+// End XmlaOlap4jConcurrentMemoryCache.java
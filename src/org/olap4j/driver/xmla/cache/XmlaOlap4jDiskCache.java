@@ -0,0 +1,735 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.cache;
+
+import org.olap4j.OlapException;
+import org.olap4j.impl.Olap4jUtil;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Implementation of the XMLA SOAP cache that stores its entries in
+ * memory-mapped files in a local directory, so that they survive a restart
+ * of the JVM and do not occupy the Java heap.
+ *
+ * <p>All parameters are optional.
+ *
+ * <ul>
+ * <li><b>DIRECTORY</b><br />Directory in which to store the cache. Two
+ * connections that use the same directory share the same cache. Default
+ * is a directory called "olap4j-xmla-cache" in the system's temporary
+ * directory.</li>
+ * <li><b>MAXBYTES</b><br />Maximum disk space used by the cache, in bytes;
+ * may be followed by K, M or G. Default 256M.</li>
+ * <li><b>SEGMENTBYTES</b><br />Size of each segment file, in bytes; may be
+ * followed by K, M or G. A response larger than a segment is not cached.
+ * Default 16M.</li>
+ * <li><b>TIMEOUT</b><br />The number of seconds after which an entry
+ * expires. Default 0, meaning that entries do not expire.</li>
+ * <li><b>CANONICALIZE</b><br />Whether to key entries by the canonical form
+ * of their request. Default true.</li>
+ * </ul>
+ *
+ * <p>The cache is a log of records, appended to segment files of a fixed
+ * size. Each record consists of a header, containing the SHA-1 hash of the
+ * URL and request, the time it was written, the length and the CRC-32 of
+ * the response, followed by the response. The first word of the header,
+ * a marker, is written last, so a record whose marker is present has been
+ * written in full unless the operating system crashed; the CRC detects
+ * records that were not fully flushed to disk before such a crash, and
+ * they are ignored. When the cache is opened, the headers are scanned to
+ * build the index, which maps each hash to its most recent record.
+ *
+ * <p>When the segments would occupy more than MAXBYTES, the oldest segment
+ * is compacted: responses in it that have been read since they were
+ * written are copied to the newest segment, and the rest are dropped.
+ *
+ * <p>A cache directory can be used by only one JVM at a time.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jDiskCache implements XmlaOlap4jCache {
+
+    /**
+     * Open stores, keyed by canonical path of their directory.
+     */
+    private static final Map<String, Store> STORES =
+        new HashMap<String, Store>();
+
+    private static final long DEFAULT_MAX_BYTES = 256L << 20;
+    private static final long DEFAULT_SEGMENT_BYTES = 16L << 20;
+
+    private static final int MAGIC = 0x584d4c41; // "XMLA"
+    private static final int HASH_LENGTH = 20;
+
+    /** Offset of the CRC within a record header, after the marker,
+     * response length and timestamp. */
+    private static final int CRC_OFFSET = 4 + 4 + 8;
+
+    /** Length of a record header: marker, response length, timestamp,
+     * CRC, hash. */
+    private static final int HEADER_LENGTH = CRC_OFFSET + 4 + HASH_LENGTH;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    /**
+     * Properties which will be considered for configuration.
+     *
+     * <p>All parameters are optional.
+     */
+    public static enum Property {
+        /**
+         * Directory in which to store the cache.
+         */
+        DIRECTORY("Directory in which to store the cache."),
+
+        /**
+         * Maximum disk space used by the cache, in bytes. The value may be
+         * followed by "K", "M" or "G".
+         */
+        MAXBYTES("Maximum disk space used by the cache, in bytes."),
+
+        /**
+         * Size of each segment file, in bytes. The value may be followed by
+         * "K", "M" or "G".
+         */
+        SEGMENTBYTES("Size of each segment file, in bytes."),
+
+        /**
+         * The number of seconds after which an entry expires.
+         */
+        TIMEOUT("Number of seconds after which an entry expires."),
+
+        /**
+         * Whether to key entries by the canonical form of their request;
+         * see {@link XmlaOlap4jRequestCanonicalizer}. Default true.
+         */
+        CANONICALIZE(
+            "Whether requests are converted to canonical form before their "
+            + "responses are cached.");
+
+        /**
+         * Creates a property.
+         *
+         * @param description Description of property
+         */
+        Property(String description) {
+            Olap4jUtil.discard(description);
+        }
+    }
+
+    /**
+     * Store used by this cache; set by {@link #setParameters}.
+     */
+    private Store store;
+
+    /**
+     * Converts requests to canonical form, or null if requests are keyed as
+     * they are; set by {@link #setParameters}.
+     */
+    private XmlaOlap4jRequestCanonicalizer canonicalizer;
+
+    /**
+     * Creates an XmlaOlap4jDiskCache.
+     */
+    public XmlaOlap4jDiskCache() {
+    }
+
+    // implement XmlaOlap4jCache
+    public String setParameters(
+        Map<String, String> config,
+        Map<String, String> props)
+    {
+        File directory =
+            new File(
+                System.getProperty("java.io.tmpdir"), "olap4j-xmla-cache");
+        long maxBytes = DEFAULT_MAX_BYTES;
+        long segmentBytes = DEFAULT_SEGMENT_BYTES;
+        int timeout = 0;
+        boolean canonicalize = true;
+        for (Map.Entry<String, String> entry : props.entrySet()) {
+            final String key = entry.getKey();
+            final String value = entry.getValue();
+            if (Property.DIRECTORY.name().equalsIgnoreCase(key)) {
+                directory = new File(value);
+            } else if (Property.MAXBYTES.name().equalsIgnoreCase(key)) {
+                maxBytes =
+                    XmlaOlap4jConcurrentMemoryCache.parseBytes(
+                        Property.MAXBYTES.name(), value);
+            } else if (Property.SEGMENTBYTES.name().equalsIgnoreCase(key)) {
+                segmentBytes =
+                    XmlaOlap4jConcurrentMemoryCache.parseBytes(
+                        Property.SEGMENTBYTES.name(), value);
+            } else if (Property.TIMEOUT.name().equalsIgnoreCase(key)) {
+                timeout = Integer.parseInt(value);
+                if (timeout < 0) {
+                    throw new IllegalArgumentException(
+                        "Cache timeout must not be negative, but was "
+                        + timeout);
+                }
+            } else if (Property.CANONICALIZE.name().equalsIgnoreCase(key)) {
+                canonicalize = Boolean.valueOf(value.trim());
+            }
+        }
+        if (segmentBytes <= HEADER_LENGTH
+            || segmentBytes > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(
+                "Cache property " + Property.SEGMENTBYTES.name()
+                + " must be between " + (HEADER_LENGTH + 1) + " and "
+                + Integer.MAX_VALUE + ", but was " + segmentBytes);
+        }
+        final int maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+        this.canonicalizer =
+            canonicalize ? new XmlaOlap4jRequestCanonicalizer() : null;
+        this.store =
+            open(directory, (int) segmentBytes, maxSegments, timeout * 1000L);
+        return store.path;
+    }
+
+    /**
+     * Returns the store for a directory, opening it if necessary. If the
+     * store is already open, its existing settings are kept.
+     */
+    private static Store open(
+        File directory,
+        int segmentBytes,
+        int maxSegments,
+        long timeoutMillis)
+    {
+        final String path;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create directory");
+            }
+            path = directory.getCanonicalPath();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                "Cannot open cache directory " + directory + ": "
+                + e.getMessage(), e);
+        }
+        synchronized (STORES) {
+            Store store = STORES.get(path);
+            if (store == null) {
+                try {
+                    store =
+                        new Store(
+                            path, segmentBytes, maxSegments, timeoutMillis);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(
+                        "Cannot open cache directory " + directory + ": "
+                        + e.getMessage(), e);
+                }
+                STORES.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Closes the store for a directory, if it is open. The next cache to
+     * use the directory will re-open it, as if after a restart. For
+     * testing.
+     *
+     * @param directory Directory
+     * @throws IOException on error
+     */
+    static void close(File directory) throws IOException {
+        final Store store;
+        synchronized (STORES) {
+            store = STORES.remove(directory.getCanonicalPath());
+        }
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    // implement XmlaOlap4jCache
+    public byte[] get(
+        String id,
+        URL url,
+        byte[] request)
+        throws OlapException
+    {
+        return validateState().get(hash(url, request));
+    }
+
+    // implement XmlaOlap4jCache
+    public void put(
+        String id,
+        URL url,
+        byte[] request,
+        byte[] response)
+        throws OlapException
+    {
+        try {
+            validateState().put(hash(url, request), response);
+        } catch (IOException e) {
+            throw new OlapException(
+                "Error while writing to cache directory "
+                + store.path, e);
+        }
+    }
+
+    // implement XmlaOlap4jCache
+    public void flushCache() {
+        if (store != null) {
+            try {
+                store.clear();
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    "Error while clearing cache directory " + store.path, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in this cache. For testing.
+     *
+     * @return Number of entries
+     */
+    int size() {
+        return store.size();
+    }
+
+    private Store validateState() throws XmlaOlap4jInvalidStateException {
+        if (store == null) {
+            throw new XmlaOlap4jInvalidStateException();
+        }
+        return store;
+    }
+
+    /**
+     * Computes the SHA-1 hash of a URL and the canonical form of a request.
+     */
+    private Key hash(URL url, byte[] request) {
+        if (canonicalizer != null) {
+            request = canonicalizer.canonicalize(request);
+        }
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            md.update(url.toExternalForm().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        md.update((byte) 0);
+        md.update(request);
+        return new Key(md.digest());
+    }
+
+    /**
+     * Hash of a URL and request.
+     */
+    private static class Key {
+        final byte[] bytes;
+        private final int hashCode;
+
+        Key(byte[] bytes) {
+            assert bytes.length == HASH_LENGTH;
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof Key
+                && Arrays.equals(bytes, ((Key) obj).bytes);
+        }
+    }
+
+    /**
+     * Location of a response in a segment file.
+     */
+    private static class Location {
+        final Segment segment;
+        final int offset;
+        final int length;
+        final long timestamp;
+
+        /** Whether the CRC has been checked, or the record was written by
+         * this JVM. */
+        volatile boolean verified;
+
+        /** Whether the response has been read since it was written. */
+        volatile boolean hit;
+
+        Location(
+            Segment segment,
+            int offset,
+            int length,
+            long timestamp,
+            boolean verified)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+            this.verified = verified;
+        }
+    }
+
+    /**
+     * Segment file, mapped into memory.
+     */
+    private static class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+
+        /** Offset at which the next record will be written. */
+        int position;
+
+        /** Hashes of records written to this segment, in order. */
+        final List<Key> keys = new ArrayList<Key>();
+
+        Segment(File directory, int id, int size) throws IOException {
+            this.id = id;
+            this.file = new File(directory, segmentName(id));
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() != size) {
+                    raf.setLength(size);
+                }
+                this.buffer =
+                    raf.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                raf.close();
+            }
+        }
+
+        int remaining() {
+            return buffer.capacity() - position;
+        }
+
+        static String segmentName(int id) {
+            final String s = "000000000" + id;
+            return SEGMENT_PREFIX + s.substring(s.length() - 10)
+                + SEGMENT_SUFFIX;
+        }
+    }
+
+    /**
+     * Set of segment files in a directory, and their index.
+     */
+    private static class Store {
+        final String path;
+        private final File directory;
+        private final int segmentBytes;
+        private final int maxSegments;
+        private final long timeoutMillis;
+
+        /** Prevents other JVMs from using the directory. */
+        private final RandomAccessFile lockFile;
+        private final FileLock lock;
+
+        /** Segments, oldest first. The last is the active segment. */
+        private final LinkedList<Segment> segments =
+            new LinkedList<Segment>();
+        private final Map<Key, Location> index =
+            new HashMap<Key, Location>();
+
+        Store(
+            String path,
+            int segmentBytes,
+            int maxSegments,
+            long timeoutMillis)
+            throws IOException
+        {
+            this.path = path;
+            this.directory = new File(path);
+            this.segmentBytes = segmentBytes;
+            this.maxSegments = maxSegments;
+            this.timeoutMillis = timeoutMillis;
+            this.lockFile =
+                new RandomAccessFile(new File(directory, "lock"), "rw");
+            this.lock = lockFile.getChannel().tryLock();
+            if (lock == null) {
+                lockFile.close();
+                throw new IOException(
+                    "Directory is in use by another process");
+            }
+            recover();
+        }
+
+        /**
+         * Opens existing segment files and rebuilds the index from the
+         * record headers.
+         */
+        private void recover() throws IOException {
+            final SortedSet<Integer> ids = new TreeSet<Integer>();
+            final String[] names = directory.list();
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith(SEGMENT_PREFIX)
+                        && name.endsWith(SEGMENT_SUFFIX))
+                    {
+                        try {
+                            ids.add(
+                                Integer.valueOf(
+                                    name.substring(
+                                        SEGMENT_PREFIX.length(),
+                                        name.length()
+                                        - SEGMENT_SUFFIX.length())));
+                        } catch (NumberFormatException e) {
+                            // not one of ours
+                        }
+                    }
+                }
+            }
+            for (Integer id : ids) {
+                final File file =
+                    new File(directory, Segment.segmentName(id));
+                if (file.length() != segmentBytes) {
+                    // Written with a different segment size; cannot be
+                    // appended to, so discard it.
+                    file.delete();
+                    continue;
+                }
+                final Segment segment =
+                    new Segment(directory, id, segmentBytes);
+                scan(segment);
+                segments.add(segment);
+            }
+            if (segments.isEmpty()) {
+                segments.add(new Segment(directory, 0, segmentBytes));
+            }
+            while (segments.size() > maxSegments) {
+                compact();
+            }
+        }
+
+        /**
+         * Reads the headers of the records in a segment, adds them to the
+         * index, and sets the segment's write position after the last
+         * complete record.
+         */
+        private void scan(Segment segment) {
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            int offset = 0;
+            while (offset + HEADER_LENGTH <= buffer.capacity()) {
+                buffer.position(offset);
+                if (buffer.getInt() != MAGIC) {
+                    break;
+                }
+                final int length = buffer.getInt();
+                final long timestamp = buffer.getLong();
+                buffer.getInt(); // crc, checked when the record is read
+                if (length < 0
+                    || length > buffer.capacity() - offset - HEADER_LENGTH)
+                {
+                    break;
+                }
+                final byte[] hash = new byte[HASH_LENGTH];
+                buffer.get(hash);
+                final Key key = new Key(hash);
+                index.put(
+                    key,
+                    new Location(segment, offset, length, timestamp, false));
+                segment.keys.add(key);
+                offset += HEADER_LENGTH + length;
+            }
+            segment.position = offset;
+        }
+
+        byte[] get(Key key) {
+            final Location location;
+            synchronized (this) {
+                location = index.get(key);
+                if (location == null) {
+                    return null;
+                }
+                if (timeoutMillis > 0
+                    && System.currentTimeMillis() - location.timestamp
+                    > timeoutMillis)
+                {
+                    index.remove(key);
+                    return null;
+                }
+            }
+
+            // Read outside the lock. If the segment is compacted meanwhile,
+            // its mapping remains valid until the buffer is garbage
+            // collected.
+            final ByteBuffer buffer = location.segment.buffer.duplicate();
+            final int crc = buffer.getInt(location.offset + CRC_OFFSET);
+            buffer.position(location.offset + HEADER_LENGTH);
+            final byte[] response = new byte[location.length];
+            buffer.get(response);
+            if (!location.verified) {
+                if (crc(key, response) != crc) {
+                    // Torn write before a crash.
+                    synchronized (this) {
+                        if (index.get(key) == location) {
+                            index.remove(key);
+                        }
+                    }
+                    return null;
+                }
+                location.verified = true;
+            }
+            location.hit = true;
+            return response;
+        }
+
+        synchronized void put(Key key, byte[] response) throws IOException {
+            if (HEADER_LENGTH + response.length > segmentBytes) {
+                // Too large to cache. Remove any previous response, which
+                // is presumably out of date.
+                index.remove(key);
+                return;
+            }
+            if (segments.getLast().remaining()
+                < HEADER_LENGTH + response.length)
+            {
+                roll();
+            }
+            append(key, response, System.currentTimeMillis());
+        }
+
+        /**
+         * Appends a record to the active segment, which must have room.
+         */
+        private void append(Key key, byte[] response, long timestamp) {
+            final Segment segment = segments.getLast();
+            final int offset = segment.position;
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset + 4);
+            buffer.putInt(response.length);
+            buffer.putLong(timestamp);
+            buffer.putInt(crc(key, response));
+            buffer.put(key.bytes);
+            buffer.put(response);
+            // Write the marker last, so that the record is not seen by
+            // recovery until it is complete.
+            segment.buffer.putInt(offset, MAGIC);
+            segment.position = offset + HEADER_LENGTH + response.length;
+            segment.keys.add(key);
+            index.put(
+                key,
+                new Location(
+                    segment, offset, response.length, timestamp, true));
+        }
+
+        /**
+         * Starts a new active segment, compacting the oldest segment if
+         * there are too many.
+         */
+        private void roll() throws IOException {
+            final Segment last = segments.getLast();
+            last.buffer.force();
+            segments.add(new Segment(directory, last.id + 1, segmentBytes));
+            while (segments.size() > maxSegments) {
+                compact();
+            }
+        }
+
+        /**
+         * Removes the oldest segment. Responses in it that are still
+         * current, have not expired and have been read since they were
+         * written are copied to the active segment, if there is room.
+         */
+        private void compact() {
+            final Segment oldest = segments.removeFirst();
+            final long now = System.currentTimeMillis();
+            for (Key key : oldest.keys) {
+                final Location location = index.get(key);
+                if (location == null || location.segment != oldest) {
+                    continue;
+                }
+                index.remove(key);
+                if (!location.hit
+                    || timeoutMillis > 0
+                    && now - location.timestamp > timeoutMillis
+                    || segments.getLast().remaining()
+                    < HEADER_LENGTH + location.length)
+                {
+                    continue;
+                }
+                final ByteBuffer buffer = oldest.buffer.duplicate();
+                buffer.position(location.offset + HEADER_LENGTH);
+                final byte[] response = new byte[location.length];
+                buffer.get(response);
+                if (location.verified
+                    || crc(key, response)
+                    == oldest.buffer.getInt(location.offset + CRC_OFFSET))
+                {
+                    append(key, response, location.timestamp);
+                }
+            }
+            delete(oldest);
+        }
+
+        private static void delete(Segment segment) {
+            if (!segment.file.delete()) {
+                // On some platforms a file cannot be deleted while it is
+                // mapped.
+                segment.file.deleteOnExit();
+            }
+        }
+
+        synchronized int size() {
+            return index.size();
+        }
+
+        synchronized void clear() throws IOException {
+            index.clear();
+            final int nextId = segments.getLast().id + 1;
+            for (Segment segment : segments) {
+                delete(segment);
+            }
+            segments.clear();
+            segments.add(new Segment(directory, nextId, segmentBytes));
+        }
+
+        synchronized void close() throws IOException {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            lock.release();
+            lockFile.close();
+        }
+
+        private static int crc(Key key, byte[] response) {
+            final CRC32 crc = new CRC32();
+            crc.update(key.bytes);
+            crc.update(response);
+            return (int) crc.getValue();
+        }
+    }
+}
+
+// End XmlaOlap4jDiskCache.java
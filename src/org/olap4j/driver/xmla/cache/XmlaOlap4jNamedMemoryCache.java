@@ -19,6 +19,7 @@ package org.olap4j.driver.xmla.cache;
 
 import org.olap4j.impl.Olap4jUtil;
 
+import java.io.InputStream;
 import java.net.URL;
 import java.util.Map;
 import java.util.UUID;
@@ -39,17 +40,45 @@ import java.util.concurrent.ConcurrentHashMap;
  * such as eviction mode and so on. Not setting this property will
  * assign a random name to the cache space, thus creating a unique space.</li>
  * <li><b>SIZE</b><br />The number of entries to maintain in cache under
- * the given cache name.</li>
+ * the given cache name. Default is 10, unless MAXBYTES is set.</li>
+ * <li><b>MAXBYTES</b><br />The total size of responses to maintain in
+ * cache under the given cache name, in bytes; may be followed by K, M or
+ * G.</li>
+ * <li><b>MAXENTRYBYTES</b><br />The size of the largest response that
+ * will be cached, in bytes; may be followed by K, M or G. Default is
+ * MAXBYTES.</li>
  * <li><b>TIMEOUT</b><br />The number of seconds to maintain entries in
  * cache before expiration.</li>
+ * <li><b>REFRESHAHEAD</b><br />The number of seconds before an entry
+ * expires at which a cache hit starts refreshing it in the background.
+ * Setting this or MAXSTALE switches on refresh-ahead mode, in which
+ * entries expire TIMEOUT seconds after they were cached, rather than after
+ * they were last used. Default is 0.</li>
+ * <li><b>MAXSTALE</b><br />The number of seconds after an entry expires
+ * during which it is still served while it is refreshed. Default is 0.</li>
+ * <li><b>MAXREFRESHES</b><br />The maximum number of entries to refresh at
+ * the same time. Default is 4.</li>
+ * <li><b>CANONICALIZE</b><br />Whether to key entries by the canonical form
+ * of their request, so that requests that differ only in formatting, in the
+ * order of their properties, or in the spelling of their MDX, share an
+ * entry. Default is true.</li>
+ * <li><b>COMPRESS</b><br />Whether to store responses compressed. Cached
+ * XML responses typically become 5 to 10 times smaller, at the cost of
+ * inflating them on each hit. MAXBYTES applies to the compressed size.
+ * Default is false.</li>
+ * <li><b>COMPRESSTHRESHOLD</b><br />The size of the smallest response that
+ * will be compressed, in bytes; may be followed by K, M or G. Default is
+ * 4K.</li>
  * <li><b>MODE</b><br />Supported eviction modes are LIFO (last in first out),
- * FIFO (first in first out), LFU (least frequently used) and MFU
- * (most frequently used)</li>
+ * FIFO (first in first out), LRU (least recently used), LFU (least
+ * frequently used) and MFU (most frequently used)</li>
  * </ul>
  *
  * @see XmlaOlap4jNamedMemoryCache.Property
  */
-public class XmlaOlap4jNamedMemoryCache implements XmlaOlap4jCache {
+public class XmlaOlap4jNamedMemoryCache
+    implements XmlaOlap4jRefreshingCache, XmlaOlap4jStreamingCache
+{
 
     /**
      * <p>Thread safe hashmap which will be used to keep track of
@@ -92,9 +121,86 @@ public class XmlaOlap4jNamedMemoryCache implements XmlaOlap4jCache {
         /**
          * Eviction mode. Supported eviction modes are
          * LIFO (last in first out), FIFO (first in first out),
-         * LFU (least frequently used) and MFU (most frequently used).
+         * LRU (least recently used), LFU (least frequently used) and
+         * MFU (most frequently used).
          */
-        MODE("Eviction mode to set to the given cache name.");
+        MODE("Eviction mode to set to the given cache name."),
+
+        /**
+         * The total size, in bytes, of responses to maintain in cache under
+         * the given cache name. The value may be followed by "K", "M" or
+         * "G". If this property is set and {@link #SIZE} is not, the number
+         * of entries is not limited.
+         */
+        MAXBYTES(
+            "Maximum total size in bytes of SOAP responses which will be "
+            + "cached under the given cache name."),
+
+        /**
+         * The size, in bytes, of the largest response that will be cached.
+         * The value may be followed by "K", "M" or "G". Defaults to
+         * {@link #MAXBYTES}.
+         */
+        MAXENTRYBYTES(
+            "Maximum size in bytes of a SOAP response which will be cached "
+            + "under the given cache name."),
+
+        /**
+         * The number of seconds before an entry expires at which a cache
+         * hit starts refreshing the entry in the background. Setting this
+         * property or {@link #MAXSTALE} switches on refresh-ahead mode, in
+         * which an entry expires {@link #TIMEOUT} seconds after it was
+         * cached, however often it is used.
+         */
+        REFRESHAHEAD(
+            "Number of seconds before expiry at which SOAP responses cached "
+            + "under the given cache name are refreshed in the background."),
+
+        /**
+         * The number of seconds after an entry expires during which it is
+         * still served, while it is refreshed in the background.
+         */
+        MAXSTALE(
+            "Number of seconds after expiry during which SOAP responses "
+            + "cached under the given cache name are served while they are "
+            + "refreshed."),
+
+        /**
+         * The maximum number of entries to refresh in the background at the
+         * same time. If this many refreshes are in progress, an entry that
+         * is due to be refreshed is served without being refreshed, until
+         * it is too stale to be served. Default is 4.
+         */
+        MAXREFRESHES(
+            "Maximum number of SOAP responses cached under the given cache "
+            + "name which are refreshed at the same time."),
+
+        /**
+         * Whether to key entries by the canonical form of their request;
+         * see {@link XmlaOlap4jRequestCanonicalizer}. Default is true.
+         */
+        CANONICALIZE(
+            "Whether SOAP requests are converted to canonical form before "
+            + "their responses are cached under the given cache name."),
+
+        /**
+         * Whether to store responses compressed. A compressed response is
+         * inflated on each hit, as the driver reads it. {@link #MAXBYTES}
+         * and {@link #MAXENTRYBYTES} apply to the compressed size. Default
+         * is false.
+         */
+        COMPRESS(
+            "Whether SOAP responses cached under the given cache name are "
+            + "stored compressed."),
+
+        /**
+         * The size, in bytes, of the smallest response that will be
+         * compressed, if {@link #COMPRESS} is true. The value may be
+         * followed by "K", "M" or "G". Default is 4K.
+         */
+        COMPRESSTHRESHOLD(
+            "Minimum size in bytes of a SOAP response which will be stored "
+            + "compressed under the given cache name.");
 
         /**
          * Creates a property.
@@ -115,6 +221,8 @@ public class XmlaOlap4jNamedMemoryCache implements XmlaOlap4jCache {
         LIFO,
         /** First-in, first-out. */
         FIFO,
+        /** Least-recently used. */
+        LRU,
         /** Least-frequently used. */
         LFU,
         /** Most-frequently used. */
@@ -122,6 +230,183 @@ public class XmlaOlap4jNamedMemoryCache implements XmlaOlap4jCache {
     }
 
 
+    /**
+     * Type of XMLA request, by which cache statistics are broken down.
+     */
+    public static enum RequestType {
+        /** Discover request, which reads metadata. */
+        DISCOVER,
+        /** Execute request, which executes a statement. */
+        EXECUTE;
+
+        private static final byte[] DISCOVER_BYTES = "Discover".getBytes();
+        private static final byte[] EXECUTE_BYTES = "Execute".getBytes();
+
+        /**
+         * Returns the type of a SOAP request: the type of the first element
+         * called "Discover" or "Execute". Requests that contain neither
+         * are deemed to be Execute requests.
+         *
+         * @param request SOAP request
+         * @return Request type
+         */
+        public static RequestType of(byte[] request) {
+            for (int i = 1; i < request.length; i++) {
+                final byte prev = request[i - 1];
+                if (prev != '<' && prev != ':') {
+                    continue;
+                }
+                if (matches(request, i, DISCOVER_BYTES)) {
+                    return DISCOVER;
+                }
+                if (matches(request, i, EXECUTE_BYTES)) {
+                    return EXECUTE;
+                }
+            }
+            return EXECUTE;
+        }
+
+        private static boolean matches(byte[] bytes, int i, byte[] word) {
+            if (i + word.length >= bytes.length) {
+                return false;
+            }
+            for (int j = 0; j < word.length; j++) {
+                if (bytes[i + j] != word[j]) {
+                    return false;
+                }
+            }
+            final byte next = bytes[i + word.length];
+            return next == ' ' || next == '>' || next == '\n'
+                || next == '\r' || next == '\t';
+        }
+    }
+
+    /**
+     * Snapshot of the statistics of a cache space.
+     */
+    public static final class Statistics {
+        private final int entryCount;
+        private final long weight;
+        private final long[] hitCounts;
+        private final long[] missCounts;
+        private final long[] evictionCounts;
+        private final long[] rejectionCounts;
+        private final long[] refreshCounts;
+
+        Statistics(
+            int entryCount,
+            long weight,
+            long[] hitCounts,
+            long[] missCounts,
+            long[] evictionCounts,
+            long[] rejectionCounts,
+            long[] refreshCounts)
+        {
+            this.entryCount = entryCount;
+            this.weight = weight;
+            this.hitCounts = hitCounts;
+            this.missCounts = missCounts;
+            this.evictionCounts = evictionCounts;
+            this.rejectionCounts = rejectionCounts;
+            this.refreshCounts = refreshCounts;
+        }
+
+        /**
+         * Returns the number of entries in the cache.
+         *
+         * @return Number of entries
+         */
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * Returns the total size of the responses in the cache, in bytes.
+         *
+         * @return Total size of responses
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        /**
+         * Returns the number of requests of a given type that were
+         * answered from the cache.
+         *
+         * @param requestType Request type
+         * @return Number of hits
+         */
+        public long getHitCount(RequestType requestType) {
+            return hitCounts[requestType.ordinal()];
+        }
+
+        /**
+         * Returns the number of requests of a given type that were not
+         * found in the cache.
+         *
+         * @param requestType Request type
+         * @return Number of misses
+         */
+        public long getMissCount(RequestType requestType) {
+            return missCounts[requestType.ordinal()];
+        }
+
+        /**
+         * Returns the number of responses to requests of a given type that
+         * were evicted to make room for other responses. Does not include
+         * responses that expired.
+         *
+         * @param requestType Request type
+         * @return Number of evictions
+         */
+        public long getEvictionCount(RequestType requestType) {
+            return evictionCounts[requestType.ordinal()];
+        }
+
+        /**
+         * Returns the number of responses to requests of a given type that
+         * were not cached because they were larger than
+         * {@link Property#MAXENTRYBYTES}.
+         *
+         * @param requestType Request type
+         * @return Number of rejected responses
+         */
+        public long getRejectionCount(RequestType requestType) {
+            return rejectionCounts[requestType.ordinal()];
+        }
+
+        /**
+         * Returns the number of responses to requests of a given type that
+         * were refreshed in the background.
+         *
+         * @param requestType Request type
+         * @return Number of refreshes
+         */
+        public long getRefreshCount(RequestType requestType) {
+            return refreshCounts[requestType.ordinal()];
+        }
+
+        public String toString() {
+            final StringBuilder buf = new StringBuilder();
+            buf.append("entries=").append(entryCount)
+                .append(", bytes=").append(weight);
+            for (RequestType requestType : RequestType.values()) {
+                final String name = requestType.name().toLowerCase();
+                buf.append(", ").append(name).append("{hits=")
+                    .append(getHitCount(requestType))
+                    .append(", misses=").append(getMissCount(requestType))
+                    .append(", evictions=")
+                    .append(getEvictionCount(requestType))
+                    .append(", rejections=")
+                    .append(getRejectionCount(requestType))
+                    .append(", refreshes=")
+                    .append(getRefreshCount(requestType))
+                    .append("}");
+            }
+            return buf.toString();
+        }
+    }
+
     /**
      * Makes sure that the cache is not accessed before it is configured.
      */
@@ -198,14 +483,35 @@ public class XmlaOlap4jNamedMemoryCache implements XmlaOlap4jCache {
     {
         this.validateState();
 
-        // Wait for exclusive access to the caches
-        synchronized (caches) {
-            if (caches.containsKey(id)) {
-                return caches.get(id).get(url, request);
-            } else {
-                throw new XmlaOlap4jInvalidStateException();
-            }
-        }
+        return getCache(id).get(url, request, null);
+    }
+
+
+    // implement XmlaOlap4jRefreshingCache
+    public byte[] get(
+        String id,
+        URL url,
+        byte[] request,
+        Refresher refresher)
+        throws XmlaOlap4jInvalidStateException
+    {
+        this.validateState();
+
+        return getCache(id).get(url, request, refresher);
+    }
+
+
+    // implement XmlaOlap4jStreamingCache
+    public InputStream getStream(
+        String id,
+        URL url,
+        byte[] request,
+        Refresher refresher)
+        throws XmlaOlap4jInvalidStateException
+    {
+        this.validateState();
+
+        return getCache(id).getStream(url, request, refresher);
     }
 
 
@@ -219,14 +525,7 @@ public class XmlaOlap4jNamedMemoryCache implements XmlaOlap4jCache {
     {
         this.validateState();
 
-        // Wait for exclusive access to the caches
-        synchronized (caches) {
-            if (caches.containsKey(id)) {
-                caches.get(id).put(url, request, response);
-            } else {
-                throw new XmlaOlap4jInvalidStateException();
-            }
-        }
+        getCache(id).put(url, request, response);
     }
 
     // implement XmlaOlap4jCache
@@ -237,6 +536,37 @@ public class XmlaOlap4jNamedMemoryCache implements XmlaOlap4jCache {
         }
     }
 
+    /**
+     * Returns the statistics of the cache space with a given name, or null
+     * if there is no such space.
+     *
+     * @param name Name of cache space; see {@link Property#NAME}
+     * @return Statistics, or null
+     */
+    public static Statistics getStatistics(String name) {
+        initCaches();
+        final XmlaOlap4jConcurrentMemoryCache cache = caches.get(name);
+        return cache == null ? null : cache.getStatistics();
+    }
+
+    /**
+     * Returns the cache space with a given name. Does not lock the map of
+     * caches; the cache space does its own locking.
+     *
+     * @param id Name of cache space
+     * @return Cache space
+     * @throws XmlaOlap4jInvalidStateException if there is no such space
+     */
+    private static XmlaOlap4jConcurrentMemoryCache getCache(String id)
+        throws XmlaOlap4jInvalidStateException
+    {
+        final XmlaOlap4jConcurrentMemoryCache cache = caches.get(id);
+        if (cache == null) {
+            throw new XmlaOlap4jInvalidStateException();
+        }
+        return cache;
+    }
+
     /**
      * Helper method to validate that the cache is initialized.
      *
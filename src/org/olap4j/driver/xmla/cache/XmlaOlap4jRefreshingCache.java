@@ -0,0 +1,78 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.cache;
+
+import org.olap4j.OlapException;
+
+import java.net.URL;
+
+/**
+ * XMLA driver cache that can keep serving a response while the driver
+ * fetches a fresher one in the background.
+ *
+ * <p>When a cache hit finds a response that has expired, or is about to
+ * expire, the cache returns the response as usual, and asks the driver, via
+ * a {@link Refresher}, to send the request again. When the fresh response
+ * arrives, the driver stores it by calling
+ * {@link #put(String, java.net.URL, byte[], byte[])}.
+ *
+ * @author agent
+ */
+public interface XmlaOlap4jRefreshingCache extends XmlaOlap4jCache {
+
+    /**
+     * Fetches a SOAP response from the cache, and starts refreshing it if
+     * it is due to be refreshed.
+     *
+     * @param id The connection unique name which called this cache.
+     * @param url The URL where the SOAP message was sent.
+     * @param request The SOAP complete message.
+     * @param refresher Callback with which to refresh the response.
+     *
+     * @throws OlapException when operations to the cache are
+     * performed but it hasn't been initialized.
+     *
+     * @return The SOAP response, null if there are no corresponding
+     * response in the cache.
+     */
+    public byte[] get(
+        String id,
+        URL url,
+        byte[] request,
+        Refresher refresher)
+        throws OlapException;
+
+    /**
+     * Callback by which the cache asks the driver to refresh a response.
+     */
+    public interface Refresher {
+        /**
+         * Sends the request again in the background, and stores the
+         * response in the cache.
+         *
+         * <p>The implementation must call <code>done</code> when the
+         * refresh has completed, whether or not it succeeded. If this
+         * method throws, the cache calls <code>done</code> itself.
+         *
+         * @param done Callback to call when the refresh has completed
+         */
+        void refresh(Runnable done);
+    }
+}
+
+// End XmlaOlap4jRefreshingCache.java
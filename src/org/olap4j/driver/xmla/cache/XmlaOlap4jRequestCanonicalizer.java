@@ -0,0 +1,300 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.cache;
+
+import org.olap4j.mdx.ParseTreeWriter;
+import org.olap4j.mdx.SelectNode;
+import org.olap4j.mdx.parser.impl.DefaultMdxParserImpl;
+
+import org.apache.xerces.parsers.SAXParser;
+import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Converts XMLA requests to a canonical form, so that requests that differ
+ * only in ways that cannot affect the response have the same cache key.
+ *
+ * <p>The canonical form of a request is an XML string in which:
+ * <ul>
+ * <li>the XML declaration, namespace declarations, namespace prefixes and
+ *     SOAP <code>encodingStyle</code> attributes are removed;</li>
+ * <li>whitespace between elements is removed;</li>
+ * <li>the children of <code>PropertyList</code> and
+ *     <code>RestrictionList</code> elements are sorted by name, so that,
+ *     for example, the position of <code>Roles</code> or
+ *     <code>LocaleIdentifier</code> does not matter;</li>
+ * <li>the MDX text of an Execute request's <code>Statement</code> is parsed
+ *     and regenerated by {@link ParseTreeWriter}, so that MDX that differs
+ *     only in spacing, comments or case of keywords is the same.
+ *     Identifiers are written as they were quoted. If the statement cannot
+ *     be parsed, it is left as it is; whitespace may be significant, for
+ *     example in string literals.</li>
+ * </ul>
+ *
+ * <p>A request that cannot be parsed as XML is its own canonical form.
+ *
+ * <p>Canonical forms of recently seen requests are remembered, so that
+ * a request that is repeated is not parsed again.
+ *
+ * @see XmlaOlap4jNamedMemoryCache.Property#CANONICALIZE
+ * @see XmlaOlap4jDiskCache.Property#CANONICALIZE
+ *
+ * @author agent
+ */
+class XmlaOlap4jRequestCanonicalizer {
+    private static final String NAMESPACES_FEATURE_ID =
+        "http://xml.org/sax/features/namespaces";
+    private static final String VALIDATION_FEATURE_ID =
+        "http://xml.org/sax/features/validation";
+
+    /**
+     * Number of canonical forms to remember.
+     */
+    private static final int MEMO_SIZE = 256;
+
+    /**
+     * Recently canonicalized requests, least recently used first. Guarded
+     * by itself.
+     */
+    private final Map<XmlaOlap4jConcurrentMemoryCache.Key, byte[]> memo =
+        new LinkedHashMap<XmlaOlap4jConcurrentMemoryCache.Key, byte[]>(
+            MEMO_SIZE * 2, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(
+                Map.Entry<XmlaOlap4jConcurrentMemoryCache.Key, byte[]> eldest)
+            {
+                return size() > MEMO_SIZE;
+            }
+        };
+
+    /**
+     * Returns the canonical form of a request.
+     *
+     * @param request Request, encoded as specified by its XML declaration
+     * @return Canonical form of request, encoded in UTF-8; or the request
+     *   itself if it is not valid XML
+     */
+    byte[] canonicalize(byte[] request) {
+        synchronized (memo) {
+            final byte[] canonical =
+                memo.get(new XmlaOlap4jConcurrentMemoryCache.Key("", request));
+            if (canonical != null) {
+                return canonical;
+            }
+        }
+        byte[] canonical = request;
+        final String s =
+            canonicalize(new InputSource(new ByteArrayInputStream(request)));
+        if (s != null) {
+            try {
+                canonical = s.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        synchronized (memo) {
+            memo.put(
+                new XmlaOlap4jConcurrentMemoryCache.Key("", request.clone()),
+                canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * Returns the canonical form of a request.
+     *
+     * @param request Request
+     * @return Canonical form of request, or the request itself if it is not
+     *   valid XML
+     */
+    static String canonicalize(String request) {
+        final String s =
+            canonicalize(new InputSource(new StringReader(request)));
+        return s == null ? request : s;
+    }
+
+    /**
+     * Parses a request and returns its canonical form, or null if it is not
+     * valid XML.
+     */
+    private static String canonicalize(InputSource source) {
+        final TreeBuilder builder = new TreeBuilder();
+        try {
+            final SAXParser parser = new SAXParser();
+            parser.setFeature(NAMESPACES_FEATURE_ID, true);
+            parser.setFeature(VALIDATION_FEATURE_ID, false);
+            parser.setContentHandler(builder);
+            parser.setErrorHandler(builder);
+            parser.parse(source);
+        } catch (SAXException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+        final StringBuilder buf = new StringBuilder();
+        builder.root.write(buf);
+        return buf.toString();
+    }
+
+    /**
+     * Returns the canonical form of an MDX statement.
+     *
+     * @param mdx MDX statement
+     * @return Canonical MDX, or the statement itself if it cannot be parsed
+     */
+    static String canonicalizeMdx(String mdx) {
+        try {
+            final SelectNode select =
+                new DefaultMdxParserImpl().parseSelect(mdx);
+            final StringWriter sw = new StringWriter();
+            select.unparse(new ParseTreeWriter(sw));
+            return sw.toString();
+        } catch (RuntimeException e) {
+            // Not a SELECT statement, or not valid MDX. Let the server
+            // decide. We cannot tell which whitespace is significant (it is,
+            // in string literals) so leave the statement as it is.
+            return mdx;
+        }
+    }
+
+    /**
+     * Element of a request.
+     */
+    private static class Element {
+        final String name;
+        final SortedMap<String, String> attributes =
+            new TreeMap<String, String>();
+        final List<Element> children = new ArrayList<Element>();
+        final StringBuilder text = new StringBuilder();
+
+        Element(String name) {
+            this.name = name;
+        }
+
+        void write(StringBuilder buf) {
+            buf.append('<').append(name);
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                buf.append(' ').append(entry.getKey()).append("=\"");
+                escape(buf, entry.getValue());
+                buf.append('"');
+            }
+            buf.append('>');
+            String s = text.toString();
+            if (name.equals("Statement")) {
+                s = canonicalizeMdx(s);
+            } else if (s.trim().length() == 0) {
+                s = "";
+            }
+            escape(buf, s);
+            if (name.equals("PropertyList")
+                || name.equals("RestrictionList"))
+            {
+                final List<String> list = new ArrayList<String>();
+                for (Element child : children) {
+                    final StringBuilder childBuf = new StringBuilder();
+                    child.write(childBuf);
+                    list.add(childBuf.toString());
+                }
+                Collections.sort(list, String.CASE_INSENSITIVE_ORDER);
+                for (String child : list) {
+                    buf.append(child);
+                }
+            } else {
+                for (Element child : children) {
+                    child.write(buf);
+                }
+            }
+            buf.append("</").append(name).append('>');
+        }
+
+        private static void escape(StringBuilder buf, String s) {
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                switch (c) {
+                case '&':
+                    buf.append("&amp;");
+                    break;
+                case '<':
+                    buf.append("&lt;");
+                    break;
+                case '>':
+                    buf.append("&gt;");
+                    break;
+                case '"':
+                    buf.append("&quot;");
+                    break;
+                default:
+                    buf.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * SAX handler that builds a tree of {@link Element}s.
+     */
+    private static class TreeBuilder extends DefaultHandler {
+        final Element root = new Element("request");
+        private final List<Element> stack = new ArrayList<Element>();
+
+        TreeBuilder() {
+            stack.add(root);
+        }
+
+        public void startElement(
+            String uri,
+            String localName,
+            String qName,
+            Attributes attributes)
+        {
+            final Element element = new Element(localName);
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final String name = attributes.getLocalName(i);
+                if (name.equals("encodingStyle")
+                    || attributes.getQName(i).startsWith("xmlns"))
+                {
+                    continue;
+                }
+                element.attributes.put(name, attributes.getValue(i));
+            }
+            stack.get(stack.size() - 1).children.add(element);
+            stack.add(element);
+        }
+
+        public void endElement(String uri, String localName, String qName) {
+            stack.remove(stack.size() - 1);
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            stack.get(stack.size() - 1).text.append(ch, start, length);
+        }
+
+        public void error(SAXParseException e) throws SAXException {
+            throw e;
+        }
+
+        public void fatalError(SAXParseException e) throws SAXException {
+            throw e;
+        }
+    }
+}
+
+// End XmlaOlap4jRequestCanonicalizer.java
@@ -0,0 +1,62 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.cache;
+
+import org.olap4j.OlapException;
+
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * XMLA driver cache that can return a response as a stream.
+ *
+ * <p>A cache that stores responses in a form other than the bytes the
+ * server sent, for example compressed, implements this interface so that
+ * the driver can parse a cached response as it is decoded, without first
+ * decoding it into an array.
+ *
+ * @author agent
+ */
+public interface XmlaOlap4jStreamingCache extends XmlaOlap4jCache {
+
+    /**
+     * Fetches a SOAP response from the cache as a stream, and if the cache
+     * supports refresh-ahead, starts refreshing it if it is due to be
+     * refreshed.
+     *
+     * @param id The connection unique name which called this cache.
+     * @param url The URL where the SOAP message was sent.
+     * @param request The SOAP complete message.
+     * @param refresher Callback with which to refresh the response, or
+     * null
+     *
+     * @throws OlapException when operations to the cache are
+     * performed but it hasn't been initialized.
+     *
+     * @return A stream of the SOAP response, null if there are no
+     * corresponding response in the cache.
+     */
+    public InputStream getStream(
+        String id,
+        URL url,
+        byte[] request,
+        XmlaOlap4jRefreshingCache.Refresher refresher)
+        throws OlapException;
+}
+
+// End XmlaOlap4jStreamingCache.java
@@ -20,11 +20,15 @@ package org.olap4j.driver.xmla.proxy;
 import org.olap4j.OlapException;
 import org.olap4j.driver.xmla.*;
 import org.olap4j.driver.xmla.cache.XmlaOlap4jCache;
+import org.olap4j.driver.xmla.cache.XmlaOlap4jRefreshingCache;
+import org.olap4j.driver.xmla.cache.XmlaOlap4jStreamingCache;
 
+import java.io.*;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
 
 /**
  * <p>Abstract implementation of Proxy which adds a SOAP
@@ -32,6 +36,26 @@ import java.util.concurrent.Future;
  * It can be configured via the setCache() method, as instructed in
  * {@link XmlaOlap4jCachedProxy} interface.
  *
+ * <p>Responses can also be read as streams, via
+ * {@link #getStream}. If a cache is configured, a streamed response is
+ * copied into the cache once it has been read to the end.
+ *
+ * <p>If the cache is a {@link XmlaOlap4jRefreshingCache}, responses that
+ * are due to be refreshed are refreshed in the background, using the
+ * executor returned by {@link #getExecutor()}.
+ *
+ * <p>If the cache is a {@link XmlaOlap4jStreamingCache}, {@link #getStream}
+ * and {@link #submitStream} read cached responses as streams, so that a
+ * cache that stores responses compressed can decode them as the driver
+ * parses them.
+ *
+ * <p>Concurrent identical requests are coalesced: if a request is sent
+ * while an identical request from the same user to the same server is still
+ * waiting for its response, the second caller shares the first caller's
+ * round trip and response buffer. Each caller holds a reference to the
+ * shared request; the request is aborted only when every caller has
+ * canceled. Coalescing can be switched off via {@link #setCoalescing}.
+ *
  * <p>It also offers helper methods to keep track of
  * the HTTP cookies and sends them back
  * to the server along with queries. The useful methods are
@@ -40,7 +64,7 @@ import java.util.concurrent.Future;
  * @author Luc Boudreau
  */
 abstract class XmlaOlap4jAbstractHttpProxy
-    implements XmlaOlap4jCachedProxy
+    implements XmlaOlap4jCachedProxy, XmlaOlap4jStreamingProxy
 {
     private final XmlaHelper helper = new XmlaHelper();
 
@@ -61,6 +85,25 @@ abstract class XmlaOlap4jAbstractHttpProxy
      */
     private XmlaOlap4jCookieManager cookieManager = null;
 
+    /**
+     * Whether identical concurrent requests share a round trip.
+     */
+    private boolean coalescing = true;
+
+    /**
+     * Requests that are waiting for a response, keyed by server, user and
+     * request text. Shared by all proxies, so that requests from different
+     * connections of the same user are also coalesced.
+     */
+    private static final ConcurrentMap<String, Flight> FLIGHTS =
+        new ConcurrentHashMap<String, Flight>();
+
+    /**
+     * Value returned by a {@link Flight} that has handed the response
+     * stream to its only caller, rather than reading it into a buffer.
+     */
+    private static final Object DELIVERED = new Object();
+
     /**
      * Creates an XmlaOlap4jAbstractHttpProxy.
      */
@@ -91,6 +134,60 @@ abstract class XmlaOlap4jAbstractHttpProxy
         XmlaOlap4jServerInfos serverInfos,
         String request);
 
+    /**
+     * Sends a request to a URL and returns a stream from which to read the
+     * response. The caller must close the stream.
+     *
+     * <p>The default implementation reads the whole response via
+     * {@link #getResponse}; subclasses should override it to stream.
+     *
+     * @param serverInfos Server infos
+     * @param request Request string
+     * @return Stream containing the response
+     */
+    protected InputStream getResponseStream(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+        throws XmlaOlap4jProxyException
+    {
+        return new ByteArrayInputStream(getResponse(serverInfos, request));
+    }
+
+    /**
+     * Sets whether identical concurrent requests share a round trip to the
+     * server. The default is true.
+     *
+     * @param coalescing Whether to coalesce requests
+     */
+    protected void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Reads a stream to the end, and closes it.
+     *
+     * @param is Stream
+     * @param sizeHint Expected number of bytes, or -1 if not known
+     * @return Contents of stream
+     * @throws IOException on error
+     */
+    protected static byte[] readFully(InputStream is, int sizeHint)
+        throws IOException
+    {
+        try {
+            final ByteArrayOutputStream baos =
+                new ByteArrayOutputStream(Math.max(sizeHint, 1024));
+            byte[] buf = new byte[8192];
+            int count;
+            while ((count = is.read(buf)) > 0) {
+                baos.write(buf, 0, count);
+            }
+            return baos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
     /**
      * Helper method to add cookies to a given connection.
      * @param urlConn The url connection to which we want the cookies
@@ -115,6 +212,34 @@ abstract class XmlaOlap4jAbstractHttpProxy
         this.cookieManager.storeCookies(urlConn);
     }
 
+    /**
+     * Helper method to get the value of the "Cookie" header to send with a
+     * request, for transports that do not use a URLConnection.
+     *
+     * @param url The URL to which the request will be sent
+     * @return Cookie header value, or null if there are no cookies
+     */
+    protected String getCookieString(URL url) {
+        // Initializes the cookie manager
+        this.initCookieManager();
+        return this.cookieManager.getCookieString(url);
+    }
+
+    /**
+     * Helper method to save cookies for later use, for transports that do
+     * not use a URLConnection.
+     *
+     * @param url The URL to which the request was sent
+     * @param setCookieValues Values of the "Set-Cookie" headers of the
+     * response
+     */
+    protected void saveCookies(URL url, List<String> setCookieValues) {
+        // Initializes the cookie manager
+        this.initCookieManager();
+        // Saves the current cookies
+        this.cookieManager.storeCookies(url, setCookieValues);
+    }
+
     @SuppressWarnings("unchecked")
     public void setCache(
         Map<String, String> config,
@@ -160,12 +285,26 @@ abstract class XmlaOlap4jAbstractHttpProxy
         String request)
         throws XmlaOlap4jProxyException
     {
+        if (coalescing) {
+            final Handle handle = join(serverInfos, request, false, false);
+            try {
+                return handle.getBytes(handle.getResult());
+            } catch (InterruptedException e) {
+                handle.cancel(true);
+                throw new XmlaOlap4jProxyException(
+                    "Interrupted while waiting for response", e);
+            } catch (ExecutionException e) {
+                throw toProxyException(e.getCause());
+            }
+        }
+
         byte[] response = null;
         // Tries to fetch from cache
         try {
             response =
                 getFromCache(
-                    serverInfos.getUrl(),
+                    serverInfos,
+                    request,
                     request.getBytes(getEncodingCharsetName()));
             // Returns the cached value if found
             if (response != null) {
@@ -196,22 +335,162 @@ abstract class XmlaOlap4jAbstractHttpProxy
     }
 
 
+    // implement XmlaOlap4jStreamingProxy
+    public InputStream getStream(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+        throws XmlaOlap4jProxyException
+    {
+        final boolean streamingCache =
+            this.cache instanceof XmlaOlap4jStreamingCache;
+        if (streamingCache) {
+            try {
+                final InputStream response =
+                    ((XmlaOlap4jStreamingCache) this.cache).getStream(
+                        this.cacheId,
+                        serverInfos.getUrl(),
+                        request.getBytes(getEncodingCharsetName()),
+                        newRefresher(serverInfos, request));
+                if (response != null) {
+                    return response;
+                }
+            } catch (Exception e) {
+                throw new XmlaOlap4jProxyException(
+                    "An exception was encountered while browsing the proxy "
+                    + "cache.",
+                    e);
+            }
+        }
+        if (coalescing) {
+            final Handle handle =
+                join(serverInfos, request, false, streamingCache);
+            try {
+                return handle.getStream(handle.getResult());
+            } catch (InterruptedException e) {
+                handle.cancel(true);
+                throw new XmlaOlap4jProxyException(
+                    "Interrupted while waiting for response", e);
+            } catch (ExecutionException e) {
+                throw toProxyException(e.getCause());
+            }
+        }
+
+        final byte[] requestBytes;
+        try {
+            requestBytes = request.getBytes(getEncodingCharsetName());
+            // Tries to fetch from cache
+            final byte[] response =
+                streamingCache
+                    ? null
+                    : getFromCache(serverInfos, request, requestBytes);
+            if (response != null) {
+                return new ByteArrayInputStream(response);
+            }
+        } catch (Exception e) {
+            throw new XmlaOlap4jProxyException(
+                "An exception was encountered while browsing the proxy cache.",
+                e);
+        }
+
+        // Executes the query
+        final InputStream stream = getResponseStream(serverInfos, request);
+        if (this.cache == null) {
+            return stream;
+        }
+        return new CachingInputStream(
+            stream, serverInfos.getUrl(), requestBytes);
+    }
+
+    // implement XmlaOlap4jStreamingProxy
+    public Future<InputStream> submitStream(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+    {
+        // A streaming cache is read by getStream, in the background;
+        // coalescing, if enabled, happens there too.
+        if (coalescing
+            && !(this.cache instanceof XmlaOlap4jStreamingCache))
+        {
+            return join(serverInfos, request, true, false);
+        }
+        return getExecutor().submitStream(this, serverInfos, request);
+    }
+
+    /**
+     * Returns the executor that runs asynchronous requests.
+     *
+     * <p>The default implementation returns the driver's default executor.
+     * Subclasses may override.
+     *
+     * @return Executor
+     */
+    protected XmlaOlap4jExecutor getExecutor() {
+        return XmlaOlap4jExecutor.getDefault();
+    }
+
     /**
      * Tries to fetch a cached response from the cache implementation.
      *
-     * @param url The url used to send the request
+     * <p>If the cache is a {@link XmlaOlap4jRefreshingCache} and the
+     * response is due to be refreshed, sends the request again in the
+     * background and caches the new response.
      *
-     * @param request The SOAP request to cache
+     * @param serverInfos Server infos
+     * @param request The SOAP request
+     * @param requestBytes The SOAP request, encoded
      *
      * @return either a response in a byte array or null
      * if the response is not in cache
      */
-    private byte[] getFromCache(final URL url, final byte[] request)
-            throws OlapException
+    private byte[] getFromCache(
+        final XmlaOlap4jServerInfos serverInfos,
+        final String request,
+        final byte[] requestBytes)
+        throws OlapException
     {
-        return (this.cache != null)
-            ? this.cache.get(this.cacheId, url, request)
-            : null;
+        if (this.cache == null) {
+            return null;
+        }
+        final URL url = serverInfos.getUrl();
+        if (!(this.cache instanceof XmlaOlap4jRefreshingCache)) {
+            return this.cache.get(this.cacheId, url, requestBytes);
+        }
+        return ((XmlaOlap4jRefreshingCache) this.cache).get(
+            this.cacheId,
+            url,
+            requestBytes,
+            newRefresher(serverInfos, request));
+    }
+
+    /**
+     * Creates a callback with which the cache can refresh a response. The
+     * callback sends the request again in the background, and caches the
+     * new response.
+     *
+     * @param serverInfos Server infos
+     * @param request The SOAP request
+     * @return Refresher
+     */
+    private XmlaOlap4jRefreshingCache.Refresher newRefresher(
+        final XmlaOlap4jServerInfos serverInfos,
+        final String request)
+    {
+        return new XmlaOlap4jRefreshingCache.Refresher() {
+            public void refresh(Runnable done) {
+                getExecutor().submit(
+                    serverInfos,
+                    new Callable<Object>() {
+                        public Object call() throws Exception {
+                            addToCache(
+                                serverInfos.getUrl(),
+                                request.getBytes(getEncodingCharsetName()),
+                                getResponse(serverInfos, request));
+                            return null;
+                        }
+                    },
+                    done);
+            }
+        };
     }
 
 
@@ -240,9 +519,469 @@ abstract class XmlaOlap4jAbstractHttpProxy
         //
         // I still overridden the submit method in case we need some caching
         // done in the end. - Luc
+        if (coalescing) {
+            return new BytesFuture(join(serverInfos, request, true, false));
+        }
         return getResponseViaSubmit(serverInfos, request);
     }
 
+    /**
+     * Joins the flight of an identical request that is waiting for its
+     * response, or if there is none, starts a new flight.
+     *
+     * @param serverInfos Server infos
+     * @param request Request
+     * @param async Whether to send a new request in the background; if
+     *   false, a new request is sent in the calling thread before this
+     *   method returns
+     * @param cacheChecked Whether the caller has already looked for the
+     *   response in the cache; if so, a new flight does not look again
+     * @return Handle by which the caller obtains the response
+     */
+    private Handle join(
+        XmlaOlap4jServerInfos serverInfos,
+        String request,
+        boolean async,
+        boolean cacheChecked)
+    {
+        final String key =
+            serverInfos.getUrl().toExternalForm()
+            + '\u0000' + serverInfos.getUsername()
+            + '\u0000' + serverInfos.getPassword()
+            + '\u0000' + request;
+        for (;;) {
+            final Flight flight = FLIGHTS.get(key);
+            if (flight != null) {
+                if (flight.join()) {
+                    return new Handle(flight);
+                }
+                // The flight has its response and is no longer accepting
+                // callers; it is about to leave the map.
+                FLIGHTS.remove(key, flight);
+                continue;
+            }
+            final Flight newFlight =
+                new Flight(key, serverInfos, request, cacheChecked);
+            if (async) {
+                if (FLIGHTS.putIfAbsent(key, newFlight) != null) {
+                    continue;
+                }
+                newFlight.setFuture(
+                    getExecutor().submit(serverInfos, newFlight));
+            } else {
+                final FutureTask<Object> task =
+                    new FutureTask<Object>(newFlight);
+                newFlight.setFuture(task);
+                if (FLIGHTS.putIfAbsent(key, newFlight) != null) {
+                    continue;
+                }
+                task.run();
+            }
+            return new Handle(newFlight);
+        }
+    }
+
+    /**
+     * Converts the cause of a failed request into the exception thrown to
+     * a synchronous caller.
+     */
+    private static XmlaOlap4jProxyException toProxyException(Throwable e) {
+        if (e instanceof XmlaOlap4jProxyException) {
+            return (XmlaOlap4jProxyException) e;
+        }
+        return new XmlaOlap4jProxyException(
+            "An exception was encountered while sending a request.", e);
+    }
+
+    /**
+     * Request that has been sent, or is about to be sent, on behalf of one
+     * or more callers.
+     *
+     * <p>Callers join a flight until its response arrives. If by then only
+     * one caller remains, that caller receives the response stream;
+     * otherwise the response is read into a buffer that all callers share.
+     * If every caller cancels before the response arrives, the request is
+     * canceled.
+     */
+    private final class Flight implements Callable<Object> {
+        private final String key;
+        private final XmlaOlap4jServerInfos serverInfos;
+        private final String request;
+        private final boolean cacheChecked;
+
+        // The following fields are guarded by this.
+        private int refCount = 1;
+        private boolean closed;
+        private InputStream delivery;
+        private Future<Object> future;
+
+        Flight(
+            String key,
+            XmlaOlap4jServerInfos serverInfos,
+            String request,
+            boolean cacheChecked)
+        {
+            this.key = key;
+            this.serverInfos = serverInfos;
+            this.request = request;
+            this.cacheChecked = cacheChecked;
+        }
+
+        /**
+         * Adds a caller, unless the response has already arrived.
+         *
+         * @return Whether the caller was added
+         */
+        synchronized boolean join() {
+            if (closed) {
+                return false;
+            }
+            ++refCount;
+            return true;
+        }
+
+        /**
+         * Removes a caller. If it was the last caller, cancels the request,
+         * or releases the response stream if nobody took it.
+         */
+        void release() {
+            final InputStream orphan;
+            Future<Object> abandoned = null;
+            synchronized (this) {
+                if (--refCount > 0) {
+                    return;
+                }
+                if (!closed) {
+                    closed = true;
+                    abandoned = future;
+                }
+                orphan = delivery;
+                delivery = null;
+            }
+            FLIGHTS.remove(key, this);
+            if (abandoned != null) {
+                abandoned.cancel(true);
+            }
+            if (orphan != null) {
+                try {
+                    orphan.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        void setFuture(Future<Object> future) {
+            final boolean abandoned;
+            synchronized (this) {
+                this.future = future;
+                notifyAll();
+                abandoned = closed && refCount == 0;
+            }
+            if (abandoned) {
+                future.cancel(true);
+            }
+        }
+
+        synchronized Future<Object> getFuture() throws InterruptedException {
+            while (future == null) {
+                wait();
+            }
+            return future;
+        }
+
+        synchronized boolean isDone() {
+            return future != null && future.isDone();
+        }
+
+        synchronized InputStream takeDelivery() {
+            final InputStream stream = delivery;
+            delivery = null;
+            return stream;
+        }
+
+        /**
+         * Stops callers from joining this flight.
+         *
+         * @return Number of callers
+         */
+        private int close() {
+            final int n;
+            synchronized (this) {
+                closed = true;
+                n = refCount;
+            }
+            FLIGHTS.remove(key, this);
+            return n;
+        }
+
+        public Object call() throws Exception {
+            synchronized (this) {
+                if (closed) {
+                    throw new CancellationException();
+                }
+            }
+            final byte[] requestBytes;
+            final byte[] cached;
+            try {
+                requestBytes = request.getBytes(getEncodingCharsetName());
+                cached =
+                    cacheChecked
+                        ? null
+                        : getFromCache(serverInfos, request, requestBytes);
+            } catch (Exception e) {
+                close();
+                throw new XmlaOlap4jProxyException(
+                    "An exception was encountered while browsing the proxy "
+                    + "cache.",
+                    e);
+            }
+            if (cached != null) {
+                close();
+                return cached;
+            }
+            InputStream stream = null;
+            try {
+                stream = getResponseStream(serverInfos, request);
+            } finally {
+                if (stream == null) {
+                    close();
+                }
+            }
+            final int n = close();
+            if (n == 1) {
+                synchronized (this) {
+                    // The caller may have canceled since close().
+                    if (refCount == 1) {
+                        delivery = stream;
+                        return DELIVERED;
+                    }
+                }
+            }
+            if (n <= 1) {
+                stream.close();
+                throw new CancellationException();
+            }
+            final byte[] response = readFully(stream, -1);
+            try {
+                addToCache(serverInfos.getUrl(), requestBytes, response);
+            } catch (Exception e) {
+                throw new XmlaOlap4jProxyException(
+                    "An exception was encountered while saving a response "
+                    + "in the proxy cache.",
+                    e);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * One caller's reference to a {@link Flight}. Canceling a handle
+     * releases the reference; the request is only canceled when all
+     * handles have been canceled.
+     */
+    private final class Handle implements Future<InputStream> {
+        private final Flight flight;
+
+        // The following fields are guarded by flight.
+        private boolean released;
+        private boolean canceled;
+
+        Handle(Flight flight) {
+            this.flight = flight;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (flight) {
+                if (released) {
+                    return false;
+                }
+                released = true;
+                canceled = !flight.isDone();
+            }
+            flight.release();
+            return canceled;
+        }
+
+        public boolean isCancelled() {
+            synchronized (flight) {
+                return canceled;
+            }
+        }
+
+        public boolean isDone() {
+            return isCancelled() || flight.isDone();
+        }
+
+        public InputStream get()
+            throws InterruptedException, ExecutionException
+        {
+            return getStream(getResult());
+        }
+
+        public InputStream get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return getStream(getResult(timeout, unit));
+        }
+
+        Object getResult() throws InterruptedException, ExecutionException {
+            checkCanceled();
+            return flight.getFuture().get();
+        }
+
+        Object getResult(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            checkCanceled();
+            return flight.getFuture().get(timeout, unit);
+        }
+
+        private void checkCanceled() {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * Converts the result of the flight into a stream for this caller.
+         */
+        InputStream getStream(Object result) {
+            if (result instanceof byte[]) {
+                return new ByteArrayInputStream((byte[]) result);
+            }
+            final InputStream stream = flight.takeDelivery();
+            if (stream == null) {
+                throw new CancellationException(
+                    "Response stream has already been read or released");
+            }
+            if (cache == null) {
+                return stream;
+            }
+            final byte[] requestBytes;
+            try {
+                requestBytes =
+                    flight.request.getBytes(getEncodingCharsetName());
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+            return new CachingInputStream(
+                stream, flight.serverInfos.getUrl(), requestBytes);
+        }
+
+        /**
+         * Converts the result of the flight into a byte array for this
+         * caller.
+         */
+        byte[] getBytes(Object result) throws ExecutionException {
+            if (result instanceof byte[]) {
+                return (byte[]) result;
+            }
+            try {
+                return readFully(getStream(result), -1);
+            } catch (IOException e) {
+                throw new ExecutionException(e);
+            }
+        }
+    }
+
+    /**
+     * Future that reads the response of a {@link Handle} into a byte array.
+     */
+    private static class BytesFuture implements Future<byte[]> {
+        private final Handle handle;
+
+        BytesFuture(Handle handle) {
+            this.handle = handle;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return handle.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            return handle.isCancelled();
+        }
+
+        public boolean isDone() {
+            return handle.isDone();
+        }
+
+        public byte[] get() throws InterruptedException, ExecutionException {
+            return handle.getBytes(handle.getResult());
+        }
+
+        public byte[] get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return handle.getBytes(handle.getResult(timeout, unit));
+        }
+    }
+
+    /**
+     * Stream that copies the bytes it reads, and adds them to the cache when
+     * it reaches the end of the response. A response that is not read to
+     * the end is not cached.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final URL url;
+        private final byte[] request;
+        private ByteArrayOutputStream copy =
+            new ByteArrayOutputStream(8192);
+
+        CachingInputStream(InputStream in, URL url, byte[] request) {
+            super(in);
+            this.url = url;
+            this.request = request;
+        }
+
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c < 0) {
+                complete();
+            } else if (copy != null) {
+                copy.write(c);
+            }
+            return c;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n < 0) {
+                complete();
+            } else if (copy != null) {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the copy.
+            copy = null;
+            return super.skip(n);
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void complete() throws IOException {
+            if (copy != null) {
+                final byte[] response = copy.toByteArray();
+                copy = null;
+                try {
+                    addToCache(url, request, response);
+                } catch (OlapException e) {
+                    final IOException ioe = new IOException(
+                        "An exception was encountered while saving a "
+                        + "response in the proxy cache.");
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+            }
+        }
+    }
+
     /**
      * Initializes the cookie manager. It is not initialized
      * by default because some proxy implementation might not need this
@@ -92,8 +92,26 @@ class XmlaOlap4jCookieManager {
      * @throws java.io.IOException Thrown if <i>conn</i> is not open.
      */
     public void storeCookies(URLConnection conn) {
+        final List<String> values = new ArrayList<String>();
+        String headerName = null;
+        for (int i = 1; (headerName = conn.getHeaderFieldKey(i)) != null; i++) {
+            if (headerName.equalsIgnoreCase(SET_COOKIE)) {
+                values.add(conn.getHeaderField(i));
+            }
+        }
+        storeCookies(conn.getURL(), values);
+    }
+
+    /**
+     * Stores cookies returned by a host, given the values of the
+     * "Set-Cookie" headers of the response.
+     *
+     * @param url URL to which the request was sent
+     * @param setCookieValues Values of "Set-Cookie" headers
+     */
+    public void storeCookies(URL url, List<String> setCookieValues) {
         // Determines the domain from where these cookies are being sent
-        String domain = getDomainFromHost(conn.getURL().getHost());
+        String domain = getDomainFromHost(url.getHost());
 
         Map domainStore; // Where we will store cookies for this domain
 
@@ -107,63 +125,60 @@ class XmlaOlap4jCookieManager {
             store.put(domain, domainStore);
         }
 
-        // OK, now we are ready to get the cookies out of the URLConnection
+        // OK, now we are ready to get the cookies out of the header values
+
+        for (String setCookieValue : setCookieValues) {
+            Map cookie = new ConcurrentHashMap();
+            StringTokenizer st = new StringTokenizer(
+                setCookieValue, COOKIE_VALUE_DELIMITER);
+
+            // the specification dictates that the first name/value pair
+            // in the string is the cookie name and value, so let's handle
+            // them as a special case:
+
+            if (st.hasMoreTokens()) {
+                String token = st.nextToken();
+                String name = token.substring(
+                    0,
+                    token.indexOf(NAME_VALUE_SEPARATOR));
+                String value =
+                    token.substring(
+                        token .indexOf(NAME_VALUE_SEPARATOR) + 1,
+                        token.length());
+                domainStore.put(name, cookie);
+                cookie.put(name, value);
+
+                if (this.debug) {
+                    System.out.println(
+                        "Saving cookie : " + name + "=" + value);
+                }
+            }
 
-        String headerName = null;
-        for (int i = 1; (headerName = conn.getHeaderFieldKey(i)) != null; i++) {
-            if (headerName.equalsIgnoreCase(SET_COOKIE)) {
-                Map cookie = new ConcurrentHashMap();
-                StringTokenizer st = new StringTokenizer(
-                    conn.getHeaderField(i), COOKIE_VALUE_DELIMITER);
-
-                // the specification dictates that the first name/value pair
-                // in the string is the cookie name and value, so let's handle
-                // them as a special case:
-
-                if (st.hasMoreTokens()) {
-                    String token = st.nextToken();
-                    String name = token.substring(
-                        0,
-                        token.indexOf(NAME_VALUE_SEPARATOR));
-                    String value =
+            while (st.hasMoreTokens()) {
+                String token = st.nextToken();
+
+                // Check if the separator does exist
+                // The other attributes are not stored (Ex: HttpOnly)
+                int separatorIndex = token.indexOf(NAME_VALUE_SEPARATOR);
+
+                if (separatorIndex > 0) {
+                    String tokenName =
+                        token.substring(
+                            0,
+                            separatorIndex)
+                        .toLowerCase();
+                    String tokenValue =
                         token.substring(
-                            token .indexOf(NAME_VALUE_SEPARATOR) + 1,
+                            separatorIndex + 1,
                             token.length());
-                    domainStore.put(name, cookie);
-                    cookie.put(name, value);
+
+                    cookie.put(tokenName, tokenValue);
 
                     if (this.debug) {
                         System.out.println(
-                            "Saving cookie : " + name + "=" + value);
-                    }
-                }
-
-                while (st.hasMoreTokens()) {
-                    String token = st.nextToken();
-
-                    // Check if the separator does exist
-                    // The other attributes are not stored (Ex: HttpOnly)
-                    int separatorIndex = token.indexOf(NAME_VALUE_SEPARATOR);
-
-                    if (separatorIndex > 0) {
-                        String tokenName =
-                            token.substring(
-                                0,
-                                separatorIndex)
-                            .toLowerCase();
-                        String tokenValue =
-                            token.substring(
-                                separatorIndex + 1,
-                                token.length());
-
-                        cookie.put(tokenName, tokenValue);
-
-                        if (this.debug) {
-                            System.out.println(
-                                "Saving cookie : "
-                                + tokenName
-                                + "=" + tokenValue);
-                        }
+                            "Saving cookie : "
+                            + tokenName
+                            + "=" + tokenValue);
                     }
                 }
             }
@@ -184,14 +199,35 @@ class XmlaOlap4jCookieManager {
      * opened.
      */
     public void setCookies(URLConnection conn) {
+        final String cookieString = getCookieString(conn.getURL());
+        if (cookieString == null) {
+            return;
+        }
+        try {
+            conn.setRequestProperty(COOKIE, cookieString);
+        } catch (java.lang.IllegalStateException ise) {
+            throw new RuntimeException(
+                "Illegal State! Cookies cannot be set on a URLConnection that is already connected. Only call setCookies(java.net.URLConnection) AFTER calling java.net.URLConnection.connect().");
+        }
+    }
+
+    /**
+     * Returns the value of the "Cookie" header to send with a request to
+     * a URL: all unexpired cookies that match the path or subpaths of the
+     * URL.
+     *
+     * @param url URL
+     * @return Cookie header value, or null if there are no cookies for the
+     * URL's domain
+     */
+    public String getCookieString(URL url) {
         // Determines the domain and path to retrieve the appropriate cookies
-        URL url = conn.getURL();
         String domain = getDomainFromHost(url.getHost());
         String path = url.getPath();
 
         Map domainStore = (Map) store.get(domain);
         if (domainStore == null) {
-            return;
+            return null;
         }
         StringBuffer cookieStringBuffer = new StringBuffer();
 
@@ -212,18 +248,13 @@ class XmlaOlap4jCookieManager {
                 }
             }
         }
-        try {
-            if (this.debug
-                && !(cookieStringBuffer.toString().equals("")))
-            {
-                System.out.println(
-                    "Using cookie : " + cookieStringBuffer.toString());
-            }
-            conn.setRequestProperty(COOKIE, cookieStringBuffer.toString());
-        } catch (java.lang.IllegalStateException ise) {
-            throw new RuntimeException(
-                "Illegal State! Cookies cannot be set on a URLConnection that is already connected. Only call setCookies(java.net.URLConnection) AFTER calling java.net.URLConnection.connect().");
+        if (this.debug
+            && !(cookieStringBuffer.toString().equals("")))
+        {
+            System.out.println(
+                "Using cookie : " + cookieStringBuffer.toString());
         }
+        return cookieStringBuffer.toString();
     }
 
     private String getDomainFromHost(String host) {
@@ -0,0 +1,862 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.proxy;
+
+import java.io.*;
+import java.net.*;
+import java.security.cert.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.*;
+
+/**
+ * Pool of persistent HTTP/1.1 connections to one server.
+ *
+ * <p>Used by {@link XmlaOlap4jHttpProxy} when the connect string specifies
+ * <code>Transport=POOLED</code>. Unlike the JDK's
+ * {@link java.net.HttpURLConnection}, whose keep-alive cache is global and
+ * not configurable, the pool has an explicit limit on the number of
+ * connections to the server, closes connections that have been idle for too
+ * long, and reads each response into a buffer sized from its
+ * <code>Content-Length</code> header.
+ *
+ * <p>Pools are shared by all proxies in the JVM that talk to the same server
+ * with the same settings; see {@link #get}.
+ *
+ * <p>The pool does not go through any HTTP proxy server configured via
+ * system properties.
+ *
+ * @author agent
+ */
+final class XmlaOlap4jHttpConnectionPool {
+    private static final Map<String, XmlaOlap4jHttpConnectionPool> POOLS =
+        new ConcurrentHashMap<String, XmlaOlap4jHttpConnectionPool>();
+
+    // Types of subject alternative name in an X.509 certificate.
+    private static final Integer DNS_NAME = 2;
+    private static final Integer IP_ADDRESS = 7;
+
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final int idleTimeout;
+    private final int connectTimeout;
+    private final int socketTimeout;
+
+    /** Limits the number of connections checked out at a time. */
+    private final Semaphore permits;
+
+    /** Idle connections, most recently used first. Guarded by itself. */
+    private final LinkedList<PooledConnection> idle =
+        new LinkedList<PooledConnection>();
+
+    /** Number of sockets opened; for testing and tuning. */
+    final AtomicInteger openCount = new AtomicInteger();
+
+    /** Number of requests sent on a connection that had been used before. */
+    final AtomicInteger reuseCount = new AtomicInteger();
+
+    /**
+     * Creates a pool.
+     *
+     * @param url URL of server
+     * @param maxConnections Maximum number of connections
+     * @param idleTimeout Time in milliseconds after which an idle connection
+     *   is closed
+     * @param connectTimeout Timeout in milliseconds for establishing a
+     *   connection; 0 means no timeout
+     * @param socketTimeout Timeout in milliseconds for reading from a
+     *   connection; 0 means no timeout
+     */
+    private XmlaOlap4jHttpConnectionPool(
+        URL url,
+        int maxConnections,
+        int idleTimeout,
+        int connectTimeout,
+        int socketTimeout)
+    {
+        this.secure = url.getProtocol().equalsIgnoreCase("https");
+        this.host = url.getHost();
+        this.port = url.getPort() >= 0
+            ? url.getPort()
+            : url.getDefaultPort();
+        this.idleTimeout = idleTimeout;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.permits = new Semaphore(maxConnections);
+    }
+
+    /**
+     * Returns the pool for a given server and settings, creating it if
+     * necessary.
+     *
+     * @param url URL of server
+     * @param maxConnections Maximum number of connections
+     * @param idleTimeout Time in milliseconds after which an idle connection
+     *   is closed
+     * @param connectTimeout Connect timeout in milliseconds
+     * @param socketTimeout Read timeout in milliseconds
+     * @return Pool
+     */
+    static XmlaOlap4jHttpConnectionPool get(
+        URL url,
+        int maxConnections,
+        int idleTimeout,
+        int connectTimeout,
+        int socketTimeout)
+    {
+        final String key =
+            url.getProtocol().toLowerCase() + "://" + url.getHost()
+            + ":" + url.getPort()
+            + "/" + maxConnections + "/" + idleTimeout
+            + "/" + connectTimeout + "/" + socketTimeout;
+        XmlaOlap4jHttpConnectionPool pool = POOLS.get(key);
+        if (pool == null) {
+            synchronized (POOLS) {
+                pool = POOLS.get(key);
+                if (pool == null) {
+                    pool =
+                        new XmlaOlap4jHttpConnectionPool(
+                            url, maxConnections, idleTimeout,
+                            connectTimeout, socketTimeout);
+                    POOLS.put(key, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Returns whether this pool connects to the server of a given URL.
+     *
+     * @param url URL
+     * @return Whether URL's protocol, host and port match this pool's
+     */
+    boolean accepts(URL url) {
+        return url.getProtocol().equalsIgnoreCase(secure ? "https" : "http")
+            && url.getHost().equals(host)
+            && (url.getPort() >= 0 ? url.getPort() : url.getDefaultPort())
+            == port;
+    }
+
+    /**
+     * Sends a POST request and returns the response.
+     *
+     * <p>Blocks if the maximum number of connections are in use. If a
+     * connection taken from the pool turns out to have been closed by the
+     * server before it sent any part of the response, retries once on a new
+     * connection.
+     *
+     * <p>The connection remains in use until the caller has closed the
+     * response body, {@link Response#body}; {@link Response#readBody()}
+     * reads and closes it.
+     *
+     * @param url URL
+     * @param headers Request headers, not including Host and Content-Length
+     * @param body Request body
+     * @return Response
+     * @throws IOException on error
+     */
+    Response post(URL url, Map<String, String> headers, byte[] body)
+        throws IOException
+    {
+        final byte[] head = requestHead(url, headers, body.length);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(
+                "Interrupted while waiting for a connection");
+        }
+        boolean success = false;
+        try {
+            while (true) {
+                PooledConnection connection = checkOut();
+                final boolean reused = connection.useCount > 0;
+                if (reused) {
+                    reuseCount.incrementAndGet();
+                }
+                try {
+                    final List<String[]> responseHeaders =
+                        connection.send(head, body);
+                    final Response response =
+                        new Response(
+                            connection.status,
+                            connection.statusMessage,
+                            responseHeaders,
+                            new BodyInputStream(connection, responseHeaders),
+                            connection.contentLength);
+                    success = true;
+                    return response;
+                } catch (IOException e) {
+                    connection.close();
+                    if (!reused || connection.responseStarted) {
+                        throw e;
+                    }
+                    // The server closed a connection we had held idle.
+                    // Try again on a fresh one.
+                }
+            }
+        } finally {
+            if (!success) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Formats the request line and headers of a POST request.
+     */
+    private byte[] requestHead(
+        URL url, Map<String, String> headers, int contentLength)
+        throws IOException
+    {
+        final StringBuilder buf = new StringBuilder(512);
+        final String file = url.getFile();
+        buf.append("POST ")
+            .append(file.length() == 0 ? "/" : file)
+            .append(" HTTP/1.1\r\n")
+            .append("Host: ").append(host);
+        if (url.getPort() >= 0) {
+            buf.append(':').append(port);
+        }
+        buf.append("\r\n");
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            buf.append(entry.getKey())
+                .append(": ")
+                .append(entry.getValue())
+                .append("\r\n");
+        }
+        buf.append("Content-Length: ").append(contentLength).append("\r\n")
+            .append("\r\n");
+        return buf.toString().getBytes("ISO-8859-1");
+    }
+
+    /**
+     * Takes an idle connection from the pool, or opens a new one. Closes any
+     * connections that have been idle for too long. The caller must hold a
+     * permit.
+     */
+    private PooledConnection checkOut() throws IOException {
+        final long now = System.currentTimeMillis();
+        synchronized (idle) {
+            while (!idle.isEmpty()) {
+                final PooledConnection connection = idle.removeFirst();
+                if (now - connection.lastUsed < idleTimeout
+                    && !connection.socket.isClosed())
+                {
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+        return open();
+    }
+
+    /**
+     * Returns a connection to the pool, and closes connections at the end of
+     * the queue that have been idle for too long.
+     */
+    private void checkIn(PooledConnection connection) {
+        final long now = System.currentTimeMillis();
+        connection.lastUsed = now;
+        synchronized (idle) {
+            idle.addFirst(connection);
+            while (!idle.isEmpty()
+                && now - idle.getLast().lastUsed >= idleTimeout)
+            {
+                idle.removeLast().close();
+            }
+        }
+    }
+
+    /**
+     * Opens a connection to the server.
+     */
+    private PooledConnection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(socketTimeout);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            if (secure) {
+                final SSLSocket sslSocket =
+                    (SSLSocket)
+                        HttpsURLConnection.getDefaultSSLSocketFactory()
+                            .createSocket(socket, host, port, true);
+                socket = sslSocket;
+                sslSocket.startHandshake();
+                verifyHost(sslSocket.getSession());
+            }
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException e2) {
+                // ignore
+            }
+            throw e;
+        }
+        openCount.incrementAndGet();
+        return new PooledConnection(socket);
+    }
+
+    /**
+     * Checks that the server's certificate was issued for the host we
+     * connected to.
+     *
+     * <p>As {@link HttpsURLConnection} does, first matches the host against
+     * the certificate, and if that fails, lets the default
+     * {@link HostnameVerifier} decide.
+     */
+    private void verifyHost(SSLSession session) throws IOException {
+        final Certificate[] certificates = session.getPeerCertificates();
+        if (certificates.length > 0
+            && certificates[0] instanceof X509Certificate
+            && matches(host, (X509Certificate) certificates[0]))
+        {
+            return;
+        }
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(
+                host, session))
+        {
+            throw new SSLHandshakeException(
+                "Server certificate does not match host " + host);
+        }
+    }
+
+    /**
+     * Returns whether a certificate identifies a given host, per RFC 2818.
+     *
+     * <p>An IP address must match one of the certificate's IP address
+     * subject alternative names. A host name must match one of its DNS
+     * subject alternative names, or, if there are none, the most specific
+     * common name of its subject. A name may start with a wildcard, such as
+     * <code>*.example.com</code>, which matches one label.
+     *
+     * @param host Host name or IP address
+     * @param certificate Server certificate
+     * @return Whether certificate identifies host
+     */
+    static boolean matches(String host, X509Certificate certificate) {
+        final boolean address =
+            host.indexOf(':') >= 0 || host.matches("[0-9.]+");
+        final Collection<List<?>> altNames;
+        try {
+            altNames = certificate.getSubjectAlternativeNames();
+        } catch (CertificateParsingException e) {
+            return false;
+        }
+        boolean hasDnsName = false;
+        if (altNames != null) {
+            for (List<?> altName : altNames) {
+                final Object type = altName.get(0);
+                final Object value = altName.get(1);
+                if (!(value instanceof String)) {
+                    continue;
+                }
+                if (type.equals(IP_ADDRESS)) {
+                    if (address && sameAddress(host, (String) value)) {
+                        return true;
+                    }
+                } else if (type.equals(DNS_NAME)) {
+                    hasDnsName = true;
+                    if (!address && matchesName(host, (String) value)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        if (address || hasDnsName) {
+            return false;
+        }
+        String commonName = null;
+        try {
+            final String subject =
+                certificate.getSubjectX500Principal().getName();
+            for (Rdn rdn : new LdapName(subject).getRdns()) {
+                if (rdn.getType().equalsIgnoreCase("CN")) {
+                    commonName = String.valueOf(rdn.getValue());
+                }
+            }
+        } catch (InvalidNameException e) {
+            return false;
+        }
+        return commonName != null && matchesName(host, commonName);
+    }
+
+    /**
+     * Returns whether two IP address literals denote the same address.
+     */
+    private static boolean sameAddress(String host, String address) {
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        try {
+            return InetAddress.getByName(host).equals(
+                InetAddress.getByName(address));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether a host name matches a name in a certificate, which
+     * may start with a wildcard.
+     */
+    private static boolean matchesName(String host, String name) {
+        host = trimDot(host.toLowerCase(Locale.ENGLISH));
+        name = trimDot(name.toLowerCase(Locale.ENGLISH));
+        if (name.startsWith("*.") && name.indexOf('.', 2) > 0) {
+            final int dot = host.indexOf('.');
+            return dot > 0 && host.substring(dot).equals(name.substring(1));
+        }
+        return host.equals(name);
+    }
+
+    private static String trimDot(String s) {
+        return s.endsWith(".") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    /**
+     * Closes all idle connections. Connections in use are closed when they
+     * are returned.
+     */
+    void closeIdle() {
+        synchronized (idle) {
+            while (!idle.isEmpty()) {
+                idle.removeFirst().close();
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the first header with a given name, or null.
+     */
+    private static String find(List<String[]> headers, String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * HTTP response.
+     */
+    static class Response {
+        final int status;
+        final String message;
+        final List<String[]> headers;
+
+        /** Response body. The caller must close it, to release the
+         * connection. */
+        final InputStream body;
+
+        /** Length of body, or -1 if not known. */
+        final int contentLength;
+
+        Response(
+            int status,
+            String message,
+            List<String[]> headers,
+            InputStream body,
+            int contentLength)
+        {
+            this.status = status;
+            this.message = message;
+            this.headers = headers;
+            this.body = body;
+            this.contentLength = contentLength;
+        }
+
+        /**
+         * Returns the value of the first header with a given name, or null.
+         *
+         * @param name Header name (case-insensitive)
+         * @return Header value, or null
+         */
+        String getHeader(String name) {
+            return find(headers, name);
+        }
+
+        /**
+         * Returns the values of all headers with a given name.
+         *
+         * @param name Header name (case-insensitive)
+         * @return List of header values
+         */
+        List<String> getHeaders(String name) {
+            final List<String> list = new ArrayList<String>();
+            for (String[] header : headers) {
+                if (header[0].equalsIgnoreCase(name)) {
+                    list.add(header[1]);
+                }
+            }
+            return list;
+        }
+
+        /**
+         * Reads the whole body into an array, and closes it. If the length
+         * of the body is known, the array is allocated once, at that size.
+         *
+         * @return Body
+         * @throws IOException on error
+         */
+        byte[] readBody() throws IOException {
+            try {
+                if (contentLength >= 0) {
+                    final byte[] bytes = new byte[contentLength];
+                    int offset = 0;
+                    while (offset < contentLength) {
+                        final int n =
+                            body.read(bytes, offset, contentLength - offset);
+                        if (n < 0) {
+                            throw new EOFException(
+                                "End of stream in response body");
+                        }
+                        offset += n;
+                    }
+                    return bytes;
+                }
+                final ByteArrayOutputStream baos =
+                    new ByteArrayOutputStream(8192);
+                final byte[] buf = new byte[8192];
+                int n;
+                while ((n = body.read(buf)) >= 0) {
+                    baos.write(buf, 0, n);
+                }
+                return baos.toByteArray();
+            } finally {
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * Stream that reads the body of a response, whether delimited by
+     * Content-Length, chunked, or delimited by end of stream. When closed,
+     * returns the connection to the pool if the body has been read
+     * completely and the server allows the connection to be re-used;
+     * otherwise closes the connection.
+     */
+    private class BodyInputStream extends InputStream {
+        private final PooledConnection connection;
+        private final boolean chunked;
+        private final boolean keepAlive;
+
+        /** Number of bytes remaining in the body (or in the current chunk,
+         * if chunked); -1 if the body is delimited by end of stream. */
+        private long remaining;
+        private boolean firstChunk = true;
+        private boolean eof;
+        private volatile boolean closed;
+        /** Whether a thread is in {@link #read(byte[], int, int)}. */
+        private volatile boolean reading;
+        private final byte[] single = new byte[1];
+
+        BodyInputStream(
+            PooledConnection connection,
+            List<String[]> headers)
+        {
+            this.connection = connection;
+            final String transferEncoding =
+                find(headers, "Transfer-Encoding");
+            this.chunked = transferEncoding != null
+                && transferEncoding.toLowerCase().contains("chunked");
+            if (connection.status == 204 || connection.status == 304) {
+                this.remaining = 0;
+                this.eof = true;
+            } else if (chunked) {
+                this.remaining = 0;
+            } else if (connection.contentLength >= 0) {
+                this.remaining = connection.contentLength;
+                this.eof = remaining == 0;
+            } else {
+                this.remaining = -1;
+            }
+            this.keepAlive = connection.keepAlive && remaining >= 0;
+        }
+
+        public int read() throws IOException {
+            final int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            reading = true;
+            try {
+                return read2(b, off, len);
+            } finally {
+                reading = false;
+            }
+        }
+
+        private int read2(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (chunked && remaining == 0 && !nextChunk()) {
+                return -1;
+            }
+            if (remaining < 0) {
+                final int n = connection.in.read(b, off, len);
+                if (n < 0) {
+                    eof = true;
+                }
+                return n;
+            }
+            final int n =
+                connection.in.read(
+                    b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("End of stream in response body");
+            }
+            remaining -= n;
+            if (remaining == 0 && !chunked) {
+                eof = true;
+            }
+            return n;
+        }
+
+        /**
+         * Reads the header of the next chunk. Returns false, and reads any
+         * trailers, if it is the last chunk.
+         */
+        private boolean nextChunk() throws IOException {
+            if (!firstChunk && connection.readLine() == null) {
+                throw new EOFException("End of stream in chunked body");
+            }
+            firstChunk = false;
+            final String line = connection.readLine();
+            if (line == null) {
+                throw new EOFException("End of stream in chunked body");
+            }
+            final int semi = line.indexOf(';');
+            try {
+                remaining =
+                    Long.parseLong(
+                        (semi < 0 ? line : line.substring(0, semi)).trim(),
+                        16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + line);
+            }
+            if (remaining == 0) {
+                // Skip trailers
+                connection.readHeaders();
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Closes this stream. If another thread is blocked reading it (say
+         * because the statement was canceled or timed out while the server
+         * was stalled), closes the socket, which makes that read fail.
+         */
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            // If only a little of the body is left, and has already arrived
+            // (for instance the last chunk of a chunked response), read it
+            // so that the connection can be re-used. Never wait for the
+            // server.
+            if (!eof && keepAlive && !reading) {
+                try {
+                    final byte[] buf = new byte[4096];
+                    for (int i = 0;
+                         i < 4 && !eof && connection.in.available() > 0;
+                         i++)
+                    {
+                        read2(buf, 0, buf.length);
+                    }
+                } catch (IOException e) {
+                    // connection will be closed
+                }
+            }
+            closed = true;
+            try {
+                if (eof && keepAlive && !reading) {
+                    checkIn(connection);
+                } else {
+                    connection.close();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * A socket to the server, and the streams used to talk over it.
+     */
+    private static class PooledConnection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final StringBuilder lineBuf = new StringBuilder();
+        int useCount;
+        long lastUsed;
+
+        /** Whether any part of the current response has been read. */
+        boolean responseStarted;
+
+        /** Status of the current response. */
+        int status;
+        String statusMessage;
+
+        /** Whether the server allows the connection to be re-used after the
+         * current response. */
+        boolean keepAlive;
+
+        /** Length of current response body, or -1 if not known. */
+        int contentLength;
+
+        PooledConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+            this.out =
+                new BufferedOutputStream(socket.getOutputStream(), 8192);
+        }
+
+        /**
+         * Sends a request and reads the status line and headers of the
+         * response.
+         *
+         * @return Response headers
+         */
+        List<String[]> send(byte[] head, byte[] body) throws IOException {
+            responseStarted = false;
+            ++useCount;
+            out.write(head);
+            out.write(body);
+            out.flush();
+
+            // Read status line, skipping any "100 Continue" responses.
+            String statusLine;
+            List<String[]> headers;
+            do {
+                statusLine = readLine();
+                if (statusLine == null) {
+                    throw new EOFException(
+                        "Server closed connection without sending response");
+                }
+                responseStarted = true;
+                status = parseStatus(statusLine);
+                headers = readHeaders();
+            } while (status >= 100 && status < 200);
+            statusMessage =
+                statusLine.length() > 13 ? statusLine.substring(13) : "";
+
+            // Determine whether the connection may be re-used.
+            final String connectionHeader = find(headers, "Connection");
+            keepAlive =
+                statusLine.startsWith("HTTP/1.1")
+                    ? !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+            final String contentLengthHeader =
+                find(headers, "Content-Length");
+            contentLength = -1;
+            if (contentLengthHeader != null
+                && find(headers, "Transfer-Encoding") == null)
+            {
+                try {
+                    contentLength =
+                        Integer.parseInt(contentLengthHeader.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException(
+                        "Invalid Content-Length: " + contentLengthHeader);
+                }
+            }
+            return headers;
+        }
+
+        private static int parseStatus(String statusLine) throws IOException {
+            if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+            try {
+                return Integer.parseInt(statusLine.substring(9, 12));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+        }
+
+        List<String[]> readHeaders() throws IOException {
+            final List<String[]> headers = new ArrayList<String[]>();
+            String line;
+            while ((line = readLine()) != null && line.length() > 0) {
+                final int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.add(
+                        new String[] {
+                            line.substring(0, colon).trim(),
+                            line.substring(colon + 1).trim()
+                        });
+                }
+            }
+            if (line == null) {
+                throw new EOFException("End of stream while reading headers");
+            }
+            return headers;
+        }
+
+        /**
+         * Reads a line terminated by LF or CRLF, as ISO-8859-1. Returns
+         * null at end of stream.
+         */
+        String readLine() throws IOException {
+            lineBuf.setLength(0);
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == '\n') {
+                    final int length = lineBuf.length();
+                    if (length > 0 && lineBuf.charAt(length - 1) == '\r') {
+                        lineBuf.setLength(length - 1);
+                    }
+                    return lineBuf.toString();
+                }
+                lineBuf.append((char) c);
+            }
+            return lineBuf.length() == 0 ? null : lineBuf.toString();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
+
+// End XmlaOlap4jHttpConnectionPool.java
@@ -17,12 +17,16 @@
 */
 package org.olap4j.driver.xmla.proxy;
 
+import org.olap4j.OlapException;
 import org.olap4j.driver.xmla.XmlaOlap4jDriver;
+import org.olap4j.driver.xmla.XmlaOlap4jExecutor;
 import org.olap4j.driver.xmla.XmlaOlap4jServerInfos;
 import org.olap4j.impl.Base64;
 
 import java.io.*;
 import java.net.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
@@ -43,8 +47,24 @@ public class XmlaOlap4jHttpProxy extends XmlaOlap4jAbstractHttpProxy
 {
     private final XmlaOlap4jDriver driver;
 
+    /** Whether to send requests via a {@link XmlaOlap4jHttpConnectionPool}
+     * rather than a {@link URLConnection}. */
+    private final boolean pooled;
+    private final int maxConnections;
+    private final int idleTimeout;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final XmlaOlap4jExecutor executor;
+
+    /** Pool for the most recently used server. */
+    private volatile XmlaOlap4jHttpConnectionPool pool;
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 16;
+    private static final int DEFAULT_IDLE_TIMEOUT = 30000;
+
     /**
-     * Creates a XmlaOlap4jHttpProxy.
+     * Creates a XmlaOlap4jHttpProxy that uses a {@link URLConnection} for
+     * each request.
      *
      * @param driver Driver
      */
@@ -52,6 +72,58 @@ public class XmlaOlap4jHttpProxy extends XmlaOlap4jAbstractHttpProxy
         XmlaOlap4jDriver driver)
     {
         this.driver = driver;
+        this.pooled = false;
+        this.maxConnections = DEFAULT_MAX_CONNECTIONS;
+        this.idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        this.connectTimeout = 0;
+        this.socketTimeout = 0;
+        this.executor = XmlaOlap4jExecutor.getDefault();
+    }
+
+    /**
+     * Creates a XmlaOlap4jHttpProxy whose transport is configured by
+     * connection properties.
+     *
+     * @param driver Driver
+     * @param properties Connection properties; see
+     *   {@link org.olap4j.driver.xmla.XmlaOlap4jDriver.Property#TRANSPORT}
+     *   and following
+     * @throws OlapException if a property has an invalid value
+     */
+    public XmlaOlap4jHttpProxy(
+        XmlaOlap4jDriver driver,
+        Map<String, String> properties)
+        throws OlapException
+    {
+        this.driver = driver;
+        final String transport =
+            properties.get(XmlaOlap4jDriver.Property.TRANSPORT.name());
+        if (transport == null || transport.equalsIgnoreCase("URL")) {
+            this.pooled = false;
+        } else if (transport.equalsIgnoreCase("POOLED")) {
+            this.pooled = true;
+        } else {
+            throw new OlapException(
+                "Invalid value '" + transport + "' for property "
+                + XmlaOlap4jDriver.Property.TRANSPORT.name()
+                + "; must be 'URL' or 'POOLED'");
+        }
+        this.maxConnections =
+            XmlaOlap4jDriver.Property.MAXCONNECTIONS.intValue(
+                properties, DEFAULT_MAX_CONNECTIONS, 1);
+        this.idleTimeout =
+            XmlaOlap4jDriver.Property.IDLETIMEOUT.intValue(
+                properties, DEFAULT_IDLE_TIMEOUT, 0);
+        this.connectTimeout =
+            XmlaOlap4jDriver.Property.CONNECTTIMEOUT.intValue(properties, 0, 0);
+        this.socketTimeout =
+            XmlaOlap4jDriver.Property.SOCKETTIMEOUT.intValue(properties, 0, 0);
+        this.executor = XmlaOlap4jExecutor.get(properties);
+        final String coalesce =
+            properties.get(XmlaOlap4jDriver.Property.COALESCE.name());
+        if (coalesce != null) {
+            setCoalescing(Boolean.valueOf(coalesce.trim()));
+        }
     }
 
     private static final String DISCOVER =
@@ -60,78 +132,99 @@ public class XmlaOlap4jHttpProxy extends XmlaOlap4jAbstractHttpProxy
     private static final String EXECUTE =
         "<Execute xmlns=\"urn:schemas-microsoft-com:xml-analysis\"";
 
+    /**
+     * Creates the HTTP headers for a request, other than cookies.
+     *
+     * @param serverInfos Server infos
+     * @param request Request
+     * @return Map of header names to values
+     */
+    private Map<String, String> createHeaders(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+    {
+        final Map<String, String> headers =
+            new LinkedHashMap<String, String>();
+        headers.put(
+            "content-type",
+            "text/xml; charset="
+                .concat(getEncodingCharsetName()));
+        headers.put(
+            "User-Agent",
+            "Olap4j("
+                .concat(driver.getVersion())
+                .concat(")"));
+        headers.put(
+            "Accept",
+            "text/xml;q=1");
+        headers.put(
+            "Accept-Charset",
+            getEncodingCharsetName()
+                .concat(";q=1"));
+
+        // Tell the server that we support gzip encoding
+        headers.put(
+            "Accept-Encoding",
+            "gzip");
+
+        // Some servers expect a SOAPAction header.
+        // TODO There is bound to be a better way to do this.
+        if (request.contains(DISCOVER)) {
+            headers.put(
+                "SOAPAction",
+                "\"urn:schemas-microsoft-com:xml-analysis:Discover\"");
+        } else if (request.contains(EXECUTE)) {
+            headers.put(
+                "SOAPAction",
+                "\"urn:schemas-microsoft-com:xml-analysis:Execute\"");
+        }
+
+        // Encode credentials for basic authentication
+        StringBuilder sb = new StringBuilder();
+        if (serverInfos.getUsername() != null
+            && serverInfos.getPassword() != null)
+        {
+            sb.append(serverInfos.getUsername());
+            sb.append(":");
+            sb.append(serverInfos.getPassword());
+        } else if (serverInfos.getUrl().getUserInfo() != null) {
+            sb.append(serverInfos.getUrl().getUserInfo());
+        }
+        if (!sb.toString().equals("")) {
+            String encoding =
+                Base64.encodeBytes(
+                    sb.toString().getBytes(), 0);
+            headers.put(
+                "Authorization", "Basic " + encoding);
+        }
+        return headers;
+    }
+
     @Override
     public byte[] getResponse(XmlaOlap4jServerInfos serverInfos, String request)
         throws XmlaOlap4jProxyException
     {
+        if (pooled) {
+            try {
+                final XmlaOlap4jHttpConnectionPool.Response response =
+                    postPooled(serverInfos, request);
+                final byte[] body = response.readBody();
+                if ("gzip".equals(response.getHeader("Content-Encoding"))) {
+                    return readFully(
+                        new GZIPInputStream(new ByteArrayInputStream(body)),
+                        body.length * 4);
+                }
+                return body;
+            } catch (Exception e) {
+                throw new XmlaOlap4jProxyException(
+                    "This proxy encountered an exception while processing "
+                    + "the query.",
+                    e);
+            }
+        }
         URLConnection urlConnection = null;
         try {
-            URL url = serverInfos.getUrl();
-            // Open connection to manipulate the properties
-            urlConnection = url.openConnection();
-            urlConnection.setDoOutput(true);
-
-            // Set headers
-            urlConnection.setRequestProperty(
-                "content-type",
-                "text/xml; charset="
-                    .concat(getEncodingCharsetName()));
-            urlConnection.setRequestProperty(
-                "User-Agent",
-                "Olap4j("
-                    .concat(driver.getVersion())
-                    .concat(")"));
-            urlConnection.setRequestProperty(
-                "Accept",
-                "text/xml;q=1");
-            urlConnection.setRequestProperty(
-                "Accept-Charset",
-                getEncodingCharsetName()
-                    .concat(";q=1"));
-
-            // Tell the server that we support gzip encoding
-            urlConnection.setRequestProperty(
-                "Accept-Encoding",
-                "gzip");
-
-            // Some servers expect a SOAPAction header.
-            // TODO There is bound to be a better way to do this.
-            if (request.contains(DISCOVER)) {
-                urlConnection.setRequestProperty(
-                    "SOAPAction",
-                    "\"urn:schemas-microsoft-com:xml-analysis:Discover\"");
-            } else if (request.contains(EXECUTE)) {
-                urlConnection.setRequestProperty(
-                    "SOAPAction",
-                    "\"urn:schemas-microsoft-com:xml-analysis:Execute\"");
-            }
-
-            // Encode credentials for basic authentication
-            StringBuilder sb = new StringBuilder();
-            if (serverInfos.getUsername() != null
-                && serverInfos.getPassword() != null)
-            {
-                sb.append(serverInfos.getUsername());
-                sb.append(":");
-                sb.append(serverInfos.getPassword());
-            } else if (url.getUserInfo() != null) {
-                sb.append(url.getUserInfo());
-            }
-            if (!sb.toString().equals("")) {
-                String encoding =
-                    Base64.encodeBytes(
-                        sb.toString().getBytes(), 0);
-                urlConnection.setRequestProperty(
-                    "Authorization", "Basic " + encoding);
-            }
-
-            // Set correct cookies
-            this.useCookies(urlConnection);
-
-            // Send data (i.e. POST). Use same encoding as specified in the
-            // header.
-            final String encoding = getEncodingCharsetName();
-            urlConnection.getOutputStream().write(request.getBytes(encoding));
+            urlConnection = openConnection(serverInfos, request);
 
             // Get the response, again assuming default encoding.
             InputStream is = urlConnection.getInputStream();
@@ -143,42 +236,59 @@ public class XmlaOlap4jHttpProxy extends XmlaOlap4jAbstractHttpProxy
                 is = new GZIPInputStream(is);
             }
 
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buf = new byte[1024];
-            int count;
-
-            while ((count = is.read(buf)) > 0) {
-                baos.write(buf, 0, count);
-            }
+            final byte[] bytes =
+                readFully(is, urlConnection.getContentLength());
 
             // Save the returned cookies for later use
             this.saveCookies(urlConnection);
 
-            return baos.toByteArray();
+            return bytes;
         // All exceptions should be trapped here.
         // The response will only be available here anyways.
         } catch (Exception e) {
-            // In order to prevent the JDK from keeping this connection
-            // in WAIT mode, we need to empty the error stream cache.
+            drainErrorStream(urlConnection);
+            throw new XmlaOlap4jProxyException(
+                "This proxy encountered an exception while processing the "
+                + "query.",
+                e);
+        }
+    }
+
+    @Override
+    protected InputStream getResponseStream(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+        throws XmlaOlap4jProxyException
+    {
+        if (pooled) {
             try {
-                final int espCode =
-                    ((HttpURLConnection)urlConnection).getResponseCode();
-                InputStream errorStream =
-                    ((HttpURLConnection)urlConnection).getErrorStream();
-                final ByteArrayOutputStream baos =
-                    new ByteArrayOutputStream();
-                final byte[] buf = new byte[1024];
-                int count;
-                if (errorStream != null) {
-                    while ((count = errorStream.read(buf)) > 0) {
-                        baos.write(buf, 0, count);
-                    }
-                    errorStream.close();
+                final XmlaOlap4jHttpConnectionPool.Response response =
+                    postPooled(serverInfos, request);
+                if ("gzip".equals(response.getHeader("Content-Encoding"))) {
+                    return new GZIPInputStream(response.body);
                 }
-                baos.close();
-            } catch (IOException ex) {
-                // Well, we tried. No point notifying the user here.
+                return response.body;
+            } catch (Exception e) {
+                throw new XmlaOlap4jProxyException(
+                    "This proxy encountered an exception while processing "
+                    + "the query.",
+                    e);
+            }
+        }
+        URLConnection urlConnection = null;
+        try {
+            urlConnection = openConnection(serverInfos, request);
+            InputStream is = urlConnection.getInputStream();
+            if ("gzip".equals(
+                    urlConnection.getHeaderField("Content-Encoding")))
+            {
+                is = new GZIPInputStream(is);
             }
+            // Headers have arrived, so cookies can be saved now.
+            this.saveCookies(urlConnection);
+            return is;
+        } catch (Exception e) {
+            drainErrorStream(urlConnection);
             throw new XmlaOlap4jProxyException(
                 "This proxy encountered an exception while processing the "
                 + "query.",
@@ -186,12 +296,145 @@ public class XmlaOlap4jHttpProxy extends XmlaOlap4jAbstractHttpProxy
         }
     }
 
+    /**
+     * Opens a URLConnection to the server and sends a request.
+     *
+     * @param serverInfos Server infos
+     * @param request Request
+     * @return Connection, from which the response may be read
+     * @throws IOException on error
+     */
+    private URLConnection openConnection(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+        throws IOException
+    {
+        URL url = serverInfos.getUrl();
+        // Open connection to manipulate the properties
+        URLConnection urlConnection = url.openConnection();
+        urlConnection.setDoOutput(true);
+        urlConnection.setConnectTimeout(connectTimeout);
+        urlConnection.setReadTimeout(socketTimeout);
+
+        // Set headers
+        for (Map.Entry<String, String> header
+            : createHeaders(serverInfos, request).entrySet())
+        {
+            urlConnection.setRequestProperty(
+                header.getKey(), header.getValue());
+        }
+
+        // Set correct cookies
+        this.useCookies(urlConnection);
+
+        // Send data (i.e. POST). Use same encoding as specified in the
+        // header.
+        final String encoding = getEncodingCharsetName();
+        urlConnection.getOutputStream().write(request.getBytes(encoding));
+        return urlConnection;
+    }
+
+    /**
+     * Reads and discards the error stream of a connection that failed.
+     *
+     * @param urlConnection Connection, or null if it was never opened
+     */
+    private static void drainErrorStream(URLConnection urlConnection) {
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            return;
+        }
+        // In order to prevent the JDK from keeping this connection
+        // in WAIT mode, we need to empty the error stream cache.
+        try {
+            final int espCode =
+                ((HttpURLConnection)urlConnection).getResponseCode();
+            InputStream errorStream =
+                ((HttpURLConnection)urlConnection).getErrorStream();
+            final ByteArrayOutputStream baos =
+                new ByteArrayOutputStream();
+            final byte[] buf = new byte[1024];
+            int count;
+            if (errorStream != null) {
+                while ((count = errorStream.read(buf)) > 0) {
+                    baos.write(buf, 0, count);
+                }
+                errorStream.close();
+            }
+            baos.close();
+        } catch (IOException ex) {
+            // Well, we tried. No point notifying the user here.
+        }
+    }
+
+    /**
+     * Sends a request over a pooled, persistent connection, and returns the
+     * response, whose body the caller must read or close.
+     *
+     * @param serverInfos Server infos
+     * @param request Request
+     * @return Response
+     * @throws IOException on error, including an HTTP error status
+     */
+    private XmlaOlap4jHttpConnectionPool.Response postPooled(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+        throws IOException
+    {
+        final URL url = serverInfos.getUrl();
+        final Map<String, String> headers =
+            createHeaders(serverInfos, request);
+        final String cookies = getCookieString(url);
+        if (cookies != null) {
+            headers.put("Cookie", cookies);
+        }
+        final XmlaOlap4jHttpConnectionPool.Response response =
+            getPool(url).post(
+                url,
+                headers,
+                request.getBytes(getEncodingCharsetName()));
+        if (response.status >= 400) {
+            // Read the body, so that the connection can be re-used.
+            response.readBody();
+            // Same message as HttpURLConnection.getInputStream.
+            throw new IOException(
+                "Server returned HTTP response code: " + response.status
+                + " for URL: " + url);
+        }
+
+        // Save the returned cookies for later use
+        saveCookies(url, response.getHeaders("Set-Cookie"));
+        return response;
+    }
+
+    /**
+     * Returns the connection pool for a server.
+     *
+     * @param url Server URL
+     * @return Connection pool
+     */
+    private XmlaOlap4jHttpConnectionPool getPool(URL url) {
+        XmlaOlap4jHttpConnectionPool pool = this.pool;
+        if (pool == null || !pool.accepts(url)) {
+            pool =
+                XmlaOlap4jHttpConnectionPool.get(
+                    url, maxConnections, idleTimeout, connectTimeout,
+                    socketTimeout);
+            this.pool = pool;
+        }
+        return pool;
+    }
+
     @Override
     public Future<byte[]> getResponseViaSubmit(
         final XmlaOlap4jServerInfos serverInfos,
         final String request)
     {
-        return XmlaOlap4jDriver.getFuture(this, serverInfos, request);
+        return executor.submit(this, serverInfos, request);
+    }
+
+    @Override
+    protected XmlaOlap4jExecutor getExecutor() {
+        return executor;
     }
 
     // implement XmlaOlap4jProxy
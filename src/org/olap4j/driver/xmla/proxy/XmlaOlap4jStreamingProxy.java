@@ -0,0 +1,65 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.proxy;
+
+import org.olap4j.driver.xmla.XmlaOlap4jServerInfos;
+
+import java.io.InputStream;
+import java.util.concurrent.Future;
+
+/**
+ * Extended Proxy interface which can return a response as a stream, so
+ * that the caller can start parsing as soon as the first bytes arrive,
+ * and need not hold the whole response in memory.
+ *
+ * <p>The caller must close each stream it obtains, even if it does not
+ * read it to the end; a proxy may not be able to re-use the underlying
+ * connection until then.
+ *
+ * @author agent
+ */
+public interface XmlaOlap4jStreamingProxy extends XmlaOlap4jProxy {
+    /**
+     * Sends a request to a URL and returns a stream from which to read the
+     * response.
+     *
+     * @param serverInfos Server infos.
+     * @param request Request string
+     * @return Stream containing the response from the server
+     * @throws XmlaOlap4jProxyException If anything occurs during the
+     * request execution.
+     */
+    InputStream getStream(
+        XmlaOlap4jServerInfos serverInfos,
+        String request)
+        throws XmlaOlap4jProxyException;
+
+    /**
+     * Submits a request for background execution. The future completes
+     * when the server starts to send its response.
+     *
+     * @param serverInfos Server infos.
+     * @param request Request
+     * @return Future object representing the submitted job
+     */
+    Future<InputStream> submitStream(
+        XmlaOlap4jServerInfos serverInfos,
+        String request);
+}
+
+// End XmlaOlap4jStreamingProxy.java
@@ -18,6 +18,7 @@
 package org.olap4j.impl;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Iterator over the coordinates of a hyper-rectangle.
@@ -100,6 +101,28 @@ public class CoordinateIterator implements Iterator<int[]> {
         return result;
     }
 
+    /**
+     * Copies the next coordinates into an array supplied by the caller, and
+     * moves to the following coordinates.
+     *
+     * <p>Unlike {@link #next()}, does not allocate an array. Elements of
+     * <code>coordinates</code> beyond the number of dimensions are left
+     * unchanged, so the caller can hold other coordinates there.
+     *
+     * @param coordinates Array to receive coordinates; must have at least as
+     * many elements as there are dimensions
+     *
+     * @throws java.util.NoSuchElementException if there are no more
+     * coordinates
+     */
+    public void next(int[] coordinates) {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        System.arraycopy(current, 0, coordinates, 0, current.length);
+        moveToNext();
+    }
+
     private void moveToNext() {
         if (littleEndian) {
             for (int offset = 0; offset < dimensions.length; ++offset) {
@@ -192,15 +192,15 @@ public class RectangularCellSetFormatter implements CellSetFormatter {
             matrix, rowsAxis, rowsAxisInfo, false, yOffset);
 
         // Populate cell values
-        for (Cell cell : cellIter(pageCoords, cellSet)) {
-            final List<Integer> coordList = cell.getCoordinateList();
+        final int[] coords = new int[cellSet.getAxes().size()];
+        for (Cell cell : cellIter(pageCoords, cellSet, coords)) {
             int x = xOffsset;
-            if (coordList.size() > 0) {
-                x += coordList.get(0);
+            if (coords.length > 0) {
+                x += coords[0];
             }
             int y = yOffset;
-            if (coordList.size() > 1) {
-                y += coordList.get(1);
+            if (coords.length > 1) {
+                y += coords[1];
             }
             matrix.set(
                 x, y, cell.getFormattedValue(), true, false);
@@ -426,10 +426,20 @@ public class RectangularCellSetFormatter implements CellSetFormatter {
 
     /**
      * Returns an iterator over cells in a result.
+     *
+     * <p>As each cell is returned, its coordinates are written to
+     * <code>coords</code>; the iterator does not allocate a coordinate list
+     * per cell.
+     *
+     * @param pageCoords Coordinates of the page axes
+     * @param cellSet Cell set
+     * @param coords Array to receive the coordinates of the current cell;
+     *   must have one element per axis
      */
     private static Iterable<Cell> cellIter(
         final int[] pageCoords,
-        final CellSet cellSet)
+        final CellSet cellSet,
+        final int[] coords)
     {
         return new Iterable<Cell>() {
             public Iterator<Cell> iterator() {
@@ -438,8 +448,11 @@ public class RectangularCellSetFormatter implements CellSetFormatter {
                 assert pageCoords.length <= axisDimensions.length;
                 for (int i = 0; i < axisDimensions.length; i++) {
                     CellSetAxis axis = cellSet.getAxes().get(i);
-                    axisDimensions[i] = axis.getPositions().size();
+                    axisDimensions[i] = axis.getPositionCount();
                 }
+                System.arraycopy(
+                    pageCoords, 0, coords, axisDimensions.length,
+                    pageCoords.length);
                 final CoordinateIterator coordIter =
                     new CoordinateIterator(axisDimensions, true);
                 return new Iterator<Cell>() {
@@ -448,20 +461,8 @@ public class RectangularCellSetFormatter implements CellSetFormatter {
                     }
 
                     public Cell next() {
-                        final int[] ints = coordIter.next();
-                        final AbstractList<Integer> intList =
-                            new AbstractList<Integer>() {
-                                public Integer get(int index) {
-                                    return index < ints.length
-                                        ? ints[index]
-                                        : pageCoords[index - ints.length];
-                                }
-
-                                public int size() {
-                                    return pageCoords.length + ints.length;
-                                }
-                            };
-                        return cellSet.getCell(intList);
+                        coordIter.next(coords);
+                        return cellSet.getCell(coords);
                     }
 
                     public void remove() {
@@ -20,6 +20,7 @@ package org.olap4j.metadata;
 import org.olap4j.CellSet;
 import org.olap4j.OlapException;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -121,6 +122,31 @@ public interface Level extends MetadataElement {
      */
     List<Member> getMembers() throws OlapException;
 
+    /**
+     * Returns an iterator over the members of this Level, in the same order
+     * as {@link #getMembers()}.
+     *
+     * <p>Unlike {@link #getMembers()}, which reads every member of the
+     * level into one list, the iterator may read members from the server
+     * {@code pageSize} at a time and not retain them, so that a level with
+     * millions of members can be scanned in bounded memory. A provider may
+     * instead return an iterator over {@link #getMembers()}; for example,
+     * if the level has no more than {@code pageSize} members.
+     *
+     * <p>Errors while reading a later page are thrown from
+     * {@link Iterator#hasNext()} as {@link RuntimeException}s whose cause
+     * is an {@link OlapException}.
+     *
+     * @param pageSize Number of members to read in each request; at least 1
+     *
+     * @return Iterator over the members of this Level
+     *
+     * @throws OlapException if database error occurs
+     *
+     * @throws IllegalArgumentException if {@code pageSize} is less than 1
+     */
+    Iterator<Member> getMemberIterator(int pageSize) throws OlapException;
+
     /**
      * Returns the number of members in this Level.
      *
@@ -37,6 +37,7 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.olap4j.test.TestContext.nameList;
 
@@ -1130,6 +1131,47 @@ public class ConnectionTest extends TestCase {
             s);
     }
 
+    /**
+     * Tests {@link OlapStatement#executeOlapQueryAsync(String)}: the result
+     * is the same as executing synchronously, and listeners are notified.
+     */
+    public void testCellSetAsync() throws Exception {
+        connection = tester.createConnection();
+        Statement statement = connection.createStatement();
+        final OlapStatement olapStatement =
+            tester.getWrapper().unwrap(statement, OlapStatement.class);
+        final String mdx =
+            "SELECT\n"
+            + " {[Measures].[Unit Sales],\n"
+            + "    [Measures].[Store Sales]} ON COLUMNS\n,"
+            + " Crossjoin({[Gender].[M]}, [Product].Children) ON ROWS\n"
+            + "FROM [Sales]\n"
+            + "WHERE [Time].[1997].[Q2]";
+        final String expected =
+            TestContext.toString(olapStatement.executeOlapQuery(mdx));
+
+        final CellSetFuture future = olapStatement.executeOlapQueryAsync(mdx);
+        final CountDownLatch latch = new CountDownLatch(1);
+        future.addListener(
+            new Runnable() {
+                public void run() {
+                    latch.countDown();
+                }
+            },
+            new Executor() {
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertFalse(future.cancel(true));
+        final CellSet cellSet = future.get();
+        assertSame(olapStatement, cellSet.getStatement());
+        assertEquals(expected, TestContext.toString(cellSet));
+    }
+
     public void testCell() throws Exception {
         connection = tester.createConnection();
         Statement statement = connection.createStatement();
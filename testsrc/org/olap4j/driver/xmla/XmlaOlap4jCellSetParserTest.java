@@ -0,0 +1,192 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.*;
+import org.olap4j.metadata.Member;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link XmlaOlap4jCellSetSaxHandler}, run against
+ * {@link XmlaOlap4jTestServer}.
+ *
+ * <p>Each test executes queries on two connections, one that parses
+ * responses with SAX and one that parses them with DOM, and checks that the
+ * cell sets are the same.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jCellSetParserTest extends TestCase {
+    private static final String UNIT_SALES = "[Measures].[Unit Sales]";
+    private static final String STORE_SALES = "[Measures].[Store Sales]";
+    private static final String F = "[Gender].[F]";
+    private static final String M = "[Gender].[M]";
+    private static final String SEATTLE = "[Store].[USA].[WA].[Seattle]";
+    private static final String SALEM = "[Store].[USA].[OR].[Salem]";
+
+    private XmlaOlap4jTestServer server;
+    private OlapConnection saxConnection;
+    private OlapConnection domConnection;
+
+    protected void setUp() throws Exception {
+        server = new XmlaOlap4jTestServer();
+        saxConnection = server.connect(";Parser=SAX");
+        domConnection = server.connect(";Parser=DOM");
+    }
+
+    protected void tearDown() throws Exception {
+        saxConnection.close();
+        domConnection.close();
+        saxConnection = null;
+        domConnection = null;
+        server = null;
+    }
+
+    /**
+     * Registers a query with the server, executes it on both connections,
+     * and checks that the cell sets are the same.
+     *
+     * @return The cell set, as a string
+     */
+    private String assertSame(String mdx, String[] slicer, String[][]... axes)
+        throws OlapException
+    {
+        server.putQuery(mdx, slicer, axes);
+        final String sax =
+            toString(saxConnection.createStatement().executeOlapQuery(mdx));
+        final String dom =
+            toString(domConnection.createStatement().executeOlapQuery(mdx));
+        assertEquals(dom, sax);
+        return sax;
+    }
+
+    /**
+     * Converts a cell set to a string: the cube, the members and properties
+     * of each position of each axis, including the filter axis, then the
+     * coordinates and values of each cell.
+     */
+    private static String toString(CellSet cellSet) throws OlapException {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(cellSet.getMetaData().getCube().getUniqueName())
+            .append('\n');
+        int cellCount = 1;
+        for (CellSetAxis axis : cellSet.getAxes()) {
+            cellCount *= axis.getPositionCount();
+            append(buf, axis);
+        }
+        append(buf, cellSet.getFilterAxis());
+        for (int i = 0; i < cellCount; i++) {
+            final Cell cell = cellSet.getCell(i);
+            buf.append(cell.getCoordinateList()).append(": ")
+                .append(cell.getValue()).append(", ")
+                .append(cell.getFormattedValue()).append('\n');
+        }
+        return buf.toString();
+    }
+
+    private static void append(StringBuilder buf, CellSetAxis axis) {
+        buf.append(axis.getAxisOrdinal()).append(": ")
+            .append(axis.getPositionCount()).append(" positions\n");
+        for (Position position : axis.getPositions()) {
+            buf.append(position.getOrdinal()).append(':');
+            for (Member member : position.getMembers()) {
+                buf.append(' ').append(member.getUniqueName())
+                    .append(" (").append(member.getName())
+                    .append(", depth ").append(member.getDepth())
+                    .append(')');
+            }
+            buf.append('\n');
+        }
+    }
+
+    /**
+     * Tests a query with two axes and a slicer.
+     */
+    public void testAxes() throws Exception {
+        final String s =
+            assertSame(
+                "SELECT {" + UNIT_SALES + ", " + STORE_SALES + "} ON 0,\n"
+                + "  {" + SEATTLE + ", " + SALEM + "} ON 1\n"
+                + "FROM [Sales]\n"
+                + "WHERE " + F,
+                new String[] {F},
+                new String[][] {{UNIT_SALES}, {STORE_SALES}},
+                new String[][] {{SEATTLE}, {SALEM}});
+        assertTrue(s, s.contains("[Store].[USA].[OR].[Salem] (Salem"));
+    }
+
+    /**
+     * Tests a query whose rows are a crossjoin.
+     */
+    public void testCrossjoin() throws Exception {
+        assertSame(
+            "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {(" + F + ", " + SEATTLE + "), (" + M + ", " + SALEM
+            + ")} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{F, SEATTLE}, {M, SALEM}});
+    }
+
+    /**
+     * Tests a query with an axis that has no positions, and therefore no
+     * cells.
+     */
+    public void testEmptyAxis() throws Exception {
+        final String s =
+            assertSame(
+                "SELECT {" + UNIT_SALES + "} ON 0,\n"
+                + "  {} ON 1\n"
+                + "FROM [Sales]",
+                null,
+                new String[][] {{UNIT_SALES}},
+                new String[][] {});
+        assertTrue(s, s.contains("ROWS: 0 positions"));
+    }
+
+    /**
+     * Tests that a SOAP fault is reported the same way by both parsers.
+     */
+    public void testFault() throws Exception {
+        final String mdx = "SELECT FROM [Sales]";
+        server.putFault(mdx, "Something went wrong");
+        final String sax = executeFault(saxConnection, mdx);
+        final String dom = executeFault(domConnection, mdx);
+        assertEquals(dom, sax);
+        assertTrue(sax, sax.contains("Something went wrong"));
+    }
+
+    private static String executeFault(OlapConnection connection, String mdx)
+    {
+        try {
+            connection.createStatement().executeOlapQuery(mdx);
+            fail("expected error");
+            return null;
+        } catch (OlapException e) {
+            final StringBuilder buf = new StringBuilder(e.getMessage());
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                buf.append("\ncaused by ").append(t.getMessage());
+            }
+            return buf.toString();
+        }
+    }
+}
+
+// End XmlaOlap4jCellSetParserTest.java
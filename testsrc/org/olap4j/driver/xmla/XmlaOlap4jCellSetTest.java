@@ -124,8 +124,10 @@ public class XmlaOlap4jCellSetTest extends TestCase {
             this.response = response;
         }
 
-        byte[] getBytes() throws OlapException {
-            return response.getBytes();
+        InputStream getStream(XmlaOlap4jCellSet cellSet)
+            throws OlapException
+        {
+            return new ByteArrayInputStream(response.getBytes());
         }
 
         public void closeOnCompletion() throws SQLException {
@@ -0,0 +1,199 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.metadata.Property;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Unit test for {@link XmlaOlap4jCellStore}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jCellStoreTest extends TestCase {
+    private final Map<Property, Object> noProperties =
+        new HashMap<Property, Object>();
+
+    /**
+     * Tests a sparse store whose cells arrive out of order, and with a
+     * duplicate ordinal.
+     */
+    public void testSparse() {
+        final XmlaOlap4jCellStore store = new XmlaOlap4jCellStore();
+        store.add(70, 7d, "7.0", noProperties);
+        store.add(3, 3d, "3.0", noProperties);
+        store.add(50, null, null, noProperties);
+        store.add(3, 4d, "4.0", noProperties);
+        store.freeze(100);
+        assertEquals(-1, store.indexOf(0));
+        assertEquals(-1, store.indexOf(99));
+        assertEquals(-1, store.indexOf(100));
+        final int i3 = store.indexOf(3);
+        assertEquals(4d, store.getValue(i3));
+        assertEquals("4.0", store.getFormattedValue(i3));
+        final int i50 = store.indexOf(50);
+        assertTrue(store.isNull(i50));
+        assertNull(store.getValue(i50));
+        assertNull(store.getFormattedValue(i50));
+        assertEquals(7d, store.getDouble(store.indexOf(70)));
+    }
+
+    /**
+     * Tests a store that becomes dense, because most cells are present.
+     */
+    public void testDense() {
+        final XmlaOlap4jCellStore store = new XmlaOlap4jCellStore();
+        for (int i = 0; i < 10; i++) {
+            if (i != 4) {
+                store.add(i, i, "#" + i, noProperties);
+            }
+        }
+        store.freeze(10);
+        assertEquals(-1, store.indexOf(4));
+        assertEquals(-1, store.indexOf(10));
+        assertEquals(-1, store.indexOf(-1));
+        for (int i = 0; i < 10; i++) {
+            if (i != 4) {
+                final int k = store.indexOf(i);
+                assertEquals(i, store.getValue(k));
+                assertEquals("#" + i, store.getFormattedValue(k));
+            }
+        }
+    }
+
+    /**
+     * Tests that the type of each value is preserved.
+     */
+    public void testTypes() {
+        final Object[] values = {
+            1.5d, 2.5f, 3L, 4, (short) 5, (byte) 6, true, "seven",
+            new BigDecimal("8.25"), null
+        };
+        final XmlaOlap4jCellStore store = new XmlaOlap4jCellStore();
+        for (int i = 0; i < values.length; i++) {
+            store.add(i, values[i], null, noProperties);
+        }
+        store.freeze(values.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], store.getValue(store.indexOf(i)));
+        }
+        assertEquals(8.25d, store.getDouble(store.indexOf(8)));
+    }
+
+    /**
+     * Tests that equal property maps are shared, and that the caller may
+     * re-use the map it passes in.
+     */
+    public void testProperties() {
+        final XmlaOlap4jCellProperty property =
+            new XmlaOlap4jCellProperty("FormatString", "FORMAT_STRING");
+        final Map<Property, Object> map = new HashMap<Property, Object>();
+        final XmlaOlap4jCellStore store = new XmlaOlap4jCellStore();
+        map.put(property, "#,###");
+        store.add(0, 1, null, map);
+        store.add(1, 2, null, map);
+        map.put(property, "0.00");
+        store.add(2, 3, null, map);
+        map.clear();
+        store.freeze(1000);
+        assertSame(
+            store.getPropertyValues(store.indexOf(0)),
+            store.getPropertyValues(store.indexOf(1)));
+        assertEquals(
+            "#,###", store.getPropertyValues(store.indexOf(1)).get(property));
+        assertEquals(
+            "0.00", store.getPropertyValues(store.indexOf(2)).get(property));
+    }
+
+    /**
+     * Tests copying a range of values into a primitive array, from both a
+     * sparse and a dense store.
+     */
+    public void testCopyDoubles() {
+        final XmlaOlap4jCellStore sparse = new XmlaOlap4jCellStore();
+        sparse.add(2, 2, "2", noProperties);
+        sparse.add(5, null, null, noProperties);
+        sparse.add(6, 6.5d, "6.5", noProperties);
+        sparse.add(90, 90L, "90", noProperties);
+        sparse.freeze(100);
+        final double[] values = new double[7];
+        final boolean[] nulls = new boolean[7];
+        Arrays.fill(values, -1d);
+        sparse.copyDoubles(1, 6, values, nulls, 1);
+        assertEquals(-1d, values[0]);
+        assertEquals(
+            "[false, true, false, true, true, true, false]",
+            Arrays.toString(nulls));
+        assertEquals(2d, values[2]);
+        assertEquals(0d, values[5]);
+        assertEquals(6.5d, values[6]);
+
+        final XmlaOlap4jCellStore dense = new XmlaOlap4jCellStore();
+        for (int i = 0; i < 4; i++) {
+            dense.add(i, i == 1 ? null : (Object) (i * 10), null, noProperties);
+        }
+        dense.freeze(5);
+        dense.copyDoubles(0, 5, values, nulls, 0);
+        assertEquals(
+            "[false, true, false, false, true, true, false]",
+            Arrays.toString(nulls));
+        assertEquals(30d, values[3]);
+        assertEquals(0d, values[4]);
+    }
+
+    /**
+     * Tests that a boolean cell is not numeric when copied into a primitive
+     * array, consistent with {@link XmlaOlap4jCell#getDoubleValue()}.
+     */
+    public void testCopyDoublesBoolean() throws Exception {
+        final XmlaOlap4jCellStore store = new XmlaOlap4jCellStore();
+        store.add(0, 1d, "1", noProperties);
+        store.add(1, true, "true", noProperties);
+        store.freeze(2);
+        final XmlaOlap4jCell cell =
+            new XmlaOlap4jCell(null, 1, true, "true", noProperties);
+        try {
+            final double d = cell.getDoubleValue();
+            fail("expected exception, got " + d);
+        } catch (NumberFormatException e) {
+            // ok
+        }
+        try {
+            final double d = store.getDouble(store.indexOf(1));
+            fail("expected exception, got " + d);
+        } catch (NumberFormatException e) {
+            // ok
+        }
+        final double[] values = new double[2];
+        final boolean[] nulls = new boolean[2];
+        try {
+            store.copyDoubles(0, 2, values, nulls, 0);
+            fail("expected exception");
+        } catch (NumberFormatException e) {
+            // ok
+        }
+        store.copyDoubles(0, 1, values, nulls, 0);
+        assertEquals(1d, values[0]);
+    }
+}
+
+// End XmlaOlap4jCellStoreTest.java
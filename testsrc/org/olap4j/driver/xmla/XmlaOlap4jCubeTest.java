@@ -0,0 +1,290 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.mdx.IdentifierNode;
+import org.olap4j.metadata.*;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link XmlaOlap4jCube}, run against
+ * {@link XmlaOlap4jTestServer}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jCubeTest extends TestCase {
+    private XmlaOlap4jTestServer server;
+    private OlapConnection connection;
+
+    protected void setUp() throws Exception {
+        server = new XmlaOlap4jTestServer();
+    }
+
+    protected void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        server = null;
+    }
+
+    private XmlaOlap4jCube cube() throws Exception {
+        return (XmlaOlap4jCube)
+            connection.getOlapSchema().getCubes().get("Sales");
+    }
+
+    /**
+     * Returns the number of levels in a cube, visiting every dimension and
+     * hierarchy.
+     */
+    private static int levelCount(Cube cube) {
+        int n = 0;
+        for (Dimension dimension : cube.getDimensions()) {
+            for (Hierarchy hierarchy : dimension.getHierarchies()) {
+                n += hierarchy.getLevels().size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Tests that, with MetadataPrefetch=true, fetching a cube's dimensions
+     * fetches the hierarchies and levels of all of them in one request
+     * each.
+     */
+    public void testPrefetch() throws Exception {
+        connection = server.connect(";MetadataPrefetch=true");
+        final XmlaOlap4jCube cube = cube();
+        assertEquals(7, levelCount(cube));
+        assertEquals(1, server.requestCount("MDSCHEMA_DIMENSIONS"));
+        assertEquals(1, server.requestCount("MDSCHEMA_HIERARCHIES"));
+        assertEquals(1, server.requestCount("MDSCHEMA_LEVELS"));
+
+        // Prefetching again does nothing.
+        final int requestCount = server.requestCount();
+        XmlaOlap4jDriver.prefetchMetadata(cube);
+        assertEquals(requestCount, server.requestCount());
+
+        // Without prefetch, there is a request per dimension and hierarchy.
+        connection.close();
+        server.resetRequestCounts();
+        connection = server.connect("");
+        assertEquals(7, levelCount(cube()));
+        assertEquals(3, server.requestCount("MDSCHEMA_HIERARCHIES"));
+        assertEquals(3, server.requestCount("MDSCHEMA_LEVELS"));
+    }
+
+    /**
+     * Tests that an explicit prefetch leaves alone lists that are already
+     * populated.
+     */
+    public void testPrefetchAlreadyPopulated() throws Exception {
+        connection = server.connect("");
+        final XmlaOlap4jCube cube = cube();
+        final Hierarchy gender =
+            cube.getDimensions().get("Gender").getHierarchies().get(0);
+        final Level genderLevel = gender.getLevels().get("Gender");
+        server.resetRequestCounts();
+        XmlaOlap4jDriver.prefetchMetadata(cube);
+        assertEquals(1, server.requestCount("MDSCHEMA_HIERARCHIES"));
+        assertEquals(1, server.requestCount("MDSCHEMA_LEVELS"));
+        assertSame(
+            gender,
+            cube.getDimensions().get("Gender").getHierarchies().get(0));
+        assertSame(genderLevel, gender.getLevels().get("Gender"));
+        assertEquals(2, gender.getLevels().size());
+        assertEquals(7, levelCount(cube));
+        assertEquals(2, server.requestCount());
+    }
+
+    /**
+     * Tests that, if prefetch fails, the cube's dimensions are still
+     * available, each dimension fetches its own hierarchies, and an
+     * explicit prefetch reports the error.
+     */
+    public void testPrefetchFails() throws Exception {
+        connection = server.connect(";MetadataPrefetch=true");
+        server.failNextRequest("MDSCHEMA_HIERARCHIES");
+        final XmlaOlap4jCube cube = cube();
+        final NamedList<Dimension> dimensions = cube.getDimensions();
+        assertEquals(3, dimensions.size());
+        assertEquals(7, levelCount(cube));
+        assertEquals(1, server.requestCount("MDSCHEMA_DIMENSIONS"));
+        assertEquals(4, server.requestCount("MDSCHEMA_HIERARCHIES"));
+
+        connection.close();
+        connection = server.connect("");
+        final XmlaOlap4jCube cube2 = cube();
+        server.failNextRequest("MDSCHEMA_LEVELS");
+        try {
+            XmlaOlap4jDriver.prefetchMetadata(cube2);
+            fail("expected exception");
+        } catch (OlapException e) {
+            assertTrue(
+                e.getMessage(),
+                e.getMessage().contains("MDSCHEMA_LEVELS failed"));
+        }
+        XmlaOlap4jDriver.prefetchMetadata(cube2);
+        assertEquals(3, cube2.getDimensions().size());
+        assertEquals(7, levelCount(cube2));
+    }
+
+    private static Member lookupMember(Cube cube, String uniqueName)
+        throws OlapException
+    {
+        return cube.lookupMember(
+            IdentifierNode.parseIdentifier(uniqueName).getSegmentList());
+    }
+
+    private static List<String> uniqueNames(List<? extends Member> members) {
+        final List<String> list = new ArrayList<String>();
+        for (Member member : members) {
+            list.add(member.getUniqueName());
+        }
+        return list;
+    }
+
+    /**
+     * Tests that a member's children are read once, and that the children
+     * are cached by unique name.
+     */
+    public void testChildListCache() throws Exception {
+        connection = server.connect("");
+        final XmlaOlap4jCube cube = cube();
+        final Member usa = lookupMember(cube, "[Store].[USA]");
+        server.resetRequestCounts();
+        assertEquals(
+            Arrays.asList(
+                "[Store].[USA].[CA]", "[Store].[USA].[OR]",
+                "[Store].[USA].[WA]"),
+            uniqueNames(usa.getChildMembers()));
+        assertEquals(1, server.requestCount("MDSCHEMA_MEMBERS"));
+
+        assertEquals(3, usa.getChildMembers().size());
+        assertEquals(3, usa.getChildMemberCount());
+        final Member wa = lookupMember(cube, "[Store].[USA].[WA]");
+        assertSame(usa.getChildMembers().get("WA"), wa);
+        assertEquals(usa, wa.getParentMember());
+        assertEquals(1, server.requestCount("MDSCHEMA_MEMBERS"));
+
+        // The list of a leaf member's children is empty, and cached.
+        final Member tacoma = lookupMember(cube, "[Store].[USA].[WA].[Tacoma]");
+        server.resetRequestCounts();
+        assertEquals(0, tacoma.getChildMembers().size());
+        assertEquals(0, tacoma.getChildMembers().size());
+        assertEquals(1, server.requestCount("MDSCHEMA_MEMBERS"));
+    }
+
+    /**
+     * Tests that a member's ancestors are read in one request, parent first,
+     * without looking up the member again, and that they are cached.
+     */
+    public void testAncestors() throws Exception {
+        connection = server.connect("");
+        final XmlaOlap4jCube cube = cube();
+        // Read a member via a paged iterator, so that it is not in the
+        // member cache.
+        final XmlaOlap4jLevel level =
+            (XmlaOlap4jLevel) cube.getHierarchies().get("Store").getLevels()
+                .get("Store City");
+        final String[][] cities = {
+            {"[Store].[Canada].[BC].[Vancouver]"},
+            {"[Store].[Canada].[BC].[Victoria]"},
+            {"[Store].[USA].[CA].[Los Angeles]"},
+            {"[Store].[USA].[CA].[San Francisco]"},
+            {"[Store].[USA].[OR].[Portland]"},
+            {"[Store].[USA].[OR].[Salem]"},
+            {"[Store].[USA].[WA].[Seattle]"},
+            {"[Store].[USA].[WA].[Spokane]"},
+        };
+        server.putQuery(
+            XmlaOlap4jLevelMemberIterator.pageQuery(level, 0, 8),
+            null,
+            new String[0][],
+            cities);
+        final Iterator<Member> iterator = level.getMemberIterator(8);
+        Member spokane = null;
+        for (int i = 0; i < cities.length; i++) {
+            spokane = iterator.next();
+        }
+        assertEquals("[Store].[USA].[WA].[Spokane]", spokane.getUniqueName());
+        server.resetRequestCounts();
+        final List<String> expected =
+            Arrays.asList(
+                "[Store].[USA].[WA]", "[Store].[USA]", "[Store].[All Stores]");
+        assertEquals(expected, uniqueNames(spokane.getAncestorMembers()));
+        assertEquals(1, server.requestCount("MDSCHEMA_MEMBERS"));
+
+        // The ancestors are now cached.
+        assertEquals(expected, uniqueNames(spokane.getAncestorMembers()));
+        assertEquals(
+            "[Store].[USA].[WA]", spokane.getParentMember().getUniqueName());
+        final Member seattle =
+            lookupMember(cube, "[Store].[USA].[WA].[Seattle]");
+        server.resetRequestCounts();
+        assertEquals(expected, uniqueNames(seattle.getAncestorMembers()));
+        assertEquals(0, server.requestCount("MDSCHEMA_MEMBERS"));
+
+        // A root member has no ancestors, and needs no request.
+        final Member allStores =
+            spokane.getAncestorMembers().get(expected.size() - 1);
+        assertEquals(0, allStores.getAncestorMembers().size());
+        assertEquals(0, server.requestCount("MDSCHEMA_MEMBERS"));
+    }
+
+    /**
+     * Tests that a deferred list that fails while being populated does not
+     * keep the elements it added before the failure.
+     */
+    public void testDeferredListRetry() throws Exception {
+        connection = server.connect("");
+        final XmlaOlap4jCube cube = cube();
+        final DeferredNamedListImpl<XmlaOlap4jDimension> list =
+            new DeferredNamedListImpl<XmlaOlap4jDimension>(
+                null, null, null, null)
+            {
+                int attempts;
+
+                protected void populateList(
+                    NamedList<XmlaOlap4jDimension> list)
+                    throws OlapException
+                {
+                    list.addAll(cube.dimensions);
+                    if (attempts++ == 0) {
+                        throw new OlapException("failed");
+                    }
+                }
+            };
+        try {
+            list.size();
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+        assertFalse(list.isPopulated());
+        assertEquals(3, list.size());
+        assertTrue(list.isPopulated());
+    }
+}
+
+// End XmlaOlap4jCubeTest.java
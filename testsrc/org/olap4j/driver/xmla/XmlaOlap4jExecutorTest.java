@@ -0,0 +1,203 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+
+import junit.framework.TestCase;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for {@link XmlaOlap4jExecutor}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jExecutorTest extends TestCase {
+    /**
+     * Tests that executors with the same settings are shared, and that
+     * invalid settings are rejected.
+     */
+    public void testGet() throws OlapException {
+        assertSame(
+            XmlaOlap4jExecutor.getDefault(),
+            XmlaOlap4jExecutor.get(new HashMap<String, String>()));
+        assertEquals(-1, XmlaOlap4jExecutor.getDefault().getMaximumPoolSize());
+
+        final Map<String, String> map = new HashMap<String, String>();
+        map.put(XmlaOlap4jDriver.Property.EXECUTOR.name(), "bounded");
+        map.put(XmlaOlap4jDriver.Property.EXECUTORTHREADS.name(), "3");
+        final XmlaOlap4jExecutor executor = XmlaOlap4jExecutor.get(map);
+        assertSame(executor, XmlaOlap4jExecutor.get(map));
+        assertEquals(3, executor.getMaximumPoolSize());
+
+        map.put(XmlaOlap4jDriver.Property.EXECUTORTHREADS.name(), "0");
+        assertInvalid(map, "must be an integer not less than 1");
+        map.put(XmlaOlap4jDriver.Property.EXECUTORTHREADS.name(), "3");
+        map.put(XmlaOlap4jDriver.Property.EXECUTORREJECTION.name(), "DISCARD");
+        assertInvalid(map, "must be 'ABORT' or 'CALLER_RUNS'");
+        map.remove(XmlaOlap4jDriver.Property.EXECUTORREJECTION.name());
+        map.put(XmlaOlap4jDriver.Property.EXECUTOR.name(), "com.example.Foo");
+        assertInvalid(map, "must be 'CACHED', 'BOUNDED'");
+    }
+
+    private void assertInvalid(Map<String, String> map, String message) {
+        try {
+            final XmlaOlap4jExecutor executor = XmlaOlap4jExecutor.get(map);
+            fail("expected error, got " + executor);
+        } catch (OlapException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    /**
+     * Tests that a bounded executor rejects requests when its threads are
+     * busy and its queue is full, and that the metrics reflect it.
+     */
+    public void testBoundedRejection() throws Exception {
+        final Map<String, String> map = new HashMap<String, String>();
+        map.put(XmlaOlap4jDriver.Property.EXECUTOR.name(), "BOUNDED");
+        map.put(XmlaOlap4jDriver.Property.EXECUTORTHREADS.name(), "1");
+        map.put(XmlaOlap4jDriver.Property.EXECUTORQUEUE.name(), "1");
+        final XmlaOlap4jExecutor executor = XmlaOlap4jExecutor.get(map);
+        final long rejected0 = executor.getRejectedCount();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Future<Integer> f1 =
+            executor.submit(serverInfos("http://a:1"), blocker(latch, 1));
+        final Future<Integer> f2 =
+            executor.submit(serverInfos("http://a:1"), blocker(latch, 2));
+        final Future<Integer> f3 =
+            executor.submit(serverInfos("http://a:1"), blocker(latch, 3));
+        assertTrue(f3.isDone());
+        try {
+            f3.get();
+            fail("expected rejection");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertTrue(
+                e.getCause().getMessage(),
+                e.getCause().getMessage().contains("is saturated"));
+        }
+        assertEquals(rejected0 + 1, executor.getRejectedCount());
+        assertEquals(1, executor.getQueueSize());
+        latch.countDown();
+        assertEquals(1, (int) f1.get());
+        assertEquals(2, (int) f2.get());
+        assertEquals(1, executor.getLargestPoolSize());
+    }
+
+    /**
+     * Tests that the per-server limit holds requests back without
+     * affecting other servers.
+     */
+    public void testServerConcurrency() throws Exception {
+        final Map<String, String> map = new HashMap<String, String>();
+        map.put(XmlaOlap4jDriver.Property.SERVERCONCURRENCY.name(), "2");
+        final XmlaOlap4jExecutor executor = XmlaOlap4jExecutor.get(map);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Callable<Integer> callable =
+            new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    final int n = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        if (n > maxRunning.get()) {
+                            maxRunning.set(n);
+                        }
+                    }
+                    latch.await();
+                    running.decrementAndGet();
+                    return n;
+                }
+            };
+        final Future<?>[] futures = new Future<?>[6];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] =
+                executor.submit(serverInfos("http://b:1/xmla"), callable);
+        }
+        assertEquals(4, executor.getServerWaitingCount());
+
+        // A request to a different server is not held back.
+        final Future<Integer> other =
+            executor.submit(
+                serverInfos("http://c:1/xmla"),
+                new Callable<Integer>() {
+                    public Integer call() {
+                        return 42;
+                    }
+                });
+        assertEquals(42, (int) other.get(10, TimeUnit.SECONDS));
+
+        // A waiting request can be canceled.
+        futures[5].cancel(true);
+        assertEquals(3, executor.getServerWaitingCount());
+
+        latch.countDown();
+        for (int i = 0; i < 5; i++) {
+            futures[i].get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, maxRunning.get());
+        assertEquals(0, executor.getServerWaitingCount());
+    }
+
+    private static Callable<Integer> blocker(
+        final CountDownLatch latch,
+        final int value)
+    {
+        return new Callable<Integer>() {
+            public Integer call() throws Exception {
+                latch.await();
+                return value;
+            }
+        };
+    }
+
+    private static XmlaOlap4jServerInfos serverInfos(String url)
+        throws MalformedURLException
+    {
+        final URL u = new URL(url);
+        return new XmlaOlap4jServerInfos() {
+            public URL getUrl() {
+                return u;
+            }
+
+            public String getUsername() {
+                return null;
+            }
+
+            public String getPassword() {
+                return null;
+            }
+
+            public String getSessionId() {
+                return null;
+            }
+
+            public void setSessionId(String sessionId) {
+            }
+        };
+    }
+}
+
+// End XmlaOlap4jExecutorTest.java
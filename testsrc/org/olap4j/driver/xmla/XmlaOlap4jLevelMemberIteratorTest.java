@@ -0,0 +1,262 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.metadata.*;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link XmlaOlap4jLevelMemberIterator}, run against
+ * {@link XmlaOlap4jTestServer}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jLevelMemberIteratorTest extends TestCase {
+    private static final String[] CITIES = {
+        "[Store].[Canada].[BC].[Vancouver]",
+        "[Store].[Canada].[BC].[Victoria]",
+        "[Store].[USA].[CA].[Los Angeles]",
+        "[Store].[USA].[CA].[San Francisco]",
+        "[Store].[USA].[OR].[Portland]",
+        "[Store].[USA].[OR].[Salem]",
+        "[Store].[USA].[WA].[Seattle]",
+        "[Store].[USA].[WA].[Spokane]",
+        "[Store].[USA].[WA].[Tacoma]",
+    };
+
+    private XmlaOlap4jTestServer server;
+    private OlapConnection connection;
+
+    protected void setUp() throws Exception {
+        server = new XmlaOlap4jTestServer();
+        connection = server.connect("");
+    }
+
+    protected void tearDown() throws Exception {
+        connection.close();
+        connection = null;
+        server = null;
+    }
+
+    private XmlaOlap4jLevel level(String hierarchyName, String levelName)
+        throws OlapException
+    {
+        return (XmlaOlap4jLevel)
+            connection.getOlapSchema().getCubes().get("Sales")
+                .getHierarchies().get(hierarchyName).getLevels()
+                .get(levelName);
+    }
+
+    /**
+     * Registers with the server the queries that read a level's members a
+     * page at a time, up to and including the first page that is not full.
+     */
+    private void putPages(XmlaOlap4jLevel level, int pageSize) {
+        for (int start = 0;; start += pageSize) {
+            final List<String> page =
+                Arrays.asList(CITIES).subList(
+                    Math.min(start, CITIES.length),
+                    Math.min(start + pageSize, CITIES.length));
+            final String[][] tuples = new String[page.size()][];
+            for (int i = 0; i < tuples.length; i++) {
+                tuples[i] = new String[] {page.get(i)};
+            }
+            server.putQuery(
+                XmlaOlap4jLevelMemberIterator.pageQuery(
+                    level, start, pageSize),
+                null,
+                new String[0][],
+                tuples);
+            if (page.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    private static List<Member> toList(Iterator<Member> iterator) {
+        final List<Member> list = new ArrayList<Member>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+    /**
+     * Checks that members read by the iterator are the same, and have the
+     * same attributes, as those returned by {@link Level#getMembers()}.
+     */
+    private static void assertSameMembers(
+        List<Member> expected,
+        List<Member> actual)
+        throws OlapException
+    {
+        assertEquals(expected, actual);
+        for (int i = 0; i < expected.size(); i++) {
+            final Member e = expected.get(i);
+            final Member a = actual.get(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getCaption(), a.getCaption());
+            assertEquals(e.getMemberType(), a.getMemberType());
+            assertEquals(e.getOrdinal(), a.getOrdinal());
+            assertEquals(e.getChildMemberCount(), a.getChildMemberCount());
+            assertEquals(e.getParentMember(), a.getParentMember());
+            assertSame(e.getLevel(), a.getLevel());
+        }
+    }
+
+    /**
+     * Tests that the iterator reads a page per request, that a page with
+     * fewer members than the page size is the last, and that members are
+     * built from the properties in the response, without further requests.
+     */
+    public void testShortLastPage() throws Exception {
+        final XmlaOlap4jLevel level = level("Store", "Store City");
+        assertEquals(9, level.getCardinality());
+        putPages(level, 4);
+        server.resetRequestCounts();
+        final List<Member> members = toList(level.getMemberIterator(4));
+        assertEquals(3, server.requestCount("EXECUTE"));
+        assertEquals(3, server.requestCount());
+        assertSameMembers(level.getMembers(), members);
+        assertEquals(
+            "[Store].[USA].[WA]",
+            members.get(8).getParentMember().getUniqueName());
+    }
+
+    /**
+     * Tests that, if the number of members is a multiple of the page size,
+     * the iterator reads an empty page to find that there are no more.
+     */
+    public void testExactPages() throws Exception {
+        final XmlaOlap4jLevel level = level("Store", "Store City");
+        putPages(level, 3);
+        server.resetRequestCounts();
+        final Iterator<Member> iterator = level.getMemberIterator(3);
+        assertEquals(1, server.requestCount("EXECUTE"));
+        final List<Member> members = toList(iterator);
+        assertEquals(4, server.requestCount("EXECUTE"));
+        assertFalse(iterator.hasNext());
+        assertEquals(4, server.requestCount("EXECUTE"));
+        try {
+            iterator.next();
+            fail("expected exception");
+        } catch (NoSuchElementException e) {
+            // ok
+        }
+        assertSameMembers(level.getMembers(), members);
+    }
+
+    /**
+     * Tests that a server whose provider is not Mondrian, and so which the
+     * driver would ask for members one at a time, is not asked for any
+     * members while iterating.
+     */
+    public void testGenericProvider() throws Exception {
+        connection.close();
+        server = new XmlaOlap4jTestServer("Generic");
+        connection = server.connect("");
+        final XmlaOlap4jLevel level = level("Store", "Store City");
+        putPages(level, 2);
+        server.resetRequestCounts();
+        final List<Member> members = toList(level.getMemberIterator(2));
+        assertEquals(5, server.requestCount("EXECUTE"));
+        assertEquals(0, server.requestCount("MDSCHEMA_MEMBERS"));
+        assertEquals(CITIES.length, members.size());
+        for (int i = 0; i < CITIES.length; i++) {
+            assertEquals(CITIES[i], members.get(i).getUniqueName());
+        }
+    }
+
+    /**
+     * Tests that, if the server does not return member properties, the
+     * iterator looks up the members of each page in one request.
+     */
+    public void testMissingProperties() throws Exception {
+        server.setMemberProperties(false);
+        final XmlaOlap4jLevel level = level("Store", "Store City");
+        putPages(level, 4);
+        server.resetRequestCounts();
+        final List<Member> members = toList(level.getMemberIterator(4));
+        assertEquals(3, server.requestCount("EXECUTE"));
+        assertEquals(3, server.requestCount("MDSCHEMA_MEMBERS"));
+        assertSameMembers(level.getMembers(), members);
+    }
+
+    /**
+     * Tests that the iterator reads all members at once if they fit in a
+     * page, or if the level is in the measures dimension.
+     */
+    public void testFallback() throws Exception {
+        final XmlaOlap4jLevel level = level("Store", "Store City");
+        server.resetRequestCounts();
+        assertSameMembers(
+            level.getMembers(), toList(level.getMemberIterator(9)));
+        assertEquals(0, server.requestCount("EXECUTE"));
+
+        final XmlaOlap4jLevel measuresLevel =
+            level("Measures", "MeasuresLevel");
+        assertEquals(2, measuresLevel.getCardinality());
+        final List<Member> measures =
+            toList(measuresLevel.getMemberIterator(1));
+        assertEquals(0, server.requestCount("EXECUTE"));
+        assertEquals(2, measures.size());
+        assertEquals(
+            "[Measures].[Unit Sales]", measures.get(0).getUniqueName());
+
+        try {
+            level.getMemberIterator(0);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("page size must be positive: 0", e.getMessage());
+        }
+    }
+
+    /**
+     * Tests that an error reading a later page is thrown from
+     * {@link Iterator#hasNext()}.
+     */
+    public void testError() throws Exception {
+        final XmlaOlap4jLevel level = level("Store", "Store City");
+        server.putQuery(
+            XmlaOlap4jLevelMemberIterator.pageQuery(level, 0, 4),
+            null,
+            new String[0][],
+            new String[][] {
+                {CITIES[0]}, {CITIES[1]}, {CITIES[2]}, {CITIES[3]}});
+        final Iterator<Member> iterator = level.getMemberIterator(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(CITIES[i], iterator.next().getUniqueName());
+        }
+        try {
+            iterator.hasNext();
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof OlapException);
+            assertTrue(
+                e.getCause().getMessage(),
+                e.getCause().getMessage().contains("Unknown query"));
+        }
+    }
+}
+
+// End XmlaOlap4jLevelMemberIteratorTest.java
@@ -0,0 +1,162 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapException;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link XmlaOlap4jMemberCache}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jMemberCacheTest extends TestCase {
+    /**
+     * Tests that the cache holds no more than its capacity, evicting the
+     * least recently used entry, and counts hits, misses and evictions.
+     */
+    public void testEviction() {
+        final XmlaOlap4jMemberCache.Policy policy =
+            new XmlaOlap4jMemberCache.Policy(3, false);
+        final XmlaOlap4jMemberCache cache = new XmlaOlap4jMemberCache(policy);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        assertEquals("A", cache.get("a"));
+        cache.put("d", "D");
+        assertEquals(3, cache.weight());
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("D", cache.get("d"));
+
+        final Map<String, Long> map = policy.statistics.toMap();
+        assertEquals(3L, (long) map.get("hits"));
+        assertEquals(1L, (long) map.get("misses"));
+        assertEquals(1L, (long) map.get("evictions"));
+        assertEquals(3L, (long) map.get("weight"));
+    }
+
+    /**
+     * Tests that a list of members weighs more than a member, and that
+     * adding a list that is read once does not evict a member that has
+     * been read again.
+     */
+    public void testScanResistance() {
+        final XmlaOlap4jMemberCache.Policy policy =
+            new XmlaOlap4jMemberCache.Policy(10, false);
+        final XmlaOlap4jMemberCache cache = new XmlaOlap4jMemberCache(policy);
+        cache.put("hot", "Hot");
+        assertEquals("Hot", cache.get("hot"));
+        cache.put("list1", Arrays.asList("1", "2", "3", "4"));
+        cache.put("list2", Arrays.asList("5", "6", "7", "8"));
+        assertEquals("Hot", cache.get("hot"));
+        assertNull(cache.get("list1"));
+        assertNotNull(cache.get("list2"));
+        assertEquals(6, cache.weight());
+
+        // Too heavy to hold.
+        cache.put("big", Arrays.asList(new String[20]));
+        assertNull(cache.get("big"));
+        assertEquals(6, cache.weight());
+    }
+
+    /**
+     * Tests that an evicted entry is found via its soft reference while
+     * memory is plentiful.
+     */
+    public void testSoft() {
+        final XmlaOlap4jMemberCache.Policy policy =
+            new XmlaOlap4jMemberCache.Policy(1, true);
+        final XmlaOlap4jMemberCache cache = new XmlaOlap4jMemberCache(policy);
+        final String a = "A";
+        cache.put("a", a);
+        cache.put("b", "B");
+        assertSame(a, cache.get("a"));
+        assertEquals(1L, policy.statistics.softHits.get());
+        assertEquals(1, cache.weight());
+    }
+
+    /**
+     * Tests that many threads can read and write one cache, and that its
+     * weight stays within capacity.
+     */
+    public void testConcurrent() throws InterruptedException {
+        final XmlaOlap4jMemberCache.Policy policy =
+            new XmlaOlap4jMemberCache.Policy(50, true);
+        final XmlaOlap4jMemberCache cache = new XmlaOlap4jMemberCache(policy);
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        final Random random = new Random(seed);
+                        for (int j = 0; j < 10000; j++) {
+                            final String key = "m" + random.nextInt(200);
+                            final Object value = cache.get(key);
+                            if (value == null) {
+                                cache.put(key, key.toUpperCase());
+                            } else {
+                                assertEquals(key.toUpperCase(), value);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+        assertTrue(cache.weight() <= 50);
+        assertEquals(cache.weight(), policy.statistics.weight.get());
+    }
+
+    /**
+     * Tests the connection properties that define the policy.
+     */
+    public void testPolicy() throws OlapException {
+        final Map<String, String> map = new HashMap<String, String>();
+        XmlaOlap4jMemberCache.Policy policy =
+            XmlaOlap4jMemberCache.Policy.create(map);
+        assertEquals(XmlaOlap4jMemberCache.DEFAULT_CAPACITY, policy.capacity);
+        assertTrue(policy.soft);
+        map.put("MEMBERCACHE", " 5 ");
+        map.put("MEMBERCACHESOFT", "false");
+        policy = XmlaOlap4jMemberCache.Policy.create(map);
+        assertEquals(5, policy.capacity);
+        assertFalse(policy.soft);
+        map.put("MEMBERCACHE", "-1");
+        try {
+            policy = XmlaOlap4jMemberCache.Policy.create(map);
+            fail("expected error, got " + policy);
+        } catch (OlapException e) {
+            assertTrue(e.getMessage().contains("MEMBERCACHE"));
+        }
+    }
+}
+
+// End XmlaOlap4jMemberCacheTest.java
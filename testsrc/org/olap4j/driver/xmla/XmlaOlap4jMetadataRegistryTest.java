@@ -0,0 +1,206 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.mdx.IdentifierNode;
+import org.olap4j.metadata.*;
+
+import junit.framework.TestCase;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Unit test for {@link XmlaOlap4jMetadataRegistry}.
+ *
+ * <p>Creating a connection does not contact the server, so these tests need
+ * no server.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jMetadataRegistryTest extends TestCase {
+    private static final String URL =
+        "jdbc:xmla:Server=http://localhost:1/xmla;MetadataRegistry=true";
+
+    protected void setUp() throws Exception {
+        XmlaOlap4jDriver.flushMetadataRegistry();
+    }
+
+    private static OlapConnection connect(String url) throws SQLException {
+        return (OlapConnection)
+            new XmlaOlap4jDriver().connect(url, new Properties());
+    }
+
+    /**
+     * Tests that connections with the same properties share metadata until
+     * they are closed, and that other connections do not.
+     */
+    public void testShare() throws SQLException {
+        final OlapConnection c1 = connect(URL);
+        final OlapConnection c2 = connect(URL);
+        final OlapConnection c3 = connect(URL + ";Role=Foo");
+        final OlapConnection c4 =
+            connect(URL.replace("MetadataRegistry=true", ""));
+        assertSame(c1.getOlapDatabases(), c2.getOlapDatabases());
+        assertNotSame(c1.getOlapDatabases(), c3.getOlapDatabases());
+        assertNotSame(c1.getOlapDatabases(), c4.getOlapDatabases());
+        assertEquals(2, XmlaOlap4jMetadataRegistry.size());
+
+        c1.close();
+        c1.close();
+        assertEquals(2, XmlaOlap4jMetadataRegistry.size());
+        assertSame(c2.getOlapDatabases(), connect(URL).getOlapDatabases());
+        c2.close();
+        assertEquals(2, XmlaOlap4jMetadataRegistry.size());
+        c3.close();
+        c4.close();
+        assertEquals(1, XmlaOlap4jMetadataRegistry.size());
+    }
+
+    /**
+     * Tests that a connection stops sharing metadata when its role or locale
+     * changes, and that flushing the registry affects only new connections.
+     */
+    public void testDetach() throws SQLException {
+        final OlapConnection c1 = connect(URL);
+        final OlapConnection c2 = connect(URL);
+        c2.setLocale(Locale.getDefault());
+        assertSame(c1.getOlapDatabases(), c2.getOlapDatabases());
+        c2.setRoleName("Foo");
+        assertNotSame(c1.getOlapDatabases(), c2.getOlapDatabases());
+
+        final OlapConnection c3 = connect(URL);
+        assertSame(c1.getOlapDatabases(), c3.getOlapDatabases());
+        c3.setLocale(
+            Locale.getDefault().equals(Locale.FRENCH)
+                ? Locale.GERMAN
+                : Locale.FRENCH);
+        assertNotSame(c1.getOlapDatabases(), c3.getOlapDatabases());
+
+        XmlaOlap4jDriver.flushMetadataRegistry();
+        assertEquals(0, XmlaOlap4jMetadataRegistry.size());
+        final OlapConnection c4 = connect(URL);
+        assertNotSame(c1.getOlapDatabases(), c4.getOlapDatabases());
+        c1.close();
+        assertEquals(1, XmlaOlap4jMetadataRegistry.size());
+        c4.close();
+        assertEquals(0, XmlaOlap4jMetadataRegistry.size());
+    }
+
+    /**
+     * Tests that several threads, each with its own connection, can walk a
+     * shared cube at the same time, and that each list in the shared tree
+     * is populated only once.
+     */
+    public void testConcurrentWalk() throws Exception {
+        final XmlaOlap4jTestServer server = new XmlaOlap4jTestServer();
+        server.setDelay(5);
+        final int threadCount = 8;
+        final OlapConnection[] connections = new OlapConnection[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            connections[i] = server.connect(";MetadataRegistry=true");
+        }
+        final Cube cube =
+            connections[0].getOlapSchema().getCubes().get("Sales");
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final OlapConnection connection = connections[i];
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        final Cube cube2 =
+                            connection.getOlapSchema().getCubes().get("Sales");
+                        assertSame(cube, cube2);
+                        assertEquals(21, walk(cube2));
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+        for (OlapConnection connection : connections) {
+            connection.close();
+        }
+
+        // Walking the cube in one thread, on another server, needs as many
+        // requests for the lists of cubes, dimensions, hierarchies and
+        // levels.
+        final XmlaOlap4jTestServer server2 = new XmlaOlap4jTestServer();
+        final OlapConnection connection = server2.connect("");
+        walk(connection.getOlapSchema().getCubes().get("Sales"));
+        connection.close();
+        for (String requestType
+            : new String[] {
+                "MDSCHEMA_CUBES", "MDSCHEMA_DIMENSIONS",
+                "MDSCHEMA_HIERARCHIES", "MDSCHEMA_LEVELS"})
+        {
+            assertEquals(
+                requestType,
+                server2.requestCount(requestType),
+                server.requestCount(requestType));
+        }
+    }
+
+    /**
+     * Walks the dimensions, hierarchies, levels and members of a cube,
+     * looking up each member by unique name, and returns the number of
+     * members.
+     */
+    private static int walk(Cube cube) throws OlapException {
+        int memberCount = 0;
+        for (Dimension dimension : cube.getDimensions()) {
+            for (Hierarchy hierarchy : dimension.getHierarchies()) {
+                assertSame(
+                    hierarchy,
+                    cube.getHierarchies().get(hierarchy.getName()));
+                for (Level level : hierarchy.getLevels()) {
+                    for (Member member : level.getMembers()) {
+                        ++memberCount;
+                        assertSame(level, member.getLevel());
+                        final Member member2 =
+                            cube.lookupMember(
+                                IdentifierNode.parseIdentifier(
+                                    member.getUniqueName())
+                                    .getSegmentList());
+                        assertEquals(
+                            member.getUniqueName(), member2.getUniqueName());
+                        final Member parent = member.getParentMember();
+                        if (parent != null) {
+                            assertTrue(
+                                parent.getChildMembers().contains(member));
+                        }
+                    }
+                }
+            }
+        }
+        return memberCount;
+    }
+}
+
+// End XmlaOlap4jMetadataRegistryTest.java
@@ -0,0 +1,366 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.metadata.*;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Unit test for {@link XmlaOlap4jMetadataSnapshot}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jMetadataSnapshotTest extends TestCase {
+    private static final String DATASOURCES =
+        "<Discover><RequestType>DISCOVER_DATASOURCES</RequestType>"
+        + "</Discover>";
+    private static final String LEVEL_MEMBERS =
+        "<Discover><RequestType>MDSCHEMA_MEMBERS</RequestType>"
+        + "<LEVEL_UNIQUE_NAME>[Gender].[Gender]</LEVEL_UNIQUE_NAME>"
+        + "</Discover>";
+    private static final String CUBES =
+        "<Discover><RequestType>MDSCHEMA_CUBES</RequestType></Discover>";
+    private static final String LAST_SCHEMA_UPDATE = "2026-10-17T00:00:00";
+    private static final String MEMBER =
+        "<Discover><RequestType>MDSCHEMA_MEMBERS</RequestType>"
+        + "<MEMBER_UNIQUE_NAME>[Gender].[M]</MEMBER_UNIQUE_NAME>"
+        + "</Discover>";
+
+    private File file;
+    private XmlaOlap4jTestServer server;
+    private OlapConnection connection;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("snapshot", ".bin");
+        file.delete();
+        server = new XmlaOlap4jTestServer();
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        server = null;
+    }
+
+    /**
+     * Returns a connection to the test server, against which a snapshot is
+     * validated.
+     */
+    private XmlaOlap4jConnection connection() throws Exception {
+        if (connection == null) {
+            connection = server.connect("");
+        }
+        return connection.unwrap(XmlaOlap4jConnection.class);
+    }
+
+    /**
+     * Records a response to an MDSCHEMA_CUBES request, as the test server
+     * would send it.
+     */
+    private static void putCubes(
+        XmlaOlap4jMetadataSnapshot snapshot,
+        String lastSchemaUpdate)
+        throws OlapException
+    {
+        final List<String[]> rows = new ArrayList<String[]>();
+        final XmlaOlap4jConnection.RowHandler recorder =
+            snapshot.recorder(CUBES, rows, collector(null));
+        final XmlaOlap4jRow row = new XmlaOlap4jRow();
+        row.clear(null);
+        row.add("CATALOG_NAME", "FoodMart");
+        row.add("SCHEMA_NAME", "FoodMart");
+        row.add("CUBE_NAME", "Sales");
+        row.add("LAST_SCHEMA_UPDATE", lastSchemaUpdate);
+        recorder.handle(row);
+        snapshot.put(CUBES, rows);
+    }
+
+    /**
+     * Records a response, writes the snapshot, and replays the response
+     * from a snapshot loaded from the file.
+     */
+    public void testRoundTrip() throws Exception {
+        final XmlaOlap4jMetadataSnapshot snapshot =
+            new XmlaOlap4jMetadataSnapshot(file, false);
+        assertFalse(snapshot.replay(null, DATASOURCES, collector(null)));
+        final List<String[]> rows = new ArrayList<String[]>();
+        final XmlaOlap4jConnection.RowHandler recorder =
+            snapshot.recorder(DATASOURCES, rows, collector(null));
+        final XmlaOlap4jRow row = new XmlaOlap4jRow();
+        row.clear("urn:x");
+        row.add("DataSourceName", "FoodMart");
+        row.add("Description", null);
+        recorder.handle(row);
+        row.clear(null);
+        row.add("DataSourceName", "Steel Wheels \u00e9");
+        recorder.handle(row);
+        snapshot.put(DATASOURCES, rows);
+        putCubes(snapshot, LAST_SCHEMA_UPDATE);
+
+        // Members are not recorded unless asked for.
+        assertNull(snapshot.recorder(LEVEL_MEMBERS, rows, collector(null)));
+        snapshot.save();
+        assertTrue(file.exists());
+
+        final XmlaOlap4jMetadataSnapshot snapshot2 =
+            new XmlaOlap4jMetadataSnapshot(file, true);
+        final StringBuilder buf = new StringBuilder();
+        assertTrue(
+            snapshot2.replay(connection(), DATASOURCES, collector(buf)));
+        assertEquals(1, server.requestCount("MDSCHEMA_CUBES"));
+        assertEquals(1, server.requestCount());
+        assertEquals(
+            "urn:x{DataSourceName=FoodMart, Description=null}"
+            + "null{DataSourceName=Steel Wheels \u00e9}",
+            buf.toString());
+        assertNotNull(
+            snapshot2.recorder(LEVEL_MEMBERS, rows, collector(null)));
+        assertNull(snapshot2.recorder(MEMBER, rows, collector(null)));
+    }
+
+    /**
+     * Tests that a corrupt file is ignored, and overwritten.
+     */
+    public void testCorrupt() throws Exception {
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write("not a snapshot".getBytes());
+        out.close();
+        final XmlaOlap4jMetadataSnapshot snapshot =
+            new XmlaOlap4jMetadataSnapshot(file, false);
+        assertFalse(snapshot.replay(null, DATASOURCES, collector(null)));
+        snapshot.put(DATASOURCES, new ArrayList<String[]>());
+        putCubes(snapshot, LAST_SCHEMA_UPDATE);
+        snapshot.save();
+        assertTrue(
+            new XmlaOlap4jMetadataSnapshot(file, false)
+                .replay(connection(), DATASOURCES, collector(null)));
+    }
+
+    /**
+     * Tests that a file whose counts or lengths are invalid is ignored, even
+     * if it starts with valid responses.
+     */
+    public void testCorruptCounts() throws Exception {
+        // Control: a valid file.
+        writeFile(new int[0]);
+        assertTrue(
+            new XmlaOlap4jMetadataSnapshot(file, false)
+                .replay(connection(), DATASOURCES, collector(null)));
+
+        final int[][] corruptions = {
+            // negative row count
+            {NEW, 1, 'x', -1},
+            // huge row count, then end of file
+            {NEW, 1, 'x', Integer.MAX_VALUE},
+            // row with an even number of values
+            {NEW, 1, 'x', 1, 2, NULL, NULL},
+            // row with a huge number of values
+            {NEW, 1, 'x', 1, Integer.MAX_VALUE},
+            // string with a negative length
+            {NEW, -5},
+            // string with a huge length
+            {NEW, Integer.MAX_VALUE},
+            // reference to a string not yet read
+            {NEW, 1, 'x', 1, 1, 1000},
+            // null request
+            {NULL, 0},
+        };
+        for (int[] corruption : corruptions) {
+            writeFile(corruption);
+            final XmlaOlap4jMetadataSnapshot snapshot =
+                new XmlaOlap4jMetadataSnapshot(file, false);
+            assertFalse(
+                snapshot.replay(connection(), DATASOURCES, collector(null)));
+            assertFalse(snapshot.replay(connection(), CUBES, collector(null)));
+        }
+    }
+
+    private static final int NULL = -1;
+    private static final int NEW = -2;
+
+    /**
+     * Writes a snapshot file holding valid DISCOVER_DATASOURCES and
+     * MDSCHEMA_CUBES responses, followed by one more response whose
+     * contents are given as a list of integers. Each integer is written as
+     * an int, except that the integer after each occurrence of {@link #NEW}
+     * is a length, and is followed by that many bytes, each written as a
+     * byte.
+     */
+    private void writeFile(int[] response) throws Exception {
+        final XmlaOlap4jMetadataSnapshot snapshot =
+            new XmlaOlap4jMetadataSnapshot(file, false);
+        snapshot.put(DATASOURCES, new ArrayList<String[]>());
+        putCubes(snapshot, LAST_SCHEMA_UPDATE);
+        snapshot.save();
+        if (response.length == 0) {
+            return;
+        }
+
+        // Rewrite the file, with one more response.
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final InputStream inflater =
+                new InflaterInputStream(in);
+            final byte[] buf = new byte[1024];
+            for (int n; (n = inflater.read(buf)) > 0;) {
+                bytes.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        final byte[] b = bytes.toByteArray();
+        final DataOutputStream out =
+            new DataOutputStream(
+                new DeflaterOutputStream(new FileOutputStream(file)));
+        try {
+            // Magic and version, then the number of responses, plus one.
+            out.write(b, 0, 8);
+            out.writeInt(
+                new DataInputStream(new ByteArrayInputStream(b, 8, 4))
+                    .readInt() + 1);
+            out.write(b, 12, b.length - 12);
+            for (int i = 0; i < response.length; i++) {
+                out.writeInt(response[i]);
+                if (response[i] == NEW && i + 1 < response.length) {
+                    final int length = response[++i];
+                    out.writeInt(length);
+                    for (int j = 0; j < length && i + 1 < response.length;
+                        j++)
+                    {
+                        out.write(response[++i]);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Tests that a snapshot that has no MDSCHEMA_CUBES response, and so
+     * cannot be validated, is discarded, and then records responses again.
+     */
+    public void testNoCubes() throws Exception {
+        final XmlaOlap4jMetadataSnapshot snapshot =
+            new XmlaOlap4jMetadataSnapshot(file, false);
+        snapshot.put(DATASOURCES, new ArrayList<String[]>());
+        snapshot.save();
+
+        final XmlaOlap4jMetadataSnapshot snapshot2 =
+            new XmlaOlap4jMetadataSnapshot(file, false);
+        assertFalse(
+            snapshot2.replay(connection(), DATASOURCES, collector(null)));
+        assertEquals(0, server.requestCount());
+        snapshot2.put(DATASOURCES, new ArrayList<String[]>());
+        assertTrue(
+            snapshot2.replay(connection(), DATASOURCES, collector(null)));
+    }
+
+    /**
+     * Tests that a snapshot is discarded if a cube's schema has changed
+     * since it was recorded.
+     */
+    public void testStale() throws Exception {
+        final XmlaOlap4jMetadataSnapshot snapshot =
+            new XmlaOlap4jMetadataSnapshot(file, false);
+        snapshot.put(DATASOURCES, new ArrayList<String[]>());
+        putCubes(snapshot, LAST_SCHEMA_UPDATE);
+        snapshot.save();
+
+        server.setLastSchemaUpdate("2026-10-18T00:00:00");
+        assertFalse(
+            new XmlaOlap4jMetadataSnapshot(file, false)
+                .replay(connection(), DATASOURCES, collector(null)));
+        assertEquals(1, server.requestCount("MDSCHEMA_CUBES"));
+    }
+
+    /**
+     * Tests that a connection that uses a snapshot written by an earlier
+     * connection discovers its metadata without requests other than the
+     * one that validates the snapshot, and lookups of members.
+     */
+    public void testConnection() throws Exception {
+        final String properties = ";MetadataSnapshot=" + file.getPath();
+        OlapConnection c = server.connect(properties);
+        final int levelCount = levelCount(c);
+        assertEquals(7, levelCount);
+        c.close();
+        assertTrue(file.exists());
+
+        server.resetRequestCounts();
+        c = server.connect(properties);
+        assertEquals(levelCount, levelCount(c));
+        c.close();
+        assertEquals(1, server.requestCount("MDSCHEMA_CUBES"));
+        // Lookups of individual members are not recorded.
+        assertEquals(
+            server.requestCount("MDSCHEMA_CUBES")
+            + server.requestCount("MDSCHEMA_MEMBERS"),
+            server.requestCount());
+    }
+
+    private static int levelCount(OlapConnection connection)
+        throws OlapException
+    {
+        int n = 0;
+        final Cube cube = connection.getOlapSchema().getCubes().get("Sales");
+        for (Dimension dimension : cube.getDimensions()) {
+            for (Hierarchy hierarchy : dimension.getHierarchies()) {
+                n += hierarchy.getLevels().size();
+            }
+        }
+        return n;
+    }
+
+    private static XmlaOlap4jConnection.RowHandler collector(
+        final StringBuilder buf)
+    {
+        return new XmlaOlap4jConnection.RowHandler() {
+            public void handle(XmlaOlap4jRow row) {
+                if (buf == null) {
+                    return;
+                }
+                buf.append(row.getNamespaceURI()).append('{');
+                for (int i = 0; i < row.getColumnCount(); i++) {
+                    if (i > 0) {
+                        buf.append(", ");
+                    }
+                    buf.append(row.getColumnName(i))
+                        .append('=')
+                        .append(row.getValue(i));
+                }
+                buf.append('}');
+            }
+        };
+    }
+}
+
+// End XmlaOlap4jMetadataSnapshotTest.java
@@ -0,0 +1,178 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.metadata.*;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.*;
+
+/**
+ * Unit test for {@link XmlaOlap4jMetadataWarmUp}, run against
+ * {@link XmlaOlap4jTestServer}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jMetadataWarmUpTest extends TestCase {
+    private XmlaOlap4jTestServer server;
+    private OlapConnection connection;
+
+    protected void setUp() throws Exception {
+        server = new XmlaOlap4jTestServer();
+        server.addCatalog("FoodMart 2");
+        server.addCatalog("FoodMart 3");
+        connection = server.connect("");
+    }
+
+    protected void tearDown() throws Exception {
+        connection.close();
+        connection = null;
+        server = null;
+    }
+
+    /**
+     * Walks the metadata of the connection, and returns the number of
+     * elements.
+     */
+    private int walk() throws OlapException {
+        int count = 0;
+        for (Catalog catalog : connection.getOlapCatalogs()) {
+            ++count;
+            for (Schema schema : catalog.getSchemas()) {
+                ++count;
+                for (Cube cube : schema.getCubes()) {
+                    ++count;
+                    count += cube.getSets().size();
+                    for (Dimension dimension : cube.getDimensions()) {
+                        ++count;
+                        for (Hierarchy hierarchy
+                            : dimension.getHierarchies())
+                        {
+                            ++count;
+                            count += hierarchy.getLevels().size();
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Warms up metadata in a separate thread, so that a test fails rather
+     * than hangs if the warm-up never completes.
+     */
+    private void warmUp(final int parallelism) throws Exception {
+        final ExecutorService executorService =
+            Executors.newSingleThreadExecutor();
+        try {
+            executorService.submit(
+                new Callable<Void>() {
+                    public Void call() throws Exception {
+                        XmlaOlap4jDriver.warmUpMetadata(
+                            connection, parallelism);
+                        return null;
+                    }
+                }).get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that after warming up with several requests at a time, walking
+     * the metadata sends no requests.
+     */
+    public void testWarmUp() throws Exception {
+        server.setDelay(20);
+        warmUp(4);
+        assertTrue(server.requestCount("MDSCHEMA_CUBES") >= 3);
+        assertTrue(server.requestCount("MDSCHEMA_LEVELS") >= 3);
+        server.resetRequestCounts();
+        // 3 catalogs, each with 1 schema, 1 cube, 3 dimensions, 3
+        // hierarchies and 7 levels
+        assertEquals(3 * (1 + 1 + 1 + 3 + 3 + 7), walk());
+        assertEquals(0, server.requestCount());
+    }
+
+    /**
+     * Tests that warming up with one request at a time populates the same
+     * metadata.
+     */
+    public void testWarmUpSerial() throws Exception {
+        warmUp(1);
+        server.resetRequestCounts();
+        assertEquals(3 * (1 + 1 + 1 + 3 + 3 + 7), walk());
+        assertEquals(0, server.requestCount());
+    }
+
+    /**
+     * Tests that a request that fails in the middle of the warm-up surfaces
+     * as an OlapException, rather than being lost or causing the warm-up
+     * to hang.
+     */
+    public void testFailure() throws Exception {
+        server.setFailingRequestType("MDSCHEMA_CUBES");
+        try {
+            warmUp(4);
+            fail("expected error");
+        } catch (OlapException e) {
+            assertTrue(
+                e.getMessage(),
+                e.getMessage().contains("Request MDSCHEMA_CUBES failed"));
+        }
+    }
+
+    /**
+     * Tests that a failing request in the last wave, for named sets,
+     * surfaces as an OlapException.
+     */
+    public void testFailureInLastWave() throws Exception {
+        server.setFailingRequestType("MDSCHEMA_SETS");
+        try {
+            warmUp(2);
+            fail("expected error");
+        } catch (OlapException e) {
+            assertTrue(
+                e.getMessage(),
+                e.getMessage().contains("Request MDSCHEMA_SETS failed"));
+        }
+    }
+
+    /**
+     * Tests that parallelism must be positive.
+     */
+    public void testInvalidParallelism() throws Exception {
+        try {
+            warmUp(0);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertEquals("parallelism must be at least 1", e.getMessage());
+        }
+    }
+}
+
+// End XmlaOlap4jMetadataWarmUpTest.java
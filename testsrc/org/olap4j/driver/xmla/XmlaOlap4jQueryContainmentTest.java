@@ -0,0 +1,307 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.*;
+import org.olap4j.metadata.Member;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link XmlaOlap4jQueryContainment}, run against
+ * {@link XmlaOlap4jTestServer}.
+ *
+ * <p>Each test executes queries on two connections: one that caches
+ * results and projects contained queries, and one that does not. A query
+ * that the first connection answers without a request to the server must
+ * have the same result as on the second connection.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jQueryContainmentTest extends TestCase {
+    private static final String UNIT_SALES = "[Measures].[Unit Sales]";
+    private static final String STORE_SALES = "[Measures].[Store Sales]";
+    private static final String F = "[Gender].[F]";
+    private static final String M = "[Gender].[M]";
+    private static final String VANCOUVER =
+        "[Store].[Canada].[BC].[Vancouver]";
+    private static final String VICTORIA = "[Store].[Canada].[BC].[Victoria]";
+    private static final String LOS_ANGELES =
+        "[Store].[USA].[CA].[Los Angeles]";
+
+    private XmlaOlap4jTestServer server;
+    private OlapConnection cachingConnection;
+    private OlapConnection connection;
+
+    protected void setUp() throws Exception {
+        server = new XmlaOlap4jTestServer();
+        cachingConnection =
+            server.connect(";ResultCache=10;ResultCacheContainment=true");
+        connection = server.connect("");
+    }
+
+    protected void tearDown() throws Exception {
+        cachingConnection.close();
+        connection.close();
+        cachingConnection = null;
+        connection = null;
+        server = null;
+    }
+
+    /**
+     * Registers a query with the server, and executes it on the caching
+     * connection, so that its cell set is cached.
+     */
+    private void cache(String mdx, String[] slicer, String[][]... axes)
+        throws OlapException
+    {
+        server.putQuery(mdx, slicer, axes);
+        final int executeCount = server.requestCount("EXECUTE");
+        toString(cachingConnection.createStatement().executeOlapQuery(mdx));
+        assertEquals(executeCount + 1, server.requestCount("EXECUTE"));
+    }
+
+    /**
+     * Checks that a query is answered by projecting a cached cell set, and
+     * that the result is the same as the server's.
+     */
+    private void assertProjected(
+        String mdx,
+        String[] slicer,
+        String[][]... axes)
+        throws OlapException
+    {
+        server.putQuery(mdx, slicer, axes);
+        final int executeCount = server.requestCount("EXECUTE");
+        final String actual =
+            toString(
+                cachingConnection.createStatement().executeOlapQuery(mdx));
+        assertEquals(executeCount, server.requestCount("EXECUTE"));
+        assertEquals(
+            toString(connection.createStatement().executeOlapQuery(mdx)),
+            actual);
+    }
+
+    /**
+     * Checks that a query is sent to the server, and that the result is the
+     * same as the server's.
+     */
+    private void assertNotProjected(
+        String mdx,
+        String[] slicer,
+        String[][]... axes)
+        throws OlapException
+    {
+        server.putQuery(mdx, slicer, axes);
+        final int executeCount = server.requestCount("EXECUTE");
+        final String actual =
+            toString(
+                cachingConnection.createStatement().executeOlapQuery(mdx));
+        assertEquals(executeCount + 1, server.requestCount("EXECUTE"));
+        assertEquals(
+            toString(connection.createStatement().executeOlapQuery(mdx)),
+            actual);
+    }
+
+    /**
+     * Converts a cell set to a string: the members of each position of each
+     * axis, including the filter axis, then the value of each cell.
+     */
+    private static String toString(CellSet cellSet) {
+        final StringBuilder buf = new StringBuilder();
+        int cellCount = 1;
+        for (CellSetAxis axis : cellSet.getAxes()) {
+            cellCount *= axis.getPositionCount();
+            append(buf, axis);
+        }
+        append(buf, cellSet.getFilterAxis());
+        for (int i = 0; i < cellCount; i++) {
+            final Cell cell = cellSet.getCell(i);
+            buf.append(i).append(": ").append(cell.getValue()).append(", ")
+                .append(cell.getFormattedValue()).append('\n');
+        }
+        return buf.toString();
+    }
+
+    private static void append(StringBuilder buf, CellSetAxis axis) {
+        buf.append(axis.getAxisOrdinal()).append(":\n");
+        for (Position position : axis.getPositions()) {
+            for (Member member : position.getMembers()) {
+                buf.append(' ').append(member.getUniqueName());
+            }
+            buf.append('\n');
+        }
+    }
+
+    private void cacheMeasuresByCity() throws OlapException {
+        cache(
+            "SELECT {" + UNIT_SALES + ", " + STORE_SALES + "} ON 0,\n"
+            + "  {" + VANCOUVER + ", " + VICTORIA + ", " + LOS_ANGELES
+            + "} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}, {STORE_SALES}},
+            new String[][] {{VANCOUVER}, {VICTORIA}, {LOS_ANGELES}});
+    }
+
+    /**
+     * Tests a query that asks for fewer rows and columns, in a different
+     * order.
+     */
+    public void testSubset() throws Exception {
+        cacheMeasuresByCity();
+        assertProjected(
+            "SELECT {" + STORE_SALES + "} ON 0,\n"
+            + "  {" + LOS_ANGELES + ", " + VANCOUVER + "} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{STORE_SALES}},
+            new String[][] {{LOS_ANGELES}, {VANCOUVER}});
+    }
+
+    /**
+     * Tests a query that moves a member from an axis to the slicer.
+     */
+    public void testMemberToSlicer() throws Exception {
+        cacheMeasuresByCity();
+        assertProjected(
+            "SELECT {" + VICTORIA + ", " + LOS_ANGELES + "} ON 0\n"
+            + "FROM [Sales]\n"
+            + "WHERE " + STORE_SALES,
+            new String[] {STORE_SALES},
+            new String[][] {{VICTORIA}, {LOS_ANGELES}});
+    }
+
+    /**
+     * Tests queries whose tuples are a subset of the tuples of a cached
+     * crossjoin, including one that splits the crossjoin between axes.
+     */
+    public void testCrossjoinSubset() throws Exception {
+        cache(
+            "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {(" + F + ", " + VANCOUVER + "), (" + F + ", " + VICTORIA
+            + "),\n"
+            + "   (" + M + ", " + VANCOUVER + "), (" + M + ", " + VICTORIA
+            + ")} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}},
+            new String[][] {
+                {F, VANCOUVER}, {F, VICTORIA}, {M, VANCOUVER}, {M, VICTORIA}});
+        assertProjected(
+            "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {(" + M + ", " + VICTORIA + "), (" + F + ", " + VANCOUVER
+            + ")} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{M, VICTORIA}, {F, VANCOUVER}});
+        assertProjected(
+            "SELECT {" + M + ", " + F + "} ON 0,\n"
+            + "  {" + VICTORIA + "} ON 1\n"
+            + "FROM [Sales]\n"
+            + "WHERE " + UNIT_SALES,
+            new String[] {UNIT_SALES},
+            new String[][] {{M}, {F}},
+            new String[][] {{VICTORIA}});
+    }
+
+    /**
+     * Tests queries that are sent to the server because they have a WITH
+     * clause or NON EMPTY, or identify a member by other than its unique
+     * name.
+     */
+    public void testUnsupportedSyntax() throws Exception {
+        cacheMeasuresByCity();
+        assertNotProjected(
+            "WITH SET [Cities] AS '{" + VANCOUVER + "}'\n"
+            + "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {" + VANCOUVER + "} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{VANCOUVER}});
+        assertNotProjected(
+            "SELECT NON EMPTY {" + UNIT_SALES + "} ON 0,\n"
+            + "  {" + VANCOUVER + "} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{VANCOUVER}});
+        assertNotProjected(
+            "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {[Vancouver]} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{VANCOUVER}});
+    }
+
+    /**
+     * Tests queries that are sent to the server because their slicer is not
+     * contained in the cached query's, or because their hierarchies are not
+     * those of the cached query's axes.
+     */
+    public void testDifferentHierarchies() throws Exception {
+        cache(
+            "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {" + VANCOUVER + ", " + VICTORIA + "} ON 1\n"
+            + "FROM [Sales]\n"
+            + "WHERE " + F,
+            new String[] {F},
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{VANCOUVER}, {VICTORIA}});
+
+        // Slicer does not contain the cached slicer.
+        assertNotProjected(
+            "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {" + VANCOUVER + "} ON 1\n"
+            + "FROM [Sales]\n"
+            + "WHERE " + M,
+            new String[] {M},
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{VANCOUVER}});
+
+        // Uses a hierarchy, Gender, that is not on the cached axes.
+        assertNotProjected(
+            "SELECT {" + UNIT_SALES + "} ON 0,\n"
+            + "  {(" + F + ", " + VANCOUVER + ")} ON 1\n"
+            + "FROM [Sales]",
+            null,
+            new String[][] {{UNIT_SALES}},
+            new String[][] {{F, VANCOUVER}});
+
+        // Does not use a hierarchy, Store, that is on the cached axes.
+        assertNotProjected(
+            "SELECT {" + UNIT_SALES + "} ON 0\n"
+            + "FROM [Sales]\n"
+            + "WHERE " + F,
+            new String[] {F},
+            new String[][] {{UNIT_SALES}});
+
+        // Same slicer, and a subset of the cached axes.
+        assertProjected(
+            "SELECT {" + VICTORIA + "} ON 0\n"
+            + "FROM [Sales]\n"
+            + "WHERE (" + F + ", " + UNIT_SALES + ")",
+            new String[] {F, UNIT_SALES},
+            new String[][] {{VICTORIA}});
+    }
+}
+
+// End XmlaOlap4jQueryContainmentTest.java
@@ -0,0 +1,213 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.*;
+
+import junit.framework.TestCase;
+
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Unit test for {@link XmlaOlap4jResultCache}, run against
+ * {@link XmlaOlap4jTestServer}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jResultCacheTest extends TestCase {
+    private static final String MDX =
+        "SELECT {[Measures].[Unit Sales]} ON 0,\n"
+        + "  {[Gender].[F], [Gender].[M]} ON 1\n"
+        + "FROM [Sales]";
+
+    private XmlaOlap4jTestServer server;
+    private OlapConnection connection;
+    private Object expectedValue;
+
+    protected void setUp() throws Exception {
+        server = new XmlaOlap4jTestServer();
+        server.putQuery(
+            MDX,
+            null,
+            new String[][] {{"[Measures].[Unit Sales]"}},
+            new String[][] {{"[Gender].[F]"}, {"[Gender].[M]"}});
+    }
+
+    protected void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        server = null;
+    }
+
+    /**
+     * Executes the query, and returns the value of its first cell.
+     */
+    private Object execute() throws OlapException {
+        return connection.createStatement().executeOlapQuery(MDX)
+            .getCell(0).getValue();
+    }
+
+    /**
+     * Executes the query, and checks whether the server received a request,
+     * and that the value of its first cell is the same as the previous
+     * time.
+     */
+    private void assertExecute(boolean sent) throws OlapException {
+        final int executeCount = server.requestCount("EXECUTE");
+        final Object value = execute();
+        assertEquals(
+            executeCount + (sent ? 1 : 0), server.requestCount("EXECUTE"));
+        assertNotNull(value);
+        if (expectedValue != null) {
+            assertEquals(expectedValue, value);
+        }
+        expectedValue = value;
+    }
+
+    /**
+     * Tests that a query executed a second time is answered from the cache,
+     * including a query that differs only in white space and keyword case.
+     */
+    public void testHit() throws Exception {
+        connection = server.connect(";ResultCache=10");
+        assertExecute(true);
+        assertExecute(false);
+        final int executeCount = server.requestCount("EXECUTE");
+        final CellSet cellSet =
+            connection.createStatement().executeOlapQuery(
+                MDX.replace("SELECT", "select").replace("\n", " "));
+        assertEquals(executeCount, server.requestCount("EXECUTE"));
+        assertEquals(2, cellSet.getAxes().get(1).getPositionCount());
+    }
+
+    /**
+     * Tests that a connection without a result cache sends every query to
+     * the server.
+     */
+    public void testNoCache() throws Exception {
+        connection = server.connect("");
+        assertExecute(true);
+        assertExecute(true);
+    }
+
+    /**
+     * Tests that an asynchronous query answered from the cache returns a
+     * future that has already completed.
+     */
+    public void testAsyncHit() throws Exception {
+        connection = server.connect(";ResultCache=10");
+        assertExecute(true);
+        final int executeCount = server.requestCount("EXECUTE");
+        final CellSetFuture future =
+            connection.createStatement().executeOlapQueryAsync(MDX);
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertFalse(future.cancel(true));
+        assertEquals(expectedValue, future.get().getCell(0).getValue());
+        assertEquals(executeCount, server.requestCount("EXECUTE"));
+    }
+
+    /**
+     * Tests that an entry expires after the time specified by the
+     * ResultCacheTimeout property.
+     */
+    public void testTimeout() throws Exception {
+        connection = server.connect(";ResultCache=10;ResultCacheTimeout=1");
+        assertExecute(true);
+        assertExecute(false);
+        Thread.sleep(1100);
+        assertExecute(true);
+        assertExecute(false);
+    }
+
+    /**
+     * Tests {@link XmlaOlap4jDriver#flushResultCache}.
+     */
+    public void testFlush() throws Exception {
+        connection = server.connect(";ResultCache=10");
+        assertExecute(true);
+        XmlaOlap4jDriver.flushResultCache(connection);
+        assertExecute(true);
+        assertExecute(false);
+    }
+
+    /**
+     * Tests that a query in a different catalog is not answered from the
+     * cell set of the same query in the original catalog.
+     */
+    public void testKeyCatalog() throws Exception {
+        server.addCatalog("FoodMart 2");
+        connection = server.connect(";ResultCache=10");
+        assertExecute(true);
+        connection.setCatalog("FoodMart 2");
+        assertExecute(true);
+        assertExecute(false);
+        connection.setCatalog("FoodMart");
+        assertExecute(false);
+    }
+
+    /**
+     * Tests that a query under a different role is not answered from the
+     * cell set of the same query under the original role.
+     */
+    public void testKeyRole() throws Exception {
+        connection = server.connect(";ResultCache=10");
+        assertExecute(true);
+        connection.setRoleName("California manager");
+        assertExecute(true);
+        assertExecute(false);
+        connection.setRoleName(null);
+        assertExecute(false);
+    }
+
+    /**
+     * Tests that a query in a different locale is not answered from the
+     * cell set of the same query in the original locale.
+     */
+    public void testKeyLocale() throws Exception {
+        connection = server.connect(";ResultCache=10");
+        final Locale locale = connection.getLocale();
+        assertExecute(true);
+        connection.setLocale(
+            locale.equals(Locale.FRANCE) ? Locale.GERMANY : Locale.FRANCE);
+        assertExecute(true);
+        assertExecute(false);
+        connection.setLocale(locale);
+        assertExecute(false);
+    }
+
+    /**
+     * Tests that an invalid ResultCache property is an error.
+     */
+    public void testInvalidSize() throws Exception {
+        try {
+            connection = server.connect(";ResultCache=-1");
+            fail("expected error");
+        } catch (SQLException e) {
+            assertTrue(
+                e.getMessage(),
+                e.getMessage().contains(
+                    "Invalid value '-1' for property RESULTCACHE"));
+        }
+    }
+}
+
+// End XmlaOlap4jResultCacheTest.java
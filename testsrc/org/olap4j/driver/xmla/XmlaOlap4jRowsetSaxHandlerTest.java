@@ -0,0 +1,264 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for {@link XmlaOlap4jRowsetSaxHandler}.
+ *
+ * <p>Most tests parse a Discover response both with the SAX handler and,
+ * as the driver does if Parser=DOM, by filling an {@link XmlaOlap4jRow}
+ * from each DOM <code>row</code> element; and check that the rows are the
+ * same.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jRowsetSaxHandlerTest extends TestCase {
+    private static final String ENVELOPE_START =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<SOAP-ENV:Envelope"
+        + " xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+        + "<SOAP-ENV:Header>\n"
+        + "<Session xmlns=\"urn:schemas-microsoft-com:xml-analysis\""
+        + " SessionId=\"12345\"/>\n"
+        + "</SOAP-ENV:Header>\n"
+        + "<SOAP-ENV:Body>\n";
+
+    private static final String ENVELOPE_END =
+        "</SOAP-ENV:Body>\n"
+        + "</SOAP-ENV:Envelope>\n";
+
+    /**
+     * Wraps rows in a Discover response.
+     */
+    private static String response(String rows) {
+        return ENVELOPE_START
+            + "<cxmla:DiscoverResponse"
+            + " xmlns:cxmla=\"urn:schemas-microsoft-com:xml-analysis\">\n"
+            + "<cxmla:return>\n"
+            + "<root xmlns=\"urn:schemas-microsoft-com:xml-analysis:rowset\">\n"
+            + rows
+            + "</root>\n"
+            + "</cxmla:return>\n"
+            + "</cxmla:DiscoverResponse>\n"
+            + ENVELOPE_END;
+    }
+
+    /**
+     * Converts a row to a string: its namespace, then each column.
+     */
+    private static String toString(XmlaOlap4jRow row) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(row.getNamespaceURI()).append(':');
+        for (int i = 0; i < row.getColumnCount(); i++) {
+            buf.append(' ').append(row.getColumnName(i)).append("=[")
+                .append(row.getValue(i)).append(']');
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Parses a response using SAX, and returns its rows and session id.
+     */
+    private static List<String> parseSax(String response) throws Exception {
+        final List<String> list = new ArrayList<String>();
+        XmlaOlap4jUtil.parse(
+            response.getBytes("UTF-8"),
+            new XmlaOlap4jRowsetSaxHandler() {
+                void handleRow(XmlaOlap4jRow row) {
+                    list.add(XmlaOlap4jRowsetSaxHandlerTest.toString(row));
+                }
+
+                void handleSession(String sessionId) {
+                    list.add("session " + sessionId);
+                }
+            });
+        return list;
+    }
+
+    /**
+     * Parses a response using the DOM, and returns its rows and session id.
+     */
+    private static List<String> parseDom(String response) throws Exception {
+        final List<String> list = new ArrayList<String>();
+        final Document doc =
+            XmlaOlap4jUtil.parse(response.getBytes("UTF-8"));
+        final Element session =
+            (Element) doc.getElementsByTagNameNS(
+                XmlaOlap4jUtil.XMLA_NS, "Session").item(0);
+        list.add("session " + session.getAttribute("SessionId"));
+        final Element root =
+            (Element) doc.getElementsByTagNameNS(
+                XmlaOlap4jUtil.ROWSET_NS, "root").item(0);
+        final XmlaOlap4jRow row = new XmlaOlap4jRow();
+        for (Element e : XmlaOlap4jUtil.childElements(root)) {
+            if (e.getLocalName().equals("row")) {
+                row.fill(e);
+                list.add(toString(row));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Checks that SAX and DOM parse a response into the same rows.
+     */
+    private static List<String> assertSame(String rows) throws Exception {
+        final String response = response(rows);
+        final List<String> sax = parseSax(response);
+        assertEquals(parseDom(response), sax);
+        return sax;
+    }
+
+    /**
+     * Tests rows with simple columns, and that the session id is read from
+     * the header.
+     */
+    public void testSimple() throws Exception {
+        final List<String> rows =
+            assertSame(
+                "<row><CATALOG_NAME>FoodMart</CATALOG_NAME>"
+                + "<CUBE_NAME>Sales</CUBE_NAME></row>\n"
+                + "<row><CATALOG_NAME>FoodMart</CATALOG_NAME>"
+                + "<CUBE_NAME>Warehouse &amp; Sales</CUBE_NAME></row>\n");
+        assertEquals(3, rows.size());
+        assertEquals("session 12345", rows.get(0));
+        assertEquals(
+            "urn:schemas-microsoft-com:xml-analysis:rowset:"
+            + " CATALOG_NAME=[FoodMart] CUBE_NAME=[Warehouse & Sales]",
+            rows.get(2));
+    }
+
+    /**
+     * Tests a row in which a column occurs more than once.
+     */
+    public void testRepeatedColumns() throws Exception {
+        final List<String> rows =
+            assertSame(
+                "<row><PROPERTY_NAME>X</PROPERTY_NAME>"
+                + "<VALUE>1</VALUE><VALUE>2</VALUE><VALUE>3</VALUE></row>\n");
+        assertEquals(
+            "urn:schemas-microsoft-com:xml-analysis:rowset:"
+            + " PROPERTY_NAME=[X] VALUE=[1] VALUE=[2] VALUE=[3]",
+            rows.get(1));
+    }
+
+    /**
+     * Tests columns that contain elements, such as the
+     * <code>Restrictions</code> column of DISCOVER_SCHEMA_ROWSETS. The
+     * value of the column is the text of its descendants.
+     */
+    public void testNestedElements() throws Exception {
+        final List<String> rows =
+            assertSame(
+                "<row><SchemaName>MDSCHEMA_CUBES</SchemaName>"
+                + "<Restrictions><Name>CATALOG_NAME</Name>"
+                + "<Type>string</Type></Restrictions>"
+                + "<Restrictions><Name>CUBE_NAME</Name>"
+                + "<Type>string</Type></Restrictions></row>\n");
+        assertEquals(
+            "urn:schemas-microsoft-com:xml-analysis:rowset:"
+            + " SchemaName=[MDSCHEMA_CUBES]"
+            + " Restrictions=[CATALOG_NAMEstring]"
+            + " Restrictions=[CUBE_NAMEstring]",
+            rows.get(1));
+    }
+
+    /**
+     * Tests empty rows, empty columns, and a response with no rows.
+     */
+    public void testEmpty() throws Exception {
+        final List<String> rows =
+            assertSame(
+                "<row/>\n"
+                + "<row></row>\n"
+                + "<row><DESCRIPTION/><CUBE_NAME>Sales</CUBE_NAME>"
+                + "<CAPTION></CAPTION></row>\n");
+        assertEquals(4, rows.size());
+        assertEquals(
+            "urn:schemas-microsoft-com:xml-analysis:rowset:", rows.get(1));
+        assertEquals(
+            "urn:schemas-microsoft-com:xml-analysis:rowset:"
+            + " DESCRIPTION=[] CUBE_NAME=[Sales] CAPTION=[]",
+            rows.get(3));
+        assertEquals(1, assertSame("").size());
+    }
+
+    /**
+     * Tests that a SOAP fault stops SAX parsing with a
+     * {@link XmlaOlap4jCellSetSaxHandler.FaultException}.
+     */
+    public void testFault() throws Exception {
+        final String response =
+            ENVELOPE_START
+            + "<SOAP-ENV:Fault>\n"
+            + "<faultcode>SOAP-ENV:Server</faultcode>\n"
+            + "<faultstring>Something went wrong</faultstring>\n"
+            + "</SOAP-ENV:Fault>\n"
+            + ENVELOPE_END;
+        try {
+            parseSax(response);
+            fail("expected error");
+        } catch (XmlaOlap4jCellSetSaxHandler.FaultException e) {
+            // ok
+        }
+    }
+
+    /**
+     * Tests that a SOAP fault in response to a Discover request is reported
+     * the same way with Parser=SAX and Parser=DOM.
+     */
+    public void testFaultConnection() throws Exception {
+        final XmlaOlap4jTestServer server = new XmlaOlap4jTestServer();
+        final String sax = discoverFault(server, ";Parser=SAX");
+        final String dom = discoverFault(server, ";Parser=DOM");
+        assertEquals(dom, sax);
+        assertTrue(sax, sax.contains("Request MDSCHEMA_CUBES failed"));
+    }
+
+    private static String discoverFault(
+        XmlaOlap4jTestServer server,
+        String properties)
+        throws SQLException
+    {
+        final OlapConnection connection = server.connect(properties);
+        try {
+            server.failNextRequest("MDSCHEMA_CUBES");
+            connection.getMetaData().getCubes(null, null, null);
+            fail("expected error");
+            return null;
+        } catch (OlapException e) {
+            return e.getMessage();
+        } finally {
+            connection.close();
+        }
+    }
+}
+
+// End XmlaOlap4jRowsetSaxHandlerTest.java
@@ -0,0 +1,165 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.*;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Unit test for canceling queries on an {@link XmlaOlap4jStatement}, run
+ * against {@link XmlaOlap4jTestServer}.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jStatementTest extends TestCase {
+    private static final String MDX =
+        "SELECT {[Measures].[Unit Sales]} ON 0,\n"
+        + "  {[Gender].[F], [Gender].[M]} ON 1\n"
+        + "FROM [Sales]";
+
+    private XmlaOlap4jTestServer server;
+    private OlapConnection connection;
+    private OlapStatement statement;
+
+    protected void setUp() throws Exception {
+        server = new XmlaOlap4jTestServer();
+        server.putQuery(
+            MDX,
+            null,
+            new String[][] {{"[Measures].[Unit Sales]"}},
+            new String[][] {{"[Gender].[F]"}, {"[Gender].[M]"}});
+        connection = server.connect("");
+        statement = connection.createStatement();
+    }
+
+    protected void tearDown() throws Exception {
+        statement.close();
+        connection.close();
+        statement = null;
+        connection = null;
+        server = null;
+    }
+
+    /**
+     * Executes the query, and checks that it succeeds. Tests execute the
+     * query once before they make the server slow, so that the metadata
+     * needed to populate cell sets is already cached.
+     */
+    private void assertExecutes() throws OlapException {
+        final CellSet cellSet = statement.executeOlapQuery(MDX);
+        assertEquals(2, cellSet.getAxes().get(1).getPositionCount());
+    }
+
+    /**
+     * Executes the query, and checks that it is canceled.
+     */
+    private void assertCanceled() {
+        try {
+            statement.executeOlapQuery(MDX);
+            fail("expected error");
+        } catch (OlapException e) {
+            assertEquals("Query canceled", e.getMessage());
+        }
+    }
+
+    /**
+     * Tests that {@link OlapStatement#cancel()} before an execution cancels
+     * that execution only; the next execution succeeds.
+     */
+    public void testCancelBeforeExecute() throws Exception {
+        assertExecutes();
+        statement.cancel();
+        assertCanceled();
+        assertExecutes();
+        assertExecutes();
+    }
+
+    /**
+     * Tests that after {@link OlapStatement#cancel()} cancels an execution
+     * in progress, the statement can execute another query.
+     */
+    public void testExecuteAfterCancel() throws Exception {
+        assertExecutes();
+        server.setDelay(500);
+        final CellSetFuture future = statement.executeOlapQueryAsync(MDX);
+        Thread.sleep(100);
+        statement.cancel();
+        try {
+            future.get();
+            fail("expected error");
+        } catch (ExecutionException e) {
+            assertEquals("Query canceled", e.getCause().getMessage());
+        }
+        server.setDelay(0);
+        assertExecutes();
+        assertExecutes();
+    }
+
+    /**
+     * Tests that after canceling a future, the statement can execute
+     * another query.
+     */
+    public void testCancelFuture() throws Exception {
+        assertExecutes();
+        server.setDelay(500);
+        final CellSetFuture future = statement.executeOlapQueryAsync(MDX);
+        Thread.sleep(100);
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        server.setDelay(0);
+        assertExecutes();
+        assertEquals(
+            2,
+            statement.executeOlapQueryAsync(MDX).get().getAxes().get(1)
+                .getPositionCount());
+    }
+
+    /**
+     * Tests that canceling the future of an execution does not cancel a
+     * later execution on the same statement.
+     */
+    public void testCancelStaleFuture() throws Exception {
+        assertExecutes();
+        server.setDelay(300);
+        final CellSetFuture future1 = statement.executeOlapQueryAsync(MDX);
+        final CellSetFuture future2 = statement.executeOlapQueryAsync(MDX);
+        future1.cancel(true);
+        assertEquals(
+            2, future2.get().getAxes().get(1).getPositionCount());
+    }
+
+    /**
+     * Tests that canceling the future of a query answered from the result
+     * cache does nothing.
+     */
+    public void testCancelCompletedFuture() throws Exception {
+        statement.close();
+        connection.close();
+        connection = server.connect(";ResultCache=10");
+        statement = connection.createStatement();
+        assertExecutes();
+        final CellSetFuture future = statement.executeOlapQueryAsync(MDX);
+        assertFalse(future.cancel(true));
+        assertExecutes();
+    }
+}
+
+// End XmlaOlap4jStatementTest.java
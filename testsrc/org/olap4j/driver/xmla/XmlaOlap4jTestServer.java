@@ -0,0 +1,952 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jProxy;
+import org.olap4j.driver.xmla.proxy.XmlaOlap4jProxyException;
+
+import org.w3c.dom.*;
+
+import java.io.ByteArrayInputStream;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * XMLA server, for testing, that runs inside the JVM and answers requests
+ * about a small cube.
+ *
+ * <p>The cube, "Sales" in catalog and schema "FoodMart", has two measures,
+ * [Measures].[Unit Sales] and [Measures].[Store Sales]; a [Gender]
+ * hierarchy with members F and M; and a [Store] hierarchy with levels
+ * [Store Country], [Store State] and [Store City], the last of which has
+ * nine members.
+ *
+ * <p>The server answers Discover requests from that schema, honoring
+ * restrictions and tree operators. It answers an Execute request only if
+ * the test has registered the query via {@link #putQuery}; the cells of
+ * the result are computed from the coordinates, consistently across
+ * queries, so that a cell has the same value in whichever query it
+ * occurs.
+ *
+ * <p>The driver talks to the server via the
+ * {@link XmlaOlap4jDriver.Property#TESTPROXYCOOKIE} property; use
+ * {@link #connect(String)} to create a connection.
+ *
+ * @author agent
+ */
+class XmlaOlap4jTestServer implements XmlaOlap4jProxy {
+    private static final String CATALOG = "FoodMart";
+    private static final String CUBE = "Sales";
+
+    private final String cookie = XmlaOlap4jDriver.nextCookie();
+    private final String providerName;
+
+    private final List<String> catalogs =
+        new CopyOnWriteArrayList<String>(Collections.singletonList(CATALOG));
+    private final Map<String, TestMember> members =
+        new LinkedHashMap<String, TestMember>();
+    private final Map<String, String> queries =
+        new ConcurrentHashMap<String, String>();
+    private final Map<String, AtomicInteger> requestCounts =
+        new ConcurrentHashMap<String, AtomicInteger>();
+
+    private static final Pattern DIMENSION_PROPERTIES_PATTERN =
+        Pattern.compile(
+            "DIMENSION PROPERTIES (.*?) ON ", Pattern.CASE_INSENSITIVE);
+
+    private volatile String failingRequestType;
+    private final Set<String> failNextRequestTypes =
+        Collections.synchronizedSet(new HashSet<String>());
+    private volatile boolean memberProperties = true;
+    private volatile long delayMillis;
+    private volatile String lastSchemaUpdate = "2026-10-17T00:00:00";
+
+    /**
+     * Creates a test server that claims to be Mondrian.
+     */
+    XmlaOlap4jTestServer() {
+        this("Mondrian");
+    }
+
+    /**
+     * Creates a test server.
+     *
+     * @param providerName Provider name, which determines how the driver
+     *     talks to the server; for example, a Mondrian server can look up
+     *     several members in one request
+     */
+    XmlaOlap4jTestServer(String providerName) {
+        this.providerName = providerName;
+        member(null, "[Measures]", "Unit Sales", 1);
+        member(null, "[Measures]", "Store Sales", 2);
+        final TestMember allGender =
+            member(null, "[Gender]", "All Gender", 0);
+        member(allGender, "[Gender]", "F", 1);
+        member(allGender, "[Gender]", "M", 2);
+        final TestMember allStores =
+            member(null, "[Store]", "All Stores", 0);
+        final TestMember canada = member(allStores, "[Store]", "Canada", 0);
+        final TestMember bc = member(canada, "[Store]", "BC", 0);
+        member(bc, "[Store]", "Vancouver", 10);
+        member(bc, "[Store]", "Victoria", 20);
+        final TestMember usa = member(allStores, "[Store]", "USA", 0);
+        final TestMember ca = member(usa, "[Store]", "CA", 0);
+        member(ca, "[Store]", "Los Angeles", 30);
+        member(ca, "[Store]", "San Francisco", 40);
+        final TestMember or = member(usa, "[Store]", "OR", 0);
+        member(or, "[Store]", "Portland", 50);
+        member(or, "[Store]", "Salem", 60);
+        final TestMember wa = member(usa, "[Store]", "WA", 0);
+        member(wa, "[Store]", "Seattle", 70);
+        member(wa, "[Store]", "Spokane", 80);
+        member(wa, "[Store]", "Tacoma", 90);
+        XmlaOlap4jDriver.PROXY_MAP.put(cookie, this);
+    }
+
+    private TestMember member(
+        TestMember parent, String hierarchy, String name, int value)
+    {
+        final TestMember member =
+            new TestMember(parent, hierarchy, name, value, members.size());
+        members.put(member.uniqueName, member);
+        return member;
+    }
+
+    /**
+     * Creates a connection to this server.
+     *
+     * @param properties Additional connect string properties, each preceded
+     *     by a semicolon, for example ";Parser=SAX"; or the empty string
+     * @return Connection
+     * @throws SQLException on error
+     */
+    OlapConnection connect(String properties) throws SQLException {
+        return (OlapConnection)
+            new XmlaOlap4jDriver().connect(getUrl() + properties,
+                new Properties());
+    }
+
+    /**
+     * Returns the connect string of a connection to this server.
+     *
+     * @return Connect string
+     */
+    String getUrl() {
+        return "jdbc:xmla:Server=http://localhost:1/xmla;Catalog=" + CATALOG
+            + ";" + XmlaOlap4jDriver.Property.TESTPROXYCOOKIE.name() + "="
+            + cookie;
+    }
+
+    /**
+     * Registers the result of a query. The server computes the cells.
+     *
+     * @param mdx Text of query; white space is not significant
+     * @param slicer Unique names of the members of the slicer tuple, or null
+     *     if the query has no WHERE clause
+     * @param axes Axes of the result; each axis is an array of tuples, and
+     *     each tuple an array of member unique names
+     */
+    void putQuery(String mdx, String[] slicer, String[][]... axes) {
+        final List<String> properties = new ArrayList<String>();
+        if (memberProperties) {
+            final Matcher matcher =
+                DIMENSION_PROPERTIES_PATTERN.matcher(normalize(mdx));
+            while (matcher.find()) {
+                for (String property : matcher.group(1).split(",")) {
+                    properties.add(property.trim());
+                }
+            }
+        }
+        queries.put(
+            normalize(mdx), executeResponse(slicer, properties, axes));
+    }
+
+    /**
+     * Sets whether the result of a query registered via {@link #putQuery}
+     * includes the member properties in the query's
+     * <code>DIMENSION PROPERTIES</code> clauses. By default it does.
+     *
+     * @param memberProperties Whether to return member properties
+     */
+    void setMemberProperties(boolean memberProperties) {
+        this.memberProperties = memberProperties;
+    }
+
+    /**
+     * Registers a query that fails with a SOAP fault.
+     *
+     * @param mdx Text of query
+     * @param message Message of fault
+     */
+    void putFault(String mdx, String message) {
+        queries.put(normalize(mdx), fault(message));
+    }
+
+    /**
+     * Causes every request of a given type to fail with a SOAP fault.
+     *
+     * @param requestType Request type, for example "MDSCHEMA_LEVELS", or
+     *     "EXECUTE" for Execute requests; or null to fail no requests
+     */
+    void setFailingRequestType(String requestType) {
+        this.failingRequestType = requestType;
+    }
+
+    /**
+     * Causes the next request of a given type to fail with a SOAP fault.
+     *
+     * @param requestType Request type, for example "MDSCHEMA_LEVELS", or
+     *     "EXECUTE" for Execute requests
+     */
+    void failNextRequest(String requestType) {
+        failNextRequestTypes.add(requestType);
+    }
+
+    /**
+     * Adds a catalog. Each catalog has a schema of the same name, which
+     * contains the same cube as the "FoodMart" catalog.
+     *
+     * @param catalog Catalog name
+     */
+    void addCatalog(String catalog) {
+        catalogs.add(catalog);
+    }
+
+    /**
+     * Sets how long the server waits before answering each request.
+     *
+     * @param delayMillis Delay in milliseconds
+     */
+    void setDelay(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Sets the LAST_SCHEMA_UPDATE of the cube, as if its schema had
+     * changed.
+     *
+     * @param lastSchemaUpdate Time of last schema update
+     */
+    void setLastSchemaUpdate(String lastSchemaUpdate) {
+        this.lastSchemaUpdate = lastSchemaUpdate;
+    }
+
+    /**
+     * Returns the number of requests of a given type that the server has
+     * received.
+     *
+     * @param requestType Request type, for example "MDSCHEMA_MEMBERS", or
+     *     "EXECUTE" for Execute requests
+     * @return Number of requests
+     */
+    int requestCount(String requestType) {
+        final AtomicInteger count = requestCounts.get(requestType);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Returns the total number of requests the server has received.
+     *
+     * @return Number of requests
+     */
+    int requestCount() {
+        int n = 0;
+        for (AtomicInteger count : requestCounts.values()) {
+            n += count.get();
+        }
+        return n;
+    }
+
+    /**
+     * Forgets the number of requests received.
+     */
+    void resetRequestCounts() {
+        requestCounts.clear();
+    }
+
+    // implement XmlaOlap4jProxy
+
+    public byte[] get(XmlaOlap4jServerInfos serverInfos, String request)
+        throws XmlaOlap4jProxyException
+    {
+        try {
+            return envelope(answer(request)).getBytes("UTF-8");
+        } catch (Exception e) {
+            throw new XmlaOlap4jProxyException("Test server failed", e);
+        }
+    }
+
+    public Future<byte[]> submit(
+        final XmlaOlap4jServerInfos serverInfos,
+        final String request)
+    {
+        final FutureTask<byte[]> task =
+            new FutureTask<byte[]>(
+                new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        return get(serverInfos, request);
+                    }
+                });
+        task.run();
+        return task;
+    }
+
+    public String getEncodingCharsetName() {
+        return "UTF-8";
+    }
+
+    // implementation
+
+    private String answer(String request) throws Exception {
+        final Element root =
+            DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(request.getBytes("UTF-8")))
+                .getDocumentElement();
+        final String requestType;
+        final Element statement = first(root, "Statement");
+        if (statement != null) {
+            requestType = "EXECUTE";
+        } else {
+            requestType = first(root, "RequestType").getTextContent().trim();
+        }
+        AtomicInteger count = requestCounts.get(requestType);
+        if (count == null) {
+            ((ConcurrentHashMap<String, AtomicInteger>) requestCounts)
+                .putIfAbsent(requestType, new AtomicInteger());
+            count = requestCounts.get(requestType);
+        }
+        count.incrementAndGet();
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+        if (requestType.equals(failingRequestType)
+            || failNextRequestTypes.remove(requestType))
+        {
+            return fault("Request " + requestType + " failed");
+        }
+        if (statement != null) {
+            final String mdx = normalize(statement.getTextContent());
+            final String response = queries.get(mdx);
+            if (response == null) {
+                return fault("Unknown query: " + mdx);
+            }
+            return response;
+        }
+        final Map<String, List<String>> restrictions =
+            new HashMap<String, List<String>>();
+        final Element restrictionList = first(root, "RestrictionList");
+        if (restrictionList != null) {
+            final NodeList nodes = restrictionList.getChildNodes();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                if (nodes.item(i) instanceof Element) {
+                    final Element e = (Element) nodes.item(i);
+                    List<String> values = restrictions.get(e.getTagName());
+                    if (values == null) {
+                        values = new ArrayList<String>();
+                        restrictions.put(e.getTagName(), values);
+                    }
+                    values.add(e.getTextContent());
+                }
+            }
+        }
+        final StringBuilder buf = new StringBuilder();
+        buf.append(
+            "<cxmla:DiscoverResponse"
+            + " xmlns:cxmla=\"urn:schemas-microsoft-com:xml-analysis\">\n"
+            + "<cxmla:return>\n"
+            + "<root xmlns=\"urn:schemas-microsoft-com:xml-analysis:rowset\">"
+            + "\n");
+        // Every catalog has the same cube. Answer a request about another
+        // catalog, whether named in a restriction or in the Catalog
+        // property, as if it were about "FoodMart", then rename the catalog
+        // in the rows.
+        final List<String> catalogNames = restrictions.get("CATALOG_NAME");
+        final Element catalogProperty = first(root, "Catalog");
+        final String requestCatalog =
+            catalogNames != null
+                ? catalogNames.get(0)
+                : catalogProperty != null
+                ? catalogProperty.getTextContent().trim()
+                : CATALOG;
+        final String catalog =
+            !requestType.startsWith("DBSCHEMA_")
+            && catalogs.contains(requestCatalog)
+                ? requestCatalog
+                : CATALOG;
+        if (!catalog.equals(CATALOG)) {
+            for (String key : new String[] {"CATALOG_NAME", "SCHEMA_NAME"}) {
+                if (restrictions.containsKey(key)) {
+                    restrictions.put(key, Collections.singletonList(CATALOG));
+                }
+            }
+        }
+        final List<Map<String, String>> rows =
+            rows(requestType, restrictions);
+        if (!catalog.equals(CATALOG)) {
+            for (Map<String, String> row : rows) {
+                if (row.containsKey("CATALOG_NAME")) {
+                    row.put("CATALOG_NAME", catalog);
+                    row.put("SCHEMA_NAME", catalog);
+                }
+            }
+        }
+        for (Map<String, String> row : rows) {
+            buf.append("<row>");
+            for (Map.Entry<String, String> entry : row.entrySet()) {
+                buf.append('<').append(entry.getKey()).append('>')
+                    .append(escape(entry.getValue()))
+                    .append("</").append(entry.getKey()).append('>');
+            }
+            buf.append("</row>\n");
+        }
+        buf.append("</root>\n</cxmla:return>\n</cxmla:DiscoverResponse>\n");
+        return buf.toString();
+    }
+
+    private List<Map<String, String>> rows(
+        String requestType,
+        Map<String, List<String>> restrictions)
+    {
+        final List<Map<String, String>> rows =
+            new ArrayList<Map<String, String>>();
+        if (requestType.equals("DISCOVER_DATASOURCES")) {
+            rows.add(
+                row(
+                    "DataSourceName", CATALOG,
+                    "DataSourceDescription", "Test server",
+                    "URL", "http://localhost:1/xmla",
+                    "DataSourceInfo", CATALOG,
+                    "ProviderName", providerName,
+                    "ProviderType", "MDP",
+                    "AuthenticationMode", "Unauthenticated"));
+        } else if (requestType.equals("DBSCHEMA_CATALOGS")) {
+            for (String catalog : catalogs) {
+                rows.add(row("CATALOG_NAME", catalog));
+            }
+        } else if (requestType.equals("DBSCHEMA_SCHEMATA")) {
+            for (String catalog : catalogs) {
+                rows.add(
+                    row("CATALOG_NAME", catalog, "SCHEMA_NAME", catalog));
+            }
+        } else if (requestType.equals("MDSCHEMA_CUBES")) {
+            rows.add(
+                cubeRow(
+                    "CUBE_TYPE", "CUBE",
+                    "LAST_SCHEMA_UPDATE", lastSchemaUpdate,
+                    "DESCRIPTION", ""));
+        } else if (requestType.equals("MDSCHEMA_DIMENSIONS")) {
+            int ordinal = 0;
+            for (String name : new String[] {"Measures", "Gender", "Store"}) {
+                rows.add(
+                    cubeRow(
+                        "DIMENSION_NAME", name,
+                        "DIMENSION_UNIQUE_NAME", "[" + name + "]",
+                        "DIMENSION_CAPTION", name,
+                        "DIMENSION_ORDINAL", String.valueOf(ordinal++),
+                        "DIMENSION_TYPE", ordinal == 1 ? "2" : "3",
+                        "DEFAULT_HIERARCHY", "[" + name + "]",
+                        "DESCRIPTION", ""));
+            }
+        } else if (requestType.equals("MDSCHEMA_HIERARCHIES")) {
+            for (String name : new String[] {"Measures", "Gender", "Store"}) {
+                final TestMember first = firstMember("[" + name + "]");
+                rows.add(
+                    cubeRow(
+                        "DIMENSION_UNIQUE_NAME", "[" + name + "]",
+                        "HIERARCHY_NAME", name,
+                        "HIERARCHY_UNIQUE_NAME", "[" + name + "]",
+                        "HIERARCHY_CAPTION", name,
+                        "DEFAULT_MEMBER", first.uniqueName,
+                        "ALL_MEMBER",
+                        first.type == 2 ? first.uniqueName : null,
+                        "DESCRIPTION", ""));
+            }
+        } else if (requestType.equals("MDSCHEMA_LEVELS")) {
+            level(rows, "[Measures]", "MeasuresLevel", 0);
+            level(rows, "[Gender]", "(All)", 0);
+            level(rows, "[Gender]", "Gender", 1);
+            level(rows, "[Store]", "(All)", 0);
+            level(rows, "[Store]", "Store Country", 1);
+            level(rows, "[Store]", "Store State", 2);
+            level(rows, "[Store]", "Store City", 3);
+        } else if (requestType.equals("MDSCHEMA_MEASURES")) {
+            for (TestMember member : members.values()) {
+                if (member.type == 3) {
+                    rows.add(
+                        cubeRow(
+                            "MEASURE_NAME", member.name,
+                            "MEASURE_UNIQUE_NAME", member.uniqueName,
+                            "MEASURE_CAPTION", member.name,
+                            "MEASURE_AGGREGATOR", "1",
+                            "DATA_TYPE", "5",
+                            "MEASURE_IS_VISIBLE", "true",
+                            "DESCRIPTION", ""));
+                }
+            }
+        } else if (requestType.equals("MDSCHEMA_MEMBERS")) {
+            for (TestMember member : members(restrictions)) {
+                rows.add(
+                    cubeRow(
+                        "DIMENSION_UNIQUE_NAME", member.hierarchy,
+                        "HIERARCHY_UNIQUE_NAME", member.hierarchy,
+                        "LEVEL_UNIQUE_NAME", member.level,
+                        "LEVEL_NUMBER", String.valueOf(member.depth),
+                        "MEMBER_ORDINAL", String.valueOf(member.ordinal),
+                        "MEMBER_NAME", member.name,
+                        "MEMBER_UNIQUE_NAME", member.uniqueName,
+                        "MEMBER_TYPE", String.valueOf(member.type),
+                        "MEMBER_CAPTION", member.name,
+                        "CHILDREN_CARDINALITY",
+                        String.valueOf(member.children.size()),
+                        "PARENT_LEVEL",
+                        String.valueOf(Math.max(member.depth - 1, 0)),
+                        "PARENT_UNIQUE_NAME",
+                        member.parent == null
+                            ? null
+                            : member.parent.uniqueName,
+                        "PARENT_COUNT", member.parent == null ? "0" : "1",
+                        "DEPTH", String.valueOf(member.depth)));
+            }
+            return rows;
+        }
+        final List<Map<String, String>> matching =
+            new ArrayList<Map<String, String>>();
+        for (Map<String, String> row : rows) {
+            if (matches(row, restrictions)) {
+                matching.add(row);
+            }
+        }
+        return matching;
+    }
+
+    private void level(
+        List<Map<String, String>> rows,
+        String hierarchy,
+        String name,
+        int number)
+    {
+        int cardinality = 0;
+        for (TestMember member : members.values()) {
+            if (member.hierarchy.equals(hierarchy) && member.depth == number) {
+                ++cardinality;
+            }
+        }
+        rows.add(
+            cubeRow(
+                "DIMENSION_UNIQUE_NAME", hierarchy,
+                "HIERARCHY_UNIQUE_NAME", hierarchy,
+                "LEVEL_NAME", name,
+                "LEVEL_UNIQUE_NAME", hierarchy + ".[" + name + "]",
+                "LEVEL_CAPTION", name,
+                "LEVEL_NUMBER", String.valueOf(number),
+                "LEVEL_CARDINALITY", String.valueOf(cardinality),
+                "LEVEL_TYPE", name.equals("(All)") ? "1" : "0",
+                "DESCRIPTION", ""));
+    }
+
+    private List<TestMember> members(Map<String, List<String>> restrictions) {
+        final List<String> treeOps = restrictions.get("TREE_OP");
+        final List<String> uniqueNames =
+            restrictions.get("MEMBER_UNIQUE_NAME");
+        final List<TestMember> list = new ArrayList<TestMember>();
+        if (treeOps == null || uniqueNames == null) {
+            for (TestMember member : members.values()) {
+                if (matches(member.toRow(), restrictions)) {
+                    list.add(member);
+                }
+            }
+            return list;
+        }
+        final int treeOp = Integer.parseInt(treeOps.get(0));
+        final TestMember member = members.get(uniqueNames.get(0));
+        if (member == null) {
+            return list;
+        }
+        if ((treeOp & 32) != 0) { // ANCESTORS
+            for (TestMember m = member.parent; m != null; m = m.parent) {
+                list.add(m);
+            }
+        }
+        if ((treeOp & 4) != 0 && member.parent != null) { // PARENT
+            list.add(member.parent);
+        }
+        if ((treeOp & 2) != 0) { // SIBLINGS
+            for (TestMember m : members.values()) {
+                if (m != member
+                    && m.parent == member.parent
+                    && m.level.equals(member.level))
+                {
+                    list.add(m);
+                }
+            }
+        }
+        if ((treeOp & 8) != 0) { // SELF
+            list.add(member);
+        }
+        if ((treeOp & 1) != 0) { // CHILDREN
+            list.addAll(member.children);
+        }
+        if ((treeOp & 16) != 0) { // DESCENDANTS
+            addDescendants(member, list);
+        }
+        return list;
+    }
+
+    private static void addDescendants(
+        TestMember member,
+        List<TestMember> list)
+    {
+        for (TestMember child : member.children) {
+            list.add(child);
+            addDescendants(child, list);
+        }
+    }
+
+    private static boolean matches(
+        Map<String, String> row,
+        Map<String, List<String>> restrictions)
+    {
+        for (Map.Entry<String, List<String>> entry : restrictions.entrySet()) {
+            if (row.containsKey(entry.getKey())
+                && !entry.getValue().contains(row.get(entry.getKey())))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private TestMember firstMember(String hierarchy) {
+        for (TestMember member : members.values()) {
+            if (member.hierarchy.equals(hierarchy)) {
+                return member;
+            }
+        }
+        throw new IllegalArgumentException(hierarchy);
+    }
+
+    private String executeResponse(
+        String[] slicer,
+        List<String> properties,
+        String[][][] axes)
+    {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(
+            "<cxmla:ExecuteResponse"
+            + " xmlns:cxmla=\"urn:schemas-microsoft-com:xml-analysis\">\n"
+            + "<cxmla:return>\n"
+            + "<root xmlns=\"urn:schemas-microsoft-com:xml-analysis:mddataset\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+            + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\">\n"
+            + "<OlapInfo>\n<CubeInfo><Cube><CubeName>" + CUBE
+            + "</CubeName></Cube></CubeInfo>\n<AxesInfo>\n");
+        for (int i = 0; i < axes.length; i++) {
+            axisInfo(
+                buf, "Axis" + i, axes[i].length == 0 ? null : axes[i][0],
+                properties);
+        }
+        axisInfo(buf, "SlicerAxis", slicer, Collections.<String>emptyList());
+        buf.append(
+            "</AxesInfo>\n<CellInfo><Value name=\"VALUE\"/>"
+            + "<FmtValue name=\"FORMATTED_VALUE\"/>"
+            + "<FormatString name=\"FORMAT_STRING\"/></CellInfo>\n"
+            + "</OlapInfo>\n<Axes>\n");
+        for (int i = 0; i < axes.length; i++) {
+            axis(buf, "Axis" + i, axes[i], properties);
+        }
+        axis(
+            buf, "SlicerAxis",
+            new String[][] {slicer == null ? new String[0] : slicer},
+            Collections.<String>emptyList());
+        buf.append("</Axes>\n<CellData>\n");
+        int cellCount = 1;
+        for (String[][] axis : axes) {
+            cellCount *= axis.length;
+        }
+        for (int ordinal = 0; ordinal < cellCount; ordinal++) {
+            final Map<String, TestMember> coordinates =
+                new HashMap<String, TestMember>();
+            int k = ordinal;
+            for (String[][] axis : axes) {
+                for (String uniqueName : axis[k % axis.length]) {
+                    final TestMember member = members.get(uniqueName);
+                    coordinates.put(member.hierarchy, member);
+                }
+                k /= axis.length;
+            }
+            if (slicer != null) {
+                for (String uniqueName : slicer) {
+                    final TestMember member = members.get(uniqueName);
+                    coordinates.put(member.hierarchy, member);
+                }
+            }
+            final int value = cellValue(coordinates);
+            buf.append("<Cell CellOrdinal=\"").append(ordinal)
+                .append("\"><Value xsi:type=\"xsd:double\">").append(value)
+                .append("</Value><FmtValue>").append(value)
+                .append("</FmtValue><FormatString>Standard</FormatString>")
+                .append("</Cell>\n");
+        }
+        buf.append("</CellData>\n</root>\n</cxmla:return>\n")
+            .append("</cxmla:ExecuteResponse>\n");
+        return buf.toString();
+    }
+
+    /**
+     * Computes the value of a cell: the value of the measure, times the
+     * value of the Gender member, times the value of the Store member.
+     * Members not given default to the first member of their hierarchy.
+     */
+    private int cellValue(Map<String, TestMember> coordinates) {
+        int value = 1;
+        for (String hierarchy
+            : new String[] {"[Measures]", "[Gender]", "[Store]"})
+        {
+            TestMember member = coordinates.get(hierarchy);
+            if (member == null) {
+                member = firstMember(hierarchy);
+            }
+            value *= member.value();
+        }
+        return value;
+    }
+
+    private void axisInfo(
+        StringBuilder buf,
+        String name,
+        String[] tuple,
+        List<String> properties)
+    {
+        buf.append("<AxisInfo name=\"").append(name).append("\">\n");
+        if (tuple != null) {
+            for (String uniqueName : tuple) {
+                final String hierarchy = members.get(uniqueName).hierarchy;
+                buf.append("<HierarchyInfo name=\"").append(hierarchy)
+                    .append("\">");
+                for (String tag
+                    : new String[] {
+                        "UName", "Caption", "LName", "LNum", "DisplayInfo"})
+                {
+                    buf.append('<').append(tag).append(" name=\"")
+                        .append(hierarchy).append(".[").append(tag)
+                        .append("]\"/>");
+                }
+                for (String property : properties) {
+                    buf.append('<').append(property).append(" name=\"")
+                        .append(hierarchy).append(".[").append(property)
+                        .append("]\"/>");
+                }
+                buf.append("</HierarchyInfo>\n");
+            }
+        }
+        buf.append("</AxisInfo>\n");
+    }
+
+    private void axis(
+        StringBuilder buf,
+        String name,
+        String[][] tuples,
+        List<String> properties)
+    {
+        buf.append("<Axis name=\"").append(name).append("\"><Tuples>\n");
+        for (String[] tuple : tuples) {
+            buf.append("<Tuple>");
+            for (String uniqueName : tuple) {
+                final TestMember member = members.get(uniqueName);
+                if (member == null) {
+                    throw new IllegalArgumentException(uniqueName);
+                }
+                buf.append("<Member Hierarchy=\"").append(member.hierarchy)
+                    .append("\"><UName>").append(escape(member.uniqueName))
+                    .append("</UName><Caption>").append(escape(member.name))
+                    .append("</Caption><LName>").append(escape(member.level))
+                    .append("</LName><LNum>").append(member.depth)
+                    .append("</LNum><DisplayInfo>")
+                    .append(member.children.size())
+                    .append("</DisplayInfo>");
+                for (String property : properties) {
+                    buf.append('<').append(property).append('>')
+                        .append(escape(member.property(property)))
+                        .append("</").append(property).append('>');
+                }
+                buf.append("</Member>");
+            }
+            buf.append("</Tuple>\n");
+        }
+        buf.append("</Tuples></Axis>\n");
+    }
+
+    private static String fault(String message) {
+        return "<SOAP-ENV:Fault>\n"
+            + "<faultcode>SOAP-ENV:Client.00HSBE02</faultcode>\n"
+            + "<faultstring>" + escape(message) + "</faultstring>\n"
+            + "<faultactor>Mondrian</faultactor>\n"
+            + "<detail><XA:error xmlns:XA=\"http://mondrian.sourceforge.net\">"
+            + "<code>00HSBE02</code><desc>" + escape(message)
+            + "</desc></XA:error></detail>\n"
+            + "</SOAP-ENV:Fault>\n";
+    }
+
+    private static String envelope(String body) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<SOAP-ENV:Envelope"
+            + " xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+            + "<SOAP-ENV:Header/>\n<SOAP-ENV:Body>\n"
+            + body
+            + "</SOAP-ENV:Body>\n</SOAP-ENV:Envelope>\n";
+    }
+
+    private static Map<String, String> row(String... keyValues) {
+        final Map<String, String> row = new LinkedHashMap<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            if (keyValues[i + 1] != null) {
+                row.put(keyValues[i], keyValues[i + 1]);
+            }
+        }
+        return row;
+    }
+
+    private static Map<String, String> cubeRow(String... keyValues) {
+        final Map<String, String> row =
+            row("CATALOG_NAME", CATALOG, "SCHEMA_NAME", CATALOG,
+                "CUBE_NAME", CUBE);
+        row.putAll(row(keyValues));
+        return row;
+    }
+
+    private static Element first(Element element, String tagName) {
+        final NodeList nodes = element.getElementsByTagName(tagName);
+        return nodes.getLength() == 0 ? null : (Element) nodes.item(0);
+    }
+
+    private static String normalize(String mdx) {
+        return mdx.replaceAll("\\s+", " ").trim();
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;")
+            .replace(">", "&gt;");
+    }
+
+    /**
+     * Member of the test cube.
+     */
+    private static class TestMember {
+        final TestMember parent;
+        final String hierarchy;
+        final String name;
+        final String uniqueName;
+        final String level;
+        final int depth;
+        final int ordinal;
+        final int type;
+        final List<TestMember> children = new ArrayList<TestMember>();
+        private final int value;
+
+        private static final String[] STORE_LEVELS = {
+            "(All)", "Store Country", "Store State", "Store City"
+        };
+
+        TestMember(
+            TestMember parent,
+            String hierarchy,
+            String name,
+            int value,
+            int ordinal)
+        {
+            this.parent = parent;
+            this.hierarchy = hierarchy;
+            this.name = name;
+            this.value = value;
+            this.ordinal = ordinal;
+            this.uniqueName =
+                (parent == null || parent.parent == null
+                    ? hierarchy
+                    : parent.uniqueName)
+                + ".[" + name + "]";
+            if (hierarchy.equals("[Measures]")) {
+                depth = 0;
+                type = 3; // MEASURE
+                level = "[Measures].[MeasuresLevel]";
+            } else {
+                depth = parent == null ? 0 : parent.depth + 1;
+                type = parent == null ? 2 : 1; // ALL or REGULAR
+                level =
+                    hierarchy + ".["
+                    + (depth == 0
+                        ? "(All)"
+                        : hierarchy.equals("[Gender]")
+                        ? "Gender"
+                        : STORE_LEVELS[depth])
+                    + "]";
+            }
+            if (parent != null) {
+                parent.children.add(this);
+            }
+        }
+
+        int value() {
+            if (children.isEmpty()) {
+                return value;
+            }
+            int sum = 0;
+            for (TestMember child : children) {
+                sum += child.value();
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the value of a member property, as the server would
+         * return it in a <code>DIMENSION PROPERTIES</code> clause.
+         */
+        String property(String property) {
+            if (property.equals("MEMBER_NAME")) {
+                return name;
+            } else if (property.equals("MEMBER_TYPE")) {
+                return String.valueOf(type);
+            } else if (property.equals("PARENT_UNIQUE_NAME")) {
+                return parent == null ? "" : parent.uniqueName;
+            } else if (property.equals("CHILDREN_CARDINALITY")) {
+                return String.valueOf(children.size());
+            } else if (property.equals("MEMBER_ORDINAL")) {
+                return String.valueOf(ordinal);
+            } else if (property.equals("LEVEL_UNIQUE_NAME")) {
+                return level;
+            } else {
+                throw new IllegalArgumentException(property);
+            }
+        }
+
+        Map<String, String> toRow() {
+            return row(
+                "DIMENSION_UNIQUE_NAME", hierarchy,
+                "HIERARCHY_UNIQUE_NAME", hierarchy,
+                "LEVEL_UNIQUE_NAME", level,
+                "MEMBER_UNIQUE_NAME", uniqueName);
+        }
+    }
+}
+
+// End XmlaOlap4jTestServer.java
@@ -0,0 +1,395 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.cache;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Test for {@link XmlaOlap4jConcurrentMemoryCache}.
+ *
+ * @author agent
+ */
+public class XmlaConcurrentMemoryCacheTest extends TestCase {
+    private URL url;
+
+    protected void setUp() throws Exception {
+        url = new URL("http://example.com/xmla");
+    }
+
+    private XmlaOlap4jConcurrentMemoryCache create(
+        String mode, int size, int timeout)
+    {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(XmlaOlap4jNamedMemoryCache.Property.MODE.name(), mode);
+        props.put(
+            XmlaOlap4jNamedMemoryCache.Property.SIZE.name(),
+            String.valueOf(size));
+        props.put(
+            XmlaOlap4jNamedMemoryCache.Property.TIMEOUT.name(),
+            String.valueOf(timeout));
+        return new XmlaOlap4jConcurrentMemoryCache(props);
+    }
+
+    private void put(XmlaOlap4jConcurrentMemoryCache cache, String s) {
+        cache.put(url, s.getBytes(), ("response " + s).getBytes());
+    }
+
+    private boolean get(XmlaOlap4jConcurrentMemoryCache cache, String s) {
+        final byte[] bytes = cache.get(url, s.getBytes());
+        if (bytes == null) {
+            return false;
+        }
+        assertEquals("response " + s, new String(bytes));
+        return true;
+    }
+
+    /**
+     * Fills a cache of size 3 with a, b, c; reads a twice and b once;
+     * adds d; and returns which of a, b, c survived.
+     */
+    private String survivors(String mode) {
+        final XmlaOlap4jConcurrentMemoryCache cache = create(mode, 3, 60);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        assertTrue(get(cache, "a"));
+        assertTrue(get(cache, "a"));
+        assertTrue(get(cache, "b"));
+        put(cache, "d");
+        assertEquals(3, cache.size());
+        assertTrue(get(cache, "d"));
+        final StringBuilder buf = new StringBuilder();
+        for (String s : new String[] {"a", "b", "c"}) {
+            if (cache.get(url, s.getBytes()) != null) {
+                buf.append(s);
+            }
+        }
+        return buf.toString();
+    }
+
+    public void testEvictionModes() {
+        assertEquals("bc", survivors("FIFO"));
+        assertEquals("ab", survivors("LRU"));
+        assertEquals("ab", survivors("LFU"));
+        assertEquals("bc", survivors("MFU"));
+    }
+
+    /**
+     * Tests that LIFO evicts the most recently inserted entry.
+     */
+    public void testLifo() {
+        final XmlaOlap4jConcurrentMemoryCache cache = create("LIFO", 2, 60);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        assertTrue(get(cache, "a"));
+        assertFalse(get(cache, "b"));
+        assertTrue(get(cache, "c"));
+    }
+
+    /**
+     * Tests that replacing an entry does not grow the cache.
+     */
+    public void testReplace() {
+        final XmlaOlap4jConcurrentMemoryCache cache = create("LFU", 2, 60);
+        put(cache, "a");
+        put(cache, "a");
+        assertEquals(1, cache.size());
+        assertTrue(get(cache, "a"));
+    }
+
+    /**
+     * Tests that entries expire once they have not been accessed for the
+     * timeout.
+     */
+    public void testExpiry() throws InterruptedException {
+        final XmlaOlap4jConcurrentMemoryCache cache = create("LRU", 10, 1);
+        put(cache, "a");
+        put(cache, "b");
+        Thread.sleep(600);
+        assertTrue(get(cache, "a"));
+        Thread.sleep(600);
+        assertTrue(get(cache, "a"));
+        assertFalse(get(cache, "b"));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Tests that a large cache, which is split into segments, holds as
+     * many entries as its size.
+     */
+    public void testSegments() {
+        final XmlaOlap4jConcurrentMemoryCache cache =
+            create("LRU", 1000, 60);
+        for (int i = 0; i < 3000; i++) {
+            put(cache, "q" + i);
+        }
+        assertEquals(1000, cache.size());
+        int hits = 0;
+        for (int i = 2000; i < 3000; i++) {
+            if (get(cache, "q" + i)) {
+                ++hits;
+            }
+        }
+        // Segments evict independently, so the survivors are not exactly
+        // the last 1000, but most of them are.
+        assertTrue(String.valueOf(hits), hits > 900);
+    }
+
+    /**
+     * Tests a cache bounded by bytes rather than entries, with a limit on
+     * entry size, and its statistics.
+     */
+    public void testMaxBytes() {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(XmlaOlap4jNamedMemoryCache.Property.MODE.name(), "LRU");
+        props.put(XmlaOlap4jNamedMemoryCache.Property.MAXBYTES.name(), "1k");
+        props.put(
+            XmlaOlap4jNamedMemoryCache.Property.MAXENTRYBYTES.name(), "600");
+        final XmlaOlap4jConcurrentMemoryCache cache =
+            new XmlaOlap4jConcurrentMemoryCache(props);
+        final byte[] discover =
+            "<soap:Body><Discover xmlns=\"urn\">".getBytes();
+        final byte[] execute =
+            "<soap:Body><Execute xmlns=\"urn\">".getBytes();
+        final byte[] execute2 =
+            "<soap:Body><Execute xmlns=\"urn\">2".getBytes();
+
+        // Fits.
+        cache.put(url, discover, new byte[500]);
+        cache.put(url, execute, new byte[400]);
+        XmlaOlap4jNamedMemoryCache.Statistics stats = cache.getStatistics();
+        assertEquals(2, stats.getEntryCount());
+        assertEquals(900, stats.getWeight());
+
+        // Too large to cache.
+        cache.put(url, execute2, new byte[601]);
+        assertNull(cache.get(url, execute2));
+
+        // Evicts the least recently used entry, the Discover response.
+        assertNotNull(cache.get(url, execute));
+        cache.put(url, execute2, new byte[300]);
+        assertNull(cache.get(url, discover));
+
+        stats = cache.getStatistics();
+        assertEquals(2, stats.getEntryCount());
+        assertEquals(700, stats.getWeight());
+        final XmlaOlap4jNamedMemoryCache.RequestType d =
+            XmlaOlap4jNamedMemoryCache.RequestType.DISCOVER;
+        final XmlaOlap4jNamedMemoryCache.RequestType e =
+            XmlaOlap4jNamedMemoryCache.RequestType.EXECUTE;
+        assertEquals(0, stats.getHitCount(d));
+        assertEquals(1, stats.getMissCount(d));
+        assertEquals(1, stats.getEvictionCount(d));
+        assertEquals(0, stats.getRejectionCount(d));
+        assertEquals(1, stats.getHitCount(e));
+        assertEquals(1, stats.getMissCount(e));
+        assertEquals(0, stats.getEvictionCount(e));
+        assertEquals(1, stats.getRejectionCount(e));
+    }
+
+    /**
+     * Tests that in refresh-ahead mode, an expired entry is served while it
+     * is refreshed, that only a limited number of entries are refreshed at
+     * a time, and that an entry is not served once it is too stale.
+     */
+    public void testRefreshAhead() throws InterruptedException {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(XmlaOlap4jNamedMemoryCache.Property.TIMEOUT.name(), "1");
+        props.put(XmlaOlap4jNamedMemoryCache.Property.MAXSTALE.name(), "1");
+        props.put(
+            XmlaOlap4jNamedMemoryCache.Property.MAXREFRESHES.name(), "1");
+        final XmlaOlap4jConcurrentMemoryCache cache =
+            new XmlaOlap4jConcurrentMemoryCache(props);
+        final List<Runnable> refreshes = new ArrayList<Runnable>();
+        final XmlaOlap4jRefreshingCache.Refresher refresher =
+            new XmlaOlap4jRefreshingCache.Refresher() {
+                public void refresh(Runnable done) {
+                    refreshes.add(done);
+                }
+            };
+        put(cache, "a");
+        put(cache, "b");
+        assertNotNull(cache.get(url, "a".getBytes(), refresher));
+        assertEquals(0, refreshes.size());
+
+        // Both entries have expired. "a" is served and refreshed; "b" is
+        // served but not refreshed, because "a" is being refreshed.
+        Thread.sleep(1100);
+        assertNotNull(cache.get(url, "a".getBytes(), refresher));
+        assertNotNull(cache.get(url, "a".getBytes(), refresher));
+        assertNotNull(cache.get(url, "b".getBytes(), refresher));
+        assertEquals(1, refreshes.size());
+        put(cache, "a");
+        refreshes.get(0).run();
+        assertNotNull(cache.get(url, "a".getBytes(), refresher));
+        assertEquals(1, refreshes.size());
+
+        // "b" is now too stale to serve; the refreshed "a" is due again.
+        Thread.sleep(1200);
+        assertNull(cache.get(url, "b".getBytes(), refresher));
+        assertNotNull(cache.get(url, "a".getBytes(), refresher));
+        assertEquals(2, refreshes.size());
+        final XmlaOlap4jNamedMemoryCache.RequestType e =
+            XmlaOlap4jNamedMemoryCache.RequestType.EXECUTE;
+        assertEquals(2, cache.getStatistics().getRefreshCount(e));
+    }
+
+    /**
+     * Tests that keys with equal URL and request are equal, whatever their
+     * length, and that keys differing in one byte or in URL are not.
+     */
+    public void testKey() {
+        final String u = url.toExternalForm();
+        for (int length = 0; length < 40; length++) {
+            final byte[] request = new byte[length];
+            for (int i = 0; i < length; i++) {
+                request[i] = (byte) (i * 31 + length);
+            }
+            final XmlaOlap4jConcurrentMemoryCache.Key key =
+                new XmlaOlap4jConcurrentMemoryCache.Key(u, request);
+            assertEquals(
+                key,
+                new XmlaOlap4jConcurrentMemoryCache.Key(
+                    u, request.clone()));
+            assertFalse(
+                key.equals(
+                    new XmlaOlap4jConcurrentMemoryCache.Key(
+                        u + "/", request)));
+            for (int i = 0; i < length; i++) {
+                final byte[] request2 = request.clone();
+                request2[i] ^= 0x40;
+                final XmlaOlap4jConcurrentMemoryCache.Key key2 =
+                    new XmlaOlap4jConcurrentMemoryCache.Key(u, request2);
+                assertFalse(key.equals(key2));
+                assertFalse(key.hash1 == key2.hash1);
+            }
+        }
+    }
+
+    /**
+     * Tests that a cache hit returns the cached response without copying
+     * it, including for non-ASCII responses.
+     */
+    public void testSharedResponse() throws Exception {
+        final XmlaOlap4jConcurrentMemoryCache cache = create("LRU", 10, 60);
+        final byte[] response = "r\u00e9ponse \u20ac".getBytes("UTF-8");
+        cache.put(url, "a".getBytes(), response);
+        assertSame(response, cache.get(url, "a".getBytes()));
+    }
+
+    /**
+     * Tests that large responses are stored compressed, and that small
+     * responses are stored, and returned, as they are.
+     */
+    public void testCompress() throws Exception {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(XmlaOlap4jNamedMemoryCache.Property.COMPRESS.name(), "true");
+        props.put(
+            XmlaOlap4jNamedMemoryCache.Property.COMPRESSTHRESHOLD.name(),
+            "1k");
+        final XmlaOlap4jConcurrentMemoryCache cache =
+            new XmlaOlap4jConcurrentMemoryCache(props);
+        final StringBuilder buf = new StringBuilder("<root>");
+        for (int i = 0; i < 1000; i++) {
+            buf.append("<row><Member>[Store].[USA].[CA].[Store ")
+                .append(i % 24)
+                .append("]</Member><Value>")
+                .append(i)
+                .append("</Value></row>");
+        }
+        buf.append("</root>");
+        final byte[] large = buf.toString().getBytes("UTF-8");
+        cache.put(url, "a".getBytes(), large);
+        final long weight = cache.getStatistics().getWeight();
+        assertTrue(weight * 5 < large.length);
+        assertTrue(Arrays.equals(large, cache.get(url, "a".getBytes())));
+        final InputStream stream =
+            cache.getStream(url, "a".getBytes(), null);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] bytes = new byte[1000];
+        for (int n; (n = stream.read(bytes)) >= 0;) {
+            out.write(bytes, 0, n);
+        }
+        stream.close();
+        assertTrue(Arrays.equals(large, out.toByteArray()));
+
+        final byte[] small = "<root/>".getBytes("UTF-8");
+        cache.put(url, "b".getBytes(), small);
+        assertEquals(
+            weight + small.length, cache.getStatistics().getWeight());
+        assertSame(small, cache.get(url, "b".getBytes()));
+        assertNull(cache.getStream(url, "c".getBytes(), null));
+    }
+
+    /**
+     * Tests that requests which differ only in formatting share an entry,
+     * unless canonicalization is disabled.
+     */
+    public void testCanonicalize() {
+        final String request1 =
+            "<SOAP-ENV:Envelope xmlns:SOAP-ENV="
+            + "\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+            + "  <SOAP-ENV:Body>\n"
+            + "    <Execute xmlns=\"urn:schemas-microsoft-com:xml-analysis\">"
+            + "<Command><Statement>select [Measures].[Unit Sales] "
+            + "ON COLUMNS from [Sales]</Statement></Command></Execute>\n"
+            + "  </SOAP-ENV:Body>\n"
+            + "</SOAP-ENV:Envelope>";
+        final String request2 =
+            "<soap:Envelope xmlns:soap="
+            + "\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>"
+            + "<Execute xmlns=\"urn:schemas-microsoft-com:xml-analysis\">"
+            + "<Command><Statement>SELECT [Measures].[Unit Sales] ON 0 "
+            + "FROM [Sales]</Statement></Command></Execute>"
+            + "</soap:Body></soap:Envelope>";
+        final XmlaOlap4jConcurrentMemoryCache cache = create("LRU", 10, 60);
+        cache.put(url, request1.getBytes(), "response".getBytes());
+        assertNotNull(cache.get(url, request2.getBytes()));
+
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(
+            XmlaOlap4jNamedMemoryCache.Property.CANONICALIZE.name(), "false");
+        final XmlaOlap4jConcurrentMemoryCache cache2 =
+            new XmlaOlap4jConcurrentMemoryCache(props);
+        cache2.put(url, request1.getBytes(), "response".getBytes());
+        assertNotNull(cache2.get(url, request1.getBytes()));
+        assertNull(cache2.get(url, request2.getBytes()));
+    }
+
+    public void testRequestType() {
+        assertEquals(
+            XmlaOlap4jNamedMemoryCache.RequestType.DISCOVER,
+            XmlaOlap4jNamedMemoryCache.RequestType.of(
+                "<x:Discover>\n<Execute>".getBytes()));
+        assertEquals(
+            XmlaOlap4jNamedMemoryCache.RequestType.EXECUTE,
+            XmlaOlap4jNamedMemoryCache.RequestType.of(
+                "<Body>\n<Execute\n".getBytes()));
+        assertEquals(
+            XmlaOlap4jNamedMemoryCache.RequestType.EXECUTE,
+            XmlaOlap4jNamedMemoryCache.RequestType.of(
+                "<Discovered>".getBytes()));
+    }
+}
+
+// End XmlaConcurrentMemoryCacheTest.java
@@ -0,0 +1,166 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.cache;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test for {@link XmlaOlap4jDiskCache}.
+ *
+ * @author agent
+ */
+public class XmlaDiskCacheTest extends TestCase {
+    private File directory;
+    private URL url;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("olap4j-disk-cache", "");
+        assertTrue(directory.delete());
+        url = new URL("http://example.com/xmla");
+    }
+
+    protected void tearDown() throws Exception {
+        XmlaOlap4jDiskCache.close(directory);
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private XmlaOlap4jDiskCache open(String maxBytes, String segmentBytes) {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(
+            XmlaOlap4jDiskCache.Property.DIRECTORY.name(),
+            directory.getPath());
+        props.put(XmlaOlap4jDiskCache.Property.MAXBYTES.name(), maxBytes);
+        props.put(
+            XmlaOlap4jDiskCache.Property.SEGMENTBYTES.name(), segmentBytes);
+        final XmlaOlap4jDiskCache cache = new XmlaOlap4jDiskCache();
+        cache.setParameters(new HashMap<String, String>(), props);
+        return cache;
+    }
+
+    private static byte[] response(String request, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (request.hashCode() + i);
+        }
+        return bytes;
+    }
+
+    private void put(XmlaOlap4jDiskCache cache, String request, int length)
+        throws Exception
+    {
+        cache.put("x", url, request.getBytes(), response(request, length));
+    }
+
+    private boolean get(XmlaOlap4jDiskCache cache, String request, int length)
+        throws Exception
+    {
+        final byte[] bytes = cache.get("x", url, request.getBytes());
+        if (bytes == null) {
+            return false;
+        }
+        assertTrue(Arrays.equals(response(request, length), bytes));
+        return true;
+    }
+
+    /**
+     * Tests that entries survive closing and re-opening the cache, and that
+     * a record that was not completely written is ignored.
+     */
+    public void testRestart() throws Exception {
+        XmlaOlap4jDiskCache cache = open("1M", "64K");
+        put(cache, "a", 1000);
+        put(cache, "b", 2000);
+        put(cache, "a", 3000);
+        assertTrue(get(cache, "a", 3000));
+        assertEquals(2, cache.size());
+
+        XmlaOlap4jDiskCache.close(directory);
+        cache = open("1M", "64K");
+        assertEquals(2, cache.size());
+        assertTrue(get(cache, "a", 3000));
+        assertTrue(get(cache, "b", 2000));
+        assertFalse(get(cache, "c", 1));
+
+        // Corrupt the last byte of the last record, as if the machine
+        // crashed before it reached the disk.
+        put(cache, "c", 100);
+        XmlaOlap4jDiskCache.close(directory);
+        final File[] files = directory.listFiles();
+        File segment = null;
+        for (File file : files) {
+            if (file.getName().startsWith("segment-")) {
+                segment = file;
+            }
+        }
+        final RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        final int end = 3 * 40 + 1000 + 2000 + 3000 + 40 + 100;
+        raf.seek(end - 1);
+        final int b = raf.read();
+        raf.seek(end - 1);
+        raf.write(b + 1);
+        raf.close();
+
+        cache = open("1M", "64K");
+        assertFalse(get(cache, "c", 100));
+        assertTrue(get(cache, "b", 2000));
+        put(cache, "d", 10);
+        assertTrue(get(cache, "d", 10));
+    }
+
+    /**
+     * Tests that the cache stays within its size, and that compaction
+     * keeps entries that have been read.
+     */
+    public void testCompaction() throws Exception {
+        final XmlaOlap4jDiskCache cache = open("40K", "10K");
+        put(cache, "hot", 1000);
+        for (int i = 0; i < 100; i++) {
+            put(cache, "cold" + i, 1000);
+            assertTrue(get(cache, "hot", 1000));
+        }
+        assertTrue(get(cache, "hot", 1000));
+        assertFalse(get(cache, "cold0", 1000));
+        assertTrue(get(cache, "cold99", 1000));
+        int segments = 0;
+        for (File file : directory.listFiles()) {
+            if (file.getName().startsWith("segment-")) {
+                ++segments;
+            }
+        }
+        assertTrue(String.valueOf(segments), segments <= 4);
+
+        // Too large for a segment; not cached.
+        put(cache, "huge", 20000);
+        assertFalse(get(cache, "huge", 20000));
+    }
+}
+
+// End XmlaDiskCacheTest.java
@@ -0,0 +1,180 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.cache;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link XmlaOlap4jRequestCanonicalizer}.
+ *
+ * @author agent
+ */
+public class XmlaRequestCanonicalizerTest extends TestCase {
+    private static final String DISCOVER =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<SOAP-ENV:Envelope\n"
+        + "    xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"\n"
+        + "    SOAP-ENV:encodingStyle="
+        + "\"http://schemas.xmlsoap.org/soap/encoding/\">\n"
+        + "  <SOAP-ENV:Body>\n"
+        + "    <Discover xmlns=\"urn:schemas-microsoft-com:xml-analysis\">\n"
+        + "    <RequestType>MDSCHEMA_MEMBERS</RequestType>\n"
+        + "    <Restrictions>\n"
+        + "      <RestrictionList>\n"
+        + "<CATALOG_NAME>FoodMart</CATALOG_NAME>"
+        + "<LEVEL_UNIQUE_NAME>[Store].[Store City]</LEVEL_UNIQUE_NAME>\n"
+        + "      </RestrictionList>\n"
+        + "    </Restrictions>\n"
+        + "    <Properties>\n"
+        + "      <PropertyList>\n"
+        + "        <Roles>Manager</Roles>\n"
+        + "        <Catalog>FoodMart</Catalog>\n"
+        + "<LocaleIdentifier>1033</LocaleIdentifier>"
+        + "        <Content>Data</Content>\n"
+        + "      </PropertyList>\n"
+        + "    </Properties>\n"
+        + "  </Discover>\n"
+        + "</SOAP-ENV:Body>\n"
+        + "</SOAP-ENV:Envelope>";
+
+    /** Same as {@link #DISCOVER}, but with different prefixes, spacing and
+     * order of restrictions and properties. */
+    private static final String DISCOVER2 =
+        "<soap:Envelope "
+        + "xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+        + "<soap:Body>"
+        + "<Discover xmlns=\"urn:schemas-microsoft-com:xml-analysis\">"
+        + "<RequestType>MDSCHEMA_MEMBERS</RequestType><Restrictions>"
+        + "<RestrictionList>"
+        + "<LEVEL_UNIQUE_NAME>[Store].[Store City]</LEVEL_UNIQUE_NAME>"
+        + "<CATALOG_NAME>FoodMart</CATALOG_NAME>"
+        + "</RestrictionList></Restrictions><Properties><PropertyList>"
+        + "<LocaleIdentifier>1033</LocaleIdentifier>"
+        + "<Catalog>FoodMart</Catalog><Content>Data</Content>"
+        + "<Roles>Manager</Roles>"
+        + "</PropertyList></Properties></Discover></soap:Body></soap:Envelope>";
+
+    public void testDiscover() {
+        final String canonical =
+            XmlaOlap4jRequestCanonicalizer.canonicalize(DISCOVER);
+        assertEquals(
+            canonical,
+            XmlaOlap4jRequestCanonicalizer.canonicalize(DISCOVER2));
+        assertTrue(canonical, canonical.startsWith("<request><Envelope>"));
+
+        // Different restriction value, different key.
+        assertFalse(
+            canonical.equals(
+                XmlaOlap4jRequestCanonicalizer.canonicalize(
+                    DISCOVER.replace("[Store City]", "[Store State]"))));
+
+        // Different role, different key.
+        assertFalse(
+            canonical.equals(
+                XmlaOlap4jRequestCanonicalizer.canonicalize(
+                    DISCOVER.replace("Manager", "Clerk"))));
+    }
+
+    public void testExecute() {
+        final String canonical =
+            XmlaOlap4jRequestCanonicalizer.canonicalize(
+                execute(
+                    "SELECT {[Measures].[Unit Sales]} ON COLUMNS,\n"
+                    + "  [Store].Children ON ROWS\n"
+                    + "FROM [Sales]"));
+        assertEquals(
+            canonical,
+            XmlaOlap4jRequestCanonicalizer.canonicalize(
+                execute(
+                    "select {[Measures].[Unit Sales]} on 0, "
+                    + "/* stores */ [Store].Children on 1 from [Sales]")));
+        assertFalse(
+            canonical.equals(
+                XmlaOlap4jRequestCanonicalizer.canonicalize(
+                    execute(
+                        "SELECT {[Measures].[Store Sales]} ON COLUMNS,\n"
+                        + "  [Store].Children ON ROWS\n"
+                        + "FROM [Sales]"))));
+
+        // Statements that cannot be parsed are left as they are, because
+        // whitespace may be significant.
+        assertEquals(
+            XmlaOlap4jRequestCanonicalizer.canonicalize(
+                execute("DRILLTHROUGH  SELECT FROM [Sales]")),
+            XmlaOlap4jRequestCanonicalizer.canonicalize(
+                execute("DRILLTHROUGH  SELECT FROM [Sales]")));
+        assertFalse(
+            XmlaOlap4jRequestCanonicalizer.canonicalize(
+                execute("DRILLTHROUGH  SELECT FROM [Sales]")).equals(
+                    XmlaOlap4jRequestCanonicalizer.canonicalize(
+                        execute("\nDRILLTHROUGH SELECT\nFROM [Sales]"))));
+        final String mdx = "CALL Foo('a  b')";
+        assertEquals(mdx, XmlaOlap4jRequestCanonicalizer.canonicalizeMdx(mdx));
+
+        // Quoting of identifiers is preserved.
+        assertFalse(
+            XmlaOlap4jRequestCanonicalizer.canonicalizeMdx(
+                "SELECT FROM [Sales]").equals(
+                    XmlaOlap4jRequestCanonicalizer.canonicalizeMdx(
+                        "SELECT FROM Sales")));
+    }
+
+    public void testBytes() throws Exception {
+        final XmlaOlap4jRequestCanonicalizer canonicalizer =
+            new XmlaOlap4jRequestCanonicalizer();
+        final byte[] canonical =
+            canonicalizer.canonicalize(DISCOVER.getBytes("UTF-8"));
+        assertEquals(
+            XmlaOlap4jRequestCanonicalizer.canonicalize(DISCOVER),
+            new String(canonical, "UTF-8"));
+
+        // Second time, the canonical form is remembered.
+        assertSame(
+            canonical, canonicalizer.canonicalize(DISCOVER.getBytes("UTF-8")));
+
+        // A request that is not valid XML is its own canonical form.
+        final byte[] request = "<Discover>".getBytes("UTF-8");
+        assertSame(request, canonicalizer.canonicalize(request));
+    }
+
+    private static String execute(String mdx) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<soapenv:Envelope\n"
+            + "    xmlns:soapenv="
+            + "\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+            + "    <soapenv:Body>\n"
+            + "        <Execute "
+            + "xmlns=\"urn:schemas-microsoft-com:xml-analysis\">\n"
+            + "        <Command>\n"
+            + "        <Statement>\n"
+            + "           <![CDATA[\n" + mdx + "]]>\n"
+            + "         </Statement>\n"
+            + "        </Command>\n"
+            + "        <Properties>\n"
+            + "          <PropertyList>\n"
+            + "            <Catalog>FoodMart</Catalog>\n"
+            + "            <Format>Multidimensional</Format>\n"
+            + "          </PropertyList>\n"
+            + "        </Properties>\n"
+            + "</Execute>\n"
+            + "</soapenv:Body>\n"
+            + "</soapenv:Envelope>";
+    }
+}
+
+// End XmlaRequestCanonicalizerTest.java
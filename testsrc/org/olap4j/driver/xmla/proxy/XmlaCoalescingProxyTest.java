@@ -0,0 +1,223 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.proxy;
+
+import org.olap4j.driver.xmla.XmlaOlap4jServerInfos;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.net.URL;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for the coalescing of identical in-flight requests by
+ * {@link XmlaOlap4jAbstractHttpProxy}.
+ *
+ * @author agent
+ */
+public class XmlaCoalescingProxyTest extends TestCase {
+    private final StubProxy proxy = new StubProxy();
+
+    protected void tearDown() throws Exception {
+        proxy.respond.countDown();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that concurrent identical requests are sent once, and share
+     * one response buffer.
+     */
+    public void testCoalesce() throws Exception {
+        final String request = "<Discover>testCoalesce</Discover>";
+        final Future<byte[]> f1 = proxy.submit(proxy.serverInfos, request);
+        assertTrue(proxy.started.await(10, TimeUnit.SECONDS));
+        final Future<byte[]> f2 = proxy.submit(proxy.serverInfos, request);
+        final Future<InputStream> f3 =
+            proxy.submitStream(proxy.serverInfos, request);
+        proxy.respond.countDown();
+        final byte[] bytes = f1.get();
+        assertEquals("response to " + request, new String(bytes, "UTF-8"));
+        assertSame(bytes, f2.get());
+        assertEquals(
+            "response to " + request,
+            new String(
+                XmlaOlap4jAbstractHttpProxy.readFully(f3.get(), -1),
+                "UTF-8"));
+        assertEquals(1, proxy.callCount.get());
+
+        // The request has completed, so the next one goes to the server.
+        proxy.get(proxy.serverInfos, request);
+        assertEquals(2, proxy.callCount.get());
+
+        // Different request text, different round trip.
+        proxy.get(proxy.serverInfos, request + " ");
+        assertEquals(3, proxy.callCount.get());
+    }
+
+    /**
+     * Tests that a caller who cancels does not abort the request for other
+     * callers, and that the request is aborted when every caller cancels.
+     */
+    public void testCancel() throws Exception {
+        final String request = "<Discover>testCancel</Discover>";
+        final Future<byte[]> f1 = proxy.submit(proxy.serverInfos, request);
+        assertTrue(proxy.started.await(10, TimeUnit.SECONDS));
+        final Future<byte[]> f2 = proxy.submit(proxy.serverInfos, request);
+        assertTrue(f1.cancel(true));
+        assertTrue(f1.isCancelled());
+        assertFalse(f2.isDone());
+        assertFalse(proxy.interrupted.await(100, TimeUnit.MILLISECONDS));
+        proxy.respond.countDown();
+        assertEquals(
+            "response to " + request, new String(f2.get(), "UTF-8"));
+        try {
+            f1.get();
+            fail("expected cancellation");
+        } catch (CancellationException e) {
+            // ok
+        }
+        assertEquals(1, proxy.callCount.get());
+
+        final StubProxy proxy2 = new StubProxy();
+        final Future<byte[]> f3 = proxy2.submit(proxy2.serverInfos, request);
+        assertTrue(proxy2.started.await(10, TimeUnit.SECONDS));
+        final Future<InputStream> f4 =
+            proxy2.submitStream(proxy2.serverInfos, request);
+        assertTrue(f3.cancel(true));
+        assertTrue(f4.cancel(true));
+        assertTrue(proxy2.interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that a request with only one caller hands that caller the
+     * response stream rather than a copy of the response.
+     */
+    public void testSingleCallerStream() throws Exception {
+        final String request = "<Discover>testSingleCallerStream</Discover>";
+        proxy.respond.countDown();
+        final InputStream stream = proxy.getStream(proxy.serverInfos, request);
+        assertSame(proxy.lastStream, stream);
+        stream.close();
+    }
+
+    /**
+     * Tests that coalescing can be switched off.
+     */
+    public void testNoCoalesce() throws Exception {
+        final String request = "<Discover>testNoCoalesce</Discover>";
+        proxy.setCoalescing(false);
+        final Future<InputStream> f1 =
+            proxy.submitStream(proxy.serverInfos, request);
+        assertTrue(proxy.started.await(10, TimeUnit.SECONDS));
+        final Future<InputStream> f2 =
+            proxy.submitStream(proxy.serverInfos, request);
+        proxy.respond.countDown();
+        f1.get().close();
+        f2.get().close();
+        assertEquals(2, proxy.callCount.get());
+    }
+
+    /**
+     * Proxy whose responses are held back until {@link #respond} is
+     * released.
+     */
+    private static class StubProxy extends XmlaOlap4jAbstractHttpProxy {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch respond = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger callCount = new AtomicInteger();
+        volatile InputStream lastStream;
+
+        final XmlaOlap4jServerInfos serverInfos =
+            new XmlaOlap4jServerInfos() {
+                public URL getUrl() {
+                    try {
+                        return new URL("http://localhost:8080/xmla");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                public String getUsername() {
+                    return null;
+                }
+
+                public String getPassword() {
+                    return null;
+                }
+
+                public String getSessionId() {
+                    return null;
+                }
+
+                public void setSessionId(String sessionId) {
+                }
+            };
+
+        protected InputStream getResponseStream(
+            XmlaOlap4jServerInfos serverInfos,
+            String request)
+            throws XmlaOlap4jProxyException
+        {
+            callCount.incrementAndGet();
+            started.countDown();
+            try {
+                respond.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new XmlaOlap4jProxyException("interrupted", e);
+            }
+            try {
+                final InputStream stream =
+                    new ByteArrayInputStream(
+                        ("response to " + request).getBytes("UTF-8"));
+                lastStream = stream;
+                return stream;
+            } catch (UnsupportedEncodingException e) {
+                throw new XmlaOlap4jProxyException("encoding", e);
+            }
+        }
+
+        public byte[] getResponse(
+            XmlaOlap4jServerInfos serverInfos,
+            String request)
+            throws XmlaOlap4jProxyException
+        {
+            try {
+                return readFully(getResponseStream(serverInfos, request), -1);
+            } catch (IOException e) {
+                throw new XmlaOlap4jProxyException("read", e);
+            }
+        }
+
+        public Future<byte[]> getResponseViaSubmit(
+            XmlaOlap4jServerInfos serverInfos,
+            String request)
+        {
+            return getExecutor().submit(this, serverInfos, request);
+        }
+
+        public String getEncodingCharsetName() {
+            return "UTF-8";
+        }
+    }
+}
+
+// End XmlaCoalescingProxyTest.java
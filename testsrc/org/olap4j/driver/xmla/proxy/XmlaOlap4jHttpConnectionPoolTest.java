@@ -0,0 +1,755 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.olap4j.driver.xmla.proxy;
+
+import org.olap4j.OlapException;
+import org.olap4j.driver.xmla.XmlaOlap4jDriver;
+import org.olap4j.driver.xmla.XmlaOlap4jServerInfos;
+import org.olap4j.impl.Base64;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.net.*;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import javax.net.ssl.*;
+
+/**
+ * Unit test for {@link XmlaOlap4jHttpConnectionPool}, and for
+ * {@link XmlaOlap4jHttpProxy} with <code>Transport=POOLED</code>.
+ *
+ * <p>Talks to a stand-in XMLA server on a local socket.
+ *
+ * @author agent
+ */
+public class XmlaOlap4jHttpConnectionPoolTest extends TestCase {
+    private static final String REQUEST =
+        "<Discover xmlns=\"urn:schemas-microsoft-com:xml-analysis\">"
+        + "<RequestType>DISCOVER_DATASOURCES</RequestType></Discover>";
+
+    /**
+     * Java key store, password "olap4j", holding a self-signed certificate
+     * for "localhost", and its private key. Created by
+     *
+     * <blockquote><code>keytool -genkeypair -alias localhost -keyalg RSA
+     * -keysize 2048 -sigalg SHA256withRSA -validity 36500 -dname CN=localhost
+     * -ext SAN=dns:localhost -storetype JKS -keystore localhost.jks
+     * -storepass olap4j -keypass olap4j</code></blockquote>
+     *
+     * <p>then encoded in base 64.
+     */
+    private static final String KEY_STORE =
+        "/u3+7QAAAAIAAAABAAAAAQAJbG9jYWxob3N0AAABoUl1uykAAAUBMIIE/TAOBgor"
+        + "BgEEASoCEQEBBQAEggTp4fY+NGcXhG8BHWlMiLxlT/LLk87Lt1JyKpnkBkDZOQka"
+        + "c5ZfVq8MMXUhmDpNtUqiIC8PfO7e2e8qyQbN0hdWI75pEpCkC7BxAFSJitzwL7nC"
+        + "mY6tvv2i8DsARw+znwfOeqDEaIxLy4xN4HhVz9YYegXcpGNrslBKhDsQ2agU+l4R"
+        + "DtgoDRBpOeKXaCch+a7VXrn7xD3VN689MDIf9aL6YUgEtI4NlZk4oAfKZcJkor33"
+        + "yI+73kLV4rskUBP4u9gCxpmLuVU5p+wmx6VL5ueHTQ7ZvPAM+0aPIoowZR3I+7Sa"
+        + "ax8giKU4tBT2lnUvCyfIT/Pi91bKoFmkTdwCHbPfFhVMQd75CWFAuy7DZJwT1ZQI"
+        + "PRZKj5l568XsvbLIsrNLa2jRVEbnLeysUYu6pEVk+XL4oaAl4ALqgQfgHjdYPILU"
+        + "ZYWjEGjpAorLDREqkOn3lGW8ar33qmDY0C6jvoLinnVS0ZT67YVc3k5pAy9To/KV"
+        + "3QaxzhYRfhcSxbQohF4rAfpVx7whlUCF1Bq2wI0pBfI7S1Rb1542LV13AZG0N8DX"
+        + "TkIHS/cbvt/aATaXsmBfMLGVqFq7qqzxAC2ewVrxkIUNYB9Q8dLDOo1pO5JmBMu7"
+        + "74lmDZsfXug2+HmdN86GB+ARiBy+yzRyZaSvV/j+z29YZ1rERrIRDnpdoKGMy26Q"
+        + "c6ykhcgy1wGPi8xPevpUVPFFzkIRHKo8xnAWKQup0nJOEnHQp7JudTEUHwfB0Wsy"
+        + "Rujh6wBHAAxhawlAe/4WKFIGQL/PiZrCXqJ8Rv1DDZzJDCDvJR1oTkxu6jS33Ma7"
+        + "qADu9G9t+WG/7gw0YaavKkRocreTENz4hrFUXNLC1a6C/XONw9BEICbl7/s9RJWS"
+        + "nwOE8rtcdqMa+OFkTQ5IfmkytkckmeIdAhIpYSU9dAqvD73kFw3/aK0HPlYcm+sN"
+        + "bVQIlOww5v3NK73aYigqIgruQG3VRZLJID2FFGh1LinsqHC0EryV4/wmLY4SayxW"
+        + "oZ/lUZTrE3ZMlbdXsSLKdL722/WvTumq1TuobcsltCkwp46O6YufG+pePATnzODQ"
+        + "/KhdbRR3EkjbsNuHBZrqkQpm1Q/X+WATAswCbxsYUzuVtOQ4u7PaEJeA/O69QS2X"
+        + "BPZleAG7cHBAoiTYPIRfdEBDGn8dwR9NvhtxK3KHCuyOQn0ESiKhJPgVH5cbLbsB"
+        + "Uu0Ubmc7y4UIlvBGKJjc/9Ydfst10HjTBPUm2eAjFDfRgjBQHKfE4cpAB1abIoFh"
+        + "pNRUSkNhliEPgo0oO2X9W0kg6Xx7POBlJvN5JR6rAmPAl6NNdJVWTy00omB3uoUB"
+        + "ba0UUzvnOPvXGCIF7oMCMMJJHAD6Ca/60HLQas5cxoe+AvsdXgNjEqbdkey6Cunb"
+        + "aQeM3xJWGprd7ljiZM4yYHiiQuIwLg7qiRsus05dfxEX+48g/usbDx+OWwuhtVfj"
+        + "Y8NqP2AAUJym6pIjsqKwgPAeszK2PuL5EWx0aQKJ1Q2TfY+yTrAjXAR993Mipfhe"
+        + "p4udFQMULqAQ9MBiczz1RoEJT5vVtD7DFS3Sg9fFD1daw8Is8dqBntXJ+alJ3ZXs"
+        + "5qeILHqKVFbi+tjlwS/vFFBa8hjg3B9FQcouCiktWykED2S8+XFS3EM4meUUvK4g"
+        + "WHmO7tMHK9vZ71RUAYYmELodIDaRKhDGAAAAAQAFWC41MDkAAALnMIIC4zCCAcug"
+        + "AwIBAgIIMcL+Z8/+wPMwDQYJKoZIhvcNAQELBQAwFDESMBAGA1UEAxMJbG9jYWxo"
+        + "b3N0MCAXDTI2MTAxNzEwNDMzNFoYDzIxMjYwOTIzMTA0MzM0WjAUMRIwEAYDVQQD"
+        + "Ewlsb2NhbGhvc3QwggEiMA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIBAQDG2pRe"
+        + "vPyzcmdvoMNs3ZX/jYUplSGhF5YoiSTF5E5m/bpnkLIrvAHhuVVmZk1sg2GGCoss"
+        + "1UPGdPuuO0kRXl2zLyY78NrGFfJtnwcGnxUwtP+haV11Pj2VxfNLq1yN90mKCLf3"
+        + "xbH3BtZ2IZKeU4QZyS3DSMDSoDwmg9NfUDbO7Jk2T1CPQVZeqT302xr/OgSbL5oT"
+        + "B29+ro3nZYkpWw2b2ZjSnXu9/dXdxkRAbCLXLViKVuSCOd+tHj/CFZUpeU9/Dhwr"
+        + "MSTLRM6n0YH2iIsPnq2F1YsEIAgPr1ktyhcsJd5CGgAscEAlxJ4wKvoM/bclttq3"
+        + "YVKfmc9qmkRltGr5AgMBAAGjNzA1MB0GA1UdDgQWBBQVuuXaY69hiXzH5JZrld4X"
+        + "ARu75DAUBgNVHREEDTALgglsb2NhbGhvc3QwDQYJKoZIhvcNAQELBQADggEBAGrq"
+        + "BYuskFkzgP9xbppqSbkQgWfEfyjx9SoDyaL1rlQyEBwXWSgtAn1tEpx+x7OESbej"
+        + "KfhJ9SziKyypOOyyxWitbuVqeEEzG3scJG1XwoPEwfSRvmlTonp2yKRl7sfDb7qR"
+        + "EEEfPV1KS/IAoeZf9m71vA1aPykVMRAAV+D2SqlGG3m4FMCNti8TJaFApW1WwEEI"
+        + "+tYzPuQ3+KAfBOlYYTLlZifwCUH4bk+NonXgYDVj6WS1jI1kIIedRA3+gG1beY8h"
+        + "mEFKf2oZD0g6uiMc0huQt+uQjVrLzX31+F9pB5vIDo3dScWktOUwsOAyTuh63Wm0"
+        + "D3ujGUoeJp0Lb01YT+bSLbaNfw97t195Hk5k6Rn8ty73Aw==";
+
+    private final XmlaOlap4jDriver dummyDriver = new XmlaOlap4jDriver() {};
+
+    private StandInServer server;
+
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Tests that sequential requests re-use one connection.
+     */
+    public void testKeepAlive() throws Exception {
+        server = new StandInServer(StandInServer.Mode.LENGTH, 0);
+        final XmlaOlap4jHttpProxy proxy = createProxy("POOLED", 4);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(
+                server.response,
+                new String(
+                    proxy.getResponse(server.serverInfos(), REQUEST),
+                    "UTF-8"));
+        }
+        assertEquals(1, server.connectionCount.get());
+        assertEquals(10, server.requestCount.get());
+    }
+
+    /**
+     * Tests chunked and gzip-encoded responses.
+     */
+    public void testChunkedGzip() throws Exception {
+        for (StandInServer.Mode mode
+            : new StandInServer.Mode[] {
+                StandInServer.Mode.CHUNKED, StandInServer.Mode.GZIP})
+        {
+            server = new StandInServer(mode, 0);
+            final XmlaOlap4jHttpProxy proxy = createProxy("POOLED", 4);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(
+                    server.response,
+                    new String(
+                        proxy.getResponse(server.serverInfos(), REQUEST),
+                        "UTF-8"));
+            }
+            assertEquals(1, server.connectionCount.get());
+            server.close();
+            server = null;
+        }
+    }
+
+    /**
+     * Tests that if the server closes an idle connection, the pool
+     * retries the request on a new connection.
+     */
+    public void testStaleConnection() throws Exception {
+        server = new StandInServer(StandInServer.Mode.CLOSE_SILENTLY, 0);
+        final XmlaOlap4jHttpProxy proxy = createProxy("POOLED", 4);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(
+                server.response,
+                new String(
+                    proxy.getResponse(server.serverInfos(), REQUEST),
+                    "UTF-8"));
+        }
+        assertEquals(5, server.connectionCount.get());
+    }
+
+    /**
+     * Tests that with <code>IdleTimeout=0</code> each connection is closed
+     * when it is returned, and each request opens a new one.
+     */
+    public void testIdleTimeoutZero() throws Exception {
+        server = new StandInServer(StandInServer.Mode.LENGTH, 0);
+        final Map<String, String> map = new HashMap<String, String>();
+        map.put(XmlaOlap4jDriver.Property.IDLETIMEOUT.name(), "0");
+        final XmlaOlap4jHttpProxy proxy = createProxy("POOLED", 4, map);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(
+                server.response,
+                new String(
+                    proxy.getResponse(server.serverInfos(), REQUEST),
+                    "UTF-8"));
+        }
+        final InputStream stream =
+            proxy.getResponseStream(server.serverInfos(), REQUEST);
+        assertEquals(server.response, read(stream));
+        stream.close();
+        assertEquals(4, server.connectionCount.get());
+        assertEquals(4, server.requestCount.get());
+    }
+
+    /**
+     * Tests that closing a response stream from another thread makes a read
+     * that is blocked on a stalled server fail promptly. A statement's
+     * query timeout and {@code cancel} rely on this.
+     */
+    public void testCloseUnblocksRead() throws Exception {
+        server = new StandInServer(StandInServer.Mode.STALL, 0);
+        final XmlaOlap4jHttpProxy proxy = createProxy("POOLED", 1);
+        final InputStream stream =
+            proxy.getResponseStream(server.serverInfos(), REQUEST);
+        final Timer timer = new Timer(true);
+        timer.schedule(
+            new TimerTask() {
+                public void run() {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            },
+            200);
+        final long start = System.currentTimeMillis();
+        try {
+            read(stream);
+            fail("expected exception");
+        } catch (IOException e) {
+            // ok
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        timer.cancel();
+
+        // The connection was discarded, and its permit released, so a
+        // second request can proceed.
+        final InputStream stream2 =
+            proxy.getResponseStream(server.serverInfos(), REQUEST);
+        assertEquals('<', stream2.read());
+        stream2.close();
+        assertEquals(2, server.connectionCount.get());
+    }
+
+    /**
+     * Tests that the pool opens no more than MaxConnections connections.
+     */
+    public void testMaxConnections() throws Exception {
+        server = new StandInServer(StandInServer.Mode.LENGTH, 5);
+        final XmlaOlap4jHttpProxy proxy = createProxy("POOLED", 2);
+        final double seconds = run(proxy, 8, 5);
+        assertTrue(seconds > 0);
+        assertEquals(40, server.requestCount.get());
+        assertTrue(server.connectionCount.get() <= 2);
+    }
+
+    /**
+     * Tests reading responses as streams. The connection goes back to the
+     * pool when the stream is closed.
+     */
+    public void testStream() throws Exception {
+        for (StandInServer.Mode mode
+            : new StandInServer.Mode[] {
+                StandInServer.Mode.LENGTH, StandInServer.Mode.CHUNKED,
+                StandInServer.Mode.GZIP})
+        {
+            server = new StandInServer(mode, 0);
+            for (String transport : new String[] {"POOLED", "URL"}) {
+                final XmlaOlap4jHttpProxy proxy = createProxy(transport, 1);
+                for (int i = 0; i < 3; i++) {
+                    final InputStream stream =
+                        proxy.getStream(server.serverInfos(), REQUEST);
+                    assertEquals(server.response, read(stream));
+                    stream.close();
+                }
+            }
+            assertEquals(6, server.requestCount.get());
+            server.close();
+            server = null;
+        }
+    }
+
+    /**
+     * Tests that a streamed response is added to the cache once it has been
+     * read to the end.
+     */
+    public void testStreamCache() throws Exception {
+        server = new StandInServer(StandInServer.Mode.CHUNKED, 0);
+        final XmlaOlap4jHttpProxy proxy = createProxy("POOLED", 1);
+        final Map<String, String> config = new HashMap<String, String>();
+        config.put(
+            XmlaOlap4jDriver.Property.CACHE.name(),
+            "org.olap4j.driver.xmla.cache.XmlaOlap4jNamedMemoryCache");
+        final Map<String, String> cacheProperties =
+            new HashMap<String, String>();
+        cacheProperties.put("NAME", "testStreamCache");
+        proxy.setCache(config, cacheProperties);
+
+        // Stream that is not read to the end is not cached.
+        InputStream stream = proxy.getStream(server.serverInfos(), REQUEST);
+        assertEquals('<', stream.read());
+        stream.close();
+        assertEquals(1, server.requestCount.get());
+
+        stream = proxy.getStream(server.serverInfos(), REQUEST);
+        assertEquals(server.response, read(stream));
+        stream.close();
+        assertEquals(2, server.requestCount.get());
+
+        stream = proxy.getStream(server.serverInfos(), REQUEST);
+        assertTrue(stream instanceof ByteArrayInputStream);
+        assertEquals(server.response, read(stream));
+        assertEquals(2, server.requestCount.get());
+    }
+
+    private static String read(InputStream stream) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[100];
+        int n;
+        while ((n = stream.read(buf)) >= 0) {
+            baos.write(buf, 0, n);
+        }
+        return new String(baos.toByteArray(), "UTF-8");
+    }
+
+    /**
+     * Tests that invalid transport properties are rejected.
+     */
+    public void testInvalidProperties() throws Exception {
+        final Map<String, String> map = new HashMap<String, String>();
+        map.put(XmlaOlap4jDriver.Property.TRANSPORT.name(), "CARRIER_PIGEON");
+        try {
+            new XmlaOlap4jHttpProxy(dummyDriver, map);
+            fail("expected exception");
+        } catch (OlapException e) {
+            assertTrue(e.getMessage().contains("must be 'URL' or 'POOLED'"));
+        }
+        map.put(XmlaOlap4jDriver.Property.TRANSPORT.name(), "pooled");
+        map.put(XmlaOlap4jDriver.Property.MAXCONNECTIONS.name(), "0");
+        try {
+            new XmlaOlap4jHttpProxy(dummyDriver, map);
+            fail("expected exception");
+        } catch (OlapException e) {
+            assertTrue(e.getMessage().contains("not less than 1"));
+        }
+    }
+
+    /**
+     * Tests that both transports connect to an https server whose
+     * certificate matches the host, and re-use the connection.
+     */
+    public void testHttps() throws Exception {
+        final SSLContext sslContext = createSslContext();
+        final SSLSocketFactory defaultFactory =
+            HttpsURLConnection.getDefaultSSLSocketFactory();
+        HttpsURLConnection.setDefaultSSLSocketFactory(
+            sslContext.getSocketFactory());
+        try {
+            for (String transport : new String[] {"URL", "POOLED"}) {
+                server =
+                    new StandInServer(
+                        StandInServer.Mode.LENGTH, 0, sslContext);
+                final XmlaOlap4jHttpProxy proxy = createProxy(transport, 4);
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(
+                        server.response,
+                        new String(
+                            proxy.getResponse(server.serverInfos(), REQUEST),
+                            "UTF-8"));
+                }
+                assertEquals(1, server.connectionCount.get());
+                server.close();
+                server = null;
+            }
+        } finally {
+            HttpsURLConnection.setDefaultSSLSocketFactory(defaultFactory);
+        }
+    }
+
+    /**
+     * Tests that both transports reject an https server whose certificate
+     * does not match the host. The certificate is for "localhost", but the
+     * client connects to "127.0.0.1".
+     */
+    public void testHttpsHostMismatch() throws Exception {
+        final SSLContext sslContext = createSslContext();
+        final SSLSocketFactory defaultFactory =
+            HttpsURLConnection.getDefaultSSLSocketFactory();
+        HttpsURLConnection.setDefaultSSLSocketFactory(
+            sslContext.getSocketFactory());
+        try {
+            server =
+                new StandInServer(StandInServer.Mode.LENGTH, 0, sslContext);
+            for (String transport : new String[] {"URL", "POOLED"}) {
+                final XmlaOlap4jHttpProxy proxy = createProxy(transport, 4);
+                try {
+                    proxy.getResponse(server.serverInfos("127.0.0.1"), REQUEST);
+                    fail("expected exception");
+                } catch (XmlaOlap4jProxyException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+            assertEquals(0, server.requestCount.get());
+        } finally {
+            HttpsURLConnection.setDefaultSSLSocketFactory(defaultFactory);
+        }
+    }
+
+    /**
+     * Tests matching a host against a certificate.
+     */
+    public void testHostMatches() throws Exception {
+        final X509Certificate certificate =
+            (X509Certificate) loadKeyStore().getCertificate("localhost");
+        assertTrue(
+            XmlaOlap4jHttpConnectionPool.matches("localhost", certificate));
+        assertTrue(
+            XmlaOlap4jHttpConnectionPool.matches("LocalHost.", certificate));
+        assertFalse(
+            XmlaOlap4jHttpConnectionPool.matches("127.0.0.1", certificate));
+        assertFalse(
+            XmlaOlap4jHttpConnectionPool.matches("[::1]", certificate));
+        assertFalse(
+            XmlaOlap4jHttpConnectionPool.matches(
+                "localhost.example.com", certificate));
+    }
+
+    private static KeyStore loadKeyStore() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(
+            new ByteArrayInputStream(Base64.decode(KEY_STORE)),
+            "olap4j".toCharArray());
+        return keyStore;
+    }
+
+    /**
+     * Creates an SSL context that presents, and trusts only, the
+     * certificate for "localhost".
+     */
+    private static SSLContext createSslContext() throws Exception {
+        final KeyStore keyStore = loadKeyStore();
+        final KeyManagerFactory keyManagerFactory =
+            KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, "olap4j".toCharArray());
+        final TrustManagerFactory trustManagerFactory =
+            TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(
+            keyManagerFactory.getKeyManagers(),
+            trustManagerFactory.getTrustManagers(),
+            null);
+        return sslContext;
+    }
+
+    private XmlaOlap4jHttpProxy createProxy(
+        String transport,
+        int maxConnections)
+        throws OlapException
+    {
+        return createProxy(
+            transport, maxConnections, new HashMap<String, String>());
+    }
+
+    private XmlaOlap4jHttpProxy createProxy(
+        String transport,
+        int maxConnections,
+        Map<String, String> map)
+        throws OlapException
+    {
+        map.put(XmlaOlap4jDriver.Property.TRANSPORT.name(), transport);
+        map.put(
+            XmlaOlap4jDriver.Property.MAXCONNECTIONS.name(),
+            String.valueOf(maxConnections));
+        return new XmlaOlap4jHttpProxy(dummyDriver, map);
+    }
+
+    /**
+     * Sends requests from several threads at once, and returns the elapsed
+     * time in seconds.
+     */
+    private double run(
+        final XmlaOlap4jHttpProxy proxy,
+        int threadCount,
+        final int requestCount)
+        throws Exception
+    {
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(threadCount);
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(
+                executor.submit(
+                    new Callable<Object>() {
+                        public Object call() throws Exception {
+                            for (int j = 0; j < requestCount; j++) {
+                                proxy.getResponse(
+                                    server.serverInfos(), REQUEST);
+                            }
+                            return null;
+                        }
+                    }));
+        }
+        for (Future<Object> future : futures) {
+            future.get();
+        }
+        final long end = System.nanoTime();
+        executor.shutdown();
+        return (end - start) / 1e9;
+    }
+
+    /**
+     * Minimal HTTP/1.1 server that answers every POST with the same SOAP
+     * response. Handles each connection in its own thread.
+     */
+    static class StandInServer implements Runnable {
+        enum Mode {
+            /** Response has Content-Length header. */
+            LENGTH,
+            /** Response uses chunked transfer encoding. */
+            CHUNKED,
+            /** Response is gzip-encoded. */
+            GZIP,
+            /** Server closes the connection after each response, without
+             * saying so in a header. */
+            CLOSE_SILENTLY,
+            /** Server sends half of the body, then stalls. */
+            STALL
+        }
+
+        final String response;
+        private final byte[] responseBytes;
+        private final String protocol;
+        private final Mode mode;
+        private final int latency;
+        private final ServerSocket serverSocket;
+        private final ExecutorService executor =
+            Executors.newCachedThreadPool();
+        private final List<Socket> sockets =
+            Collections.synchronizedList(new ArrayList<Socket>());
+        final AtomicInteger connectionCount = new AtomicInteger();
+        final AtomicInteger requestCount = new AtomicInteger();
+
+        StandInServer(Mode mode, int latency) throws IOException {
+            this(mode, latency, null);
+        }
+
+        /**
+         * Creates a server.
+         *
+         * @param mode Mode
+         * @param latency Time in milliseconds to wait before each response
+         * @param sslContext SSL context if server is to use https, or null
+         * @throws IOException on error
+         */
+        StandInServer(Mode mode, int latency, SSLContext sslContext)
+            throws IOException
+        {
+            this.mode = mode;
+            this.latency = latency;
+            final StringBuilder buf = new StringBuilder();
+            buf.append(
+                "<?xml version=\"1.0\"?>\n"
+                + "<SOAP-ENV:Envelope xmlns:SOAP-ENV="
+                + "\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Body><DiscoverResponse "
+                + "xmlns=\"urn:schemas-microsoft-com:xml-analysis\">"
+                + "<return><root>");
+            for (int i = 0; i < 50; i++) {
+                buf.append("<row><DataSourceName>Provider=Mondrian;")
+                    .append(i)
+                    .append("</DataSourceName></row>");
+            }
+            buf.append(
+                "</root></return></DiscoverResponse>"
+                + "</SOAP-ENV:Body></SOAP-ENV:Envelope>");
+            this.response = buf.toString();
+            byte[] bytes = response.getBytes("UTF-8");
+            if (mode == Mode.GZIP) {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final GZIPOutputStream gzip = new GZIPOutputStream(baos);
+                gzip.write(bytes);
+                gzip.close();
+                bytes = baos.toByteArray();
+            }
+            this.responseBytes = bytes;
+            if (sslContext == null) {
+                this.protocol = "http";
+                this.serverSocket = new ServerSocket(0, 256);
+            } else {
+                this.protocol = "https";
+                this.serverSocket =
+                    sslContext.getServerSocketFactory()
+                        .createServerSocket(0, 256);
+            }
+            executor.submit(this);
+        }
+
+        XmlaOlap4jServerInfos serverInfos() throws MalformedURLException {
+            return serverInfos("localhost");
+        }
+
+        XmlaOlap4jServerInfos serverInfos(String host)
+            throws MalformedURLException
+        {
+            final URL url =
+                new URL(
+                    protocol + "://" + host + ":"
+                    + serverSocket.getLocalPort() + "/xmla");
+            return new XmlaOlap4jServerInfos() {
+                public URL getUrl() {
+                    return url;
+                }
+
+                public String getUsername() {
+                    return null;
+                }
+
+                public String getPassword() {
+                    return null;
+                }
+
+                public String getSessionId() {
+                    return null;
+                }
+
+                public void setSessionId(String sessionId) {
+                }
+            };
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    sockets.add(socket);
+                    connectionCount.incrementAndGet();
+                    executor.submit(
+                        new Runnable() {
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                }
+            } catch (IOException e) {
+                // server socket closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                final InputStream in =
+                    new BufferedInputStream(socket.getInputStream());
+                final OutputStream out =
+                    new BufferedOutputStream(socket.getOutputStream());
+                while (true) {
+                    int contentLength = -1;
+                    String line = readLine(in);
+                    if (line == null) {
+                        break;
+                    }
+                    while ((line = readLine(in)) != null
+                        && line.length() > 0)
+                    {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength =
+                                Integer.parseInt(line.substring(15).trim());
+                        }
+                    }
+                    for (int i = 0; i < contentLength; i++) {
+                        in.read();
+                    }
+                    requestCount.incrementAndGet();
+                    if (latency > 0) {
+                        Thread.sleep(latency);
+                    }
+                    final StringBuilder head =
+                        new StringBuilder(
+                            "HTTP/1.1 200 OK\r\n"
+                            + "Content-Type: text/xml\r\n");
+                    if (mode == Mode.CHUNKED) {
+                        head.append("Transfer-Encoding: chunked\r\n\r\n");
+                        out.write(head.toString().getBytes("ISO-8859-1"));
+                        final int half = responseBytes.length / 2;
+                        writeChunk(out, responseBytes, 0, half);
+                        writeChunk(
+                            out, responseBytes, half,
+                            responseBytes.length - half);
+                        out.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+                    } else {
+                        if (mode == Mode.GZIP) {
+                            head.append("Content-Encoding: gzip\r\n");
+                        }
+                        head.append("Content-Length: ")
+                            .append(responseBytes.length)
+                            .append("\r\n\r\n");
+                        out.write(head.toString().getBytes("ISO-8859-1"));
+                        if (mode == Mode.STALL) {
+                            out.write(
+                                responseBytes, 0, responseBytes.length / 2);
+                            out.flush();
+                            Thread.sleep(60000);
+                        }
+                        out.write(responseBytes);
+                    }
+                    out.flush();
+                    if (mode == Mode.CLOSE_SILENTLY) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                // connection closed
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        private static void writeChunk(
+            OutputStream out, byte[] bytes, int offset, int length)
+            throws IOException
+        {
+            out.write(
+                (Integer.toHexString(length) + ";ext=1\r\n")
+                    .getBytes("ISO-8859-1"));
+            out.write(bytes, offset, length);
+            out.write("\r\n".getBytes("ISO-8859-1"));
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            final StringBuilder buf = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != '\n') {
+                if (c != '\r') {
+                    buf.append((char) c);
+                }
+            }
+            return c < 0 && buf.length() == 0 ? null : buf.toString();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+            executor.shutdownNow();
+        }
+    }
+}
+
+// End XmlaOlap4jHttpConnectionPoolTest.java
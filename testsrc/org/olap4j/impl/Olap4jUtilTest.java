@@ -185,6 +185,30 @@ public class Olap4jUtilTest extends TestCase {
         assertFalse(iter.hasNext());
     }
 
+    /**
+     * Tests {@link org.olap4j.impl.CoordinateIterator#next(int[])}, which
+     * writes into an array supplied by the caller.
+     */
+    public void testCoordinateIteratorShared() {
+        CoordinateIterator iter =
+            new CoordinateIterator(new int[]{2, 2}, true);
+        final int[] coords = {-1, -1, 7};
+        iter.next(coords);
+        assertEqualsArray(coords, new int[] {0, 0, 7});
+        iter.next(coords);
+        assertEqualsArray(coords, new int[] {1, 0, 7});
+        iter.next(coords);
+        iter.next(coords);
+        assertEqualsArray(coords, new int[] {1, 1, 7});
+        assertFalse(iter.hasNext());
+        try {
+            iter.next(coords);
+            fail("expected exception");
+        } catch (NoSuchElementException e) {
+            // ok
+        }
+    }
+
     /**
      * Tests {@link org.olap4j.impl.UnmodifiableArrayList}.
      */